@@ -0,0 +1,66 @@
+package jworld;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Random;
+
+/**
+ *  The deterministic inputs of the benchmarks, so that the results do not depend on resources.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class BenchmarkSignals
+{
+    private BenchmarkSignals() {
+    }
+
+    /**
+     *  Generate a voice-like signal: a harmonic signal whose F0 moves between 100 and 200Hz,
+     *  voiced during 3/4 of each syllable (250ms), with a low noise floor.
+     *
+     *  @param duration the duration in seconds
+     *  @param sample_rate the sample rate
+     *  @return the samples between -1.0 and 1.0
+     */
+    static double[] voice(int duration, int sample_rate) {
+        Random random = new Random(42);
+        double[] x = new double[duration * sample_rate];
+        double phase = 0;
+        for (int i=0; i<x.length; i++) {
+            double t = (double) i / sample_rate;
+            double f0 = 150 + 50 * Math.sin(2 * Math.PI * 0.7 * t);
+            phase += 2 * Math.PI * f0 / sample_rate;
+
+            double value = 0;
+            if ((t % 0.25) < 0.1875)
+                for (int h=1; (h * f0 < sample_rate / 2) && (h <= 20); h++)
+                    value += Math.sin(h * phase) / h;
+            x[i] = 0.2 * value + 0.001 * random.nextGaussian();
+        }
+        return x;
+    }
+
+    /**
+     *  Copy values into a new direct buffer in native order
+     *
+     *  @param values the values
+     *  @return the direct buffer
+     */
+    static DoubleBuffer direct(double[] values) {
+        DoubleBuffer buffer = allocate(values.length);
+        buffer.put(values);
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     *  Allocate a direct buffer in native order
+     *
+     *  @param length the number of values
+     *  @return the direct buffer
+     */
+    static DoubleBuffer allocate(int length) {
+        return ByteBuffer.allocateDirect(8 * length).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+}
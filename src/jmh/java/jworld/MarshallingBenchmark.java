@@ -0,0 +1,144 @@
+package jworld;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *  The cost of moving the data around the native DSP: the java/native copies of the arrays and
+ *  matrices, the PCM decoding of the analysis input (see {@link PCM}) and the PCM packing of the
+ *  synthesis output.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class MarshallingBenchmark
+{
+    /** The number of values per frame of the matrices (fft_size = 1024) */
+    private static final int NB_BINS = 513;
+
+    @Param({"16000", "480000", "28800000"})
+    public int length; /*< The number of values: 1 s at 16 kHz, 10 s and 10 min at 48 kHz */
+
+    private double[] values; /*< The java values */
+    private double[] output; /*< The java array receiving the copies */
+    private NativeBuffer buffer; /*< The native array */
+    private Spectrogram matrix; /*< The java matrix of about the same number of values */
+    private NativeMatrix native_matrix; /*< The native matrix */
+    private byte[] pcm; /*< The 16-bit PCM bytes of the values */
+    private AudioFormat format; /*< The format of the PCM bytes */
+    private byte[] stereo_pcm; /*< The 24-bit big endian stereo PCM bytes of the values */
+    private AudioFormat stereo_format; /*< The format of the stereo PCM bytes */
+
+    @Setup(Level.Trial)
+    public void setup() {
+        values = BenchmarkSignals.voice(1, length);
+        output = new double[length];
+        buffer = NativeBuffer.of(values);
+
+        int nb_frames = Math.max(1, length / NB_BINS);
+        matrix = new Spectrogram(nb_frames, NB_BINS);
+        System.arraycopy(values, 0, matrix.getData(), 0, nb_frames * NB_BINS);
+        native_matrix = NativeMatrix.of(matrix);
+
+        format = PCM.getDefaultFormat(16000);
+        pcm = new byte[2 * length];
+        PCM.encode(values, 0, length, false, format, ByteBuffer.wrap(pcm));
+
+        stereo_format = new AudioFormat(16000, 24, 2, true, true);
+        stereo_pcm = new byte[6 * length];
+        PCM.encode(values, 0, length, false, stereo_format, ByteBuffer.wrap(stereo_pcm));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        buffer.close();
+        native_matrix.close();
+    }
+
+    /*****************************************************************************************************
+     ** Java/native copies
+     *****************************************************************************************************/
+
+    @Benchmark
+    public NativeBuffer copyToNative() {
+        World.double_array_setrange(buffer.get(), 0, values, 0, length);
+        return buffer;
+    }
+
+    @Benchmark
+    public double[] copyFromNative() {
+        World.double_array_getrange(buffer.get(), 0, output, 0, length);
+        return output;
+    }
+
+    @Benchmark
+    public void allocateAndCopyToNative(Blackhole blackhole) {
+        try (NativeBuffer copy = NativeBuffer.of(values)) {
+            blackhole.consume(copy.get());
+        }
+    }
+
+    @Benchmark
+    public void matrixToNative(Blackhole blackhole) {
+        try (NativeMatrix copy = NativeMatrix.of(matrix)) {
+            blackhole.consume(copy.rows());
+        }
+    }
+
+    @Benchmark
+    public Spectrogram matrixFromNative() {
+        return native_matrix.toSpectrogram();
+    }
+
+    /*****************************************************************************************************
+     ** PCM conversions
+     *****************************************************************************************************/
+
+    @Benchmark
+    public double[] decodePCM() {
+        PCM.decode(ByteBuffer.wrap(pcm), format, PCM.DOWNMIX, output, 0, length);
+        return output;
+    }
+
+    @Benchmark
+    public double[] downmixPCM() {
+        PCM.decode(ByteBuffer.wrap(stereo_pcm), stereo_format, PCM.DOWNMIX, output, 0, length);
+        return output;
+    }
+
+    @Benchmark
+    public double[] readAudioInputStream() throws IOException {
+        return PCM.read(new AudioInputStream(new ByteArrayInputStream(pcm), format, length), PCM.DOWNMIX);
+    }
+
+    @Benchmark
+    public byte[] packPCM() {
+        PCM.encode(values, 0, length, false, format, ByteBuffer.wrap(pcm));
+        return pcm;
+    }
+}
@@ -0,0 +1,135 @@
+package jworld;
+
+import java.nio.DoubleBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  The cost of each World stage over signal durations, sample rates and frame periods.
+ *
+ *  The "InPlace" benchmarks work on direct buffers, so they only measure the native DSP; the
+ *  other ones go through the java arrays as the usual API does, the difference being the
+ *  marshalling cost. A run of the 10 min signals needs several GB of heap and direct memory.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-XX:MaxDirectMemorySize=8g"})
+public class StageBenchmark
+{
+    @Param({"1", "10", "60", "600"})
+    public int duration; /*< The duration of the signal in seconds */
+
+    @Param({"16000", "22050", "44100", "48000"})
+    public int sample_rate; /*< The sample rate */
+
+    @Param({"5.0", "10.0"})
+    public double frame_period; /*< The frame period in ms */
+
+    private JWorldWrapper wrapper; /*< The analysis wrapper, with the F0 cached */
+    private Synthesizer synthesizer; /*< The synthesizer */
+    private Synthesizer java_synthesizer; /*< The synthesizer of the pure java engine */
+    private double[] f0; /*< The F0 */
+    private Spectrogram sp; /*< The spectrum */
+    private Spectrogram ap; /*< The aperiodicity */
+    private DoubleBuffer f0_buffer; /*< The F0 off-heap */
+    private DoubleBuffer sp_buffer; /*< The spectrum off-heap */
+    private DoubleBuffer ap_buffer; /*< The aperiodicity off-heap */
+    private DoubleBuffer y_buffer; /*< The synthesized samples off-heap */
+
+    @Setup(Level.Trial)
+    public void setup() throws JWorldException {
+        wrapper = new JWorldWrapper(BenchmarkSignals.direct(BenchmarkSignals.voice(duration, sample_rate)), sample_rate);
+        wrapper.setFramePeriod(frame_period);
+        f0 = wrapper.extractF0(true);
+        sp = wrapper.extractSpectrogram();
+        ap = wrapper.extractAperiodicity();
+
+        synthesizer = new Synthesizer(sample_rate, frame_period);
+        java_synthesizer = new Synthesizer(sample_rate, frame_period, SynthesisEngine.JAVA);
+        f0_buffer = BenchmarkSignals.direct(f0);
+        sp_buffer = BenchmarkSignals.direct(sp.getData());
+        ap_buffer = BenchmarkSignals.direct(ap.getData());
+        y_buffer = BenchmarkSignals.allocate(synthesizer.getSynthesisLength(f0.length));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        wrapper.close();
+    }
+
+    /*****************************************************************************************************
+     ** Analysis
+     *****************************************************************************************************/
+
+    @Benchmark
+    public double[] extractF0() throws JWorldException {
+        return wrapper.extractF0(true);
+    }
+
+    @Benchmark
+    public Spectrogram extractSP() throws JWorldException {
+        return wrapper.extractSpectrogram();
+    }
+
+    @Benchmark
+    public DoubleBuffer extractSPInPlace() throws JWorldException {
+        wrapper.extractSP(sp_buffer);
+        return sp_buffer;
+    }
+
+    @Benchmark
+    public Spectrogram extractAP() throws JWorldException {
+        return wrapper.extractAperiodicity();
+    }
+
+    @Benchmark
+    public DoubleBuffer extractAPInPlace() throws JWorldException {
+        wrapper.extractAP(ap_buffer);
+        return ap_buffer;
+    }
+
+    /*****************************************************************************************************
+     ** Synthesis
+     *****************************************************************************************************/
+
+    @Benchmark
+    public AudioInputStream synthesis() {
+        return synthesizer.synthesis(f0, sp, ap, false);
+    }
+
+    @Benchmark
+    public double[] renderSignal() {
+        return synthesizer.renderSignal(f0, sp, ap);
+    }
+
+    @Benchmark
+    public double[] renderSignalJava() {
+        return java_synthesizer.renderSignal(f0, sp, ap);
+    }
+
+    @Benchmark
+    public DoubleBuffer renderSignalInPlace() {
+        synthesizer.renderSignal(f0_buffer, sp_buffer, ap_buffer, y_buffer);
+        return y_buffer;
+    }
+}
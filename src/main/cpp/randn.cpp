@@ -0,0 +1,77 @@
+//-----------------------------------------------------------------------------
+// Thread-local noise generator of World
+//
+// World draws the safeguard noise of CheapTrick and D4C and the excitation of
+// the synthesis from randn(), whose xorshift state is a process-wide global:
+// concurrent calls race on it and draw each other's values. matlabfunctions.cpp
+// is compiled here with its generator renamed (it is excluded from the World
+// sources in build.gradle), and randn() and randn_reseed() are defined again
+// on a thread-local state, with the same seed and the same sequence. A call
+// reseeding the generator (CheapTrick, D4C, Synthesis) draws exactly the
+// values of a sequential run, whatever the other threads are doing.
+//
+// The state of the calling thread can also be saved and restored, so that an
+// object spanning several native calls (the real-time synthesizer) keeps its
+// own sequence whichever thread runs it.
+//-----------------------------------------------------------------------------
+#define randn world_shared_randn
+#define randn_reseed world_shared_randn_reseed
+#include "../../../World/src/matlabfunctions.cpp"
+#undef randn
+#undef randn_reseed
+
+#include <stdint.h>
+
+namespace {
+thread_local uint32_t t_randn_x = 123456789;
+thread_local uint32_t t_randn_y = 362436069;
+thread_local uint32_t t_randn_z = 521288629;
+thread_local uint32_t t_randn_w = 88675123;
+}  // namespace
+
+WORLD_BEGIN_C_DECLS
+
+void randn_reseed() {
+  t_randn_x = 123456789;
+  t_randn_y = 362436069;
+  t_randn_z = 521288629;
+  t_randn_w = 88675123;
+}
+
+double randn(void) {
+  uint32_t t;
+  t = t_randn_x ^ (t_randn_x << 11);
+  t_randn_x = t_randn_y;
+  t_randn_y = t_randn_z;
+  t_randn_z = t_randn_w;
+  t_randn_w = (t_randn_w ^ (t_randn_w >> 19)) ^ (t ^ (t >> 8));
+
+  uint32_t tmp = t_randn_w >> 4;
+  for (int i = 0; i < 11; ++i) {
+    t = t_randn_x ^ (t_randn_x << 11);
+    t_randn_x = t_randn_y;
+    t_randn_y = t_randn_z;
+    t_randn_z = t_randn_w;
+    t_randn_w = (t_randn_w ^ (t_randn_w >> 19)) ^ (t ^ (t >> 8));
+    tmp += t_randn_w >> 4;
+  }
+  return tmp / 268435456.0 - 6.0;
+}
+
+// Copy the state of the calling thread into state[0..3]
+void jworld_randn_save(uint32_t *state) {
+  state[0] = t_randn_x;
+  state[1] = t_randn_y;
+  state[2] = t_randn_z;
+  state[3] = t_randn_w;
+}
+
+// Replace the state of the calling thread by state[0..3]
+void jworld_randn_restore(const uint32_t *state) {
+  t_randn_x = state[0];
+  t_randn_y = state[1];
+  t_randn_z = state[2];
+  t_randn_w = state[3];
+}
+
+WORLD_END_C_DECLS
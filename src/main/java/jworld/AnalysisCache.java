@@ -0,0 +1,433 @@
+package jworld;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *  An opt-in cache of complete analyses (F0, spectrum and aperiodicity), given to an
+ *  {@link Analyzer} or a {@link JWorldWrapper}.
+ *
+ *  An analysis is identified by the SHA-256 hash of the samples, the sample rate and every
+ *  parameter changing the result (frame period, speed, F0 floor and ceil, allowed range, q1, F0
+ *  estimator and, for Harvest, the segment size). The chunk size is not part of the key as the
+ *  chunked computation gives exactly the same result.
+ *
+ *  The cache has two tiers:
+ *  <ul>
+ *    <li>a memory tier bounded in bytes, evicting the least recently used analyses;</li>
+ *    <li>an optional disk tier: a directory of {@link FeatureFile}s bounded in bytes, evicting
+ *        the least recently used files (their modification time is updated when they are
+ *        read).</li>
+ *  </ul>
+ *  The disk tier can be shared by several processes: a file is written under a temporary name
+ *  and atomically renamed, so the readers only see complete files, and a file which disappears
+ *  (evicted by another process) or cannot be read is a miss. The disk tier is best effort: an
+ *  analysis which cannot be written is only kept in memory.
+ *
+ *  The cache keeps its own copy of the arrays of an analysis and each hit gets a fresh copy, so
+ *  modifying a returned analysis changes neither the cache nor the other analyses of the same
+ *  key. A cache can be shared by any number of threads.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class AnalysisCache
+{
+    /** The version of the key, to change when the analysis or the stored content changes */
+    static final int KEY_VERSION = 1;
+
+    /** The extension of the files of the disk tier */
+    private static final String EXTENSION = ".feat";
+
+    /** The age after which a temporary file is considered as abandoned (in ms) */
+    private static final long TEMPORARY_TIMEOUT = 3600 * 1000L;
+
+    private final long memory_capacity; /*< The maximal size of the memory tier in bytes */
+    private final Path directory; /*< The directory of the disk tier, null if there is no disk tier */
+    private final long disk_capacity; /*< The maximal size of the disk tier in bytes */
+    private final LinkedHashMap<String, Entry> entries; /*< The memory tier, in access order */
+    private final AtomicBoolean evicting; /*< Is a thread cleaning the disk tier? */
+    private long memory_size; /*< The size of the memory tier in bytes */
+    private long memory_hits; /*< The number of analyses found in memory */
+    private long disk_hits; /*< The number of analyses found on disk */
+    private long misses; /*< The number of analyses not found */
+
+    /**
+     *  Constructor of a memory only cache
+     *
+     *  @param memory_capacity the maximal size of the memory tier in bytes
+     */
+    public AnalysisCache(long memory_capacity) {
+        this(memory_capacity, null, 0);
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param memory_capacity the maximal size of the memory tier in bytes
+     *  @param directory the directory of the disk tier (created if needed), null for a memory only cache
+     *  @param disk_capacity the maximal size of the disk tier in bytes
+     *  @throws UncheckedIOException if the directory cannot be created
+     */
+    public AnalysisCache(long memory_capacity, Path directory, long disk_capacity) {
+        if ((memory_capacity < 0) || (disk_capacity < 0))
+            throw new IllegalArgumentException("The capacities of the cache should not be negative");
+
+        this.memory_capacity = memory_capacity;
+        this.directory = directory;
+        this.disk_capacity = disk_capacity;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.evicting = new AtomicBoolean();
+
+        if (directory != null) {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Statistics
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to get the number of analyses found in the memory tier
+     *
+     *  @return the number of memory hits
+     */
+    public synchronized long getMemoryHits() {
+        return memory_hits;
+    }
+
+    /**
+     *  Accessor to get the number of analyses found in the disk tier
+     *
+     *  @return the number of disk hits
+     */
+    public synchronized long getDiskHits() {
+        return disk_hits;
+    }
+
+    /**
+     *  Accessor to get the number of analyses found in no tier
+     *
+     *  @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     *  Accessor to get the size of the memory tier
+     *
+     *  @return the number of bytes
+     */
+    public synchronized long getMemorySize() {
+        return memory_size;
+    }
+
+    /**
+     *  Empty the memory tier, the disk tier is kept
+     *
+     */
+    public synchronized void clear() {
+        entries.clear();
+        memory_size = 0;
+    }
+
+    /*****************************************************************************************************
+     ** Internal part
+     *****************************************************************************************************/
+
+    /**
+     *  Compute the key of an analysis
+     *
+     *  @param signal the samples
+     *  @param sample_rate the sample rate
+     *  @param config the analysis configuration
+     *  @return the hexadecimal key
+     */
+    static String getKey(double[] signal, int sample_rate, WorldConfig config) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(KEY_VERSION);
+        buffer.putInt(sample_rate);
+        buffer.putDouble(config.getFramePeriod());
+        buffer.putInt(config.getSpeed());
+        buffer.putDouble(config.getF0Floor());
+        buffer.putDouble(config.getF0Ceil());
+        buffer.putDouble(config.getF0AllowedRange());
+        buffer.putDouble(config.getQ1());
+        buffer.putInt(config.getF0Estimator().ordinal());
+        buffer.putInt((config.getF0Estimator() == F0Estimator.HARVEST) ? config.getF0SegmentSize() : 0);
+        buffer.putInt(signal.length);
+        for (double sample: signal) {
+            if (buffer.remaining() < Double.BYTES) {
+                digest.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putDouble(sample);
+        }
+        digest.update(buffer.array(), 0, buffer.position());
+
+        StringBuilder key = new StringBuilder();
+        for (byte b: digest.digest())
+            key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    /**
+     *  Look for an analysis in the memory tier, then in the disk tier
+     *
+     *  @param key the key of the analysis
+     *  @param sample_rate the expected sample rate
+     *  @param frame_period the expected frame period
+     *  @param fft_size the expected FFT size
+     *  @return a copy of the analysis, null if it is not cached
+     */
+    Entry get(String key, int sample_rate, double frame_period, int fft_size) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                memory_hits++;
+                return entry.copy();
+            }
+        }
+
+        Entry entry = (directory == null) ? null : load(key, sample_rate, frame_period, fft_size);
+        synchronized (this) {
+            if (entry == null) {
+                misses++;
+            } else {
+                disk_hits++;
+                store(key, entry);
+            }
+        }
+        return (entry == null) ? null : entry.copy();
+    }
+
+    /**
+     *  Add an analysis in both tiers
+     *
+     *  @param key the key of the analysis
+     *  @param analysis the analysis, whose spectrum and aperiodicity are available (copied)
+     */
+    void put(String key, WorldAnalysis analysis) {
+        Entry entry = new Entry(analysis.getF0(), analysis.getTimeAxis(),
+                                Entry.copy(analysis.getSpectrogram()), Entry.copy(analysis.getAperiodicity()));
+        synchronized (this) {
+            store(key, entry);
+        }
+
+        if (directory != null) {
+            save(key, analysis);
+            evictFiles();
+        }
+    }
+
+    /**
+     *  Add an entry in the memory tier and evict the least recently used ones
+     *
+     *  @param key the key
+     *  @param entry the entry
+     */
+    private void store(String key, Entry entry) {
+        if (entry.bytes() > memory_capacity)
+            return;
+
+        Entry previous = entries.put(key, entry);
+        if (previous != null)
+            memory_size -= previous.bytes();
+        memory_size += entry.bytes();
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (memory_size > memory_capacity) {
+            memory_size -= it.next().bytes();
+            it.remove();
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Disk tier
+     *****************************************************************************************************/
+
+    /**
+     *  Read an analysis from the disk tier
+     *
+     *  @return the entry, null if the file does not exist or cannot be read
+     */
+    private Entry load(String key, int sample_rate, double frame_period, int fft_size) {
+        Path path = directory.resolve(key + EXTENSION);
+        if (!Files.exists(path))
+            return null;
+
+        try {
+            FeatureFile file = FeatureFile.open(path);
+            if ((file.getSampleRate() != sample_rate) || (file.getFramePeriod() != frame_period) ||
+                (file.getFFTSize() != fft_size) || !file.isFullResolution())
+                throw new IOException("The cached features do not match the analysis");
+
+            int nb_frames = file.getNbFrames();
+            double[] time_axis = new double[nb_frames];
+            for (int i=0; i<nb_frames; i++)
+                time_axis[i] = i * frame_period / 1000.0;
+            Entry entry = new Entry(file.readF0(0, nb_frames), time_axis,
+                                    file.readSpectrogram(0, nb_frames), file.readAperiodicity(0, nb_frames));
+
+            // Mark the file as recently used
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return entry;
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException | UncheckedIOException ex) {
+            delete(path);
+            return null;
+        }
+    }
+
+    /**
+     *  Write an analysis in the disk tier, under a temporary name renamed once complete (see
+     *  {@link FeatureFile#write(Path, WorldAnalysis)})
+     *
+     */
+    private void save(String key, WorldAnalysis analysis) {
+        try {
+            FeatureFile.write(directory.resolve(key + EXTENSION), analysis);
+        } catch (IOException ex) {
+            // The disk tier is best effort, the analysis stays in memory
+        }
+    }
+
+    /**
+     *  Remove the least recently used files until the disk tier fits its capacity, as well as the
+     *  abandoned temporary files. Only one thread of the process cleans the directory at a time.
+     *
+     */
+    private void evictFiles() {
+        if (!evicting.compareAndSet(false, true))
+            return;
+
+        try {
+            List<CachedFile> files = new ArrayList<CachedFile>();
+            long total = 0;
+            long now = System.currentTimeMillis();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path: stream) {
+                    String name = path.getFileName().toString();
+                    try {
+                        long modified = Files.getLastModifiedTime(path).toMillis();
+                        if (name.endsWith(EXTENSION)) {
+                            CachedFile file = new CachedFile(path, Files.size(path), modified);
+                            files.add(file);
+                            total += file.size;
+                        } else if (name.endsWith(FeatureFile.TEMPORARY_EXTENSION) && (now - modified > TEMPORARY_TIMEOUT)) {
+                            delete(path);
+                        }
+                    } catch (IOException ex) {
+                        // Removed by another process in the meantime
+                    }
+                }
+            } catch (IOException ex) {
+                return;
+            }
+
+            Collections.sort(files);
+            for (CachedFile file: files) {
+                if (total <= disk_capacity)
+                    break;
+                delete(file.path);
+                total -= file.size;
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            // Already removed or still used by another process, it will be removed later
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Entries
+     *****************************************************************************************************/
+
+    /**
+     *  A cached analysis
+     */
+    static final class Entry {
+        final double[] f0; /*< The F0 values */
+        final double[] time_axis; /*< The time axis */
+        final Spectrogram sp; /*< The spectrum */
+        final Spectrogram ap; /*< The aperiodicity */
+
+        Entry(double[] f0, double[] time_axis, Spectrogram sp, Spectrogram ap) {
+            this.f0 = f0;
+            this.time_axis = time_axis;
+            this.sp = sp;
+            this.ap = ap;
+        }
+
+        long bytes() {
+            return NativeBuffer.bytes(2L * f0.length + sp.getData().length + ap.getData().length);
+        }
+
+        /**
+         *  Copy the arrays of the entry, as the spectrum and the aperiodicity are mutable
+         *
+         *  @return the copy
+         */
+        Entry copy() {
+            return new Entry(f0.clone(), time_axis.clone(), copy(sp), copy(ap));
+        }
+
+        static Spectrogram copy(Spectrogram matrix) {
+            return new Spectrogram(matrix.getData().clone(), matrix.getNbFrames(), matrix.getNbBins());
+        }
+    }
+
+    /**
+     *  A file of the disk tier, ordered from the least recently used
+     */
+    private static final class CachedFile implements Comparable<CachedFile> {
+        final Path path;
+        final long size;
+        final long modified;
+
+        CachedFile(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        @Override
+        public int compareTo(CachedFile other) {
+            return Long.compare(modified, other.modified);
+        }
+    }
+}
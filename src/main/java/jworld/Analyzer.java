@@ -0,0 +1,270 @@
+package jworld;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// Audio
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ *  The stateless analysis service of the World vocoder.
+ *
+ *  An analyzer only holds an immutable {@link WorldConfig}. Every native buffer is allocated and
+ *  released within the call using it, so a single analyzer can be shared and called
+ *  concurrently from any number of threads. The native memory of each call is reserved in the
+ *  {@link NativeMemory} budget before being allocated, the arrays are taken from the
+ *  {@link NativeBufferPool} of the analyzer if there is one.
+ *
+ *  When the configuration defines a chunk size (see {@link WorldConfig#withChunkSize(int)}), the
+ *  spectrum and aperiodicity frames are computed by chunks on the executor of the analyzer.
+ *
+ *  When an {@link AnalysisCache} is given, the analyses are complete (the spectrum and the
+ *  aperiodicity are computed at once) and kept in the cache, an analysis of the same signal with
+ *  the same configuration is then a lookup.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Analyzer
+{
+    private final WorldConfig config; /*< The analysis configuration */
+    private final Executor executor; /*< The executor running the parallel chunks */
+    private final NativeBufferPool pool; /*< The pool of the native arrays, null to allocate them at each call */
+    private final AnalysisCache cache; /*< The cache of the analyses, null to always analyse */
+
+    /**
+     *  Constructor of an analyzer using the default configuration
+     *
+     */
+    public Analyzer() {
+        this(new WorldConfig());
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param config the analysis configuration
+     */
+    public Analyzer(WorldConfig config) {
+        this(config, ForkJoinPool.commonPool());
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param config the analysis configuration
+     *  @param executor the executor running the parallel chunks
+     */
+    public Analyzer(WorldConfig config, Executor executor) {
+        this(config, executor, null);
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param config the analysis configuration
+     *  @param executor the executor running the parallel chunks
+     *  @param pool the pool of the native arrays (null to allocate them at each call)
+     */
+    public Analyzer(WorldConfig config, Executor executor, NativeBufferPool pool) {
+        this(config, executor, pool, null);
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param config the analysis configuration
+     *  @param executor the executor running the parallel chunks
+     *  @param pool the pool of the native arrays (null to allocate them at each call)
+     *  @param cache the cache of the analyses (null to always analyse)
+     */
+    public Analyzer(WorldConfig config, Executor executor, NativeBufferPool pool, AnalysisCache cache) {
+        this.config = config;
+        this.executor = executor;
+        this.pool = pool;
+        this.cache = cache;
+    }
+
+    /**
+     *  Accessor to get the analysis configuration
+     *
+     *  @return the analysis configuration
+     */
+    public WorldConfig getConfig() {
+        return config;
+    }
+
+    /**
+     *  Accessor to get the FFT size used by the spectrum and aperiodicity extraction. Each
+     *  extracted frame contains fft_size/2+1 values.
+     *
+     *  @param sample_rate the sample rate of the signal
+     *  @return the FFT size
+     */
+    public int getFFTSize(int sample_rate) {
+        return config.newCheapTrickOption(sample_rate).getFft_size();
+    }
+
+    /*****************************************************************************************************
+     ** Analysis entry part
+     *****************************************************************************************************/
+
+    /**
+     *  Analyse the signal contained in an audio stream, the channels being averaged (see
+     *  {@link PCM} for the supported formats)
+     *
+     *  @param ais the audio input stream
+     *  @return the analysis result, see {@link WorldAnalysis}
+     *  @throws IOException if a problem with the stream occurs!
+     */
+    public WorldAnalysis analyze(AudioInputStream ais) throws IOException {
+        return analyze(ais, PCM.DOWNMIX);
+    }
+
+    /**
+     *  Analyse one channel of an audio stream (see {@link PCM} for the supported formats)
+     *
+     *  @param ais the audio input stream
+     *  @param channel the index of the channel or {@link PCM#DOWNMIX} to average the channels
+     *  @return the analysis result, see {@link WorldAnalysis}
+     *  @throws IOException if a problem with the stream occurs!
+     */
+    public WorldAnalysis analyze(AudioInputStream ais, int channel) throws IOException {
+        return analyze(ais, channel, (int) ais.getFormat().getSampleRate());
+    }
+
+    /**
+     *  Analyse one channel of an audio stream at a given sample rate, the signal being resampled
+     *  if needed (see {@link Resampler}). Analysing high rate recordings at a lower rate reduces
+     *  the FFT size of CheapTrick and the cost of the F0 estimation.
+     *
+     *  @param ais the audio input stream
+     *  @param channel the index of the channel or {@link PCM#DOWNMIX} to average the channels
+     *  @param sample_rate the sample rate of the analysis
+     *  @return the analysis result, see {@link WorldAnalysis}
+     *  @throws IOException if a problem with the stream occurs!
+     */
+    public WorldAnalysis analyze(AudioInputStream ais, int channel, int sample_rate) throws IOException {
+        double[] x = Resampler.resample(PCM.read(ais, channel), (int) ais.getFormat().getSampleRate(), sample_rate);
+        return analyze(x, sample_rate);
+    }
+
+    /**
+     *  Analyse a signal. The F0 estimator is run immediately, the spectrum and the aperiodicity
+     *  are computed by the returned object the first time they are requested.
+     *
+     *  @param signal the samples, between -1.0 and 1.0 (not copied, it should not be modified afterwards)
+     *  @param sample_rate the sample rate of the signal
+     *  @return the analysis result
+     */
+    public WorldAnalysis analyze(double[] signal, int sample_rate) {
+        String key = (cache == null) ? null : AnalysisCache.getKey(signal, sample_rate, config);
+        WorldAnalysis analysis = lookup(key, signal, sample_rate);
+        if (analysis != null)
+            return analysis;
+
+        int nb_frames = World.GetSamplesForDIO(sample_rate, signal.length, config.getFramePeriod());
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeBuffer.bytes(pool, signal.length) + getF0Bytes(pool, nb_frames));
+             NativeBuffer x = NativeBuffer.of(pool, signal)) {
+            analysis = analyze(x.get(), signal, sample_rate, nb_frames);
+        }
+        return store(key, analysis);
+    }
+
+    /**
+     *  Analyse a signal already available in native memory
+     *
+     *  @param x the swig array containing the samples
+     *  @param signal the same samples on the java side
+     *  @param sample_rate the sample rate of the signal
+     *  @return the analysis result
+     */
+    WorldAnalysis analyze(SWIGTYPE_p_double x, double[] signal, int sample_rate) {
+        String key = (cache == null) ? null : AnalysisCache.getKey(signal, sample_rate, config);
+        WorldAnalysis analysis = lookup(key, signal, sample_rate);
+        if (analysis != null)
+            return analysis;
+
+        int nb_frames = World.GetSamplesForDIO(sample_rate, signal.length, config.getFramePeriod());
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(getF0Bytes(pool, nb_frames))) {
+            analysis = analyze(x, signal, sample_rate, nb_frames);
+        }
+        return store(key, analysis);
+    }
+
+    /**
+     *  Estimate the F0 of a signal available in native memory, the memory being already reserved
+     *
+     *  @param x the swig array containing the samples
+     *  @param signal the same samples on the java side
+     *  @param sample_rate the sample rate of the signal
+     *  @param nb_frames the number of frames
+     *  @return the analysis result
+     */
+    private WorldAnalysis analyze(SWIGTYPE_p_double x, double[] signal, int sample_rate, int nb_frames) {
+        double[] f0;
+        double[] time;
+        try (NativeBuffer time_s = NativeBuffer.allocate(pool, nb_frames);
+             NativeBuffer f0_s = NativeBuffer.allocate(pool, nb_frames)) {
+            F0Tracker.estimate(config, executor, pool, x, signal.length, sample_rate, time_s.get(), f0_s.get());
+
+            f0 = f0_s.toArray();
+            time = time_s.toArray();
+        }
+
+        return new WorldAnalysis(signal, sample_rate, config.getFramePeriod(), f0, time,
+                                 config.newCheapTrickOption(sample_rate), config.newD4COption(),
+                                 executor, pool, config.getChunkSize());
+    }
+
+    /**
+     *  Look for an analysis in the cache
+     *
+     *  @param key the key of the analysis, null if there is no cache
+     *  @param signal the samples
+     *  @param sample_rate the sample rate of the signal
+     *  @return the cached analysis, null if there is none
+     */
+    private WorldAnalysis lookup(String key, double[] signal, int sample_rate) {
+        if (key == null)
+            return null;
+
+        CheapTrickOption cheaptrick_option = config.newCheapTrickOption(sample_rate);
+        AnalysisCache.Entry entry = cache.get(key, sample_rate, config.getFramePeriod(), cheaptrick_option.getFft_size());
+        if (entry == null)
+            return null;
+
+        return new WorldAnalysis(signal, sample_rate, config.getFramePeriod(), entry.f0, entry.time_axis,
+                                 cheaptrick_option, config.newD4COption(),
+                                 executor, pool, config.getChunkSize(), entry.sp, entry.ap);
+    }
+
+    /**
+     *  Complete an analysis and add it to the cache
+     *
+     *  @param key the key of the analysis, null if there is no cache
+     *  @param analysis the analysis
+     *  @return the analysis
+     */
+    private WorldAnalysis store(String key, WorldAnalysis analysis) {
+        if (key != null)
+            cache.put(key, analysis.computeAll());
+        return analysis;
+    }
+
+    /*****************************************************************************************************
+     ** Helpers
+     *****************************************************************************************************/
+
+    /**
+     *   Helper to estimate the native memory needed by the F0 estimation (time axis, F0 and
+     *   intermediate F0)
+     *
+     *   @param pool the pool of the arrays (can be null)
+     *   @param nb_frames the number of frames
+     *   @return the number of bytes
+     */
+    static long getF0Bytes(NativeBufferPool pool, int nb_frames) {
+        return 3 * NativeBuffer.bytes(pool, nb_frames);
+    }
+}
@@ -0,0 +1,160 @@
+package jworld;
+
+/**
+ *  The compact coding of the spectral envelope and the aperiodicity provided by World (codec.h).
+ *
+ *  The spectral envelope of a frame (fft_size/2+1 values) is coded by a given number of
+ *  mel-cepstrum like coefficients and the aperiodicity by one value per frequency band (see
+ *  {@link #getNumberOfAperiodicities(int)}). The coded matrices keep one row per frame. The coding
+ *  is lossy, the decoded matrices are smoothed versions of the original ones.
+ *
+ *  {@link WorldAnalysis} and {@link Synthesizer} also code and decode natively, so that the full
+ *  resolution matrices never reach the java heap; the methods of this class are meant for the
+ *  matrices which are already available in java.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public final class Codec
+{
+    private Codec() {
+    }
+
+    /**
+     *  Get the number of coded aperiodicity values per frame
+     *
+     *  @param sample_rate the sample rate of the signal
+     *  @return the number of frequency bands
+     */
+    public static int getNumberOfAperiodicities(int sample_rate) {
+        return World.GetNumberOfAperiodicities(sample_rate);
+    }
+
+    /**
+     *  Code a spectral envelope
+     *
+     *  @param sp the spectral envelope with (nb_frames, fft_size/2+1) values
+     *  @param sample_rate the sample rate of the signal
+     *  @param nb_dimensions the number of coefficients per frame
+     *  @return the coded spectral envelope with (nb_frames, nb_dimensions) values
+     */
+    public static Spectrogram codeSpectralEnvelope(Spectrogram sp, int sample_rate, int nb_dimensions) {
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(sp.getNbFrames(), sp.getNbBins())
+                                                                          + NativeMatrix.bytes(sp.getNbFrames(), nb_dimensions));
+             NativeMatrix sp_s = NativeMatrix.of(sp)) {
+            return codeSpectralEnvelope(null, sp_s, sp.getNbFrames(), sample_rate, sp.getFFTSize(), nb_dimensions);
+        }
+    }
+
+    /**
+     *  Decode a spectral envelope
+     *
+     *  @param coded_sp the coded spectral envelope with (nb_frames, nb_dimensions) values
+     *  @param sample_rate the sample rate of the signal
+     *  @param fft_size the FFT size of the decoded spectral envelope
+     *  @return the spectral envelope with (nb_frames, fft_size/2+1) values
+     */
+    public static Spectrogram decodeSpectralEnvelope(Spectrogram coded_sp, int sample_rate, int fft_size) {
+        int nb_frames = coded_sp.getNbFrames();
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(nb_frames, coded_sp.getNbBins())
+                                                                          + NativeMatrix.bytes(nb_frames, fft_size/2+1));
+             NativeMatrix coded_s = NativeMatrix.of(coded_sp);
+             NativeMatrix sp_s = NativeMatrix.allocate(nb_frames, fft_size/2+1)) {
+            World.DecodeSpectralEnvelope(coded_s.rows(), nb_frames, sample_rate, fft_size, coded_sp.getNbBins(), sp_s.rows());
+            return sp_s.toSpectrogram();
+        }
+    }
+
+    /**
+     *  Code an aperiodicity
+     *
+     *  @param ap the aperiodicity with (nb_frames, fft_size/2+1) values
+     *  @param sample_rate the sample rate of the signal
+     *  @return the coded aperiodicity with (nb_frames, getNumberOfAperiodicities(sample_rate)) values
+     */
+    public static Spectrogram codeAperiodicity(Spectrogram ap, int sample_rate) {
+        int nb_bands = getNumberOfAperiodicities(sample_rate);
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(ap.getNbFrames(), ap.getNbBins())
+                                                                          + NativeMatrix.bytes(ap.getNbFrames(), nb_bands));
+             NativeMatrix ap_s = NativeMatrix.of(ap)) {
+            return codeAperiodicity(null, ap_s, ap.getNbFrames(), sample_rate, ap.getFFTSize());
+        }
+    }
+
+    /**
+     *  Decode an aperiodicity
+     *
+     *  @param coded_ap the coded aperiodicity with (nb_frames, getNumberOfAperiodicities(sample_rate)) values
+     *  @param sample_rate the sample rate of the signal
+     *  @param fft_size the FFT size of the decoded aperiodicity
+     *  @return the aperiodicity with (nb_frames, fft_size/2+1) values
+     */
+    public static Spectrogram decodeAperiodicity(Spectrogram coded_ap, int sample_rate, int fft_size) {
+        checkAperiodicity(coded_ap, sample_rate);
+
+        int nb_frames = coded_ap.getNbFrames();
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(nb_frames, coded_ap.getNbBins())
+                                                                          + NativeMatrix.bytes(nb_frames, fft_size/2+1));
+             NativeMatrix coded_s = NativeMatrix.of(coded_ap);
+             NativeMatrix ap_s = NativeMatrix.allocate(nb_frames, fft_size/2+1)) {
+            World.DecodeAperiodicity(coded_s.rows(), nb_frames, sample_rate, fft_size, ap_s.rows());
+            return ap_s.toSpectrogram();
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Native part
+     *****************************************************************************************************/
+
+    /**
+     *  Code a spectral envelope available in native memory
+     *
+     *  @param pool the pool of the native arrays (can be null)
+     *  @param sp_s the spectral envelope
+     *  @param nb_frames the number of frames
+     *  @param sample_rate the sample rate of the signal
+     *  @param fft_size the FFT size of the spectral envelope
+     *  @param nb_dimensions the number of coefficients per frame
+     *  @return the coded spectral envelope
+     */
+    static Spectrogram codeSpectralEnvelope(NativeBufferPool pool, NativeMatrix sp_s, int nb_frames,
+                                            int sample_rate, int fft_size, int nb_dimensions) {
+        if (nb_dimensions <= 0)
+            throw new IllegalArgumentException("The number of dimensions should be positive");
+
+        try (NativeMatrix coded_s = NativeMatrix.allocate(pool, nb_frames, nb_dimensions)) {
+            World.CodeSpectralEnvelope(sp_s.rows(), nb_frames, sample_rate, fft_size, nb_dimensions, coded_s.rows());
+            return coded_s.toSpectrogram();
+        }
+    }
+
+    /**
+     *  Code an aperiodicity available in native memory
+     *
+     *  @param pool the pool of the native arrays (can be null)
+     *  @param ap_s the aperiodicity
+     *  @param nb_frames the number of frames
+     *  @param sample_rate the sample rate of the signal
+     *  @param fft_size the FFT size of the aperiodicity
+     *  @return the coded aperiodicity
+     */
+    static Spectrogram codeAperiodicity(NativeBufferPool pool, NativeMatrix ap_s, int nb_frames,
+                                        int sample_rate, int fft_size) {
+        try (NativeMatrix coded_s = NativeMatrix.allocate(pool, nb_frames, getNumberOfAperiodicities(sample_rate))) {
+            World.CodeAperiodicity(ap_s.rows(), nb_frames, sample_rate, fft_size, coded_s.rows());
+            return coded_s.toSpectrogram();
+        }
+    }
+
+    /**
+     *  Check the number of bands of a coded aperiodicity
+     *
+     *  @param coded_ap the coded aperiodicity
+     *  @param sample_rate the sample rate of the signal
+     *  @throws IllegalArgumentException if the number of bands does not match the sample rate
+     */
+    static void checkAperiodicity(Spectrogram coded_ap, int sample_rate) {
+        int nb_bands = getNumberOfAperiodicities(sample_rate);
+        if (coded_ap.getNbBins() != nb_bands)
+            throw new IllegalArgumentException("The coded aperiodicity should contain " + nb_bands + " bands per frame at " + sample_rate + "Hz");
+    }
+}
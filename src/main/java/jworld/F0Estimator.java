@@ -0,0 +1,15 @@
+package jworld;
+
+/**
+ *  The F0 estimators of the World vocoder.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public enum F0Estimator
+{
+    /** DIO followed by the StoneMask refinement (fast, the historical default) */
+    DIO,
+
+    /** Harvest (more robust voicing decisions, several times slower than DIO) */
+    HARVEST
+}
@@ -0,0 +1,119 @@
+package jworld;
+
+import java.util.concurrent.Executor;
+
+/**
+ *  Helper running the F0 estimator selected by a configuration.
+ *
+ *  Harvest can be run by segments in parallel: the frames are split into segments of
+ *  consecutive frames and each segment is estimated on a window of the signal extended by a
+ *  margin on each side, which is then dropped. The windows start on frame positions so the
+ *  time axis of each segment is the one of the whole signal. The decisions of Harvest depend on
+ *  the neighbouring frames, so the contour can slightly differ from a single call close to the
+ *  segment boundaries.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class F0Tracker
+{
+    /** The duration of the signal added on each side of a Harvest segment in seconds */
+    static final double SEGMENT_MARGIN = 1.0;
+
+    private F0Tracker() {
+    }
+
+    /**
+     *  Estimate the F0
+     *
+     *  @param config the analysis configuration
+     *  @param executor the executor running the parallel segments
+     *  @param pool the pool of the intermediate native arrays (can be null)
+     *  @param x the signal
+     *  @param x_length the number of samples of the signal
+     *  @param sample_rate the sample rate of the signal
+     *  @param time_s the array receiving the time axis (GetSamplesForDIO values)
+     *  @param f0_s the array receiving the F0 (GetSamplesForDIO values)
+     */
+    static void estimate(WorldConfig config, Executor executor, NativeBufferPool pool,
+                         SWIGTYPE_p_double x, int x_length, int sample_rate,
+                         SWIGTYPE_p_double time_s, SWIGTYPE_p_double f0_s) {
+        if (config.getF0Estimator() == F0Estimator.HARVEST) {
+            harvest(config, executor, pool, x, x_length, sample_rate, time_s, f0_s);
+            return;
+        }
+
+        // DIO and refinement
+        int nb_frames = World.GetSamplesForDIO(sample_rate, x_length, config.getFramePeriod());
+        try (NativeBuffer raw_f0_s = NativeBuffer.allocate(pool, nb_frames)) {
+            long start = Metrics.start();
+            World.Dio(x, x_length, sample_rate, config.newDioOption(), time_s, raw_f0_s.get());
+            Metrics.stop(Metrics.Stage.DIO, start, nb_frames, 0);
+
+            start = Metrics.start();
+            World.StoneMask(x, x_length, sample_rate, time_s, raw_f0_s.get(), nb_frames, f0_s);
+            Metrics.stop(Metrics.Stage.STONEMASK, start, nb_frames, 0);
+        }
+    }
+
+    /**
+     *  Run Harvest, by segments if a segment size is defined
+     *
+     *  @param config the analysis configuration
+     *  @param executor the executor running the parallel segments
+     *  @param pool the pool of the intermediate native arrays (can be null)
+     *  @param x the signal
+     *  @param x_length the number of samples of the signal
+     *  @param sample_rate the sample rate of the signal
+     *  @param time_s the array receiving the time axis
+     *  @param f0_s the array receiving the F0
+     */
+    private static void harvest(final WorldConfig config, Executor executor, final NativeBufferPool pool,
+                                final SWIGTYPE_p_double x, final int x_length, final int sample_rate,
+                                SWIGTYPE_p_double time_s, final SWIGTYPE_p_double f0_s) {
+        final HarvestOption opt = config.newHarvestOption();
+        final int nb_frames = World.GetSamplesForHarvest(sample_rate, x_length, config.getFramePeriod());
+        if ((config.getF0SegmentSize() <= 0) || (config.getF0SegmentSize() >= nb_frames)) {
+            // Harvest can draw from the thread-local noise generator without reseeding it
+            World.randn_reseed();
+            long start = Metrics.start();
+            World.Harvest(x, x_length, sample_rate, opt, time_s, f0_s);
+            Metrics.stop(Metrics.Stage.HARVEST, start, nb_frames, 0);
+            return;
+        }
+
+        // Segments and margins spanning whole numbers of samples
+        final double frame_period = config.getFramePeriod();
+        final double hop = frame_period / 1000.0 * sample_rate;
+        int alignment = FrameChunks.getAlignment(hop);
+        int segment_size = FrameChunks.align(config.getF0SegmentSize(), alignment);
+        final int margin = FrameChunks.align((int) Math.ceil(SEGMENT_MARGIN * 1000.0 / frame_period), alignment);
+
+        // Each segment writes its own frames
+        FrameChunks.run(executor, segment_size, nb_frames, (start, nb_segment_frames) -> {
+                int first_frame = Math.max(0, start - margin);
+                int window_start = (int) Math.round(first_frame * hop);
+                int window_end = (int) Math.min(x_length, Math.ceil((start + nb_segment_frames - 1 + margin) * hop) + 1);
+                int window_frames = World.GetSamplesForHarvest(sample_rate, window_end - window_start, frame_period);
+
+                double[] f0;
+                try (NativeBuffer window_time_s = NativeBuffer.allocate(pool, window_frames);
+                     NativeBuffer window_f0_s = NativeBuffer.allocate(pool, window_frames)) {
+                    World.randn_reseed();
+                    long harvest_start = Metrics.start();
+                    World.Harvest(World.double_array_offset(x, window_start), window_end - window_start,
+                                  sample_rate, opt, window_time_s.get(), window_f0_s.get());
+                    Metrics.stop(Metrics.Stage.HARVEST, harvest_start, window_frames, 0);
+                    f0 = window_f0_s.toArray();
+                }
+
+                int nb_copied = Math.min(nb_segment_frames, window_frames - (start - first_frame));
+                World.double_array_setrange(f0_s, start, f0, start - first_frame, nb_copied);
+            });
+
+        // Time axis of the whole signal, computed as Harvest does
+        double[] time = new double[nb_frames];
+        for (int i = 0; i < nb_frames; i++)
+            time[i] = i * frame_period / 1000.0;
+        World.double_array_setrange(time_s, 0, time, 0, nb_frames);
+    }
+}
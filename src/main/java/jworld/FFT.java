@@ -0,0 +1,102 @@
+package jworld;
+
+/**
+ *  A radix-2 complex FFT over separate arrays of real and imaginary parts, used by the pure
+ *  java synthesis (see {@link JavaSynthesis}). The twiddle factors and the bit reversal
+ *  permutation of the size are computed once.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class FFT
+{
+    private final int size; /*< The number of points */
+    private final int[] reversed; /*< The bit reversal permutation */
+    private final double[] cos; /*< cos(2 pi k / size) for k < size / 2 */
+    private final double[] sin; /*< sin(2 pi k / size) for k < size / 2 */
+
+    /**
+     *  Constructor
+     *
+     *  @param size the number of points
+     *  @throws IllegalArgumentException if the size is not a power of two
+     */
+    FFT(int size) {
+        if ((size < 2) || ((size & (size - 1)) != 0))
+            throw new IllegalArgumentException("The FFT size " + size + " is not a power of two");
+
+        this.size = size;
+        int bits = Integer.numberOfTrailingZeros(size);
+        reversed = new int[size];
+        for (int i = 0; i < size; i++)
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+
+        cos = new double[size / 2];
+        sin = new double[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            cos[k] = Math.cos(2.0 * Math.PI * k / size);
+            sin[k] = Math.sin(2.0 * Math.PI * k / size);
+        }
+    }
+
+    /**
+     *  Accessor to get the number of points
+     *
+     *  @return the number of points
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     *  Compute the forward transform in place: X[k] = sum x[n] exp(-2 i pi k n / size)
+     *
+     *  @param re the real parts
+     *  @param im the imaginary parts
+     */
+    void forward(double[] re, double[] im) {
+        transform(re, im, -1.0);
+    }
+
+    /**
+     *  Compute the inverse transform in place, without the 1 / size normalisation:
+     *  x[n] = sum X[k] exp(2 i pi k n / size)
+     *
+     *  @param re the real parts
+     *  @param im the imaginary parts
+     */
+    void inverse(double[] re, double[] im) {
+        transform(re, im, 1.0);
+    }
+
+    private void transform(double[] re, double[] im, double sign) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                double tmp = re[i];
+                re[i] = re[j];
+                re[j] = tmp;
+                tmp = im[i];
+                im[i] = im[j];
+                im[j] = tmp;
+            }
+        }
+
+        for (int half = 1; half < size; half <<= 1) {
+            int step = size / (2 * half);
+            for (int start = 0; start < size; start += 2 * half) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package jworld;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ *  The block coder of the {@link FeatureEncoding}s: a block is a group of consecutive frames
+ *  encoded independently from the other blocks, so that a frame can be decoded without the
+ *  previous blocks. The fixed size encodings are little endian.
+ *
+ *  A coder keeps its working arrays between the calls and is not thread-safe.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class FeatureCodec implements AutoCloseable
+{
+    /** The number of frames of a full block */
+    static final int BLOCK_FRAMES = 64;
+
+    private final FeatureEncoding encoding; /*< The encoding */
+    private final int nb_bins; /*< The number of values per frame */
+    private final int[] previous; /*< The quantized values of the previous frame (LOG_DELTA) */
+    private byte[] encoded; /*< The last encoded block */
+    private int encoded_length; /*< The number of bytes of the last encoded block */
+    private byte[] scratch; /*< The delta codes before compression (LOG_DELTA) */
+    private byte[] input; /*< The copy of the compressed block to decode (LOG_DELTA) */
+    private Deflater deflater; /*< The compressor, created on demand */
+    private Inflater inflater; /*< The decompressor, created on demand */
+
+    /**
+     *  Constructor
+     *
+     *  @param encoding the encoding
+     *  @param nb_bins the number of values per frame
+     */
+    FeatureCodec(FeatureEncoding encoding, int nb_bins) {
+        if (nb_bins <= 0)
+            throw new IllegalArgumentException("The number of values per frame should be positive");
+
+        this.encoding = encoding;
+        this.nb_bins = nb_bins;
+        this.previous = new int[nb_bins];
+        this.encoded = new byte[0];
+    }
+
+    /**
+     *  Get the number of bytes of a fixed size block
+     *
+     *  @param encoding the encoding, with a fixed value size
+     *  @param nb_frames the number of frames
+     *  @param nb_bins the number of values per frame
+     *  @return the number of bytes
+     */
+    static long bytes(FeatureEncoding encoding, long nb_frames, long nb_bins) {
+        return encoding.getValueSize() * nb_frames * nb_bins;
+    }
+
+    /*****************************************************************************************************
+     ** Encoding
+     *****************************************************************************************************/
+
+    /**
+     *  Encode a block of frames, the result is available through {@link #getEncoded()} until the
+     *  next call
+     *
+     *  @param values the row-major values
+     *  @param offset the index of the first value of the block
+     *  @param nb_frames the number of frames of the block
+     *  @return the number of encoded bytes
+     */
+    int encode(double[] values, int offset, int nb_frames) {
+        int length = nb_frames * nb_bins;
+        if (encoding == FeatureEncoding.LOG_DELTA)
+            return encodeLogDelta(values, offset, length);
+
+        ensureEncoded(encoding.getValueSize() * length);
+        ByteBuffer out = ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN);
+        switch (encoding) {
+        case FLOAT64:
+            for (int i=offset; i<offset+length; i++)
+                out.putDouble(values[i]);
+            break;
+        case FLOAT32:
+            for (int i=offset; i<offset+length; i++)
+                out.putFloat((float) values[i]);
+            break;
+        default:
+            for (int i=offset; i<offset+length; i++)
+                out.putShort(toHalf((float) Math.log(Math.max(values[i], FeatureEncoding.LOG_FLOOR))));
+            break;
+        }
+        encoded_length = out.position();
+        return encoded_length;
+    }
+
+    /**
+     *  Accessor to get the last encoded block
+     *
+     *  @return the array whose first bytes are the block (see {@link #encode(double[], int, int)})
+     */
+    byte[] getEncoded() {
+        return encoded;
+    }
+
+    private int encodeLogDelta(double[] values, int offset, int length) {
+        ensureScratch(5 * length);
+
+        // Quantize and delta code: the first frame against the previous bin, the others against the previous frame
+        int position = 0;
+        int last = 0;
+        for (int i=0; i<length; i++) {
+            int bin = i % nb_bins;
+            int q = (int) Math.round(Math.log(Math.max(values[offset + i], FeatureEncoding.LOG_FLOOR)) / FeatureEncoding.LOG_STEP);
+            int delta = q - ((i < nb_bins) ? last : previous[bin]);
+            previous[bin] = q;
+            last = q;
+
+            int code = (delta << 1) ^ (delta >> 31);
+            while ((code & ~0x7f) != 0) {
+                scratch[position++] = (byte) ((code & 0x7f) | 0x80);
+                code >>>= 7;
+            }
+            scratch[position++] = (byte) code;
+        }
+
+        // Compress
+        if (deflater == null)
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.reset();
+        deflater.setInput(scratch, 0, position);
+        deflater.finish();
+        ensureEncoded(position / 2 + 64);
+        encoded_length = 0;
+        while (!deflater.finished()) {
+            if (encoded_length == encoded.length)
+                encoded = Arrays.copyOf(encoded, 2 * encoded.length);
+            encoded_length += deflater.deflate(encoded, encoded_length, encoded.length - encoded_length);
+        }
+        return encoded_length;
+    }
+
+    /*****************************************************************************************************
+     ** Decoding
+     *****************************************************************************************************/
+
+    /**
+     *  Decode a block of frames
+     *
+     *  @param src the buffer containing the block from its position, which is moved after the block
+     *  @param nb_bytes the number of bytes of the block
+     *  @param nb_frames the number of frames of the block
+     *  @param dst the row-major destination
+     *  @param offset the index of the first decoded value in dst
+     *  @throws IOException if the block is corrupted
+     */
+    void decode(ByteBuffer src, int nb_bytes, int nb_frames, double[] dst, int offset) throws IOException {
+        int length = nb_frames * nb_bins;
+        if (encoding == FeatureEncoding.LOG_DELTA) {
+            decodeLogDelta(src, nb_bytes, dst, offset, length);
+            return;
+        }
+
+        if (nb_bytes != encoding.getValueSize() * length)
+            throw new IOException("The block contains " + nb_bytes + " bytes, " + (encoding.getValueSize() * length) + " were expected");
+        ByteBuffer in = src.slice().order(ByteOrder.LITTLE_ENDIAN);
+        switch (encoding) {
+        case FLOAT64:
+            in.asDoubleBuffer().get(dst, offset, length);
+            break;
+        case FLOAT32:
+            for (int i=offset; i<offset+length; i++)
+                dst[i] = in.getFloat();
+            break;
+        default:
+            for (int i=offset; i<offset+length; i++)
+                dst[i] = Math.exp(fromHalf(in.getShort()));
+            break;
+        }
+        src.position(src.position() + nb_bytes);
+    }
+
+    private void decodeLogDelta(ByteBuffer src, int nb_bytes, double[] dst, int offset, int length) throws IOException {
+        if ((input == null) || (input.length < nb_bytes))
+            input = new byte[nb_bytes];
+        src.get(input, 0, nb_bytes);
+
+        // Decompress
+        ensureScratch(5 * length);
+        if (inflater == null)
+            inflater = new Inflater(true);
+        inflater.reset();
+        inflater.setInput(input, 0, nb_bytes);
+        int size = 0;
+        try {
+            while (!inflater.finished() && (size < scratch.length)) {
+                int count = inflater.inflate(scratch, size, scratch.length - size);
+                if ((count == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("The compressed block is truncated");
+                size += count;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("The compressed block is corrupted", ex);
+        }
+
+        // Undo the delta coding and the quantization
+        int position = 0;
+        int last = 0;
+        for (int i=0; i<length; i++) {
+            int code = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if ((position >= size) || (shift > 28))
+                    throw new IOException("The block contains less than " + length + " values");
+                b = scratch[position++];
+                code |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            int bin = i % nb_bins;
+            int q = ((code >>> 1) ^ -(code & 1)) + ((i < nb_bins) ? last : previous[bin]);
+            previous[bin] = q;
+            last = q;
+            dst[offset + i] = Math.exp(q * FeatureEncoding.LOG_STEP);
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Helpers
+     *****************************************************************************************************/
+
+    /**
+     *  Convert a float into the closest half float (IEEE 754 binary16), ties to even
+     *
+     *  @param value the float
+     *  @return the bits of the half float
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int abs = bits & 0x7fffffff;
+
+        if (abs >= 0x7f800000)              // infinity or NaN
+            return (short) (sign | 0x7c00 | ((abs > 0x7f800000) ? 0x200 : 0));
+        if (abs >= 0x477ff000)              // rounded above the largest half float
+            return (short) (sign | 0x7c00);
+        if (abs < 0x38800000)               // subnormal half float, in units of 2^-24
+            return (short) (sign | (int) Math.rint(Float.intBitsToFloat(abs) * 0x1p24f));
+
+        int mantissa = abs & 0x7fffff;
+        int half = (((abs >>> 23) - 112) << 10) | (mantissa >>> 13);
+        int rest = mantissa & 0x1fff;
+        if ((rest > 0x1000) || ((rest == 0x1000) && ((half & 1) != 0)))
+            half++;
+        return (short) (sign | half);
+    }
+
+    /**
+     *  Convert a half float (IEEE 754 binary16) into a float, exactly
+     *
+     *  @param half the bits of the half float
+     *  @return the float
+     */
+    static float fromHalf(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+
+        if (exponent == 0x1f)
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        if (exponent == 0)
+            return (sign == 0) ? mantissa * 0x1p-24f : -mantissa * 0x1p-24f;
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    private void ensureEncoded(int length) {
+        if (encoded.length < length)
+            encoded = new byte[length];
+    }
+
+    private void ensureScratch(int length) {
+        if ((scratch == null) || (scratch.length < length))
+            scratch = new byte[length];
+    }
+
+    /**
+     *  Release the compressor and the decompressor
+     *
+     */
+    @Override
+    public void close() {
+        if (deflater != null)
+            deflater.end();
+        if (inflater != null)
+            inflater.end();
+        deflater = null;
+        inflater = null;
+    }
+}
@@ -0,0 +1,93 @@
+package jworld;
+
+/**
+ *  The storage encodings of a spectrum or an aperiodicity (see {@link FeatureFile},
+ *  {@link FeatureOutputStream} and {@link FeatureInputStream}).
+ *
+ *  The error of each encoding is given as the largest absolute difference between the natural
+ *  logarithms of a stored value and of the decoded one; in terms of spectral distortion, an
+ *  error of e on the logarithm of a power spectrum is at most 4.343 * e dB on every bin, which
+ *  also bounds the log-spectral distance of the frames.
+ *
+ *  The logarithmic encodings (FLOAT16 and LOG_DELTA) need positive values: they are meant for
+ *  the full resolution matrices of World, values under {@link #LOG_FLOOR} are stored as the
+ *  floor.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public enum FeatureEncoding
+{
+    /** The exact double values, 8 bytes per value */
+    FLOAT64(0, 8),
+
+    /** The values rounded to floats, 4 bytes per value. The error is at most 2^-24 (6e-8, so
+     *  3e-7 dB) for the values above 1.2e-38 */
+    FLOAT32(1, 4),
+
+    /** The natural logarithms of the values rounded to half floats, 2 bytes per value. Half floats
+     *  cannot represent the range of the spectra (their smallest normal value is 6e-5) so the
+     *  logarithm is stored. The error is at most |log(x)| * 2^-11, so 0.034 (0.15 dB) at the floor
+     *  and typically 0.015 (0.06 dB) for the spectra of normalized signals */
+    FLOAT16(2, 2),
+
+    /** The natural logarithms of the values quantized with a step of {@link #LOG_STEP}, delta coded
+     *  against the previous frame and compressed by blocks of frames (deflate at its fastest
+     *  level). The size depends on the smoothness of the matrix, it is usually under 1 byte per
+     *  value. The error is at most LOG_STEP/2 = 0.0039 (0.017 dB) */
+    LOG_DELTA(3, 0);
+
+    /** The smallest value stored by the logarithmic encodings */
+    public static final double LOG_FLOOR = 1e-30;
+
+    /** The quantization step of the logarithm in the LOG_DELTA encoding */
+    public static final double LOG_STEP = 1.0 / 128;
+
+    private final int id; /*< The identifier stored in the files */
+    private final int value_size; /*< The number of bytes per value, 0 if variable */
+
+    private FeatureEncoding(int id, int value_size) {
+        this.id = id;
+        this.value_size = value_size;
+    }
+
+    /**
+     *  Accessor to get the number of bytes per value
+     *
+     *  @return the number of bytes per value, 0 if the size depends on the values
+     */
+    public int getValueSize() {
+        return value_size;
+    }
+
+    /**
+     *  Accessor to know if the encoding stores the logarithm of the values
+     *
+     *  @return true if the values should be positive
+     */
+    public boolean isLogarithmic() {
+        return (this == FLOAT16) || (this == LOG_DELTA);
+    }
+
+    /**
+     *  Accessor to get the identifier stored in the files
+     *
+     *  @return the identifier
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     *  Get the encoding of a stored identifier
+     *
+     *  @param id the identifier
+     *  @return the encoding
+     *  @throws IllegalArgumentException if the identifier is unknown
+     */
+    static FeatureEncoding fromId(int id) {
+        for (FeatureEncoding encoding: values())
+            if (encoding.id == id)
+                return encoding;
+        throw new IllegalArgumentException("Unknown feature encoding " + id);
+    }
+}
@@ -0,0 +1,639 @@
+package jworld;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *  A binary container of World features (F0, spectrum and aperiodicity) read through memory
+ *  mapping.
+ *
+ *  The file starts with a header of {@link #HEADER_SIZE} bytes followed by the F0 (one double
+ *  per frame), the spectrum and the aperiodicity (one row per frame) stored in a given
+ *  {@link FeatureEncoding}. All the values are little endian. The header contains, in this order:
+ *  <ul>
+ *    <li>the magic number {@link #MAGIC} (int)</li>
+ *    <li>the version of the format, {@link #VERSION} (int)</li>
+ *    <li>the sample rate in Hz (int)</li>
+ *    <li>the FFT size (int)</li>
+ *    <li>the frame period in ms (double)</li>
+ *    <li>the number of frames (int)</li>
+ *    <li>the number of spectrum values per frame (int)</li>
+ *    <li>the number of aperiodicity values per frame (int)</li>
+ *    <li>the encoding of the spectrum and the aperiodicity (int, since the version 2)</li>
+ *  </ul>
+ *  the remaining bytes of the header are reserved and set to 0. The number of values per frame
+ *  is the one of the full resolution matrices (fft_size/2+1) or the one of the coded matrices
+ *  (see {@link Codec}).
+ *
+ *  With the fixed size encodings, the spectrum and the aperiodicity are stored row-major. With
+ *  {@link FeatureEncoding#LOG_DELTA}, they are stored by blocks of 64 frames coded independently,
+ *  preceded by the table of the (number of blocks + 1) offsets (long) of the blocks from the start
+ *  of the table. The F0, the spectrum and the aperiodicity start on a multiple of 8 bytes.
+ *
+ *  A frame range is accessed in constant time, without reading the rest of the file (only the
+ *  blocks containing the range are decoded). For the FLOAT64 encoding, the views returned by
+ *  {@link #getF0(int, int)}, {@link #getSpectrogram(int, int)} and
+ *  {@link #getAperiodicity(int, int)} are direct buffers on the mapped file: on a little endian
+ *  platform, they can be given to the off-heap methods of {@link Synthesizer} without any copy
+ *  (see {@link #render(Synthesizer, int, int, DoubleBuffer)}).
+ *
+ *  The mapping is kept until the instance is collected. Each block (F0, spectrum, aperiodicity)
+ *  is mapped separately and should not exceed 2GB. An instance can be shared by several threads.
+ *  A file is written under a temporary name in its directory and atomically renamed, so
+ *  replacing it never changes the content mapped by its open instances.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public final class FeatureFile
+{
+    /** The magic number starting a feature file ("JWFF") */
+    public static final int MAGIC = 0x4A574646;
+
+    /** The version of the format written by {@link #write} */
+    public static final int VERSION = 2;
+
+    /** The size of the header in bytes, which keeps the values aligned */
+    public static final int HEADER_SIZE = 64;
+
+    /** The extension of the temporary files written before being renamed */
+    static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private final int version; /*< The version of the format */
+    private final int sample_rate; /*< The sample rate in Hz */
+    private final int fft_size; /*< The FFT size */
+    private final double frame_period; /*< The frame period in ms */
+    private final int nb_frames; /*< The number of frames */
+    private final int sp_bins; /*< The number of spectrum values per frame */
+    private final int ap_bins; /*< The number of aperiodicity values per frame */
+    private final FeatureEncoding encoding; /*< The encoding of the spectrum and the aperiodicity */
+    private final DoubleBuffer f0; /*< The mapped F0 */
+    private final Section sp; /*< The mapped spectrum */
+    private final Section ap; /*< The mapped aperiodicity */
+
+    private FeatureFile(FileChannel channel) throws IOException {
+        long file_size = channel.size();
+        if (file_size < HEADER_SIZE)
+            throw new IOException("The file is too small to contain a feature header");
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining())
+            if (channel.read(header, header.position()) < 0)
+                throw new IOException("Unexpected end of the feature header");
+        header.flip();
+
+        if (header.getInt() != MAGIC)
+            throw new IOException("The file is not a feature file (wrong magic number)");
+        this.version = header.getInt();
+        if ((version <= 0) || (version > VERSION))
+            throw new IOException("The feature file version " + version + " is not supported (up to " + VERSION + ")");
+        this.sample_rate = header.getInt();
+        this.fft_size = header.getInt();
+        this.frame_period = header.getDouble();
+        this.nb_frames = header.getInt();
+        this.sp_bins = header.getInt();
+        this.ap_bins = header.getInt();
+        try {
+            this.encoding = (version == 1) ? FeatureEncoding.FLOAT64 : FeatureEncoding.fromId(header.getInt());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        if ((sample_rate <= 0) || (fft_size <= 0) || (frame_period <= 0) || (nb_frames < 0) || (sp_bins <= 0) || (ap_bins <= 0))
+            throw new IOException("The feature header is corrupted");
+
+        long sp_offset = HEADER_SIZE + NativeBuffer.bytes(nb_frames);
+        checkSize(file_size, sp_offset);
+        this.f0 = map(channel, HEADER_SIZE, sp_offset - HEADER_SIZE).asDoubleBuffer();
+        this.sp = new Section(channel, sp_offset, sp_bins);
+        this.ap = new Section(channel, align(sp_offset + sp.size), ap_bins);
+    }
+
+    /**
+     *  Open a feature file. The channel is only needed during the mapping, no file descriptor is
+     *  kept open.
+     *
+     *  @param path the path of the file
+     *  @return the mapped feature file
+     *  @throws IOException if the file cannot be read or is not a valid feature file
+     */
+    public static FeatureFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new FeatureFile(channel);
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Writing
+     *****************************************************************************************************/
+
+    /**
+     *  Write the features of an analysis at full precision. The spectrum and the aperiodicity are
+     *  computed if they have not been yet.
+     *
+     *  @param path the path of the file
+     *  @param analysis the analysis
+     *  @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, WorldAnalysis analysis) throws IOException {
+        write(path, analysis, FeatureEncoding.FLOAT64);
+    }
+
+    /**
+     *  Write the features of an analysis. The spectrum and the aperiodicity are computed if they
+     *  have not been yet.
+     *
+     *  @param path the path of the file
+     *  @param analysis the analysis
+     *  @param encoding the encoding of the spectrum and the aperiodicity
+     *  @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, WorldAnalysis analysis, FeatureEncoding encoding) throws IOException {
+        write(path, analysis.getSampleRate(), analysis.getFramePeriod(), analysis.getFFTSize(),
+              analysis.getF0(), analysis.getSpectrogram(), analysis.getAperiodicity(), encoding);
+    }
+
+    /**
+     *  Write features at full precision into a file, the existing file is replaced
+     *
+     *  @param path the path of the file
+     *  @param sample_rate the sample rate in Hz
+     *  @param frame_period the frame period in ms
+     *  @param fft_size the FFT size
+     *  @param f0 the F0
+     *  @param sp the spectrum (full resolution or coded)
+     *  @param ap the aperiodicity (full resolution or coded)
+     *  @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, int sample_rate, double frame_period, int fft_size,
+                             double[] f0, Spectrogram sp, Spectrogram ap) throws IOException {
+        write(path, sample_rate, frame_period, fft_size, f0, sp, ap, FeatureEncoding.FLOAT64);
+    }
+
+    /**
+     *  Write features into a file, the existing file is replaced. The features are written in a
+     *  temporary file of the same directory, renamed once complete: the instances mapping the
+     *  previous file keep reading it (truncating a mapped file would crash them with a SIGBUS).
+     *
+     *  @param path the path of the file
+     *  @param sample_rate the sample rate in Hz
+     *  @param frame_period the frame period in ms
+     *  @param fft_size the FFT size
+     *  @param f0 the F0
+     *  @param sp the spectrum (full resolution or coded)
+     *  @param ap the aperiodicity (full resolution or coded)
+     *  @param encoding the encoding of the spectrum and the aperiodicity, a logarithmic one
+     *  needs the full resolution matrices
+     *  @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, int sample_rate, double frame_period, int fft_size,
+                             double[] f0, Spectrogram sp, Spectrogram ap, FeatureEncoding encoding) throws IOException {
+        if ((sp.getNbFrames() != f0.length) || (ap.getNbFrames() != f0.length))
+            throw new IllegalArgumentException("The spectrum and the aperiodicity should both contain " + f0.length + " frames");
+        if ((sample_rate <= 0) || (fft_size <= 0) || (frame_period <= 0))
+            throw new IllegalArgumentException("The sample rate, the frame period and the FFT size should be positive");
+        if (encoding.isLogarithmic() && ((sp.getNbBins() != fft_size/2+1) || (ap.getNbBins() != fft_size/2+1)))
+            throw new IllegalArgumentException("The " + encoding + " encoding needs the full resolution spectrum and aperiodicity");
+
+        Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(),
+                                              path.getFileName().toString(), TEMPORARY_EXTENSION);
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(sample_rate);
+                header.putInt(fft_size);
+                header.putDouble(frame_period);
+                header.putInt(f0.length);
+                header.putInt(sp.getNbBins());
+                header.putInt(ap.getNbBins());
+                header.putInt(encoding.getId());
+                header.rewind();
+                writeFully(channel, header, 0);
+
+                long position = writeSection(channel, HEADER_SIZE, FeatureEncoding.FLOAT64, f0, f0.length, 1);
+                position = writeSection(channel, align(position), encoding, sp.getData(), f0.length, sp.getNbBins());
+                writeSection(channel, align(position), encoding, ap.getData(), f0.length, ap.getNbBins());
+            }
+
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     *  Helper to write a matrix block by block
+     *
+     *  @param channel the file channel
+     *  @param start the position of the section in the file
+     *  @param encoding the encoding of the values
+     *  @param values the row-major values
+     *  @param nb_frames the number of frames
+     *  @param nb_bins the number of values per frame
+     *  @return the position of the end of the section in the file
+     *  @throws IOException if the values cannot be written
+     */
+    private static long writeSection(FileChannel channel, long start, FeatureEncoding encoding,
+                                     double[] values, int nb_frames, int nb_bins) throws IOException {
+        int nb_blocks = getNbBlocks(nb_frames);
+        long[] index = null;
+        long position = start;
+        if (encoding == FeatureEncoding.LOG_DELTA) {
+            index = new long[nb_blocks + 1];
+            position += 8L * index.length;
+        }
+
+        try (FeatureCodec codec = new FeatureCodec(encoding, nb_bins)) {
+            for (int block=0; block<nb_blocks; block++) {
+                if (index != null)
+                    index[block] = position - start;
+                int first = block * FeatureCodec.BLOCK_FRAMES;
+                int nb_bytes = codec.encode(values, first * nb_bins, Math.min(FeatureCodec.BLOCK_FRAMES, nb_frames - first));
+                position += writeFully(channel, ByteBuffer.wrap(codec.getEncoded(), 0, nb_bytes), position);
+            }
+        }
+
+        if (index != null) {
+            index[nb_blocks] = position - start;
+            ByteBuffer table = ByteBuffer.allocate(8 * index.length).order(ByteOrder.LITTLE_ENDIAN);
+            for (long offset: index)
+                table.putLong(offset);
+            table.rewind();
+            writeFully(channel, table, start);
+        }
+        return position;
+    }
+
+    /**
+     *  Helper to write a buffer at a given position
+     *
+     *  @param channel the file channel
+     *  @param buffer the bytes to write
+     *  @param position the position in the file
+     *  @return the number of bytes written
+     *  @throws IOException if the bytes cannot be written
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int nb_bytes = buffer.remaining();
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+        return nb_bytes;
+    }
+
+    /*****************************************************************************************************
+     ** Accessors
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to get the version of the format of the file
+     *
+     *  @return the version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     *  Accessor to get the sample rate
+     *
+     *  @return the sample rate in Hz
+     */
+    public int getSampleRate() {
+        return sample_rate;
+    }
+
+    /**
+     *  Accessor to get the FFT size
+     *
+     *  @return the FFT size
+     */
+    public int getFFTSize() {
+        return fft_size;
+    }
+
+    /**
+     *  Accessor to get the frame period
+     *
+     *  @return the frame period in ms
+     */
+    public double getFramePeriod() {
+        return frame_period;
+    }
+
+    /**
+     *  Accessor to get the number of frames
+     *
+     *  @return the number of frames
+     */
+    public int getNbFrames() {
+        return nb_frames;
+    }
+
+    /**
+     *  Accessor to get the number of spectrum values per frame
+     *
+     *  @return fft_size/2+1 for a full resolution spectrum, the number of coefficients for a coded one
+     */
+    public int getSpectrogramBins() {
+        return sp_bins;
+    }
+
+    /**
+     *  Accessor to get the number of aperiodicity values per frame
+     *
+     *  @return fft_size/2+1 for a full resolution aperiodicity, the number of bands for a coded one
+     */
+    public int getAperiodicityBins() {
+        return ap_bins;
+    }
+
+    /**
+     *  Accessor to get the encoding of the spectrum and the aperiodicity
+     *
+     *  @return the encoding
+     */
+    public FeatureEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     *  Accessor to know if the file contains the full resolution spectrum and aperiodicity
+     *
+     *  @return true if both have fft_size/2+1 values per frame, false if they are coded
+     */
+    public boolean isFullResolution() {
+        return (sp_bins == fft_size/2+1) && (ap_bins == fft_size/2+1);
+    }
+
+    /*****************************************************************************************************
+     ** Frame access
+     *****************************************************************************************************/
+
+    /**
+     *  Get a view on the F0 of a frame range
+     *
+     *  @param first the index of the first frame
+     *  @param length the number of frames
+     *  @return the direct buffer on the mapped values (little endian)
+     */
+    public DoubleBuffer getF0(int first, int length) {
+        return slice(f0, first, length, 1);
+    }
+
+    /**
+     *  Get a view on the spectrum of a frame range
+     *
+     *  @param first the index of the first frame
+     *  @param length the number of frames
+     *  @return the direct buffer on the mapped values (little endian, row-major)
+     *  @throws IllegalStateException if the spectrum is not stored as FLOAT64
+     */
+    public DoubleBuffer getSpectrogram(int first, int length) {
+        return slice(sp.getValues(), first, length, sp_bins);
+    }
+
+    /**
+     *  Get a view on the aperiodicity of a frame range
+     *
+     *  @param first the index of the first frame
+     *  @param length the number of frames
+     *  @return the direct buffer on the mapped values (little endian, row-major)
+     *  @throws IllegalStateException if the aperiodicity is not stored as FLOAT64
+     */
+    public DoubleBuffer getAperiodicity(int first, int length) {
+        return slice(ap.getValues(), first, length, ap_bins);
+    }
+
+    /**
+     *  Copy the F0 of a frame range
+     *
+     *  @param first the index of the first frame
+     *  @param length the number of frames
+     *  @return the F0 values
+     */
+    public double[] readF0(int first, int length) {
+        double[] values = new double[length];
+        getF0(first, length).get(values);
+        return values;
+    }
+
+    /**
+     *  Decode the spectrum of a frame range
+     *
+     *  @param first the index of the first frame
+     *  @param length the number of frames
+     *  @return the spectrum
+     *  @throws UncheckedIOException if the stored blocks are corrupted
+     */
+    public Spectrogram readSpectrogram(int first, int length) {
+        return sp.read(first, length);
+    }
+
+    /**
+     *  Decode the aperiodicity of a frame range
+     *
+     *  @param first the index of the first frame
+     *  @param length the number of frames
+     *  @return the aperiodicity
+     *  @throws UncheckedIOException if the stored blocks are corrupted
+     */
+    public Spectrogram readAperiodicity(int first, int length) {
+        return ap.read(first, length);
+    }
+
+    /**
+     *  Synthesize a frame range. For the FLOAT64 encoding on a little endian platform, the
+     *  synthesis reads the mapped memory and nothing is copied on the java heap; otherwise the
+     *  range is decoded first.
+     *
+     *  @param synthesizer the synthesizer, using the sample rate and the frame period of the file
+     *  @param first the index of the first frame
+     *  @param length the number of frames
+     *  @param y the direct buffer (native byte order) receiving the samples from its position
+     *  @return the number of samples written in y
+     *  @throws IllegalStateException if the features are coded
+     */
+    public int render(Synthesizer synthesizer, int first, int length, DoubleBuffer y) {
+        if (!isFullResolution())
+            throw new IllegalStateException("The features are coded, they should be decoded before the synthesis");
+        if ((synthesizer.getSampleRate() != sample_rate) || (synthesizer.getFramePeriod() != frame_period))
+            throw new IllegalArgumentException("The synthesizer should use the sample rate (" + sample_rate + "Hz) and the frame period (" + frame_period + "ms) of the file");
+
+        if ((encoding == FeatureEncoding.FLOAT64) && (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN))
+            return synthesizer.renderSignal(getF0(first, length), getSpectrogram(first, length), getAperiodicity(first, length), y);
+
+        double[] samples = synthesizer.renderSignal(readF0(first, length), readSpectrogram(first, length), readAperiodicity(first, length));
+        if (y.remaining() < samples.length)
+            throw new IllegalArgumentException("The buffer should provide " + samples.length + " values but only " + y.remaining() + " remain");
+        y.duplicate().put(samples);
+        return samples.length;
+    }
+
+    /*****************************************************************************************************
+     ** Helpers
+     *****************************************************************************************************/
+
+    /**
+     *  Helper to map a block of the file
+     *
+     *  @param channel the file channel
+     *  @param offset the offset of the block in bytes
+     *  @param size the size of the block in bytes
+     *  @return the mapped bytes (little endian)
+     *  @throws IOException if the block cannot be mapped
+     */
+    private static ByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("A feature block of " + size + " bytes exceeds the mapping limit of 2GB");
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     *  Helper to check that the file contains a block
+     *
+     *  @param file_size the size of the file
+     *  @param end the position of the end of the block
+     *  @throws IOException if the file is too small
+     */
+    private static void checkSize(long file_size, long end) throws IOException {
+        if (file_size < end)
+            throw new IOException("The feature file is truncated (" + file_size + " bytes instead of at least " + end + ")");
+    }
+
+    /**
+     *  Helper to align a position on 8 bytes
+     *
+     *  @param position the position
+     *  @return the smallest multiple of 8 greater or equal to the position
+     */
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    /**
+     *  Helper to get the number of blocks of a matrix
+     *
+     *  @param nb_frames the number of frames
+     *  @return the number of blocks
+     */
+    private static int getNbBlocks(int nb_frames) {
+        return (nb_frames + FeatureCodec.BLOCK_FRAMES - 1) / FeatureCodec.BLOCK_FRAMES;
+    }
+
+    /**
+     *  Helper to check a frame range
+     *
+     *  @param first the index of the first frame
+     *  @param length the number of frames
+     */
+    private void checkRange(int first, int length) {
+        if ((first < 0) || (length < 0) || (first > nb_frames - length))
+            throw new IndexOutOfBoundsException("The frames [" + first + ", " + ((long) first + length) + ") are outside [0, " + nb_frames + ")");
+    }
+
+    /**
+     *  Helper to get a view on a frame range of a mapped block
+     *
+     *  @param block the mapped block
+     *  @param first the index of the first frame
+     *  @param length the number of frames
+     *  @param nb_values the number of values per frame
+     *  @return the view
+     */
+    private DoubleBuffer slice(DoubleBuffer block, int first, int length, int nb_values) {
+        checkRange(first, length);
+
+        DoubleBuffer view = block.duplicate();
+        view.limit((first + length) * nb_values);
+        view.position(first * nb_values);
+        return view.slice();
+    }
+
+    /**
+     *  The mapped spectrum or aperiodicity
+     */
+    private final class Section {
+        private final int nb_bins; /*< The number of values per frame */
+        private final long size; /*< The number of bytes of the section */
+        private final ByteBuffer bytes; /*< The mapped section */
+        private final DoubleBuffer values; /*< The mapped values (FLOAT64), null otherwise */
+
+        Section(FileChannel channel, long offset, int nb_bins) throws IOException {
+            this.nb_bins = nb_bins;
+            long file_size = channel.size();
+            if (encoding == FeatureEncoding.LOG_DELTA) {
+                long index_size = 8L * (getNbBlocks(nb_frames) + 1);
+                checkSize(file_size, offset + index_size);
+                this.size = map(channel, offset, index_size).getLong((int) index_size - 8);
+                if (size < index_size)
+                    throw new IOException("The feature block table is corrupted");
+            } else {
+                this.size = FeatureCodec.bytes(encoding, nb_frames, nb_bins);
+            }
+            checkSize(file_size, offset + size);
+
+            this.bytes = map(channel, offset, size);
+            this.values = (encoding == FeatureEncoding.FLOAT64) ? bytes.asDoubleBuffer() : null;
+        }
+
+        DoubleBuffer getValues() {
+            if (values == null)
+                throw new IllegalStateException("The " + encoding + " values should be decoded, use the read methods");
+            return values;
+        }
+
+        Spectrogram read(int first, int length) {
+            checkRange(first, length);
+            Spectrogram matrix = new Spectrogram(length, nb_bins);
+            if (values != null) {
+                slice(values, first, length, nb_bins).get(matrix.getData());
+                return matrix;
+            }
+
+            try (FeatureCodec codec = new FeatureCodec(encoding, nb_bins)) {
+                ByteBuffer src = bytes.duplicate();
+                if (encoding != FeatureEncoding.LOG_DELTA) {
+                    int value_size = encoding.getValueSize();
+                    src.position(first * nb_bins * value_size);
+                    codec.decode(src, length * nb_bins * value_size, length, matrix.getData(), 0);
+                    return matrix;
+                }
+
+                // Decode the blocks overlapping the range
+                double[] block = new double[FeatureCodec.BLOCK_FRAMES * nb_bins];
+                for (int frame=first; frame<first+length; ) {
+                    int index = frame / FeatureCodec.BLOCK_FRAMES;
+                    int block_first = index * FeatureCodec.BLOCK_FRAMES;
+                    int block_length = Math.min(FeatureCodec.BLOCK_FRAMES, nb_frames - block_first);
+                    long start = bytes.getLong(8 * index);
+                    long end = bytes.getLong(8 * (index + 1));
+                    if ((start > end) || (end > size))
+                        throw new IOException("The feature block table is corrupted");
+                    src.position((int) start);
+                    codec.decode(src, (int) (end - start), block_length, block, 0);
+
+                    int nb_copied = Math.min(block_first + block_length, first + length) - frame;
+                    System.arraycopy(block, (frame - block_first) * nb_bins,
+                                     matrix.getData(), (frame - first) * nb_bins, nb_copied * nb_bins);
+                    frame += nb_copied;
+                }
+                return matrix;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package jworld;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ *  A stream reading the frames written by a {@link FeatureOutputStream}, block by block.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class FeatureInputStream implements AutoCloseable
+{
+    private final DataInputStream in; /*< The underlying stream */
+    private final FeatureEncoding encoding; /*< The encoding */
+    private final int nb_bins; /*< The number of values per frame */
+    private final FeatureCodec codec; /*< The block decoder */
+    private final double[] block; /*< The values of the current block */
+    private final byte[] block_header; /*< The bytes of the header of a block */
+    private byte[] data; /*< The bytes of the current block */
+    private int nb_available; /*< The number of frames of the current block */
+    private int next; /*< The index of the next frame to read in the current block */
+
+    /**
+     *  Constructor which reads the header of the stream
+     *
+     *  @param in the underlying stream, closed with this stream
+     *  @throws IOException if the header cannot be read or is not valid
+     */
+    public FeatureInputStream(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+
+        byte[] bytes = new byte[16];
+        this.in.readFully(bytes);
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != FeatureOutputStream.MAGIC)
+            throw new IOException("The stream is not a feature stream (wrong magic number)");
+        int version = header.getInt();
+        if ((version <= 0) || (version > FeatureOutputStream.VERSION))
+            throw new IOException("The feature stream version " + version + " is not supported (up to " + FeatureOutputStream.VERSION + ")");
+        try {
+            this.encoding = FeatureEncoding.fromId(header.getInt());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        this.nb_bins = header.getInt();
+        if (nb_bins <= 0)
+            throw new IOException("The feature stream header is corrupted");
+
+        this.codec = new FeatureCodec(encoding, nb_bins);
+        this.block = new double[FeatureCodec.BLOCK_FRAMES * nb_bins];
+        this.block_header = new byte[8];
+        this.data = new byte[0];
+    }
+
+    /**
+     *  Accessor to get the encoding
+     *
+     *  @return the encoding
+     */
+    public FeatureEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     *  Accessor to get the number of values per frame
+     *
+     *  @return the number of values per frame
+     */
+    public int getNbBins() {
+        return nb_bins;
+    }
+
+    /**
+     *  Read the next frame
+     *
+     *  @param frame the array receiving the nb_bins values of the frame
+     *  @return true if a frame has been read, false at the end of the stream
+     *  @throws IOException if the stream cannot be read or is corrupted
+     */
+    public boolean readFrame(double[] frame) throws IOException {
+        if (frame.length != nb_bins)
+            throw new IllegalArgumentException("The frame should contain " + nb_bins + " values");
+        if ((next == nb_available) && !readBlock())
+            return false;
+
+        System.arraycopy(block, next * nb_bins, frame, 0, nb_bins);
+        next++;
+        return true;
+    }
+
+    /**
+     *  Read the remaining frames
+     *
+     *  @return the matrix of the remaining frames
+     *  @throws IOException if the stream cannot be read or is corrupted
+     */
+    public Spectrogram readAll() throws IOException {
+        double[] values = new double[FeatureCodec.BLOCK_FRAMES * nb_bins];
+        int nb_frames = 0;
+        while ((next < nb_available) || readBlock()) {
+            int nb_copied = nb_available - next;
+            if (values.length < (nb_frames + nb_copied) * nb_bins)
+                values = Arrays.copyOf(values, 2 * values.length);
+            System.arraycopy(block, next * nb_bins, values, nb_frames * nb_bins, nb_copied * nb_bins);
+            nb_frames += nb_copied;
+            next = nb_available;
+        }
+        return new Spectrogram(Arrays.copyOf(values, nb_frames * nb_bins), nb_frames, nb_bins);
+    }
+
+    /**
+     *  Close the underlying stream
+     *
+     *  @throws IOException if the stream cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        codec.close();
+        in.close();
+    }
+
+    /**
+     *  Read and decode the next block
+     *
+     *  @return true if a block has been read, false at the end of the stream
+     *  @throws IOException if the stream cannot be read or is corrupted
+     */
+    private boolean readBlock() throws IOException {
+        int first = in.read();
+        if (first < 0)
+            return false;
+        block_header[0] = (byte) first;
+        in.readFully(block_header, 1, block_header.length - 1);
+
+        ByteBuffer header = ByteBuffer.wrap(block_header).order(ByteOrder.LITTLE_ENDIAN);
+        int nb_frames = header.getInt();
+        int nb_bytes = header.getInt();
+        if ((nb_frames <= 0) || (nb_frames > FeatureCodec.BLOCK_FRAMES) || (nb_bytes < 0))
+            throw new IOException("The feature stream block header is corrupted");
+
+        if (data.length < nb_bytes)
+            data = new byte[nb_bytes];
+        try {
+            in.readFully(data, 0, nb_bytes);
+        } catch (EOFException ex) {
+            throw new IOException("The feature stream is truncated", ex);
+        }
+        codec.decode(ByteBuffer.wrap(data, 0, nb_bytes), nb_bytes, nb_frames, block, 0);
+
+        nb_available = nb_frames;
+        next = 0;
+        return true;
+    }
+}
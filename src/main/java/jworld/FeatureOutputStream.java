@@ -0,0 +1,172 @@
+package jworld;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ *  A stream writing the frames of a spectrum or an aperiodicity in a given
+ *  {@link FeatureEncoding}, frame by frame, with a memory footprint of one block of frames.
+ *
+ *  The stream starts with a header of 16 bytes (magic number {@link #MAGIC}, version, encoding,
+ *  number of values per frame) followed by the blocks of frames, each one preceded by its number
+ *  of frames and its number of bytes. All the integers are little endian. The frames are written
+ *  when a block is full, when the stream is flushed (the block can then be shorter) and when it
+ *  is closed. The stream is read back by {@link FeatureInputStream}.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class FeatureOutputStream implements AutoCloseable
+{
+    /** The magic number starting a feature stream ("JWFS") */
+    public static final int MAGIC = 0x4A574653;
+
+    /** The version of the stream format */
+    public static final int VERSION = 1;
+
+    private final OutputStream out; /*< The underlying stream */
+    private final FeatureEncoding encoding; /*< The encoding */
+    private final int nb_bins; /*< The number of values per frame */
+    private final FeatureCodec codec; /*< The block coder */
+    private final double[] block; /*< The pending frames */
+    private final byte[] block_header; /*< The bytes of the header of a block */
+    private int nb_pending; /*< The number of pending frames */
+    private long nb_frames; /*< The number of frames written */
+    private boolean closed; /*< Has the stream been closed? */
+
+    /**
+     *  Constructor which writes the header of the stream
+     *
+     *  @param out the underlying stream, closed with this stream
+     *  @param encoding the encoding of the values
+     *  @param nb_bins the number of values per frame
+     *  @throws IOException if the header cannot be written
+     */
+    public FeatureOutputStream(OutputStream out, FeatureEncoding encoding, int nb_bins) throws IOException {
+        this.out = out;
+        this.encoding = encoding;
+        this.nb_bins = nb_bins;
+        this.codec = new FeatureCodec(encoding, nb_bins);
+        this.block = new double[FeatureCodec.BLOCK_FRAMES * nb_bins];
+        this.block_header = new byte[8];
+
+        ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(encoding.getId()).putInt(nb_bins);
+        out.write(header.array());
+    }
+
+    /**
+     *  Accessor to get the encoding
+     *
+     *  @return the encoding
+     */
+    public FeatureEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     *  Accessor to get the number of values per frame
+     *
+     *  @return the number of values per frame
+     */
+    public int getNbBins() {
+        return nb_bins;
+    }
+
+    /**
+     *  Accessor to get the number of frames written so far (pending frames included)
+     *
+     *  @return the number of frames
+     */
+    public long getNbFrames() {
+        return nb_frames;
+    }
+
+    /**
+     *  Write one frame
+     *
+     *  @param frame the nb_bins values of the frame
+     *  @throws IOException if a block cannot be written
+     */
+    public void writeFrame(double[] frame) throws IOException {
+        if (frame.length != nb_bins)
+            throw new IllegalArgumentException("The frame contains " + frame.length + " values, " + nb_bins + " were expected");
+        write(frame, 0, 1);
+    }
+
+    /**
+     *  Write all the frames of a matrix
+     *
+     *  @param matrix the matrix
+     *  @throws IOException if a block cannot be written
+     */
+    public void write(Spectrogram matrix) throws IOException {
+        if (matrix.getNbBins() != nb_bins)
+            throw new IllegalArgumentException("The matrix contains " + matrix.getNbBins() + " values per frame, " + nb_bins + " were expected");
+        write(matrix.getData(), 0, matrix.getNbFrames());
+    }
+
+    /**
+     *  Write consecutive frames
+     *
+     *  @param values the row-major values
+     *  @param offset the index of the first value of the first frame
+     *  @param length the number of frames
+     *  @throws IOException if a block cannot be written
+     */
+    public void write(double[] values, int offset, int length) throws IOException {
+        if (closed)
+            throw new IOException("The stream is closed");
+
+        while (length > 0) {
+            int nb_copied = Math.min(length, FeatureCodec.BLOCK_FRAMES - nb_pending);
+            System.arraycopy(values, offset, block, nb_pending * nb_bins, nb_copied * nb_bins);
+            nb_pending += nb_copied;
+            nb_frames += nb_copied;
+            offset += nb_copied * nb_bins;
+            length -= nb_copied;
+
+            if (nb_pending == FeatureCodec.BLOCK_FRAMES)
+                writeBlock();
+        }
+    }
+
+    /**
+     *  Write the pending frames and flush the underlying stream
+     *
+     *  @throws IOException if the frames cannot be written
+     */
+    public void flush() throws IOException {
+        if (nb_pending > 0)
+            writeBlock();
+        out.flush();
+    }
+
+    /**
+     *  Write the pending frames and close the underlying stream
+     *
+     *  @throws IOException if the frames cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+
+        try {
+            flush();
+        } finally {
+            closed = true;
+            codec.close();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        int nb_bytes = codec.encode(block, 0, nb_pending);
+        ByteBuffer.wrap(block_header).order(ByteOrder.LITTLE_ENDIAN).putInt(nb_pending).putInt(nb_bytes);
+        out.write(block_header);
+        out.write(codec.getEncoded(), 0, nb_bytes);
+        nb_pending = 0;
+    }
+}
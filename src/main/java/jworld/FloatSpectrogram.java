@@ -0,0 +1,173 @@
+package jworld;
+
+import java.nio.FloatBuffer;
+
+/**
+ *  The float32 counterpart of {@link Spectrogram}: a frame by bin matrix of World features
+ *  stored in one flat row-major float array, for the models which consume and produce float32.
+ *
+ *  World computes in double precision; the conversions to and from float are done natively,
+ *  block by block, directly between the native matrices and the float array, so the double
+ *  matrix never exists on the java side. Each value is rounded to the nearest float, the
+ *  relative error is at most 2^-24 (about 6e-8) as long as the values are in the normal float
+ *  range (above 1.2e-38), which covers the spectra and the aperiodicities of 16-bit signals.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class FloatSpectrogram
+{
+    private final float[] data; /*< The values in row-major order */
+    private final int nb_frames; /*< The number of frames */
+    private final int nb_bins; /*< The number of bins per frame (fft_size/2+1) */
+
+    /**
+     *  Constructor to allocate an empty (zero-filled) matrix
+     *
+     *  @param nb_frames the number of frames
+     *  @param nb_bins the number of bins per frame
+     */
+    public FloatSpectrogram(int nb_frames, int nb_bins) {
+        this(new float[checkSize(nb_frames, nb_bins)], nb_frames, nb_bins);
+    }
+
+    /**
+     *  Constructor to wrap an existing row-major array. The array is not copied.
+     *
+     *  @param data the values in row-major order
+     *  @param nb_frames the number of frames
+     *  @param nb_bins the number of bins per frame
+     *  @throws IllegalArgumentException if the size of data is not nb_frames * nb_bins
+     */
+    public FloatSpectrogram(float[] data, int nb_frames, int nb_bins) {
+        if (data.length != checkSize(nb_frames, nb_bins))
+            throw new IllegalArgumentException("The data contains " + data.length + " values, " +
+                                               nb_frames + "x" + nb_bins + " were expected");
+        this.data = data;
+        this.nb_frames = nb_frames;
+        this.nb_bins = nb_bins;
+    }
+
+    /**
+     *  Build a float matrix by rounding a double matrix
+     *
+     *  @param matrix the double matrix
+     *  @return the float matrix
+     */
+    public static FloatSpectrogram fromSpectrogram(Spectrogram matrix) {
+        FloatSpectrogram result = new FloatSpectrogram(matrix.getNbFrames(), matrix.getNbBins());
+        double[] values = matrix.getData();
+        for (int i=0; i<values.length; i++)
+            result.data[i] = (float) values[i];
+        return result;
+    }
+
+    /*****************************************************************************************************
+     ** Accessors
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to get the number of frames
+     *
+     *  @return the number of frames
+     */
+    public int getNbFrames() {
+        return nb_frames;
+    }
+
+    /**
+     *  Accessor to get the number of bins per frame
+     *
+     *  @return the number of bins
+     */
+    public int getNbBins() {
+        return nb_bins;
+    }
+
+    /**
+     *  Accessor to get the FFT size corresponding to the number of bins
+     *
+     *  @return the FFT size
+     */
+    public int getFFTSize() {
+        return (nb_bins - 1) * 2;
+    }
+
+    /**
+     *  Accessor to get the backing array (row-major order). The array is not copied.
+     *
+     *  @return the backing array
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    /**
+     *  Accessor to get one value
+     *
+     *  @param frame the frame index
+     *  @param bin the bin index
+     *  @return the value
+     */
+    public float get(int frame, int bin) {
+        return data[index(frame, bin)];
+    }
+
+    /**
+     *  Accessor to set one value
+     *
+     *  @param frame the frame index
+     *  @param bin the bin index
+     *  @param value the new value
+     */
+    public void set(int frame, int bin, float value) {
+        data[index(frame, bin)] = value;
+    }
+
+    /*****************************************************************************************************
+     ** Views and copies
+     *****************************************************************************************************/
+
+    /**
+     *  Get a view on a frame. The view shares the backing array, so writes are visible in the matrix.
+     *
+     *  @param frame the frame index
+     *  @return the view, whose position 0 is the first bin of the frame
+     */
+    public FloatBuffer getFrame(int frame) {
+        return FloatBuffer.wrap(data, index(frame, 0), nb_bins).slice();
+    }
+
+    /**
+     *  Copy the matrix into a double matrix
+     *
+     *  @return the double matrix
+     */
+    public Spectrogram toSpectrogram() {
+        Spectrogram matrix = new Spectrogram(nb_frames, nb_bins);
+        double[] values = matrix.getData();
+        for (int i=0; i<data.length; i++)
+            values[i] = data[i];
+        return matrix;
+    }
+
+    /*****************************************************************************************************
+     ** Helpers
+     *****************************************************************************************************/
+
+    private int index(int frame, int bin) {
+        if ((frame < 0) || (frame >= nb_frames))
+            throw new IndexOutOfBoundsException("Frame " + frame + " is not in [0, " + nb_frames + "[");
+        if ((bin < 0) || (bin >= nb_bins))
+            throw new IndexOutOfBoundsException("Bin " + bin + " is not in [0, " + nb_bins + "[");
+        return frame * nb_bins + bin;
+    }
+
+    private static int checkSize(int nb_frames, int nb_bins) {
+        if ((nb_frames < 0) || (nb_bins < 0))
+            throw new IllegalArgumentException("The dimensions should be positive");
+        long size = (long) nb_frames * nb_bins;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(nb_frames + "x" + nb_bins + " values do not fit in one array");
+        return (int) size;
+    }
+}
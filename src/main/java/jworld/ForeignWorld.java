@@ -0,0 +1,110 @@
+package jworld;
+
+/**
+ *  The analysis and synthesis of World called through the foreign function and memory API
+ *  (java.lang.foreign) instead of the swig JNI binding.
+ *
+ *  The jar is multi-release: on Java 22 and later, this class is replaced by the version stored
+ *  in META-INF/versions/22, which calls the C functions of World directly on memory segments of
+ *  a confined arena released at the end of each call, and adds overloads working without copy on
+ *  memory segments owned by the caller. This version is the one seen by the older JVMs, where
+ *  {@link #isAvailable()} is false and the computations throw an UnsupportedOperationException,
+ *  the swig based classes being used instead.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public final class ForeignWorld
+{
+    private final WorldConfig config; /*< The analysis configuration */
+
+    /**
+     *  Constructor
+     *
+     *  @param config the analysis configuration (the frame period is also used by the synthesis)
+     */
+    public ForeignWorld(WorldConfig config) {
+        this.config = config;
+    }
+
+    /**
+     *  Accessor to know if the foreign function backend can be used by the running JVM
+     *
+     *  @return true on Java 22 and later
+     */
+    public static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     *  Accessor to get the analysis configuration
+     *
+     *  @return the analysis configuration
+     */
+    public WorldConfig getConfig() {
+        return config;
+    }
+
+    /*****************************************************************************************************
+     ** Analysis
+     *****************************************************************************************************/
+
+    /**
+     *  Estimate the F0 with the estimator of the configuration (Harvest is run on the whole signal)
+     *
+     *  @param signal the samples
+     *  @param sample_rate the sample rate of the signal
+     *  @return the F0 of each frame
+     *  @throws UnsupportedOperationException before Java 22
+     */
+    public double[] computeF0(double[] signal, int sample_rate) {
+        throw unavailable();
+    }
+
+    /**
+     *  Compute the spectrum (CheapTrick)
+     *
+     *  @param signal the samples
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the F0 of each frame
+     *  @return the spectrum
+     *  @throws UnsupportedOperationException before Java 22
+     */
+    public Spectrogram computeSpectrogram(double[] signal, int sample_rate, double[] f0) {
+        throw unavailable();
+    }
+
+    /**
+     *  Compute the aperiodicity (D4C)
+     *
+     *  @param signal the samples
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the F0 of each frame
+     *  @return the aperiodicity
+     *  @throws UnsupportedOperationException before Java 22
+     */
+    public Spectrogram computeAperiodicity(double[] signal, int sample_rate, double[] f0) {
+        throw unavailable();
+    }
+
+    /*****************************************************************************************************
+     ** Synthesis
+     *****************************************************************************************************/
+
+    /**
+     *  Render the signal of the given parameters
+     *
+     *  @param f0 the F0 of each frame
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param sample_rate the sample rate of the signal
+     *  @return the samples
+     *  @throws UnsupportedOperationException before Java 22
+     */
+    public double[] synthesis(double[] f0, Spectrogram sp, Spectrogram ap, int sample_rate) {
+        throw unavailable();
+    }
+
+    private static UnsupportedOperationException unavailable() {
+        return new UnsupportedOperationException("The foreign function backend needs Java 22, the swig based classes should be used");
+    }
+}
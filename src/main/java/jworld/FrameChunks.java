@@ -0,0 +1,154 @@
+package jworld;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *  Helper to split a frame-wise World stage (CheapTrick, D4C) into chunks of consecutive frames
+ *  processed in parallel. These stages compute each frame independently from the F0 and the time
+ *  axis, so each chunk is one native call on offset pointers writing into its own output rows.
+ *
+ *  World adds an infinitesimal safeguard noise (in the order of 1e-12) to its frames, drawn from
+ *  a thread-local generator reseeded at each native call. The stages are run frame by frame
+ *  (CheapTrickFrames and D4CFrames in swig/world.i), so each frame reseeds it and the chunked
+ *  result is exactly the one of a single call.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class FrameChunks
+{
+    /** The maximum number of frames considered to align a window on samples */
+    private static final int MAX_ALIGNMENT = 1000;
+
+    /**
+     *  The processing of one chunk
+     */
+    interface Task {
+        /**
+         *  Process a chunk
+         *
+         *  @param start the index of the first frame of the chunk
+         *  @param nb_frames the number of frames in the chunk
+         */
+        void run(int start, int nb_frames);
+    }
+
+    private FrameChunks() {
+    }
+
+    /**
+     *  Process the frames, by chunks if a chunk size is given, and wait for the completion of all
+     *  the chunks (see {@link #invokeAll(Executor, Runnable[])}).
+     *
+     *  @param executor the executor running the chunks
+     *  @param chunk_size the maximal number of frames per chunk (0 or less to process all the frames in one call)
+     *  @param nb_frames the total number of frames
+     *  @param task the processing of one chunk
+     */
+    static void run(Executor executor, int chunk_size, int nb_frames, final Task task) {
+        if ((chunk_size <= 0) || (chunk_size >= nb_frames)) {
+            task.run(0, nb_frames);
+            return;
+        }
+
+        Runnable[] chunks = new Runnable[(nb_frames + chunk_size - 1) / chunk_size];
+        for (int c=0; c<chunks.length; c++) {
+            final int chunk_start = c * chunk_size;
+            final int chunk_length = Math.min(chunk_size, nb_frames - chunk_start);
+            chunks[c] = () -> task.run(chunk_start, chunk_length);
+        }
+        invokeAll(executor, chunks);
+    }
+
+    /**
+     *  Run tasks in parallel and wait for the completion of all of them, even if one failed, as
+     *  they usually share native buffers.
+     *
+     *  The calling thread runs the tasks as well: the tasks are claimed one by one, by the calling
+     *  thread and by workers submitted to the executor, and the calling thread only waits for the
+     *  tasks already running in a worker. Nothing waits for a task queued in the executor, so this
+     *  can be called from a thread of the executor itself, whatever its number of threads (one
+     *  stage of {@link WorldAnalysis#computeAll()} running its chunks, several analyses sharing a
+     *  fixed pool...) without deadlock. If the executor rejects a worker, the calling thread runs
+     *  the remaining tasks.
+     *
+     *  @param executor the executor running the workers
+     *  @param tasks the tasks
+     */
+    static void invokeAll(Executor executor, final Runnable[] tasks) {
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(tasks.length);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Runnable worker = () -> {
+            int t;
+            while ((t = next.getAndIncrement()) < tasks.length) {
+                try {
+                    tasks[t].run();
+                } catch (RuntimeException | Error ex) {
+                    if (!failure.compareAndSet(null, ex))
+                        failure.get().addSuppressed(ex);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+
+        try {
+            for (int w=1; w<tasks.length; w++)
+                executor.execute(worker);
+        } catch (RejectedExecutionException ex) {
+            // The calling thread runs the tasks left
+        }
+        worker.run();
+
+        // Only the tasks running in a worker are left
+        boolean interrupted = false;
+        while (done.getCount() > 0) {
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        Throwable ex = failure.get();
+        if (ex instanceof RuntimeException)
+            throw (RuntimeException) ex;
+        if (ex != null)
+            throw (Error) ex;
+    }
+
+    /**
+     *  Find the smallest number of frames spanning a whole number of samples. A window starting
+     *  on a multiple of this number of frames has the time axis of the whole signal shifted by a
+     *  whole number of frames.
+     *
+     *  @param hop the number of samples between two frames
+     *  @return the number of frames
+     */
+    static int getAlignment(double hop) {
+        for (int nb_frames = 1; nb_frames <= MAX_ALIGNMENT; nb_frames++) {
+            double nb_samples = nb_frames * hop;
+            if (Math.abs(nb_samples - Math.rint(nb_samples)) < 1e-6)
+                return nb_frames;
+        }
+
+        throw new IllegalArgumentException("The frame positions never fall on samples (" + hop + " samples between two frames)");
+    }
+
+    /**
+     *  Round a number of frames up to a (non-zero) multiple of an alignment
+     *
+     *  @param nb_frames the number of frames
+     *  @param alignment the alignment, see {@link #getAlignment(double)}
+     *  @return the aligned number of frames
+     */
+    static int align(int nb_frames, int alignment) {
+        return Math.max(1, (nb_frames + alignment - 1) / alignment) * alignment;
+    }
+}
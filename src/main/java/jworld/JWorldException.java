@@ -17,4 +17,8 @@ public class JWorldException extends Exception
         super(msg);
     }
 
+    public JWorldException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+
 }
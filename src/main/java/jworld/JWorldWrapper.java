@@ -1,55 +1,40 @@
 package jworld;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ForkJoinPool;
 
 // Audio
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 
-import cz.adamh.utils.NativeUtils;
-
 
 /**
  *  The wrapper class to be used to call the World vocoder.
  *
  *  This class is wrapping the 2 modes (analysis and synthesis). The constructor used to build the
- *  object is going to determine the mode in which the object should be used for.
+ *  object is going to determine the mode in which the object should be used for. As it keeps the
+ *  signal and the F0 of the current analysis, an instance should not be shared between threads;
+ *  {@link Analyzer} and {@link Synthesizer} are the stateless alternatives.
  *
  *  For more information about the world vocoder, please have a look at the author website <a href="http://www.kki.yamanashi.ac.jp/~mmorise/world/english/">http://www.kki.yamanashi.ac.jp/~mmorise/world/english/</a>
  *
  *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
  */
-public class JWorldWrapper
+public class JWorldWrapper implements AutoCloseable
 {
-    /* Loading library part */
-    static {
-        String libResourceName;
-        String osName = System.getProperty("os.name");
-        switch (osName) {
-            case ("Mac OS X"):
-                libResourceName = "libworld.dylib";
-                break;
-            case ("Linux"):
-                libResourceName = "libworld.so";
-                break;
-            default:
-                throw new RuntimeException("Cannot load library for OS: " + osName);
-        }
-        try {
-            NativeUtils.loadLibraryFromJar("/" + libResourceName);
-        } catch (IOException e) {
-            e.printStackTrace(); // This is probably not the best way to handle exception :-)
-        }
-    }
-
     // Signal swig wrapper
     private SWIGTYPE_p_double x; /*< The signal samples cached in swig format used in the analysis mode */
+    private NativeBuffer x_native; /*< The native array owning the memory of x when the signal is read from a stream or given in float32 (null otherwise) */
+    private NativeCleaner.Cleanable x_held; /*< The registration holding x_native in the native memory budget (null otherwise) */
     private int x_length; /*< the number of (double) samples in the signal used in the analysis mode */
+    private DoubleBuffer x_buffer; /*< The direct buffer owning the memory of x when the signal is given off-heap (null otherwise) */
+    private double[] x_java; /*< The signal samples on the java side, kept for analyze() (copied from x on the first call when the signal is given in float32 or off-heap) */
 
     // F0/time swig wrappers
-    private SWIGTYPE_p_double f0_cached; /*< the F0 values cached in swig format used in the analysis mode */
-    private SWIGTYPE_p_double time_axis; /*< the time axis cached in swig format used in the analysis mode */
+    private NativeBuffer f0_cached; /*< the F0 values cached in swig format used in the analysis mode */
+    private NativeBuffer time_axis; /*< the time axis cached in swig format used in the analysis mode */
+    private NativeCleaner.Cleanable f0_held; /*< The registration holding the cached F0 and time axis in the native memory budget (null otherwise) */
     private int f0_length; /*< the number of frames (based on the number of f0 values) used in the analysis mode */
 
     // The signal input stream
@@ -63,6 +48,11 @@ public class JWorldWrapper
     private double f0_ceil; /*< The upper F0 value in Hz (default value: 800Hz) */
     private double f0_allowed_range; /*< The threshold to fix f0 contour (default value: 0.1) */
     private double q1; /*< The compensation lifter parameter used by cheapstick in the analysis mode (default value: -0.15) */
+    private int chunk_size; /*< The number of frames per parallel CheapTrick/D4C call in the analysis mode (default value: 0, no parallelism) */
+    private F0Estimator f0_estimator; /*< The F0 estimator used in the analysis mode (default value: DIO) */
+    private int f0_segment_size; /*< The number of frames per parallel Harvest segment in the analysis mode (default value: 0, no parallelism) */
+    private NativeBufferPool pool; /*< The pool of the native arrays (default value: null, the arrays are allocated at each call) */
+    private AnalysisCache cache; /*< The cache of the complete analyses (default value: null, no cache) */
 
 
     /**
@@ -80,21 +70,77 @@ public class JWorldWrapper
     }
 
     /**
-     *  The "analysis mode" constructor
+     *  The "analysis mode" constructor, the channels of the stream being averaged (see
+     *  {@link PCM} for the supported formats)
      *
      *  @param ais the audioinputstream filled with audio information
      */
     public JWorldWrapper(AudioInputStream ais) throws IOException
+    {
+        this(ais, PCM.DOWNMIX);
+    }
+
+    /**
+     *  The "analysis mode" constructor analysing one channel of the stream (see {@link PCM} for
+     *  the supported formats)
+     *
+     *  @param ais the audioinputstream filled with audio information
+     *  @param channel the index of the channel or {@link PCM#DOWNMIX} to average the channels
+     */
+    public JWorldWrapper(AudioInputStream ais, int channel) throws IOException
+    {
+        this(ais, channel, (int) ais.getFormat().getSampleRate());
+    }
+
+    /**
+     *  The "analysis mode" constructor analysing one channel of the stream at a given sample
+     *  rate, the signal being resampled if needed (see {@link Resampler})
+     *
+     *  @param ais the audioinputstream filled with audio information
+     *  @param channel the index of the channel or {@link PCM#DOWNMIX} to average the channels
+     *  @param sample_rate the sample rate of the analysis
+     */
+    public JWorldWrapper(AudioInputStream ais, int channel, int sample_rate) throws IOException
     {
         input_stream = ais;
-        this.fromAISToDoubleArray();
-        setFramePeriod(5.0);
-        setQ1(-0.15);
-        setF0Floor(71.0);
-        setF0Ceil(800.0);
-        setF0AllowedRange(0.1);
-        setSpeed(1);
-        setSampleRate((int) ais.getFormat().getSampleRate());
+        this.fromAISToDoubleArray(channel, sample_rate);
+        initAnalysisOptions();
+        setSampleRate(sample_rate);
+    }
+
+    /**
+     *  The "analysis mode" constructor on float32 samples. The samples are converted natively to
+     *  the double precision used by World, without any intermediate java copy.
+     *
+     *  @param signal the samples, between -1.0 and 1.0
+     *  @param sample_rate the sample rate of the signal
+     */
+    public JWorldWrapper(float[] signal, int sample_rate)
+    {
+        input_stream = null;
+        x_length = signal.length;
+        x_native = NativeBuffer.of(null, signal);
+        x = x_native.get();
+        holdSignal();
+        initAnalysisOptions();
+        setSampleRate(sample_rate);
+    }
+
+    /**
+     *  The "analysis mode" constructor working in place on off-heap samples. The content of the
+     *  buffer is not copied, so it should not be modified while the wrapper is in use.
+     *
+     *  @param signal the direct buffer (native byte order) containing the samples, between -1.0 and 1.0, from its position to its limit
+     *  @param sample_rate the sample rate of the signal
+     */
+    public JWorldWrapper(DoubleBuffer signal, int sample_rate)
+    {
+        input_stream = null;
+        x_length = signal.remaining();
+        x = NativeArrays.address(signal, x_length);
+        x_buffer = signal;
+        initAnalysisOptions();
+        setSampleRate(sample_rate);
     }
 
 
@@ -102,6 +148,29 @@ public class JWorldWrapper
      ** Analysis entry part
      *****************************************************************************************************/
 
+    /**
+     *  Method to run the complete analysis in one call. The F0 estimator is run immediately and
+     *  the FFT size and the options are determined once. The spectrum and the aperiodicity are
+     *  computed by the returned object the first time they are requested. The F0 cached in the
+     *  wrapper is neither used nor modified.
+     *
+     *  If an analysis cache is defined (see {@link #setAnalysisCache(AnalysisCache)}), the
+     *  analysis is complete and kept in the cache, so the analysis of the same signal with the
+     *  same options is a lookup.
+     *
+     *  @return the analysis result
+     *  @throws JWorldException if we are not in analysis mode !
+     */
+    public WorldAnalysis analyze() throws JWorldException {
+        if (x == null)
+            throw new JWorldException("Samples should be loaded, you should use the constructor which expect a AudioInputStream as parameter");
+
+        // The analysis keeps the java samples for its lazy stages, they are copied once per wrapper
+        if (x_java == null)
+            x_java = NativeArrays.toJava(x, x_length);
+        return new Analyzer(getConfig(), ForkJoinPool.commonPool(), pool, cache).analyze(x, x_java, getSampleRate());
+    }
+
     /**
      *  Method to extract the F0 in alaysis mode
      *
@@ -116,47 +185,36 @@ public class JWorldWrapper
         // Compute length based on information
         f0_length = World.GetSamplesForDIO(getSampleRate(), x_length, getFramePeriod());
 
+        // Release the previous cached values
+        releaseF0();
+
         // allocate needed memory
-        SWIGTYPE_p_double tmp_f0 = World.new_double_array(f0_length);
-        time_axis = World.new_double_array(f0_length);
-
-        // Set options
-        DioOption opt = new DioOption();
-        World.InitializeDioOption(opt);
-        opt.setSpeed(getSpeed());
-        opt.setFrame_period(getFramePeriod());
-        opt.setF0_floor(getF0Floor());
-        opt.setAllowed_range(getF0AllowedRange());
-
-        // Extract F0
-        World.Dio(x, x_length,
-                  getSampleRate(),
-                  opt,
-                  this.time_axis,
-                  tmp_f0);
-
-
-        // Refining estimation
-        f0_cached = World.new_double_array(f0_length);
-        World.StoneMask(x, x_length,
-                        getSampleRate(),
-                        time_axis,
-                        tmp_f0,
-                        f0_length,
-                        f0_cached);
-        World.delete_double_array(tmp_f0);
-
-        // Generate the proper array
-        double[] f0 = new double[f0_length];
-        for (int i=0; i<f0_length; i++) {
-            f0[i] = World.double_array_getitem(f0_cached, i);
+        double[] f0;
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(Analyzer.getF0Bytes(pool, f0_length))) {
+            time_axis = NativeBuffer.allocate(pool, f0_length);
+            f0_cached = NativeBuffer.allocate(pool, f0_length);
+
+            // Extract F0 (refined in the case of DIO)
+            F0Tracker.estimate(getConfig(), ForkJoinPool.commonPool(), pool,
+                               x, x_length,
+                               getSampleRate(),
+                               time_axis.get(),
+                               f0_cached.get());
+
+            // Generate the proper array
+            f0 = f0_cached.toArray();
+
+            // The cached F0 and time axis outlive the call, they stay in the budget until released
+            if (cached)
+                f0_held = reservation.keep(f0_cached, 2 * NativeBuffer.bytes(pool, f0_length));
+        } catch (RuntimeException ex) {
+            releaseF0();
+            throw ex;
         }
 
         // Cleaning memory
-        if (! cached) {
-            World.delete_double_array(f0_cached);
-            World.delete_double_array(time_axis);
-        }
+        if (! cached)
+            releaseF0();
 
         return f0;
     }
@@ -168,96 +226,193 @@ public class JWorldWrapper
      *  @throws JWorldException if the F0 has not been extracted and cached!
      */
     public double[][] extractSP() throws JWorldException{
+        return extractSpectrogram().toArray();
+    }
+
+    /**
+     *  Method to extract the aperiodicity in alaysis mode
+     *
+     *  @return the extracted aperiodicity with the shape (nb_frames, fft_size/2+1)
+     *  @throws JWorldException if the F0 has not been extracted and cached!
+     */
+    public double[][] extractAP() throws JWorldException{
+        return extractAperiodicity().toArray();
+    }
+
+    /**
+     *  Method to extract the spectrum in alaysis mode
+     *
+     *  @return the extracted spectrum with (nb_frames, fft_size/2+1) values
+     *  @throws JWorldException if the F0 has not been extracted and cached!
+     */
+    public Spectrogram extractSpectrogram() throws JWorldException {
         if (f0_cached == null)
             throw new JWorldException("To extract the spectrum, the F0 must be cached when extracted!");
 
-        CheapTrickOption opt = new CheapTrickOption();
-        World.InitializeCheapTrickOption(getSampleRate(), opt);
-
-        opt.setQ1(getQ1());
-        opt.setF0_floor(getF0Floor());
+        CheapTrickOption opt = getConfig().newCheapTrickOption(getSampleRate());
 
         // Compute FFT size
-        int fft_size = World.GetFFTSizeForCheapTrick(getSampleRate(), opt);
-
-        // Allocate memory
-        SWIGTYPE_p_p_double spec_tmp = World.new_double_p_array(f0_length);
-        for (int t=0; t<f0_length; t++)
-            World.double_p_array_setitem(spec_tmp, t,
-                                         World.new_double_array(fft_size/2+1));
-
-        // Compute spectrogram
-        World.CheapTrick(x, x_length,
-                         sample_rate, time_axis,
-                         f0_cached, f0_length,
-                         opt, spec_tmp);
-
-        // Free the memory while generating the java array
-        double[][] spec = new double[f0_length][fft_size/2+1];
-        for (int t=0; t<f0_length; t++) {
-            SWIGTYPE_p_double tmp = World.double_p_array_getitem(spec_tmp, t);
-
-            for (int i=0; i<spec[0].length; i++) {
-                spec[t][i] = World.double_array_getitem(tmp, i);
-            }
-
-            World.delete_double_array(tmp);
-        }
-        World.delete_double_p_array(spec_tmp);
+        int fft_size = opt.getFft_size();
 
-        return spec;
+        // Compute spectrogram into one contiguous block for all the frames
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(pool, f0_length, fft_size/2+1));
+             NativeMatrix spec_tmp = NativeMatrix.allocate(pool, f0_length, fft_size/2+1)) {
+            runCheapTrick(opt, spec_tmp);
+            return spec_tmp.toSpectrogram();
+        }
     }
 
     /**
      *  Method to extract the aperiodicity in alaysis mode
      *
-     *  @return the extracted aperiodicity with the shape (nb_frames, fft_size/2+1)
+     *  @return the extracted aperiodicity with (nb_frames, fft_size/2+1) values
      *  @throws JWorldException if the F0 has not been extracted and cached!
      */
-    public double[][] extractAP() throws JWorldException{
+    public Spectrogram extractAperiodicity() throws JWorldException {
         if (f0_cached == null)
             throw new JWorldException("To extract the aperiodicity, the F0 must be cached when extracted!");
 
         // Get FFT size
-        CheapTrickOption ch_opt = new CheapTrickOption();
-        World.InitializeCheapTrickOption(getSampleRate(), ch_opt);
+        int fft_size = getFFTSize();
+        D4COption d4c_opt = getConfig().newD4COption();
+
+        // Extract aperiodicity into one contiguous block for all the frames
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(pool, f0_length, fft_size/2+1));
+             NativeMatrix ap_tmp = NativeMatrix.allocate(pool, f0_length, fft_size/2+1)) {
+            runD4C(fft_size, d4c_opt, ap_tmp);
+            return ap_tmp.toSpectrogram();
+        }
+    }
+
+    /**
+     *  Method to extract the spectrum in float32 in analysis mode (see {@link FloatSpectrogram}).
+     *  The spectrum is converted natively, the double matrix never reaches the java heap.
+     *
+     *  @return the extracted spectrum with (nb_frames, fft_size/2+1) values
+     *  @throws JWorldException if the F0 has not been extracted and cached!
+     */
+    public FloatSpectrogram extractFloatSpectrogram() throws JWorldException {
+        if (f0_cached == null)
+            throw new JWorldException("To extract the spectrum, the F0 must be cached when extracted!");
 
-        ch_opt.setQ1(getQ1());
-        ch_opt.setF0_floor(getF0Floor());
+        CheapTrickOption opt = getConfig().newCheapTrickOption(getSampleRate());
+        int fft_size = opt.getFft_size();
 
-        // Compute FFT size
-        int fft_size = World.GetFFTSizeForCheapTrick(getSampleRate(), ch_opt);
-
-        D4COption d4c_opt = new D4COption();
-        World.InitializeD4COption(d4c_opt);
-
-        // Allocate memory
-        SWIGTYPE_p_p_double ap_tmp = World.new_double_p_array(f0_length);
-        for (int t=0; t<f0_length; t++)
-            World.double_p_array_setitem(ap_tmp, t,
-                                         World.new_double_array(fft_size/2+1));
-
-        // Extract aperiodicity
-        World.D4C(x, x_length,
-                  getSampleRate(), time_axis,
-                  f0_cached, f0_length,
-                  fft_size, d4c_opt,
-                  ap_tmp);
-
-        // Free the memory while generating the java array
-        double[][] ap = new double[f0_length][fft_size/2+1];
-        for (int t=0; t<f0_length; t++) {
-            SWIGTYPE_p_double tmp = World.double_p_array_getitem(ap_tmp, t);
-
-            for (int i=0; i<ap[0].length; i++) {
-                ap[t][i] = World.double_array_getitem(tmp, i);
-            }
-
-            World.delete_double_array(tmp);
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(pool, f0_length, fft_size/2+1));
+             NativeMatrix spec_tmp = NativeMatrix.allocate(pool, f0_length, fft_size/2+1)) {
+            runCheapTrick(opt, spec_tmp);
+            return spec_tmp.toFloatSpectrogram();
+        }
+    }
+
+    /**
+     *  Method to extract the aperiodicity in float32 in analysis mode (see {@link FloatSpectrogram}).
+     *  The aperiodicity is converted natively, the double matrix never reaches the java heap.
+     *
+     *  @return the extracted aperiodicity with (nb_frames, fft_size/2+1) values
+     *  @throws JWorldException if the F0 has not been extracted and cached!
+     */
+    public FloatSpectrogram extractFloatAperiodicity() throws JWorldException {
+        if (f0_cached == null)
+            throw new JWorldException("To extract the aperiodicity, the F0 must be cached when extracted!");
+
+        int fft_size = getFFTSize();
+        D4COption d4c_opt = getConfig().newD4COption();
+
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(pool, f0_length, fft_size/2+1));
+             NativeMatrix ap_tmp = NativeMatrix.allocate(pool, f0_length, fft_size/2+1)) {
+            runD4C(fft_size, d4c_opt, ap_tmp);
+            return ap_tmp.toFloatSpectrogram();
         }
-        World.delete_double_p_array(ap_tmp);
+    }
+
+    /**
+     *  Method to extract the coded spectral envelope in analysis mode (see {@link Codec}). The
+     *  spectrum is coded natively, it never reaches the java heap.
+     *
+     *  @param nb_dimensions the number of coefficients per frame
+     *  @return the coded spectral envelope with (nb_frames, nb_dimensions) values
+     *  @throws JWorldException if the F0 has not been extracted and cached!
+     */
+    public Spectrogram extractCodedSpectralEnvelope(int nb_dimensions) throws JWorldException {
+        if (f0_cached == null)
+            throw new JWorldException("To extract the spectrum, the F0 must be cached when extracted!");
 
-        return ap;
+        CheapTrickOption opt = getConfig().newCheapTrickOption(getSampleRate());
+        int fft_size = opt.getFft_size();
+
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(pool, f0_length, fft_size/2+1)
+                                                                          + NativeMatrix.bytes(pool, f0_length, nb_dimensions));
+             NativeMatrix spec_tmp = NativeMatrix.allocate(pool, f0_length, fft_size/2+1)) {
+            runCheapTrick(opt, spec_tmp);
+            return Codec.codeSpectralEnvelope(pool, spec_tmp, f0_length, getSampleRate(), fft_size, nb_dimensions);
+        }
+    }
+
+    /**
+     *  Method to extract the coded aperiodicity in analysis mode (see {@link Codec}). The
+     *  aperiodicity is coded natively, it never reaches the java heap.
+     *
+     *  @return the coded aperiodicity with (nb_frames, Codec.getNumberOfAperiodicities(sample_rate)) values
+     *  @throws JWorldException if the F0 has not been extracted and cached!
+     */
+    public Spectrogram extractCodedAperiodicity() throws JWorldException {
+        if (f0_cached == null)
+            throw new JWorldException("To extract the aperiodicity, the F0 must be cached when extracted!");
+
+        int fft_size = getFFTSize();
+        D4COption d4c_opt = getConfig().newD4COption();
+
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeMatrix.bytes(pool, f0_length, fft_size/2+1)
+                                                                          + NativeMatrix.bytes(pool, f0_length, Codec.getNumberOfAperiodicities(getSampleRate())));
+             NativeMatrix ap_tmp = NativeMatrix.allocate(pool, f0_length, fft_size/2+1)) {
+            runD4C(fft_size, d4c_opt, ap_tmp);
+            return Codec.codeAperiodicity(pool, ap_tmp, f0_length, getSampleRate(), fft_size);
+        }
+    }
+
+    /**
+     *  Method to extract the spectrum in analysis mode directly into off-heap memory. World writes
+     *  the frames in place, no intermediate native array is used.
+     *
+     *  @param sp the direct buffer (native byte order) filled from its position with the spectrum
+     *  in row-major order and the shape (nb_frames, fft_size/2+1)
+     *  @throws JWorldException if the F0 has not been extracted and cached!
+     */
+    public void extractSP(DoubleBuffer sp) throws JWorldException {
+        if (f0_cached == null)
+            throw new JWorldException("To extract the spectrum, the F0 must be cached when extracted!");
+
+        CheapTrickOption opt = getConfig().newCheapTrickOption(getSampleRate());
+        int nb_bins = opt.getFft_size() / 2 + 1;
+
+        // Compute spectrogram into the buffer rows, only the row table is allocated
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeBuffer.bytes(pool, f0_length));
+             NativeMatrix rows = NativeMatrix.wrap(pool, NativeArrays.outputAddress(sp, f0_length * nb_bins), f0_length, nb_bins)) {
+            runCheapTrick(opt, rows);
+        }
+    }
+
+    /**
+     *  Method to extract the aperiodicity in analysis mode directly into off-heap memory. World
+     *  writes the frames in place, no intermediate native array is used.
+     *
+     *  @param ap the direct buffer (native byte order) filled from its position with the
+     *  aperiodicity in row-major order and the shape (nb_frames, fft_size/2+1)
+     *  @throws JWorldException if the F0 has not been extracted and cached!
+     */
+    public void extractAP(DoubleBuffer ap) throws JWorldException {
+        if (f0_cached == null)
+            throw new JWorldException("To extract the aperiodicity, the F0 must be cached when extracted!");
+
+        int fft_size = getFFTSize();
+        D4COption d4c_opt = getConfig().newD4COption();
+
+        // Extract aperiodicity into the buffer rows, only the row table is allocated
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeBuffer.bytes(pool, f0_length));
+             NativeMatrix rows = NativeMatrix.wrap(pool, NativeArrays.outputAddress(ap, f0_length * (fft_size/2+1)), f0_length, fft_size/2+1)) {
+            runD4C(fft_size, d4c_opt, rows);
+        }
     }
 
     /*****************************************************************************************************
@@ -290,85 +445,122 @@ public class JWorldWrapper
      *  @return the filled audioinputstream containing the rendered results
      */
     public AudioInputStream synthesis(double[] f0, double[][] sp, double[][] ap, boolean as_short) {
-        int fft_len = (sp[0].length - 1) * 2;
-
-        // Generate F0 swig
-        SWIGTYPE_p_double f0_s = World.new_double_array(f0.length);
-        for (int i=0; i<f0.length; i++) {
-            World.double_array_setitem(f0_s, i, f0[i]);
-        }
-
-        // Generate SP swig
-        SWIGTYPE_p_p_double sp_s = World.new_double_p_array(sp.length);
-        for (int t=0; t<sp.length; t++) {
-            SWIGTYPE_p_double row = World.new_double_array(sp[0].length);
-            for (int i=0; i<sp[t].length; i++)
-                World.double_array_setitem(row, i, sp[t][i]);
-
-            World.double_p_array_setitem(sp_s, t, row);
-        }
-
-        // Generate AP swig
-        SWIGTYPE_p_p_double ap_s = World.new_double_p_array(ap.length);
-        for (int t=0; t<ap.length; t++) {
-            // Create row
-            SWIGTYPE_p_double row = World.new_double_array(ap[0].length);
-
-            // Set values
-            for (int i=0; i<ap[t].length; i++) {
-                World.double_array_setitem(row, i, ap[t][i]);
-            }
+        return synthesis(f0, Spectrogram.fromArray(sp), Spectrogram.fromArray(ap), as_short);
+    }
 
-            World.double_p_array_setitem(ap_s, t, row);
-        }
+    /**
+     *  Method to generate an audio based on given vocoder parameters.
+     *  Should be called if the object is in synthesis mode!
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @return the filled audioinputstream containing the rendered results
+     */
+    public AudioInputStream synthesis(double[] f0, Spectrogram sp, Spectrogram ap) {
+        return synthesis(f0, sp, ap, false);
+    }
 
-        // Synthesis
-        int y_length =  (int)(f0.length * frame_period / 1000.0 * sample_rate);
-        SWIGTYPE_p_double y_s = World.new_double_array(y_length);
-        World.Synthesis(f0_s, f0.length,
-                        sp_s, ap_s,
-                        fft_len, frame_period, sample_rate,
-                        y_length, y_s);
-
-        // To double array
-        double[] y = new double[y_length];
-        for (int i=0; i<y_length; i++) {
-            y[i] = World.double_array_getitem(y_s, i);
-        }
+    /**
+     *  Method to generate an audio based on given vocoder parameters.
+     *  Should be called if the object is in synthesis mode!
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param as_short consider that the analysis as achieved on "short" coded data (true) or on "float" coded data (false)
+     *  @return the filled audioinputstream containing the rendered results
+     */
+    public AudioInputStream synthesis(double[] f0, Spectrogram sp, Spectrogram ap, boolean as_short) {
+        return new Synthesizer(sample_rate, frame_period, pool).synthesis(f0, sp, ap, as_short);
+    }
 
-        // Free memory
-        for (int t=0; t<f0.length; t++) {
-            World.delete_double_array(World.double_p_array_getitem(sp_s, t));
-            World.delete_double_array(World.double_p_array_getitem(ap_s, t));
-        }
-        World.delete_double_p_array(ap_s);
-        World.delete_double_p_array(sp_s);
-        World.delete_double_array(f0_s);
-        World.delete_double_array(y_s);
-
-        // Generate audio inputstream
-        AudioFormat format = new AudioFormat(sample_rate, 16, 1, true, false);   // use 16-bit audio, mono, signed PCM, little Endian
-        byte[] data = new byte[2 * y.length];
-        for (int i = 0; i < y.length; i++) {
-            int temp;
-            if (! as_short)
-                temp = (short) (y[i] * Short.MAX_VALUE); // Scale if was in double (-1.0 ... 1.0)
-            else
-                temp = (int) Math.round(y[i]);
-            data[2*i + 0] = (byte) temp;
-            data[2*i + 1] = (byte) (temp >> 8);
-        }
+    /**
+     *  Method to generate an audio in a given PCM format based on given float32 vocoder
+     *  parameters (see {@link FloatSpectrogram}). Should be called if the object is in synthesis mode!
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param format the format of the audio (see {@link PCM}), resampled if its sample rate is not the one of the wrapper
+     *  @return the filled audioinputstream containing the rendered results
+     */
+    public AudioInputStream synthesis(float[] f0, FloatSpectrogram sp, FloatSpectrogram ap, AudioFormat format) {
+        return new Synthesizer(sample_rate, frame_period, pool).synthesis(f0, sp, ap, format);
+    }
 
-        ByteArrayInputStream bais = new ByteArrayInputStream(data);
-        AudioInputStream ais = new AudioInputStream(bais, format, y.length);
+    /**
+     *  Method to generate an audio in a given PCM format based on given vocoder parameters.
+     *  Should be called if the object is in synthesis mode!
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param format the format of the audio (see {@link PCM}), resampled if its sample rate is not the one of the wrapper
+     *  @return the filled audioinputstream containing the rendered results
+     */
+    public AudioInputStream synthesis(double[] f0, Spectrogram sp, Spectrogram ap, AudioFormat format) {
+        return new Synthesizer(sample_rate, frame_period, pool).synthesis(f0, sp, ap, format);
+    }
 
-        return ais;
+    /**
+     *  Method to generate a signal based on given vocoder parameters stored off-heap. World reads
+     *  the parameters and writes the samples in place, nothing is copied.
+     *  Should be called if the object is in synthesis mode!
+     *
+     *  @param f0 the direct buffer containing the F0, one value per frame from its position to its limit
+     *  @param sp the direct buffer containing the spectrum in row-major order (nb_frames, fft_size/2+1)
+     *  @param ap the direct buffer containing the aperiodicity in row-major order (nb_frames, fft_size/2+1)
+     *  @param y the direct buffer receiving the samples from its position, see {@link #getSynthesisLength(int)}
+     *  @return the number of samples written in y
+     */
+    public int synthesis(DoubleBuffer f0, DoubleBuffer sp, DoubleBuffer ap, DoubleBuffer y) {
+        return new Synthesizer(sample_rate, frame_period, pool).renderSignal(f0, sp, ap, y);
     }
 
     /*****************************************************************************************************
      ** Accessors
      *****************************************************************************************************/
 
+    /**
+     *  Accessor to get the FFT size used by the spectrum and aperiodicity extraction in analysis
+     *  mode. Each extracted frame contains fft_size/2+1 values.
+     *
+     *  @return the FFT size
+     */
+    public int getFFTSize() {
+        return getConfig().newCheapTrickOption(getSampleRate()).getFft_size();
+    }
+
+    /**
+     *  Accessor to get the number of samples generated by the synthesis for a given number of frames
+     *
+     *  @param nb_frames the number of frames
+     *  @return the number of samples
+     */
+    public int getSynthesisLength(int nb_frames) {
+        return new Synthesizer(sample_rate, frame_period).getSynthesisLength(nb_frames);
+    }
+
+    /**
+     *  Accessor to get an immutable snapshot of the current analysis options, for example to
+     *  build an {@link Analyzer}.
+     *
+     *  @return the configuration
+     */
+    public WorldConfig getConfig() {
+        return new WorldConfig()
+            .withFramePeriod(getFramePeriod())
+            .withSpeed(getSpeed())
+            .withF0Floor(getF0Floor())
+            .withF0Ceil(getF0Ceil())
+            .withF0AllowedRange(getF0AllowedRange())
+            .withQ1(getQ1())
+            .withChunkSize(getChunkSize())
+            .withF0Estimator(getF0Estimator())
+            .withF0SegmentSize(getF0SegmentSize());
+    }
+
     /**
      *  Accessor to get the frame period
      *
@@ -505,42 +697,230 @@ public class JWorldWrapper
     }
 
 
+    /**
+     *  Accessor to get the number of frames processed by each parallel CheapTrick/D4C call in the
+     *  analysis mode. This parameter is ignored in synthesis mode.
+     *
+     *  @return the number of frames per chunk, 0 if all the frames are processed by a single call
+     */
+    public int getChunkSize() {
+        return chunk_size;
+    }
+
+    /**
+     *  Accessor to set the number of frames processed by each parallel CheapTrick/D4C call in the
+     *  analysis mode. The chunks are run on the common fork/join pool. This parameter is ignored in
+     *  synthesis mode.
+     *
+     *  @param chunk_size the number of frames per chunk, 0 to process all the frames in a single call
+     */
+    public void setChunkSize(int chunk_size) {
+        this.chunk_size = chunk_size;
+    }
+
+    /**
+     *  Accessor to get the F0 estimator used in the analysis mode. This parameter is ignored in
+     *  synthesis mode.
+     *
+     *  @return the F0 estimator
+     */
+    public F0Estimator getF0Estimator() {
+        return f0_estimator;
+    }
+
+    /**
+     *  Accessor to set the F0 estimator used in the analysis mode. This parameter is ignored in
+     *  synthesis mode.
+     *
+     *  @param f0_estimator the new F0 estimator
+     */
+    public void setF0Estimator(F0Estimator f0_estimator) {
+        this.f0_estimator = f0_estimator;
+    }
+
+    /**
+     *  Accessor to get the number of frames of each parallel Harvest segment in the analysis mode.
+     *  This parameter is ignored in synthesis mode and by DIO.
+     *
+     *  @return the number of frames per segment, 0 if Harvest is run by a single call
+     */
+    public int getF0SegmentSize() {
+        return f0_segment_size;
+    }
+
+    /**
+     *  Accessor to set the number of frames of each parallel Harvest segment in the analysis mode.
+     *  The segments are run on the common fork/join pool. This parameter is ignored in synthesis
+     *  mode and by DIO.
+     *
+     *  @param f0_segment_size the number of frames per segment, 0 to run Harvest by a single call
+     */
+    public void setF0SegmentSize(int f0_segment_size) {
+        this.f0_segment_size = f0_segment_size;
+    }
+
+    /**
+     *  Accessor to get the pool of the native arrays used by the analysis and the synthesis
+     *
+     *  @return the pool, null if the arrays are allocated at each call
+     */
+    public NativeBufferPool getBufferPool() {
+        return pool;
+    }
+
+    /**
+     *  Accessor to set the pool of the native arrays used by the analysis and the synthesis. The
+     *  pool is not closed by the wrapper, so it can be shared by several wrappers.
+     *
+     *  @param pool the pool, null to allocate the arrays at each call
+     */
+    public void setBufferPool(NativeBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     *  Accessor to get the cache of the analyses produced by {@link #analyze()}
+     *
+     *  @return the cache, null if there is none
+     */
+    public AnalysisCache getAnalysisCache() {
+        return cache;
+    }
+
+    /**
+     *  Accessor to set the cache of the analyses produced by {@link #analyze()}. The cache is
+     *  not owned by the wrapper, so it can be shared by several wrappers.
+     *
+     *  @param cache the cache, null to always analyse
+     */
+    public void setAnalysisCache(AnalysisCache cache) {
+        this.cache = cache;
+    }
+
+
     /*****************************************************************************************************
      ** Helpers
      *****************************************************************************************************/
     /**
      *   Helper to extract the samples in a double array for the audio input stream
      *
+     *   @param channel the index of the channel or {@link PCM#DOWNMIX} to average the channels
+     *   @param sample_rate the sample rate of the analysis
      *   @throws IOException if a problem with the stream occurs!
      */
-    private void fromAISToDoubleArray() throws IOException {
-
-        // Load data
-        int bytesToRead = this.input_stream.available();
-        byte[] data = new byte[bytesToRead];
-        int bytesRead = this.input_stream.read(data);
-        if (bytesToRead != bytesRead)
-            throw new IllegalStateException("read only " + bytesRead + " of " + bytesToRead + " bytes");
-
-        // Convert to swig double array
-        int n = data.length;
-        this.x_length = n/2;
-        this.x = World.new_double_array(this.x_length);
-        for (int i = 0; i < this.x_length; i++) {
-            double v = ((short) (((data[2*i+1] & 0xFF) << 8) + (data[2*i] & 0xFF))) / ((double) Short.MAX_VALUE);
-            World.double_array_setitem(x, i, v);
-        }
+    private void fromAISToDoubleArray(int channel, int sample_rate) throws IOException {
+        double[] samples = Resampler.resample(PCM.read(this.input_stream, channel),
+                                              (int) this.input_stream.getFormat().getSampleRate(), sample_rate);
+
+        // Copy to swig double array in one go, the decoded samples are kept for analyze()
+        this.x_java = samples;
+        this.x_length = samples.length;
+        this.x_native = NativeBuffer.of(samples);
+        this.x = x_native.get();
+        holdSignal();
     }
 
 
     /**
-     *  Helper to clean the memory
+     *  Helper to set the default values of the analysis options
+     *
+     */
+    private void initAnalysisOptions() {
+        setFramePeriod(5.0);
+        setQ1(-0.15);
+        setF0Floor(71.0);
+        setF0Ceil(800.0);
+        setF0AllowedRange(0.1);
+        setSpeed(1);
+        setChunkSize(0);
+        setF0Estimator(F0Estimator.DIO);
+        setF0SegmentSize(0);
+    }
+
+    /**
+     *  Helper to run CheapTrick on the cached F0, by chunks if a chunk size is defined
+     *
+     *  @param opt the CheapTrick option
+     *  @param rows the rows receiving the spectrum
+     */
+    private void runCheapTrick(final CheapTrickOption opt, final NativeMatrix rows) {
+        FrameChunks.run(ForkJoinPool.commonPool(), getChunkSize(), f0_length, (start, nb_frames) -> {
+                long stage_start = Metrics.start();
+                World.CheapTrickFrames(x, x_length, getSampleRate(),
+                                       time_axis.offset(start),
+                                       f0_cached.offset(start),
+                                       nb_frames, opt,
+                                       rows.rows(start));
+                Metrics.stop(Metrics.Stage.CHEAPTRICK, stage_start, nb_frames, 0);
+            });
+    }
+
+    /**
+     *  Helper to run D4C on the cached F0, by chunks if a chunk size is defined
+     *
+     *  @param fft_size the FFT size
+     *  @param opt the D4C option
+     *  @param rows the rows receiving the aperiodicity
+     */
+    private void runD4C(final int fft_size, final D4COption opt, final NativeMatrix rows) {
+        FrameChunks.run(ForkJoinPool.commonPool(), getChunkSize(), f0_length, (start, nb_frames) -> {
+                long stage_start = Metrics.start();
+                World.D4CFrames(x, x_length, getSampleRate(),
+                                time_axis.offset(start),
+                                f0_cached.offset(start),
+                                nb_frames, fft_size, opt,
+                                rows.rows(start));
+                Metrics.stop(Metrics.Stage.D4C, stage_start, nb_frames, 0);
+            });
+    }
+
+    /**
+     *  Helper to release the cached F0 and time axis
+     *
+     */
+    private void releaseF0() {
+        if (f0_cached != null)
+            f0_cached.close();
+        if (time_axis != null)
+            time_axis.close();
+        f0_cached = null;
+        time_axis = null;
+        if (f0_held != null)
+            f0_held.clean();
+        f0_held = null;
+    }
+
+    /**
+     *  Helper to hold the native copy of the signal in the native memory budget until the wrapper
+     *  is cleaned
+     *
+     */
+    private void holdSignal() {
+        x_held = NativeMemory.hold(x_native, NativeBuffer.bytes(x_length));
+    }
+
+    /**
+     *  Helper to clean the memory. The wrapper cannot be used for the analysis afterwards.
      *
      */
     public void clean() {
-        World.delete_double_array(f0_cached);
-        World.delete_double_array(time_axis);
-        World.delete_double_array(x);
+        releaseF0();
+        if (x_native != null)
+            x_native.close();
+        x_native = null;
+        if (x_held != null)
+            x_held.clean();
+        x_held = null;
+        x = null;
+        x_java = null;
     }
 
+    /**
+     *  Release the native memory, see {@link #clean()}
+     *
+     */
+    @Override
+    public void close() {
+        clean();
+    }
 }
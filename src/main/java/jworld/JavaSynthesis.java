@@ -0,0 +1,478 @@
+package jworld;
+
+import java.util.Arrays;
+
+/**
+ *  The pure java port of the World synthesis (synthesis.cpp), used by the {@link Synthesizer}s
+ *  of the {@link SynthesisEngine#JAVA} engine.
+ *
+ *  The pulse locations are derived from the phase of the F0 interpolated at the sample rate.
+ *  For each pulse, the spectrum and the aperiodicity interpolated at the pulse time give a
+ *  periodic response (minimum phase spectrum of the periodic part, shifted to the fractional
+ *  pulse position, without DC) and an aperiodic response (minimum phase spectrum of the
+ *  aperiodic part filtering a gaussian noise as long as the pulse period), which are
+ *  overlap-added in the signal. The steps, their order and the noise generator (the one of
+ *  World, reseeded at each synthesis) are the ones of the native code, only the FFT differs,
+ *  so the output matches the native one up to the rounding errors.
+ *
+ *  The engine is scalar: its loops are plain java, only vectorised by the JIT when it can, and
+ *  there is no implementation on the incubating Vector API.
+ *
+ *  An instance holds the work arrays of one FFT size, so it should not be shared between
+ *  threads.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class JavaSynthesis
+{
+    /** The F0 used to place the pulses of the unvoiced parts (world::kDefaultF0) */
+    private static final double DEFAULT_F0 = 500.0;
+
+    /** The floor added to the periodic power spectrum before its log (world::kMySafeGuardMinimum) */
+    private static final double SAFE_GUARD_MINIMUM = 0.000000000001;
+
+    private final int fft_size; /*< The FFT size */
+    private final FFT fft; /*< The FFT of fft_size points */
+    private final double[] dc_remover; /*< The window removing the DC of the periodic response */
+
+    private final double[] re; /*< The real parts of the FFT work array */
+    private final double[] im; /*< The imaginary parts of the FFT work array */
+    private final double[] log_spectrum; /*< The log amplitude spectrum given to the minimum phase analysis */
+    private final double[] minimum_phase_re; /*< The real parts of the minimum phase spectrum */
+    private final double[] minimum_phase_im; /*< The imaginary parts of the minimum phase spectrum */
+    private final double[] noise_re; /*< The real parts of the noise spectrum */
+    private final double[] noise_im; /*< The imaginary parts of the noise spectrum */
+    private final double[] spectral_envelope; /*< The spectrum at the pulse time */
+    private final double[] aperiodic_ratio; /*< The squared aperiodicity at the pulse time */
+    private final double[] periodic_response; /*< The periodic response of the pulse */
+    private final double[] aperiodic_response; /*< The aperiodic response of the pulse */
+    private double[] noise; /*< The noise of a pulse, as long as the longest pulse period rendered */
+
+    private int randn_x; /*< The state of the noise generator (uint32 in World) */
+    private int randn_y;
+    private int randn_z;
+    private int randn_w;
+
+    /**
+     *  Constructor
+     *
+     *  @param fft_size the FFT size of the spectrum and the aperiodicity
+     *  @throws IllegalArgumentException if the FFT size is not a power of two
+     */
+    JavaSynthesis(int fft_size) {
+        this.fft_size = fft_size;
+        fft = new FFT(fft_size);
+
+        dc_remover = new double[fft_size];
+        double dc_component = 0.0;
+        for (int i = 0; i < fft_size / 2; i++) {
+            dc_remover[i] = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * (i + 1.0) / (1.0 + fft_size));
+            dc_remover[fft_size - i - 1] = dc_remover[i];
+            dc_component += dc_remover[i] * 2.0;
+        }
+        for (int i = 0; i < fft_size / 2; i++) {
+            dc_remover[i] /= dc_component;
+            dc_remover[fft_size - i - 1] = dc_remover[i];
+        }
+
+        int nb_bins = fft_size / 2 + 1;
+        re = new double[fft_size];
+        im = new double[fft_size];
+        log_spectrum = new double[fft_size];
+        minimum_phase_re = new double[nb_bins];
+        minimum_phase_im = new double[nb_bins];
+        noise_re = new double[nb_bins];
+        noise_im = new double[nb_bins];
+        spectral_envelope = new double[nb_bins];
+        aperiodic_ratio = new double[nb_bins];
+        periodic_response = new double[fft_size];
+        aperiodic_response = new double[fft_size];
+    }
+
+    /**
+     *  Render a signal
+     *
+     *  @param f0 the F0 of each frame (at least 2 frames)
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param frame_period the frame period in ms
+     *  @param sample_rate the sample rate
+     *  @param y the array receiving the samples, its length being the number of samples to render
+     *  @throws IllegalArgumentException if there are less than 2 frames
+     */
+    void render(double[] f0, Spectrogram sp, Spectrogram ap, double frame_period, int sample_rate, double[] y) {
+        if (f0.length < 2)
+            throw new IllegalArgumentException("The synthesis needs at least 2 frames, " + f0.length + " given");
+
+        long start = Metrics.start();
+        resetNoise();
+        Arrays.fill(y, 0.0);
+
+        int y_length = y.length;
+        double[] pulse_locations = new double[y_length];
+        int[] pulse_locations_index = new int[y_length];
+        double[] pulse_locations_time_shift = new double[y_length];
+        double[] interpolated_vuv = new double[y_length];
+        int nb_pulses = getTimeBase(f0, sample_rate, frame_period / 1000.0, y_length,
+                                    sample_rate / fft_size + 1.0, pulse_locations, pulse_locations_index,
+                                    pulse_locations_time_shift, interpolated_vuv);
+
+        int max_noise_size = fft_size;
+        for (int i = 0; i < nb_pulses - 1; i++)
+            max_noise_size = Math.max(max_noise_size, pulse_locations_index[i + 1] - pulse_locations_index[i]);
+        if ((noise == null) || (noise.length < max_noise_size))
+            noise = new double[max_noise_size];
+
+        double[] response = new double[fft_size];
+        for (int i = 0; i < nb_pulses; i++) {
+            int noise_size = pulse_locations_index[Math.min(nb_pulses - 1, i + 1)] - pulse_locations_index[i];
+            getOneFrameSegment(interpolated_vuv[pulse_locations_index[i]], noise_size, sp, ap, f0.length,
+                               frame_period / 1000.0, pulse_locations[i], pulse_locations_time_shift[i],
+                               sample_rate, response);
+
+            int offset = pulse_locations_index[i] - fft_size / 2 + 1;
+            int lower_limit = Math.max(0, -offset);
+            int upper_limit = Math.min(fft_size, y_length - offset);
+            for (int j = lower_limit; j < upper_limit; j++)
+                y[j + offset] += response[j];
+        }
+        Metrics.stop(Metrics.Stage.SYNTHESIS, start, f0.length, 0);
+    }
+
+    /*****************************************************************************************************
+     ** Time base
+     *****************************************************************************************************/
+
+    /**
+     *  Compute the pulse locations and the voicing of each sample
+     *
+     *  @param f0 the F0 of each frame
+     *  @param fs the sample rate
+     *  @param frame_period the frame period in seconds
+     *  @param y_length the number of samples
+     *  @param lowest_f0 the F0 under which a frame is unvoiced
+     *  @param pulse_locations the array receiving the time of the pulses
+     *  @param pulse_locations_index the array receiving the sample of the pulses
+     *  @param pulse_locations_time_shift the array receiving the fractional position of the pulses in seconds
+     *  @param interpolated_vuv the array receiving the voicing of each sample
+     *  @return the number of pulses
+     */
+    private static int getTimeBase(double[] f0, int fs, double frame_period, int y_length, double lowest_f0,
+                                   double[] pulse_locations, int[] pulse_locations_index,
+                                   double[] pulse_locations_time_shift, double[] interpolated_vuv) {
+        int f0_length = f0.length;
+        double[] time_axis = new double[y_length];
+        for (int i = 0; i < y_length; i++)
+            time_axis[i] = i / (double) fs;
+
+        // The coarse axis has one extrapolated frame more
+        double[] coarse_time_axis = new double[f0_length + 1];
+        double[] coarse_f0 = new double[f0_length + 1];
+        double[] coarse_vuv = new double[f0_length + 1];
+        for (int i = 0; i < f0_length; i++) {
+            coarse_time_axis[i] = i * frame_period;
+            coarse_f0[i] = (f0[i] < lowest_f0) ? 0.0 : f0[i];
+            coarse_vuv[i] = (coarse_f0[i] == 0.0) ? 0.0 : 1.0;
+        }
+        coarse_time_axis[f0_length] = f0_length * frame_period;
+        coarse_f0[f0_length] = coarse_f0[f0_length - 1] * 2 - coarse_f0[f0_length - 2];
+        coarse_vuv[f0_length] = coarse_vuv[f0_length - 1] * 2 - coarse_vuv[f0_length - 2];
+
+        double[] interpolated_f0 = new double[y_length];
+        interp1(coarse_time_axis, coarse_f0, time_axis, interpolated_f0);
+        interp1(coarse_time_axis, coarse_vuv, time_axis, interpolated_vuv);
+        for (int i = 0; i < y_length; i++) {
+            interpolated_vuv[i] = (interpolated_vuv[i] > 0.5) ? 1.0 : 0.0;
+            interpolated_f0[i] = (interpolated_vuv[i] == 0.0) ? DEFAULT_F0 : interpolated_f0[i];
+        }
+
+        // A pulse is placed where the phase wraps
+        double total_phase = 0.0;
+        double[] wrap_phase = new double[y_length];
+        for (int i = 0; i < y_length; i++) {
+            total_phase += 2.0 * Math.PI * interpolated_f0[i] / fs;
+            wrap_phase[i] = total_phase % (2.0 * Math.PI);
+        }
+
+        int nb_pulses = 0;
+        for (int i = 0; i < y_length - 1; i++) {
+            if (Math.abs(wrap_phase[i + 1] - wrap_phase[i]) > Math.PI) {
+                pulse_locations[nb_pulses] = time_axis[i];
+                pulse_locations_index[nb_pulses] = i;
+
+                // The exact pulse is where the phase is zero, interpolated linearly
+                double y1 = wrap_phase[i] - 2.0 * Math.PI;
+                double y2 = wrap_phase[i + 1];
+                double x = -y1 / (y2 - y1);
+                pulse_locations_time_shift[nb_pulses] = x / fs;
+                nb_pulses++;
+            }
+        }
+        return nb_pulses;
+    }
+
+    /**
+     *  The linear interpolation of matlab (interp1), the values outside of x being extrapolated
+     *  from the first or the last segment
+     *
+     *  @param x the increasing abscissae
+     *  @param y the values at x
+     *  @param xi the increasing abscissae to interpolate
+     *  @param yi the array receiving the values at xi
+     */
+    private static void interp1(double[] x, double[] y, double[] xi, double[] yi) {
+        // k is the number of x lower or equal to xi, between 1 and x.length - 1 (histc)
+        int k = 1;
+        for (int i = 0; i < xi.length; i++) {
+            while ((k < x.length - 1) && (xi[i] >= x[k]))
+                k++;
+            double s = (xi[i] - x[k - 1]) / (x[k] - x[k - 1]);
+            yi[i] = y[k - 1] + s * (y[k] - y[k - 1]);
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Pulse responses
+     *****************************************************************************************************/
+
+    /**
+     *  Compute the response of one pulse
+     *
+     *  @param current_vuv the voicing at the pulse
+     *  @param noise_size the number of samples until the next pulse
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param f0_length the number of frames
+     *  @param frame_period the frame period in seconds
+     *  @param current_time the time of the pulse
+     *  @param fractional_time_shift the fractional position of the pulse in seconds
+     *  @param fs the sample rate
+     *  @param response the array receiving the response
+     */
+    private void getOneFrameSegment(double current_vuv, int noise_size, Spectrogram sp, Spectrogram ap,
+                                    int f0_length, double frame_period, double current_time,
+                                    double fractional_time_shift, int fs, double[] response) {
+        int current_frame_floor = Math.min(f0_length - 1, (int) Math.floor(current_time / frame_period));
+        int current_frame_ceil = Math.min(f0_length - 1, (int) Math.ceil(current_time / frame_period));
+        double interpolation = current_time / frame_period - current_frame_floor;
+        getSpectralEnvelope(sp, current_frame_floor, current_frame_ceil, interpolation);
+        getAperiodicRatio(ap, current_frame_floor, current_frame_ceil, interpolation);
+
+        getPeriodicResponse(current_vuv, fractional_time_shift, fs);
+        getAperiodicResponse(current_vuv, noise_size);
+
+        double sqrt_noise_size = Math.sqrt((double) noise_size);
+        for (int i = 0; i < fft_size; i++)
+            response[i] = (periodic_response[i] * sqrt_noise_size + aperiodic_response[i]) / fft_size;
+    }
+
+    private void getSpectralEnvelope(Spectrogram sp, int floor, int ceil, double interpolation) {
+        double[] data = sp.getData();
+        int nb_bins = sp.getNbBins();
+        if (floor == ceil) {
+            for (int i = 0; i < nb_bins; i++)
+                spectral_envelope[i] = Math.abs(data[floor * nb_bins + i]);
+        } else {
+            for (int i = 0; i < nb_bins; i++)
+                spectral_envelope[i] = (1.0 - interpolation) * Math.abs(data[floor * nb_bins + i]) +
+                    interpolation * Math.abs(data[ceil * nb_bins + i]);
+        }
+    }
+
+    private void getAperiodicRatio(Spectrogram ap, int floor, int ceil, double interpolation) {
+        double[] data = ap.getData();
+        int nb_bins = ap.getNbBins();
+        if (floor == ceil) {
+            for (int i = 0; i < nb_bins; i++)
+                aperiodic_ratio[i] = Math.pow(getSafeAperiodicity(data[floor * nb_bins + i]), 2.0);
+        } else {
+            for (int i = 0; i < nb_bins; i++)
+                aperiodic_ratio[i] = Math.pow((1.0 - interpolation) * getSafeAperiodicity(data[floor * nb_bins + i]) +
+                                              interpolation * getSafeAperiodicity(data[ceil * nb_bins + i]), 2.0);
+        }
+    }
+
+    private static double getSafeAperiodicity(double x) {
+        return Math.max(0.001, Math.min(0.999999999999, x));
+    }
+
+    /**
+     *  Compute the periodic response in periodic_response
+     *
+     *  @param current_vuv the voicing at the pulse
+     *  @param fractional_time_shift the fractional position of the pulse in seconds
+     *  @param fs the sample rate
+     */
+    private void getPeriodicResponse(double current_vuv, double fractional_time_shift, int fs) {
+        if ((current_vuv <= 0.5) || (aperiodic_ratio[0] > 0.999)) {
+            Arrays.fill(periodic_response, 0.0);
+            return;
+        }
+
+        for (int i = 0; i <= fft_size / 2; i++)
+            log_spectrum[i] = Math.log(spectral_envelope[i] * (1.0 - aperiodic_ratio[i]) + SAFE_GUARD_MINIMUM) / 2.0;
+        getMinimumPhaseSpectrum();
+
+        // Fractional time delay by a linear phase shift (the sine is taken positive, as World does)
+        double coefficient = 2.0 * Math.PI * fractional_time_shift * fs / fft_size;
+        for (int i = 0; i <= fft_size / 2; i++) {
+            double re2 = Math.cos(coefficient * i);
+            double im2 = Math.sqrt(1.0 - re2 * re2);
+            double spectrum_re = minimum_phase_re[i] * re2 + minimum_phase_im[i] * im2;
+            double spectrum_im = minimum_phase_im[i] * re2 - minimum_phase_re[i] * im2;
+            minimum_phase_re[i] = spectrum_re;
+            minimum_phase_im[i] = spectrum_im;
+        }
+
+        inverseRealFFT(minimum_phase_re, minimum_phase_im);
+        fftshift(re, periodic_response);
+
+        // Remove the DC component
+        double dc_component = 0.0;
+        for (int i = fft_size / 2; i < fft_size; i++)
+            dc_component += periodic_response[i];
+        for (int i = 0; i < fft_size / 2; i++)
+            periodic_response[i] = -dc_component * dc_remover[i];
+        for (int i = fft_size / 2; i < fft_size; i++)
+            periodic_response[i] -= dc_component * dc_remover[i];
+    }
+
+    /**
+     *  Compute the aperiodic response in aperiodic_response
+     *
+     *  @param current_vuv the voicing at the pulse
+     *  @param noise_size the number of noise samples
+     */
+    private void getAperiodicResponse(double current_vuv, int noise_size) {
+        // Zero mean noise spectrum (all the samples are drawn to follow the native generator)
+        double average = 0.0;
+        for (int i = 0; i < noise_size; i++) {
+            noise[i] = randn();
+            average += noise[i];
+        }
+        average /= noise_size;
+        for (int i = 0; i < noise_size; i++)
+            noise[i] -= average;
+        if (noise_size < fft_size)
+            Arrays.fill(noise, noise_size, fft_size, 0.0);
+        System.arraycopy(noise, 0, re, 0, fft_size);
+        Arrays.fill(im, 0.0);
+        fft.forward(re, im);
+        System.arraycopy(re, 0, noise_re, 0, noise_re.length);
+        System.arraycopy(im, 0, noise_im, 0, noise_im.length);
+
+        if (current_vuv != 0.0) {
+            for (int i = 0; i <= fft_size / 2; i++)
+                log_spectrum[i] = Math.log(spectral_envelope[i] * aperiodic_ratio[i]) / 2.0;
+        } else {
+            for (int i = 0; i <= fft_size / 2; i++)
+                log_spectrum[i] = Math.log(spectral_envelope[i]) / 2.0;
+        }
+        getMinimumPhaseSpectrum();
+
+        for (int i = 0; i <= fft_size / 2; i++) {
+            double spectrum_re = minimum_phase_re[i] * noise_re[i] - minimum_phase_im[i] * noise_im[i];
+            double spectrum_im = minimum_phase_re[i] * noise_im[i] + minimum_phase_im[i] * noise_re[i];
+            minimum_phase_re[i] = spectrum_re;
+            minimum_phase_im[i] = spectrum_im;
+        }
+        inverseRealFFT(minimum_phase_re, minimum_phase_im);
+        fftshift(re, aperiodic_response);
+    }
+
+    /*****************************************************************************************************
+     ** Spectral helpers
+     *****************************************************************************************************/
+
+    /**
+     *  Compute the minimum phase spectrum of log_spectrum (its first fft_size / 2 + 1 values) by
+     *  folding its cepstrum, in minimum_phase_re and minimum_phase_im
+     *
+     */
+    private void getMinimumPhaseSpectrum() {
+        // Mirroring, then the cepstrum (the forward transform of the real log spectrum)
+        for (int i = fft_size / 2 + 1; i < fft_size; i++)
+            log_spectrum[i] = log_spectrum[fft_size - i];
+        System.arraycopy(log_spectrum, 0, re, 0, fft_size);
+        Arrays.fill(im, 0.0);
+        fft.forward(re, im);
+
+        // Causal cepstrum, the sign of the imaginary part inverting the transform
+        im[0] = -im[0];
+        for (int i = 1; i < fft_size / 2; i++) {
+            re[i] *= 2.0;
+            im[i] *= -2.0;
+        }
+        im[fft_size / 2] = -im[fft_size / 2];
+        for (int i = fft_size / 2 + 1; i < fft_size; i++) {
+            re[i] = 0.0;
+            im[i] = 0.0;
+        }
+        fft.forward(re, im);
+
+        // Complex exponential
+        for (int i = 0; i <= fft_size / 2; i++) {
+            double tmp = Math.exp(re[i] / fft_size);
+            minimum_phase_re[i] = tmp * Math.cos(im[i] / fft_size);
+            minimum_phase_im[i] = tmp * Math.sin(im[i] / fft_size);
+        }
+    }
+
+    /**
+     *  Compute the unnormalised inverse transform of a half spectrum into re (the imaginary parts
+     *  of the DC and Nyquist bins being ignored)
+     *
+     *  @param spectrum_re the real parts of the fft_size / 2 + 1 bins
+     *  @param spectrum_im the imaginary parts of the fft_size / 2 + 1 bins
+     */
+    private void inverseRealFFT(double[] spectrum_re, double[] spectrum_im) {
+        re[0] = spectrum_re[0];
+        im[0] = 0.0;
+        re[fft_size / 2] = spectrum_re[fft_size / 2];
+        im[fft_size / 2] = 0.0;
+        for (int k = 1; k < fft_size / 2; k++) {
+            re[k] = spectrum_re[k];
+            im[k] = spectrum_im[k];
+            re[fft_size - k] = spectrum_re[k];
+            im[fft_size - k] = -spectrum_im[k];
+        }
+        fft.inverse(re, im);
+    }
+
+    private void fftshift(double[] x, double[] y) {
+        for (int i = 0; i < fft_size / 2; i++) {
+            y[i] = x[i + fft_size / 2];
+            y[i + fft_size / 2] = x[i];
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Noise generator
+     *****************************************************************************************************/
+
+    private void resetNoise() {
+        randn_x = 123456789;
+        randn_y = 362436069;
+        randn_z = 521288629;
+        randn_w = 88675123;
+    }
+
+    /**
+     *  Draw a gaussian value as World does: the sum of 12 uniform values from a xorshift
+     *  generator, minus 6
+     *
+     *  @return the value
+     */
+    private double randn() {
+        long tmp = 0;
+        for (int i = 0; i < 12; i++) {
+            int t = randn_x ^ (randn_x << 11);
+            randn_x = randn_y;
+            randn_y = randn_z;
+            randn_z = randn_w;
+            randn_w = (randn_w ^ (randn_w >>> 19)) ^ (t ^ (t >>> 8));
+            tmp += randn_w >>> 4;
+        }
+        return tmp / 268435456.0 - 6.0;
+    }
+}
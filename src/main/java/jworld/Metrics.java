@@ -0,0 +1,353 @@
+package jworld;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ *  The process-wide metrics of the jworld stages: the time spent in each stage, the number of
+ *  frames processed by the DSP stages and the number of bytes moved by the marshalling stages.
+ *
+ *  The metrics are disabled by default, they can be enabled by the system property
+ *  "jworld.metrics" or by {@link #setEnabled(boolean)}. When they are disabled, a stage only
+ *  costs the read of a volatile flag: the clock is not read and nothing is recorded. When they
+ *  are enabled, the totals are available through the MBean registered by {@link #registerMBean()}
+ *  and each completed stage is given to the registered listeners, on the thread which ran it.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public final class Metrics
+{
+    /** The system property enabling the metrics at startup */
+    public static final String ENABLED_PROPERTY = "jworld.metrics";
+
+    /** The name of the MBean */
+    public static final String MBEAN_NAME = "jworld:type=Metrics";
+
+    /**
+     *  The measured stages
+     */
+    public enum Stage {
+        PCM_DECODE,  /*< The conversion of the PCM input into samples */
+        RESAMPLE,    /*< The sample rate conversion of the input or the output */
+        COPY_IN,     /*< The copy of java arrays into native arrays */
+        DIO,         /*< The raw F0 estimation by Dio */
+        STONEMASK,   /*< The F0 refinement by StoneMask */
+        HARVEST,     /*< The F0 estimation by Harvest */
+        CHEAPTRICK,  /*< The spectral envelope estimation */
+        D4C,         /*< The aperiodicity estimation */
+        SYNTHESIS,   /*< The synthesis, offline or real-time */
+        COPY_OUT,    /*< The copy of native arrays into java arrays */
+        PCM_ENCODE   /*< The conversion of the samples into PCM output */
+    }
+
+    /**
+     *  A listener notified of each completed stage. The listeners are called on the thread which
+     *  ran the stage, possibly concurrently, so they should be thread safe and fast.
+     */
+    public interface Listener {
+        /**
+         *  Method called when a stage is completed
+         *
+         *  @param stage the stage
+         *  @param nanos the duration of the stage in nanoseconds
+         *  @param nb_frames the number of frames processed (0 for the marshalling stages and the
+         *                   buffers of the real-time synthesis)
+         *  @param nb_bytes the number of bytes marshalled (0 for the DSP stages)
+         */
+        void stageCompleted(Stage stage, long nanos, long nb_frames, long nb_bytes);
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final LongAdder[] counts = newAdders(); /*< The number of runs per stage */
+    private static final LongAdder[] nanos = newAdders(); /*< The total time per stage */
+    private static final LongAdder[] frames = newAdders(); /*< The number of frames per stage */
+    private static final LongAdder[] bytes = newAdders(); /*< The number of bytes per stage */
+    private static final LongAccumulator[] max_nanos = newAccumulators(); /*< The longest run per stage */
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private Metrics() {
+    }
+
+    /*****************************************************************************************************
+     ** Accessors
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to know if the metrics are recorded
+     *
+     *  @return true if the metrics are enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     *  Accessor to enable or disable the metrics. The stages running during the change may or
+     *  may not be recorded.
+     *
+     *  @param enabled true to record the metrics
+     */
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     *  Accessor to get the number of completed runs of a stage
+     *
+     *  @param stage the stage
+     *  @return the number of runs
+     */
+    public static long getCount(Stage stage) {
+        return counts[stage.ordinal()].sum();
+    }
+
+    /**
+     *  Accessor to get the total time spent in a stage
+     *
+     *  @param stage the stage
+     *  @return the total time in nanoseconds
+     */
+    public static long getTotalNanos(Stage stage) {
+        return nanos[stage.ordinal()].sum();
+    }
+
+    /**
+     *  Accessor to get the longest run of a stage
+     *
+     *  @param stage the stage
+     *  @return the longest time in nanoseconds
+     */
+    public static long getMaxNanos(Stage stage) {
+        return max_nanos[stage.ordinal()].get();
+    }
+
+    /**
+     *  Accessor to get the number of frames processed by a stage
+     *
+     *  @param stage the stage
+     *  @return the number of frames
+     */
+    public static long getFrames(Stage stage) {
+        return frames[stage.ordinal()].sum();
+    }
+
+    /**
+     *  Accessor to get the number of bytes marshalled by a stage
+     *
+     *  @param stage the stage
+     *  @return the number of bytes
+     */
+    public static long getBytes(Stage stage) {
+        return bytes[stage.ordinal()].sum();
+    }
+
+    /**
+     *  Reset all the totals
+     *
+     */
+    public static void reset() {
+        for (int i=0; i<STAGES.length; i++) {
+            counts[i].reset();
+            nanos[i].reset();
+            frames[i].reset();
+            bytes[i].reset();
+            max_nanos[i].reset();
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Listeners and JMX
+     *****************************************************************************************************/
+
+    /**
+     *  Register a listener
+     *
+     *  @param listener the listener
+     */
+    public static void addListener(Listener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("The listener should not be null");
+        listeners.add(listener);
+    }
+
+    /**
+     *  Unregister a listener
+     *
+     *  @param listener the listener
+     */
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     *  Register the metrics MBean (see {@link MetricsMXBean}) in the platform MBean server under
+     *  the name {@link #MBEAN_NAME}. Nothing is done if it is already registered.
+     *
+     *  @throws JWorldException if the MBean can not be registered
+     */
+    public static synchronized void registerMBean() throws JWorldException {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new MBean(), name);
+        } catch (JMException ex) {
+            throw new JWorldException("Cannot register the metrics MBean", ex);
+        }
+    }
+
+    /**
+     *  Unregister the metrics MBean. Nothing is done if it is not registered.
+     *
+     *  @throws JWorldException if the MBean can not be unregistered
+     */
+    public static synchronized void unregisterMBean() throws JWorldException {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException ex) {
+            throw new JWorldException("Cannot unregister the metrics MBean", ex);
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Internal part
+     *****************************************************************************************************/
+
+    /**
+     *  Start measuring a stage
+     *
+     *  @return the start time, 0 if the metrics are disabled
+     */
+    static long start() {
+        if (!enabled)
+            return 0;
+
+        long start = System.nanoTime();
+        return (start == 0) ? 1 : start;
+    }
+
+    /**
+     *  Record a stage started by {@link #start()}. Nothing is done if the metrics were disabled
+     *  at the start of the stage.
+     *
+     *  @param stage the stage
+     *  @param start the value given by {@link #start()}
+     *  @param nb_frames the number of frames processed
+     *  @param nb_bytes the number of bytes marshalled
+     */
+    static void stop(Stage stage, long start, long nb_frames, long nb_bytes) {
+        if (start == 0)
+            return;
+
+        long duration = System.nanoTime() - start;
+        int i = stage.ordinal();
+        counts[i].increment();
+        nanos[i].add(duration);
+        max_nanos[i].accumulate(duration);
+        if (nb_frames != 0)
+            frames[i].add(nb_frames);
+        if (nb_bytes != 0)
+            bytes[i].add(nb_bytes);
+
+        for (Listener listener : listeners)
+            listener.stageCompleted(stage, duration, nb_frames, nb_bytes);
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[Stage.values().length];
+        for (int i=0; i<adders.length; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static LongAccumulator[] newAccumulators() {
+        LongAccumulator[] accumulators = new LongAccumulator[Stage.values().length];
+        for (int i=0; i<accumulators.length; i++)
+            accumulators[i] = new LongAccumulator(Math::max, 0);
+        return accumulators;
+    }
+
+    /**
+     *  The view of the metrics given to JMX, the maps being indexed by the stage names
+     */
+    private static final class MBean implements MetricsMXBean {
+        private interface Getter {
+            long get(Stage stage);
+        }
+
+        private static Map<String, Long> collect(Getter getter) {
+            Map<String, Long> values = new LinkedHashMap<String, Long>();
+            for (Stage stage : STAGES)
+                values.put(stage.name(), getter.get(stage));
+            return values;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public Map<String, Long> getCounts() {
+            return collect(Metrics::getCount);
+        }
+
+        @Override
+        public Map<String, Long> getTotalMillis() {
+            return collect(stage -> getTotalNanos(stage) / 1000000);
+        }
+
+        @Override
+        public Map<String, Long> getMaxMillis() {
+            return collect(stage -> getMaxNanos(stage) / 1000000);
+        }
+
+        @Override
+        public Map<String, Long> getFrames() {
+            return collect(Metrics::getFrames);
+        }
+
+        @Override
+        public Map<String, Long> getBytes() {
+            return collect(Metrics::getBytes);
+        }
+
+        @Override
+        public long getNativeAllocated() {
+            return NativeMemory.getAllocated();
+        }
+
+        @Override
+        public long getNativeReserved() {
+            return NativeMemory.getReserved();
+        }
+
+        @Override
+        public long getNativeHeld() {
+            return NativeMemory.getHeld();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
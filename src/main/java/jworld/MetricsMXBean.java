@@ -0,0 +1,88 @@
+package jworld;
+
+import java.util.Map;
+
+/**
+ *  The JMX view of the jworld metrics (see {@link Metrics}). The maps are indexed by the names
+ *  of the stages.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public interface MetricsMXBean
+{
+    /**
+     *  Accessor to know if the metrics are recorded
+     *
+     *  @return true if the metrics are enabled
+     */
+    boolean isEnabled();
+
+    /**
+     *  Accessor to enable or disable the metrics
+     *
+     *  @param enabled true to record the metrics
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     *  Accessor to get the number of completed runs per stage
+     *
+     *  @return the number of runs per stage
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     *  Accessor to get the total time spent per stage
+     *
+     *  @return the total time in milliseconds per stage
+     */
+    Map<String, Long> getTotalMillis();
+
+    /**
+     *  Accessor to get the longest run per stage
+     *
+     *  @return the longest time in milliseconds per stage
+     */
+    Map<String, Long> getMaxMillis();
+
+    /**
+     *  Accessor to get the number of frames processed per stage
+     *
+     *  @return the number of frames per stage
+     */
+    Map<String, Long> getFrames();
+
+    /**
+     *  Accessor to get the number of bytes marshalled per stage
+     *
+     *  @return the number of bytes per stage
+     */
+    Map<String, Long> getBytes();
+
+    /**
+     *  Accessor to get the native memory held by the live jworld buffers
+     *
+     *  @return the allocated memory in bytes
+     */
+    long getNativeAllocated();
+
+    /**
+     *  Accessor to get the native memory reserved by the running requests
+     *
+     *  @return the reserved memory in bytes
+     */
+    long getNativeReserved();
+
+    /**
+     *  Accessor to get the native memory held between the requests (signal and F0 cached by the wrappers)
+     *
+     *  @return the held memory in bytes
+     */
+    long getNativeHeld();
+
+    /**
+     *  Reset all the totals
+     *
+     */
+    void reset();
+}
@@ -0,0 +1,115 @@
+package jworld;
+
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ *  Helpers to move java data to and from the swig arrays given to World.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class NativeArrays
+{
+    /** The number of values converted per JNI call between the float arrays and the native arrays */
+    static final int FLOAT_BLOCK_SIZE = 1 << 16;
+
+    private NativeArrays() {
+    }
+
+    /**
+     *  Copy a swig array into a new java array
+     *
+     *  @param array the swig array
+     *  @param length the number of values to copy
+     *  @return the java array
+     */
+    static double[] toJava(SWIGTYPE_p_double array, int length) {
+        double[] values = new double[length];
+        long start = Metrics.start();
+        World.double_array_getrange(array, 0, values, 0, length);
+        Metrics.stop(Metrics.Stage.COPY_OUT, start, 0, NativeBuffer.bytes(length));
+        return values;
+    }
+
+    /**
+     *  Convert a swig array into a new java float array, block by block
+     *
+     *  @param array the swig array
+     *  @param length the number of values to convert
+     *  @return the java float array
+     */
+    static float[] toFloats(SWIGTYPE_p_double array, int length) {
+        float[] values = new float[length];
+        getFloats(array, 0, values, 0, length);
+        return values;
+    }
+
+    /**
+     *  Convert a range of a swig array into a java float array, block by block so that the java
+     *  array is never pinned for long
+     *
+     *  @param src the swig array
+     *  @param src_offset the position of the first value in src
+     *  @param dst the java float array
+     *  @param dst_offset the position of the first value in dst
+     *  @param length the number of values to convert
+     */
+    static void getFloats(SWIGTYPE_p_double src, int src_offset, float[] dst, int dst_offset, int length) {
+        long start = Metrics.start();
+        for (int i = 0; i < length; i += FLOAT_BLOCK_SIZE)
+            World.double_array_getfloats(src, src_offset + i, dst, dst_offset + i, Math.min(FLOAT_BLOCK_SIZE, length - i));
+        Metrics.stop(Metrics.Stage.COPY_OUT, start, 0, 4L * length);
+    }
+
+    /**
+     *  Convert a range of a java float array into a swig array, block by block so that the java
+     *  array is never pinned for long
+     *
+     *  @param dst the swig array
+     *  @param dst_offset the position of the first value in dst
+     *  @param src the java float array
+     *  @param src_offset the position of the first value in src
+     *  @param length the number of values to convert
+     */
+    static void setFloats(SWIGTYPE_p_double dst, int dst_offset, float[] src, int src_offset, int length) {
+        long start = Metrics.start();
+        for (int i = 0; i < length; i += FLOAT_BLOCK_SIZE)
+            World.double_array_setfloats(dst, dst_offset + i, src, src_offset + i, Math.min(FLOAT_BLOCK_SIZE, length - i));
+        Metrics.stop(Metrics.Stage.COPY_IN, start, 0, 4L * length);
+    }
+
+    /**
+     *  Get the swig pointer on the memory of a direct buffer starting at its position.
+     *
+     *  @param buffer the direct buffer
+     *  @param length the minimal number of values needed from the position of the buffer
+     *  @return the swig pointer (not owned, it should never be deleted!)
+     *  @throws IllegalArgumentException if the buffer is not direct, not in native order or too small
+     */
+    static SWIGTYPE_p_double address(DoubleBuffer buffer, int length) {
+        if (!buffer.isDirect())
+            throw new IllegalArgumentException("The buffer should be a direct buffer");
+        if (buffer.order() != ByteOrder.nativeOrder())
+            throw new IllegalArgumentException("The buffer should use the native byte order");
+        if (buffer.remaining() < length)
+            throw new IllegalArgumentException("The buffer should provide " + length + " values but only " + buffer.remaining() + " remain");
+
+        return World.double_array_offset(World.double_buffer_address(buffer), buffer.position());
+    }
+
+    /**
+     *  Get the swig pointer on the memory of a direct buffer written by World, starting at its
+     *  position. GetDirectBufferAddress ignores the read-only flag, so it is checked here.
+     *
+     *  @param buffer the direct buffer
+     *  @param length the minimal number of values needed from the position of the buffer
+     *  @return the swig pointer (not owned, it should never be deleted!)
+     *  @throws IllegalArgumentException if the buffer is read-only, not direct, not in native order or too small
+     */
+    static SWIGTYPE_p_double outputAddress(DoubleBuffer buffer, int length) {
+        if (buffer.isReadOnly())
+            throw new IllegalArgumentException("The buffer receiving the results should not be read-only");
+
+        return address(buffer, length);
+    }
+}
@@ -0,0 +1,227 @@
+package jworld;
+
+/**
+ *  A native array of doubles given to World, released when the handle is closed.
+ *
+ *  Handles should be used in a try-with-resources block: besides releasing the memory when the
+ *  native calls fail, it keeps the handle reachable while World uses the memory. A handle which
+ *  is never closed is released by the {@link NativeCleaner} once it is collected. The memory is
+ *  accounted in {@link NativeMemory#getAllocated()}.
+ *
+ *  A handle taken from a {@link NativeBufferPool} is a view on a pooled allocation which can be
+ *  larger than requested, closing it gives the allocation back to the pool.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class NativeBuffer implements AutoCloseable
+{
+    private final SWIGTYPE_p_double array; /*< The swig array */
+    private final int length; /*< The number of values */
+    private final int capacity; /*< The number of allocated values */
+    private final NativeCleaner.Cleanable cleanable; /*< The registration releasing the array, null for a pooled view */
+    private final NativeBuffer allocation; /*< The pooled allocation of a view, null otherwise */
+    private final NativeBufferPool pool; /*< The pool of a view, null otherwise */
+    private boolean closed; /*< Has the view been given back? */
+
+    private NativeBuffer(int capacity) {
+        this.length = capacity;
+        this.capacity = capacity;
+        this.array = World.new_double_array(capacity);
+        NativeMemory.allocated(bytes(capacity));
+        this.cleanable = NativeCleaner.register(this, new Release(array, capacity));
+        this.allocation = null;
+        this.pool = null;
+    }
+
+    private NativeBuffer(NativeBuffer allocation, int length, NativeBufferPool pool) {
+        this.length = length;
+        this.capacity = allocation.capacity;
+        this.array = allocation.array;
+        this.cleanable = null;
+        this.allocation = allocation;
+        this.pool = pool;
+    }
+
+    /**
+     *  Allocate a new native array
+     *
+     *  @param length the number of values
+     *  @return the handle of the array
+     */
+    static NativeBuffer allocate(int length) {
+        return new NativeBuffer(length);
+    }
+
+    /**
+     *  Get a native array from a pool, or allocate it if there is no pool
+     *
+     *  @param pool the pool (can be null)
+     *  @param length the number of values
+     *  @return the handle of the array
+     */
+    static NativeBuffer allocate(NativeBufferPool pool, int length) {
+        if (pool == null)
+            return new NativeBuffer(length);
+        return pool.acquireBuffer(length);
+    }
+
+    /**
+     *  Wrap a pooled allocation into a view of the needed length
+     *
+     *  @param allocation the pooled allocation
+     *  @param length the number of values
+     *  @param pool the pool owning the allocation
+     *  @return the view
+     */
+    static NativeBuffer view(NativeBuffer allocation, int length, NativeBufferPool pool) {
+        return new NativeBuffer(allocation, length, pool);
+    }
+
+    /**
+     *  Copy a java array into a new native array
+     *
+     *  @param values the values to copy
+     *  @return the handle of the array
+     */
+    static NativeBuffer of(double[] values) {
+        return of(null, values);
+    }
+
+    /**
+     *  Copy a java array into a native array taken from a pool (or allocated if there is no pool)
+     *
+     *  @param pool the pool (can be null)
+     *  @param values the values to copy
+     *  @return the handle of the array
+     */
+    static NativeBuffer of(NativeBufferPool pool, double[] values) {
+        NativeBuffer buffer = allocate(pool, values.length);
+        long start = Metrics.start();
+        World.double_array_setrange(buffer.array, 0, values, 0, values.length);
+        Metrics.stop(Metrics.Stage.COPY_IN, start, 0, bytes(values.length));
+        return buffer;
+    }
+
+    /**
+     *  Convert a java float array into a native array taken from a pool (or allocated if there is no pool)
+     *
+     *  @param pool the pool (can be null)
+     *  @param values the values to convert
+     *  @return the handle of the array
+     */
+    static NativeBuffer of(NativeBufferPool pool, float[] values) {
+        NativeBuffer buffer = allocate(pool, values.length);
+        NativeArrays.setFloats(buffer.array, 0, values, 0, values.length);
+        return buffer;
+    }
+
+    /**
+     *  Get the number of bytes used by a native array
+     *
+     *  @param length the number of values
+     *  @return the number of bytes
+     */
+    static long bytes(long length) {
+        return 8L * length;
+    }
+
+    /**
+     *  Get the number of bytes used by a native array taken from a pool, which is the capacity of
+     *  its bucket
+     *
+     *  @param pool the pool (can be null)
+     *  @param length the number of values
+     *  @return the number of bytes
+     */
+    static long bytes(NativeBufferPool pool, int length) {
+        return bytes((pool == null) ? length : NativeBufferPool.getCapacity(length));
+    }
+
+    /**
+     *  Accessor to get the swig array
+     *
+     *  @return the swig array, valid until the handle is closed
+     */
+    SWIGTYPE_p_double get() {
+        return array;
+    }
+
+    /**
+     *  Accessor to get a pointer inside the array
+     *
+     *  @param position the index of the pointed value
+     *  @return the swig pointer, valid until the handle is closed
+     */
+    SWIGTYPE_p_double offset(int position) {
+        return World.double_array_offset(array, position);
+    }
+
+    /**
+     *  Accessor to get the number of values
+     *
+     *  @return the number of values
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     *  Accessor to get the number of allocated values
+     *
+     *  @return the number of allocated values
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     *  Copy the array into a new java array
+     *
+     *  @return the java array
+     */
+    double[] toArray() {
+        return NativeArrays.toJava(array, length);
+    }
+
+    /**
+     *  Convert the array into a new java float array
+     *
+     *  @return the java float array
+     */
+    float[] toFloatArray() {
+        return NativeArrays.toFloats(array, length);
+    }
+
+    /**
+     *  Release the array, or give it back to its pool
+     *
+     */
+    @Override
+    public void close() {
+        if (pool == null) {
+            cleanable.clean();
+        } else if (!closed) {
+            closed = true;
+            pool.release(allocation);
+        }
+    }
+
+    /**
+     *  The release action, independent from the handle
+     */
+    private static final class Release implements Runnable {
+        private final SWIGTYPE_p_double array;
+        private final int length;
+
+        Release(SWIGTYPE_p_double array, int length) {
+            this.array = array;
+            this.length = length;
+        }
+
+        @Override
+        public void run() {
+            World.delete_double_array(array);
+            NativeMemory.allocated(-bytes(length));
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package jworld;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  A pool of native buffers reused across analysis and synthesis calls.
+ *
+ *  Without a pool, each call allocates and releases its native arrays (signal, F0, spectrum and
+ *  aperiodicity blocks, row tables, samples). A pool attached to an {@link Analyzer} or a
+ *  {@link Synthesizer} keeps the released arrays instead, so that repeated calls of similar sizes
+ *  do not allocate native memory anymore. The arrays are grouped by buckets of power-of-two
+ *  capacities: an array is reused by any request which fits in its bucket, at the price of up to
+ *  twice the needed memory. Each bucket keeps a bounded number of idle arrays, the extra ones
+ *  are released.
+ *
+ *  The requests using a pool reserve the capacity of the buckets in the {@link NativeMemory}
+ *  budget, not only the length they need, and the idle arrays are held in it until they are
+ *  reused or released, so a pool never takes the budget over. Under a tight budget, a request
+ *  can wait for the idle arrays it is about to reuse: {@link #clear()} gives their room back.
+ *
+ *  A pool can be shared by any number of threads. The idle arrays are accounted in
+ *  {@link NativeMemory#getAllocated()} and released by {@link #clear()} or {@link #close()}, or
+ *  when the pool is collected.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class NativeBufferPool implements AutoCloseable
+{
+    /** The default number of idle arrays kept per bucket */
+    public static final int DEFAULT_MAX_IDLE = 16;
+
+    /** The capacity of the smallest bucket */
+    private static final int MIN_CAPACITY = 16;
+
+    private final int max_idle; /*< The number of idle arrays kept per bucket */
+    private final Map<Integer, ArrayDeque<NativeBuffer>> buffers; /*< The idle arrays by capacity */
+    private final Map<Integer, ArrayDeque<NativeRows>> tables; /*< The idle row tables by capacity */
+    private long hits; /*< The number of requests served by an idle array */
+    private long misses; /*< The number of requests which needed an allocation */
+    private final IdleMemory idle; /*< The budget held by the idle arrays, given back if the pool is collected */
+    private long idle_bytes; /*< The memory held by the idle arrays */
+    private boolean closed; /*< Has the pool been closed? */
+
+    /**
+     *  Constructor using the default number of idle arrays per bucket
+     *
+     */
+    public NativeBufferPool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param max_idle the number of idle arrays kept per bucket
+     */
+    public NativeBufferPool(int max_idle) {
+        if (max_idle <= 0)
+            throw new IllegalArgumentException("The number of idle arrays per bucket should be positive");
+
+        this.max_idle = max_idle;
+        this.buffers = new HashMap<Integer, ArrayDeque<NativeBuffer>>();
+        this.tables = new HashMap<Integer, ArrayDeque<NativeRows>>();
+        this.idle = new IdleMemory();
+        NativeCleaner.register(this, idle);
+    }
+
+    /*****************************************************************************************************
+     ** Statistics
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to get the number of requests served by an idle array
+     *
+     *  @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     *  Accessor to get the number of requests which needed an allocation
+     *
+     *  @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     *  Accessor to get the memory held by the idle arrays
+     *
+     *  @return the number of bytes
+     */
+    public synchronized long getIdleBytes() {
+        return idle_bytes;
+    }
+
+    /*****************************************************************************************************
+     ** Life cycle
+     *****************************************************************************************************/
+
+    /**
+     *  Release the idle arrays, the arrays in use are kept when they are given back
+     *
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<NativeBuffer> bucket: buffers.values())
+            for (NativeBuffer buffer: bucket)
+                buffer.close();
+        for (ArrayDeque<NativeRows> bucket: tables.values())
+            for (NativeRows table: bucket)
+                table.close();
+        buffers.clear();
+        tables.clear();
+        idle.add(-idle_bytes);
+        idle_bytes = 0;
+    }
+
+    /**
+     *  Release the idle arrays, the arrays in use are released when they are given back
+     *
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        clear();
+    }
+
+    /*****************************************************************************************************
+     ** Internal part
+     *****************************************************************************************************/
+
+    /**
+     *  Take an array of at least the given length
+     *
+     *  @param length the number of values
+     *  @return the view on a pooled array, to close to give the array back
+     */
+    NativeBuffer acquireBuffer(int length) {
+        int capacity = getCapacity(length);
+        NativeBuffer allocation;
+        synchronized (this) {
+            allocation = take(buffers, capacity);
+        }
+        if (allocation == null)
+            allocation = NativeBuffer.allocate(capacity);
+        return NativeBuffer.view(allocation, length, this);
+    }
+
+    /**
+     *  Take a row table of at least the given length
+     *
+     *  @param length the number of rows
+     *  @return the view on a pooled table, to close to give the table back
+     */
+    NativeRows acquireRows(int length) {
+        int capacity = getCapacity(length);
+        NativeRows allocation;
+        synchronized (this) {
+            allocation = take(tables, capacity);
+        }
+        if (allocation == null)
+            allocation = NativeRows.allocate(null, capacity);
+        return NativeRows.view(allocation, length, this);
+    }
+
+    /**
+     *  Give an array back
+     *
+     *  @param allocation the pooled array
+     */
+    void release(NativeBuffer allocation) {
+        synchronized (this) {
+            if (give(buffers, allocation.capacity(), allocation))
+                return;
+        }
+        allocation.close();
+    }
+
+    /**
+     *  Give a row table back
+     *
+     *  @param allocation the pooled table
+     */
+    void release(NativeRows allocation) {
+        synchronized (this) {
+            if (give(tables, allocation.capacity(), allocation))
+                return;
+        }
+        allocation.close();
+    }
+
+    private <T> T take(Map<Integer, ArrayDeque<T>> buckets, int capacity) {
+        ArrayDeque<T> bucket = buckets.get(capacity);
+        T allocation = (bucket == null) ? null : bucket.pollLast();
+        if (allocation == null) {
+            misses++;
+        } else {
+            hits++;
+            idle_bytes -= NativeBuffer.bytes(capacity);
+            idle.add(-NativeBuffer.bytes(capacity));
+        }
+        return allocation;
+    }
+
+    private <T> boolean give(Map<Integer, ArrayDeque<T>> buckets, int capacity, T allocation) {
+        if (closed)
+            return false;
+
+        ArrayDeque<T> bucket = buckets.get(capacity);
+        if (bucket == null) {
+            bucket = new ArrayDeque<T>();
+            buckets.put(capacity, bucket);
+        }
+        if (bucket.size() >= max_idle)
+            return false;
+
+        bucket.addLast(allocation);
+        idle_bytes += NativeBuffer.bytes(capacity);
+        idle.add(NativeBuffer.bytes(capacity));
+        return true;
+    }
+
+    /**
+     *  Helper to compute the capacity of the bucket of a given length
+     *
+     *  @param length the needed length
+     *  @return the power of two capacity
+     */
+    static int getCapacity(int length) {
+        if (length <= MIN_CAPACITY)
+            return MIN_CAPACITY;
+        if (length > (1 << 30))
+            return length;
+        int capacity = Integer.highestOneBit(length);
+        return (capacity == length) ? capacity : capacity << 1;
+    }
+
+    /**
+     *  The memory of the idle arrays held in the budget, independent from the pool
+     */
+    private static final class IdleMemory implements Runnable {
+        private long bytes;
+
+        synchronized void add(long delta) {
+            bytes += delta;
+            NativeMemory.held(delta);
+        }
+
+        @Override
+        public synchronized void run() {
+            NativeMemory.held(-bytes);
+            bytes = 0;
+        }
+    }
+}
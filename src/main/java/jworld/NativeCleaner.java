@@ -0,0 +1,79 @@
+package jworld;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *  Safety net releasing the native memory of the handles which have not been closed.
+ *
+ *  This is the Java 8 equivalent of java.lang.ref.Cleaner (the library targets Java 8): a daemon
+ *  thread runs the release action of a handle once it has become phantom reachable. The action
+ *  must not reference the handle itself. Closing a handle explicitly runs the action
+ *  immediately, the cleaner only catches the forgotten ones.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class NativeCleaner
+{
+    private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    private static final Set<Cleanable> registered = ConcurrentHashMap.newKeySet();
+
+    static {
+        Thread thread = new Thread(NativeCleaner::drain, "jworld-native-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private NativeCleaner() {
+    }
+
+    /**
+     *  Register the release action of a handle
+     *
+     *  @param owner the handle
+     *  @param action the release action, it should not reference the handle
+     *  @return the cleanable to use to release the memory explicitly
+     */
+    static Cleanable register(Object owner, Runnable action) {
+        Cleanable cleanable = new Cleanable(owner, action);
+        registered.add(cleanable);
+        return cleanable;
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                ((Cleanable) queue.remove()).clean();
+            } catch (Throwable ex) {
+                // Keep releasing the other handles
+            }
+        }
+    }
+
+    /**
+     *  The registration of a handle, running the release action at most once
+     */
+    static final class Cleanable extends PhantomReference<Object> {
+        private final Runnable action;
+        private final AtomicBoolean cleaned = new AtomicBoolean(false);
+
+        private Cleanable(Object owner, Runnable action) {
+            super(owner, queue);
+            this.action = action;
+        }
+
+        /**
+         *  Run the release action if it has not been run yet
+         *
+         */
+        void clean() {
+            if (cleaned.compareAndSet(false, true)) {
+                registered.remove(this);
+                action.run();
+            }
+        }
+    }
+}
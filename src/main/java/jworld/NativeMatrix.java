@@ -0,0 +1,190 @@
+package jworld;
+
+/**
+ *  A native matrix given to World (spectrum or aperiodicity): one contiguous row-major block
+ *  and the table of its row pointers, both released when the handle is closed.
+ *
+ *  The block is either owned by the handle or provided by the caller (a direct buffer), in which
+ *  case only the row table is released. Both can be taken from a {@link NativeBufferPool}. The
+ *  lifecycle rules are the ones of {@link NativeBuffer}.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class NativeMatrix implements AutoCloseable
+{
+    private final NativeBuffer data; /*< The owned block, null if the block is provided by the caller */
+    private final NativeRows rows; /*< The row pointers */
+    private final int nb_rows; /*< The number of rows */
+    private final int nb_cols; /*< The number of values per row */
+
+    private NativeMatrix(NativeBufferPool pool, NativeBuffer data, SWIGTYPE_p_double block, int nb_rows, int nb_cols) {
+        this.data = data;
+        this.nb_rows = nb_rows;
+        this.nb_cols = nb_cols;
+        this.rows = NativeRows.allocate(pool, nb_rows);
+        rows.fill(block, nb_cols);
+    }
+
+    /**
+     *  Allocate a new native matrix
+     *
+     *  @param nb_rows the number of rows
+     *  @param nb_cols the number of values per row
+     *  @return the handle of the matrix
+     */
+    static NativeMatrix allocate(int nb_rows, int nb_cols) {
+        return allocate(null, nb_rows, nb_cols);
+    }
+
+    /**
+     *  Get a native matrix from a pool, or allocate it if there is no pool
+     *
+     *  @param pool the pool (can be null)
+     *  @param nb_rows the number of rows
+     *  @param nb_cols the number of values per row
+     *  @return the handle of the matrix
+     */
+    static NativeMatrix allocate(NativeBufferPool pool, int nb_rows, int nb_cols) {
+        NativeBuffer data = NativeBuffer.allocate(pool, nb_rows * nb_cols);
+        try {
+            return new NativeMatrix(pool, data, data.get(), nb_rows, nb_cols);
+        } catch (RuntimeException ex) {
+            data.close();
+            throw ex;
+        }
+    }
+
+    /**
+     *  Copy a java matrix into a new native matrix
+     *
+     *  @param matrix the matrix to copy
+     *  @return the handle of the matrix
+     */
+    static NativeMatrix of(Spectrogram matrix) {
+        return of(null, matrix);
+    }
+
+    /**
+     *  Copy a java matrix into a native matrix taken from a pool (or allocated if there is no pool)
+     *
+     *  @param pool the pool (can be null)
+     *  @param matrix the matrix to copy
+     *  @return the handle of the matrix
+     */
+    static NativeMatrix of(NativeBufferPool pool, Spectrogram matrix) {
+        NativeBuffer data = NativeBuffer.of(pool, matrix.getData());
+        try {
+            return new NativeMatrix(pool, data, data.get(), matrix.getNbFrames(), matrix.getNbBins());
+        } catch (RuntimeException ex) {
+            data.close();
+            throw ex;
+        }
+    }
+
+    /**
+     *  Convert a java float matrix into a native matrix taken from a pool (or allocated if there is no pool)
+     *
+     *  @param pool the pool (can be null)
+     *  @param matrix the matrix to convert
+     *  @return the handle of the matrix
+     */
+    static NativeMatrix of(NativeBufferPool pool, FloatSpectrogram matrix) {
+        NativeBuffer data = NativeBuffer.of(pool, matrix.getData());
+        try {
+            return new NativeMatrix(pool, data, data.get(), matrix.getNbFrames(), matrix.getNbBins());
+        } catch (RuntimeException ex) {
+            data.close();
+            throw ex;
+        }
+    }
+
+    /**
+     *  Build the row table of a block which is not owned by the handle
+     *
+     *  @param pool the pool of the row table (can be null)
+     *  @param block the first value of the block
+     *  @param nb_rows the number of rows
+     *  @param nb_cols the number of values per row
+     *  @return the handle of the matrix, which only releases the row table
+     */
+    static NativeMatrix wrap(NativeBufferPool pool, SWIGTYPE_p_double block, int nb_rows, int nb_cols) {
+        return new NativeMatrix(pool, null, block, nb_rows, nb_cols);
+    }
+
+    /**
+     *  Get the number of bytes used by a native matrix
+     *
+     *  @param nb_rows the number of rows
+     *  @param nb_cols the number of values per row
+     *  @return the number of bytes (block and row table)
+     */
+    static long bytes(long nb_rows, long nb_cols) {
+        return NativeBuffer.bytes(nb_rows * nb_cols + nb_rows);
+    }
+
+    /**
+     *  Get the number of bytes used by a native matrix taken from a pool
+     *
+     *  @param pool the pool of the block and the row table (can be null)
+     *  @param nb_rows the number of rows
+     *  @param nb_cols the number of values per row
+     *  @return the number of bytes (block and row table)
+     */
+    static long bytes(NativeBufferPool pool, int nb_rows, int nb_cols) {
+        return NativeBuffer.bytes(pool, nb_rows * nb_cols) + NativeBuffer.bytes(pool, nb_rows);
+    }
+
+    /**
+     *  Accessor to get the row table
+     *
+     *  @return the row table, valid until the handle is closed
+     */
+    SWIGTYPE_p_p_double rows() {
+        return rows.get();
+    }
+
+    /**
+     *  Accessor to get the row table from a given row
+     *
+     *  @param row the index of the first row
+     *  @return the row table from this row, valid until the handle is closed
+     */
+    SWIGTYPE_p_p_double rows(int row) {
+        return rows.offset(row);
+    }
+
+    /**
+     *  Copy the owned block into a java matrix
+     *
+     *  @return the java matrix
+     */
+    Spectrogram toSpectrogram() {
+        Spectrogram matrix = new Spectrogram(nb_rows, nb_cols);
+        long start = Metrics.start();
+        World.double_array_getrange(data.get(), 0, matrix.getData(), 0, matrix.getData().length);
+        Metrics.stop(Metrics.Stage.COPY_OUT, start, 0, NativeBuffer.bytes(matrix.getData().length));
+        return matrix;
+    }
+
+    /**
+     *  Convert the owned block into a java float matrix
+     *
+     *  @return the java float matrix
+     */
+    FloatSpectrogram toFloatSpectrogram() {
+        FloatSpectrogram matrix = new FloatSpectrogram(nb_rows, nb_cols);
+        NativeArrays.getFloats(data.get(), 0, matrix.getData(), 0, matrix.getData().length);
+        return matrix;
+    }
+
+    /**
+     *  Release the row table and the owned block
+     *
+     */
+    @Override
+    public void close() {
+        rows.close();
+        if (data != null)
+            data.close();
+    }
+}
@@ -0,0 +1,250 @@
+package jworld;
+
+/**
+ *  The process-wide budget of the native memory used by jworld.
+ *
+ *  The native buffers given to World live outside the java heap, so the garbage collector does
+ *  not see them. To keep the footprint of a server under control, each analysis or synthesis
+ *  reserves the memory it needs in a shared budget before allocating its buffers and waits until
+ *  the other requests leave enough room. A request larger than the whole budget is admitted
+ *  alone. The budget is unlimited by default, it can be set by the system property
+ *  "jworld.native.budget" (in bytes) or by {@link #setBudget(long)}.
+ *
+ *  The native arrays which outlive a request (the signal and the F0 cached by a
+ *  {@link JWorldWrapper}, the idle arrays of a {@link NativeBufferPool}, the chunks queued in a
+ *  {@link StreamingSynthesizer}) are held: they are no longer reserved, but they still count
+ *  against the budget until they are released, so the requests admitted meanwhile share the room
+ *  left.
+ *  A request is still admitted when no other request is running, so the held memory can delay
+ *  the requests but never blocks them forever.
+ *
+ *  Only the buffers allocated by jworld are accounted, the temporary buffers allocated inside
+ *  World are not.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public final class NativeMemory
+{
+    /** The system property defining the initial budget in bytes */
+    public static final String BUDGET_PROPERTY = "jworld.native.budget";
+
+    private static final Object lock = new Object();
+    private static long budget = Long.getLong(BUDGET_PROPERTY, Long.MAX_VALUE); /*< The budget in bytes */
+    private static long reserved = 0; /*< The number of bytes reserved by the running requests */
+    private static long held = 0; /*< The number of bytes held between the requests */
+    private static long allocated = 0; /*< The number of bytes held by the live native handles */
+
+    private NativeMemory() {
+    }
+
+    /**
+     *  Accessor to get the budget
+     *
+     *  @return the budget in bytes
+     */
+    public static long getBudget() {
+        synchronized (lock) {
+            return budget;
+        }
+    }
+
+    /**
+     *  Accessor to set the budget. Lowering it does not affect the running requests.
+     *
+     *  @param budget the new budget in bytes (Long.MAX_VALUE for no limit)
+     */
+    public static void setBudget(long budget) {
+        if (budget <= 0)
+            throw new IllegalArgumentException("The budget should be positive");
+
+        synchronized (lock) {
+            NativeMemory.budget = budget;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     *  Accessor to get the memory reserved by the running requests
+     *
+     *  @return the reserved memory in bytes
+     */
+    public static long getReserved() {
+        synchronized (lock) {
+            return reserved;
+        }
+    }
+
+    /**
+     *  Accessor to get the memory held between the requests (see the class description)
+     *
+     *  @return the held memory in bytes
+     */
+    public static long getHeld() {
+        synchronized (lock) {
+            return held;
+        }
+    }
+
+    /**
+     *  Accessor to get the memory held by the live native buffers, including the ones of the
+     *  wrappers and the streaming synthesizers which are not closed yet
+     *
+     *  @return the allocated memory in bytes
+     */
+    public static long getAllocated() {
+        synchronized (lock) {
+            return allocated;
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Internal part
+     *****************************************************************************************************/
+
+    /**
+     *  Reserve memory in the budget, waiting for the other requests to release enough memory.
+     *  The wait is not interruptible, the interrupt status is restored once admitted.
+     *
+     *  @param bytes the number of bytes to reserve
+     *  @return the reservation to close once the request is done
+     */
+    static Reservation reserve(long bytes) {
+        synchronized (lock) {
+            if (fits(bytes)) {
+                reserved += bytes;
+                return new Reservation(bytes);
+            }
+        }
+
+        // Give the cleaner a chance to release the forgotten handles, out of the lock so the
+        // requests giving their memory back meanwhile are not blocked by the collection
+        System.gc();
+
+        boolean interrupted = false;
+        synchronized (lock) {
+            while (!fits(bytes)) {
+                try {
+                    lock.wait(100);
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            reserved += bytes;
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return new Reservation(bytes);
+    }
+
+    /**
+     *  Helper to know if a request can be admitted now, the lock being held
+     *
+     *  @param bytes the number of bytes of the request
+     *  @return true if the request fits in the budget or no other request is running
+     */
+    private static boolean fits(long bytes) {
+        return (reserved == 0) || (reserved + held + bytes <= budget);
+    }
+
+    /**
+     *  Hold memory outliving a request (not reserved before its allocation). It counts against
+     *  the budget until the returned registration is cleaned, or its owner is collected.
+     *
+     *  @param owner the handle of the native array
+     *  @param bytes the number of bytes
+     *  @return the registration to clean once the array is released
+     */
+    static NativeCleaner.Cleanable hold(Object owner, long bytes) {
+        synchronized (lock) {
+            held += bytes;
+        }
+        return NativeCleaner.register(owner, new Release(bytes));
+    }
+
+    /**
+     *  Account for memory held (positive) or given back (negative) by an owner tracking it
+     *  itself, such as the idle arrays of a {@link NativeBufferPool}
+     *
+     *  @param bytes the number of bytes
+     */
+    static void held(long bytes) {
+        synchronized (lock) {
+            held += bytes;
+            if (bytes < 0)
+                lock.notifyAll();
+        }
+    }
+
+    /**
+     *  Account for the allocation (positive) or the release (negative) of native memory
+     *
+     *  @param bytes the number of bytes
+     */
+    static void allocated(long bytes) {
+        synchronized (lock) {
+            allocated += bytes;
+        }
+    }
+
+    /**
+     *  A reservation in the budget
+     */
+    static final class Reservation implements AutoCloseable {
+        private long bytes;
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         *  Keep part of the reserved memory after the end of the request, for the native arrays
+         *  outliving it: this part is held until the returned registration is cleaned, or its owner
+         *  is collected.
+         *
+         *  @param owner the handle of the native arrays
+         *  @param kept the number of bytes kept (at most the reserved ones)
+         *  @return the registration to clean once the arrays are released
+         */
+        NativeCleaner.Cleanable keep(Object owner, long kept) {
+            synchronized (lock) {
+                bytes -= kept;
+                reserved -= kept;
+                held += kept;
+            }
+            return NativeCleaner.register(owner, new Release(kept));
+        }
+
+        /**
+         *  Give the reserved memory back to the budget
+         *
+         */
+        @Override
+        public void close() {
+            synchronized (lock) {
+                reserved -= bytes;
+                bytes = 0;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     *  The release of held memory, independent from its owner
+     */
+    private static final class Release implements Runnable {
+        private final long bytes;
+
+        Release(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lock) {
+                held -= bytes;
+                lock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package jworld;
+
+/**
+ *  A native table of row pointers (the double** of the spectrum and aperiodicity given to
+ *  World), released when the handle is closed. The lifecycle and pooling rules are the ones of
+ *  {@link NativeBuffer}.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class NativeRows implements AutoCloseable
+{
+    private final SWIGTYPE_p_p_double table; /*< The swig table */
+    private final int length; /*< The number of rows */
+    private final int capacity; /*< The number of allocated rows */
+    private final NativeCleaner.Cleanable cleanable; /*< The registration releasing the table, null for a pooled view */
+    private final NativeRows allocation; /*< The pooled allocation of a view, null otherwise */
+    private final NativeBufferPool pool; /*< The pool of a view, null otherwise */
+    private boolean closed; /*< Has the view been given back? */
+
+    private NativeRows(int capacity) {
+        this.length = capacity;
+        this.capacity = capacity;
+        this.table = World.new_double_p_array(capacity);
+        NativeMemory.allocated(NativeBuffer.bytes(capacity));
+        this.cleanable = NativeCleaner.register(this, new Release(table, capacity));
+        this.allocation = null;
+        this.pool = null;
+    }
+
+    private NativeRows(NativeRows allocation, int length, NativeBufferPool pool) {
+        this.length = length;
+        this.capacity = allocation.capacity;
+        this.table = allocation.table;
+        this.cleanable = null;
+        this.allocation = allocation;
+        this.pool = pool;
+    }
+
+    /**
+     *  Get a row table from a pool, or allocate it if there is no pool
+     *
+     *  @param pool the pool (can be null)
+     *  @param length the number of rows
+     *  @return the handle of the table
+     */
+    static NativeRows allocate(NativeBufferPool pool, int length) {
+        if (pool == null)
+            return new NativeRows(length);
+        return pool.acquireRows(length);
+    }
+
+    /**
+     *  Wrap a pooled allocation into a view of the needed length
+     *
+     *  @param allocation the pooled allocation
+     *  @param length the number of rows
+     *  @param pool the pool owning the allocation
+     *  @return the view
+     */
+    static NativeRows view(NativeRows allocation, int length, NativeBufferPool pool) {
+        return new NativeRows(allocation, length, pool);
+    }
+
+    /**
+     *  Point the rows to consecutive blocks of a row-major matrix
+     *
+     *  @param block the first value of the matrix
+     *  @param nb_cols the number of values per row
+     */
+    void fill(SWIGTYPE_p_double block, int nb_cols) {
+        World.double_matrix_fill_rows(table, block, length, nb_cols);
+    }
+
+    /**
+     *  Accessor to get the swig table
+     *
+     *  @return the swig table, valid until the handle is closed
+     */
+    SWIGTYPE_p_p_double get() {
+        return table;
+    }
+
+    /**
+     *  Accessor to get the table from a given row
+     *
+     *  @param row the index of the first row
+     *  @return the swig table from this row, valid until the handle is closed
+     */
+    SWIGTYPE_p_p_double offset(int row) {
+        return World.double_p_array_offset(table, row);
+    }
+
+    /**
+     *  Accessor to get the number of allocated rows
+     *
+     *  @return the number of allocated rows
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     *  Release the table, or give it back to its pool
+     *
+     */
+    @Override
+    public void close() {
+        if (pool == null) {
+            cleanable.clean();
+        } else if (!closed) {
+            closed = true;
+            pool.release(allocation);
+        }
+    }
+
+    /**
+     *  The release action, independent from the handle
+     */
+    private static final class Release implements Runnable {
+        private final SWIGTYPE_p_p_double table;
+        private final int length;
+
+        Release(SWIGTYPE_p_p_double table, int length) {
+            this.table = table;
+            this.length = length;
+        }
+
+        @Override
+        public void run() {
+            World.delete_double_p_array(table);
+            NativeMemory.allocated(-NativeBuffer.bytes(length));
+        }
+    }
+}
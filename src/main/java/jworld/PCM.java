@@ -0,0 +1,423 @@
+package jworld;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+// Audio
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ *  The conversions between the PCM audio streams and the samples given to World.
+ *
+ *  The supported formats are the signed integer PCM of 8, 16, 24 and 32 bits, the unsigned
+ *  integer PCM of 8 bits and the float PCM of 32 bits, in both byte orders and with any number
+ *  of channels. On input, the channels are either averaged (see {@link #DOWNMIX}) or one of them
+ *  is selected. On output, the mono signal is written to every channel. The samples are scaled
+ *  so that the largest positive integer value is 1.0; on output, the integer values are
+ *  truncated and clipped.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public final class PCM
+{
+    /** The channel index averaging all the channels */
+    public static final int DOWNMIX = -1;
+
+    /** The number of frames converted at once by the streams */
+    private static final int BLOCK_FRAMES = 8192;
+
+    private PCM() {
+    }
+
+    /*****************************************************************************************************
+     ** Formats
+     *****************************************************************************************************/
+
+    /**
+     *  Get the default format of jworld: 16-bit little endian mono signed PCM
+     *
+     *  @param sample_rate the sample rate
+     *  @return the format
+     */
+    public static AudioFormat getDefaultFormat(int sample_rate) {
+        return new AudioFormat(sample_rate, 16, 1, true, false);
+    }
+
+    /**
+     *  Check if a format is supported
+     *
+     *  @param format the format
+     *  @return true if the samples of this format can be converted
+     */
+    public static boolean isSupported(AudioFormat format) {
+        int nb_bits = format.getSampleSizeInBits();
+        if (format.getChannels() <= 0)
+            return false;
+        if ((format.getFrameSize() != AudioSystem.NOT_SPECIFIED) && (format.getFrameSize() != format.getChannels() * nb_bits / 8))
+            return false;
+
+        AudioFormat.Encoding encoding = format.getEncoding();
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(encoding))
+            return (nb_bits == 8) || (nb_bits == 16) || (nb_bits == 24) || (nb_bits == 32);
+        if (AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding))
+            return nb_bits == 8;
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding))
+            return nb_bits == 32;
+        return false;
+    }
+
+    /*****************************************************************************************************
+     ** Input
+     *****************************************************************************************************/
+
+    /**
+     *  Read an audio stream until its end, whatever the value given by available(). An
+     *  incomplete last frame is ignored.
+     *
+     *  @param ais the audio input stream
+     *  @param channel the index of the channel to extract or {@link #DOWNMIX}
+     *  @return the samples, between -1.0 and 1.0 for the integer formats
+     *  @throws IOException if a problem with the stream occurs!
+     */
+    public static double[] read(AudioInputStream ais, int channel) throws IOException {
+        AudioFormat format = ais.getFormat();
+        check(format, channel);
+        int frame_size = getFrameSize(format);
+
+        // Load data, in place if the length is known
+        byte[] data;
+        int nb_bytes = 0;
+        long expected = ais.getFrameLength() * frame_size;
+        if ((ais.getFrameLength() != AudioSystem.NOT_SPECIFIED) && (expected < Integer.MAX_VALUE - 8)) {
+            data = new byte[(int) expected];
+            int n;
+            while ((nb_bytes < data.length) && ((n = ais.read(data, nb_bytes, data.length - nb_bytes)) > 0))
+                nb_bytes += n;
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(ais.available(), 32));
+            byte[] block = new byte[BLOCK_FRAMES * frame_size];
+            int n;
+            while ((n = ais.read(block)) > 0)
+                bytes.write(block, 0, n);
+            data = bytes.toByteArray();
+            nb_bytes = data.length;
+        }
+
+        // Convert to double samples
+        double[] samples = new double[nb_bytes / frame_size];
+        decode(ByteBuffer.wrap(data, 0, nb_bytes), format, channel, samples, 0, samples.length);
+        return samples;
+    }
+
+    /**
+     *  Convert PCM frames into samples. The frames are read from the position of the source
+     *  buffer, which is moved after the last converted frame.
+     *
+     *  @param src the buffer containing the PCM frames (its byte order is ignored)
+     *  @param format the format of the frames
+     *  @param channel the index of the channel to extract or {@link #DOWNMIX}
+     *  @param dst the array receiving the samples
+     *  @param offset the position of the first sample in dst
+     *  @param nb_frames the number of frames to convert
+     *  @throws IllegalArgumentException if the format or the channel is not supported
+     */
+    public static void decode(ByteBuffer src, AudioFormat format, int channel, double[] dst, int offset, int nb_frames) {
+        check(format, channel);
+        int nb_channels = format.getChannels();
+        int frame_size = getFrameSize(format);
+        if (src.remaining() < nb_frames * frame_size)
+            throw new IllegalArgumentException("The buffer should contain " + nb_frames + " frames but only " + src.remaining() + " bytes remain");
+
+        long start = Metrics.start();
+        ByteBuffer bytes = view(src, format);
+        int first = (channel == DOWNMIX) ? 0 : channel;
+        int last = (channel == DOWNMIX) ? nb_channels : channel + 1;
+        double scale = 1.0 / (last - first);
+
+        switch (format.getSampleSizeInBits()) {
+        case 8: {
+            boolean signed = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding());
+            scale /= Byte.MAX_VALUE;
+            for (int i = 0; i < nb_frames; i++) {
+                int sum = 0;
+                for (int c = first; c < last; c++)
+                    sum += signed ? bytes.get(i * nb_channels + c) : (bytes.get(i * nb_channels + c) & 0xFF) - 128;
+                dst[offset+i] = sum * scale;
+            }
+            break;
+        }
+
+        case 16: {
+            ShortBuffer values = bytes.asShortBuffer();
+            scale /= Short.MAX_VALUE;
+            if (last - first == 1) {
+                for (int i = 0; i < nb_frames; i++)
+                    dst[offset+i] = values.get(i * nb_channels + first) / ((double) Short.MAX_VALUE);
+                break;
+            }
+
+            for (int i = 0; i < nb_frames; i++) {
+                int sum = 0;
+                for (int c = first; c < last; c++)
+                    sum += values.get(i * nb_channels + c);
+                dst[offset+i] = sum * scale;
+            }
+            break;
+        }
+
+        case 24: {
+            boolean big_endian = format.isBigEndian();
+            scale /= 0x7FFFFF;
+            for (int i = 0; i < nb_frames; i++) {
+                long sum = 0;
+                for (int c = first; c < last; c++) {
+                    int p = 3 * (i * nb_channels + c);
+                    int b0 = bytes.get(p) & 0xFF;
+                    int b1 = bytes.get(p+1) & 0xFF;
+                    int b2 = bytes.get(p+2) & 0xFF;
+                    sum += big_endian ? ((b0 << 24) | (b1 << 16) | (b2 << 8)) >> 8 : ((b2 << 24) | (b1 << 16) | (b0 << 8)) >> 8;
+                }
+                dst[offset+i] = sum * scale;
+            }
+            break;
+        }
+
+        default:
+            if (AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding())) {
+                FloatBuffer values = bytes.asFloatBuffer();
+                for (int i = 0; i < nb_frames; i++) {
+                    double sum = 0;
+                    for (int c = first; c < last; c++)
+                        sum += values.get(i * nb_channels + c);
+                    dst[offset+i] = sum * scale;
+                }
+            } else {
+                IntBuffer values = bytes.asIntBuffer();
+                scale /= Integer.MAX_VALUE;
+                for (int i = 0; i < nb_frames; i++) {
+                    long sum = 0;
+                    for (int c = first; c < last; c++)
+                        sum += values.get(i * nb_channels + c);
+                    dst[offset+i] = sum * scale;
+                }
+            }
+        }
+
+        src.position(src.position() + nb_frames * frame_size);
+        Metrics.stop(Metrics.Stage.PCM_DECODE, start, 0, (long) nb_frames * frame_size);
+    }
+
+    /*****************************************************************************************************
+     ** Output
+     *****************************************************************************************************/
+
+    /**
+     *  Get an audio stream of samples. The samples are converted block by block as the stream
+     *  is read, the PCM data are never held entirely in memory.
+     *
+     *  @param y the samples
+     *  @param format the format of the stream
+     *  @param as_short true if the samples are already in the short range, false if they are between -1.0 and 1.0
+     *  @return the audio input stream
+     *  @throws IllegalArgumentException if the format is not supported
+     */
+    public static AudioInputStream toAudioInputStream(double[] y, AudioFormat format, boolean as_short) {
+        check(format, DOWNMIX);
+        return new AudioInputStream(new SampleInputStream(y, format, as_short), format, y.length);
+    }
+
+    /**
+     *  Convert samples into PCM frames. The frames are written from the position of the
+     *  destination buffer, which is moved after the last written frame.
+     *
+     *  @param src the samples
+     *  @param offset the position of the first sample in src
+     *  @param nb_frames the number of samples to convert
+     *  @param as_short true if the samples are already in the short range, false if they are between -1.0 and 1.0
+     *  @param format the format of the frames
+     *  @param dst the buffer receiving the PCM frames (its byte order is ignored)
+     *  @throws IllegalArgumentException if the format is not supported
+     */
+    public static void encode(double[] src, int offset, int nb_frames, boolean as_short, AudioFormat format, ByteBuffer dst) {
+        check(format, DOWNMIX);
+        int nb_channels = format.getChannels();
+        int frame_size = getFrameSize(format);
+        if (dst.remaining() < nb_frames * frame_size)
+            throw new IllegalArgumentException("The buffer should have room for " + nb_frames + " frames but only " + dst.remaining() + " bytes remain");
+
+        long start = Metrics.start();
+        ByteBuffer bytes = view(dst, format);
+        double gain = as_short ? 1.0 / Short.MAX_VALUE : 1.0;
+
+        switch (format.getSampleSizeInBits()) {
+        case 8: {
+            int shift = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) ? 0 : 128;
+            for (int i = 0; i < nb_frames; i++) {
+                byte value = (byte) (quantize(src[offset+i] * gain, Byte.MAX_VALUE) + shift);
+                for (int c = 0; c < nb_channels; c++)
+                    bytes.put(i * nb_channels + c, value);
+            }
+            break;
+        }
+
+        case 16: {
+            ShortBuffer values = bytes.asShortBuffer();
+            for (int i = 0; i < nb_frames; i++) {
+                short value;
+                if (as_short)
+                    value = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(src[offset+i])));
+                else
+                    value = (short) quantize(src[offset+i], Short.MAX_VALUE);
+                for (int c = 0; c < nb_channels; c++)
+                    values.put(i * nb_channels + c, value);
+            }
+            break;
+        }
+
+        case 24: {
+            boolean big_endian = format.isBigEndian();
+            for (int i = 0; i < nb_frames; i++) {
+                int value = (int) quantize(src[offset+i] * gain, 0x7FFFFF);
+                byte low = (byte) value;
+                byte high = (byte) (value >> 16);
+                for (int c = 0; c < nb_channels; c++) {
+                    int p = 3 * (i * nb_channels + c);
+                    bytes.put(p, big_endian ? high : low);
+                    bytes.put(p+1, (byte) (value >> 8));
+                    bytes.put(p+2, big_endian ? low : high);
+                }
+            }
+            break;
+        }
+
+        default:
+            if (AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding())) {
+                FloatBuffer values = bytes.asFloatBuffer();
+                for (int i = 0; i < nb_frames; i++) {
+                    float value = (float) (src[offset+i] * gain);
+                    for (int c = 0; c < nb_channels; c++)
+                        values.put(i * nb_channels + c, value);
+                }
+            } else {
+                IntBuffer values = bytes.asIntBuffer();
+                for (int i = 0; i < nb_frames; i++) {
+                    int value = (int) quantize(src[offset+i] * gain, Integer.MAX_VALUE);
+                    for (int c = 0; c < nb_channels; c++)
+                        values.put(i * nb_channels + c, value);
+                }
+            }
+        }
+
+        dst.position(dst.position() + nb_frames * frame_size);
+        Metrics.stop(Metrics.Stage.PCM_ENCODE, start, 0, (long) nb_frames * frame_size);
+    }
+
+    /*****************************************************************************************************
+     ** Internal part
+     *****************************************************************************************************/
+
+    /**
+     *  Get the size of a frame
+     *
+     *  @param format the (supported) format
+     *  @return the size in bytes
+     */
+    static int getFrameSize(AudioFormat format) {
+        return format.getChannels() * (format.getSampleSizeInBits() / 8);
+    }
+
+    /**
+     *  Check that a format is supported and that a channel can be extracted
+     *
+     *  @param format the format
+     *  @param channel the index of the channel or {@link #DOWNMIX}
+     *  @throws IllegalArgumentException if the format or the channel is not supported
+     */
+    static void check(AudioFormat format, int channel) {
+        if (!isSupported(format))
+            throw new IllegalArgumentException("Only the 8/16/24/32-bit integer and 32-bit float PCM formats are supported, not " + format);
+        if ((channel != DOWNMIX) && ((channel < 0) || (channel >= format.getChannels())))
+            throw new IllegalArgumentException("The channel should be between 0 and " + (format.getChannels() - 1) + " or DOWNMIX, not " + channel);
+    }
+
+    /**
+     *  Get a view of a buffer from its position in the byte order of a format
+     *
+     *  @param buffer the buffer
+     *  @param format the format
+     *  @return the view, sharing the content of the buffer
+     */
+    private static ByteBuffer view(ByteBuffer buffer, AudioFormat format) {
+        return buffer.slice().order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     *  Scale a sample to an integer range, truncating and clipping it
+     *
+     *  @param value the sample between -1.0 and 1.0
+     *  @param max the largest positive integer value
+     *  @return the integer value
+     */
+    private static long quantize(double value, long max) {
+        return Math.max(-max - 1, Math.min(max, (long) (value * max)));
+    }
+
+    /**
+     *  The stream converting the samples block by block
+     */
+    private static class SampleInputStream extends InputStream {
+        private final double[] y;
+        private final AudioFormat format;
+        private final boolean as_short;
+        private final ByteBuffer block;
+        private int next = 0; /*< The index of the next sample to convert */
+
+        SampleInputStream(double[] y, AudioFormat format, boolean as_short) {
+            this.y = y;
+            this.format = format;
+            this.as_short = as_short;
+            this.block = ByteBuffer.allocate(Math.min(BLOCK_FRAMES, Math.max(1, y.length)) * getFrameSize(format));
+            this.block.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            if (!block.hasRemaining()) {
+                if (next == y.length)
+                    return -1;
+
+                int n = Math.min(block.capacity() / getFrameSize(format), y.length - next);
+                block.clear();
+                encode(y, next, n, as_short, format, block);
+                block.flip();
+                next += n;
+            }
+
+            int m = Math.min(len, block.remaining());
+            block.get(b, off, m);
+            return m;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, block.remaining() + (long) (y.length - next) * getFrameSize(format));
+        }
+    }
+}
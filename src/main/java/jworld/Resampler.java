@@ -0,0 +1,288 @@
+package jworld;
+
+import java.util.Arrays;
+
+/**
+ *  A polyphase windowed-sinc resampler between two integer sample rates.
+ *
+ *  The rate ratio is reduced to up/down, the output sample j being interpolated at the input
+ *  position j * down / up by a Kaiser windowed sinc filter whose cutoff is just below the
+ *  Nyquist frequency of the lower rate. The filter is centered on the interpolated position, so
+ *  the output is not delayed: a signal of n samples gives ceil(n * up / down) samples aligned on
+ *  the input. The filter coefficients of the up phases are computed once.
+ *
+ *  A resampler converts a whole signal (see {@link #resample(double[], int, int)}) or a stream
+ *  given chunk by chunk: {@link #process(double[], int, int)} returns the samples which can be
+ *  computed from the input seen so far and {@link #flush()} the remaining ones. A resampler
+ *  keeps the state of one stream, so it should not be shared between threads.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public final class Resampler
+{
+    /** The number of zero crossings of the sinc on each side of the interpolated position */
+    private static final int ZERO_CROSSINGS = 16;
+
+    /** The cutoff frequency relative to the Nyquist frequency of the lower rate */
+    private static final double ROLLOFF = 0.945;
+
+    /** The beta parameter of the Kaiser window (about 90dB of stopband attenuation) */
+    private static final double KAISER_BETA = 8.6;
+
+    /** The largest supported number of phases (the reduced output rate) */
+    private static final int MAX_PHASES = 4096;
+
+    private final int input_rate; /*< The input sample rate */
+    private final int output_rate; /*< The output sample rate */
+    private final int up; /*< The reduced output rate */
+    private final int down; /*< The reduced input rate */
+    private final int half_width; /*< The number of input samples on each side of the interpolated position */
+    private final double[][] phases; /*< The filter of each phase, 2 * half_width coefficients */
+
+    private double[] buffer; /*< The input samples kept for the next outputs */
+    private long buffer_start; /*< The index of buffer[0] in the input, the samples before 0 being zeros */
+    private int buffer_length; /*< The number of samples in the buffer */
+    private long nb_inputs = 0; /*< The number of input samples received */
+    private long nb_outputs = 0; /*< The number of output samples produced */
+    private boolean flushed = false;
+
+    /**
+     *  Constructor
+     *
+     *  @param input_rate the input sample rate
+     *  @param output_rate the output sample rate
+     *  @throws IllegalArgumentException if a rate is not positive or if the reduced ratio needs more than 4096 phases
+     */
+    public Resampler(int input_rate, int output_rate) {
+        if ((input_rate <= 0) || (output_rate <= 0))
+            throw new IllegalArgumentException("The sample rates should be positive");
+
+        int gcd = gcd(input_rate, output_rate);
+        this.input_rate = input_rate;
+        this.output_rate = output_rate;
+        this.up = output_rate / gcd;
+        this.down = input_rate / gcd;
+        if (up > MAX_PHASES)
+            throw new IllegalArgumentException("The ratio " + output_rate + "/" + input_rate + " needs " + up + " phases, more than " + MAX_PHASES);
+
+        // The cutoff in cycles per input sample (relative to the input Nyquist frequency)
+        double cutoff = ROLLOFF * Math.min(1.0, (double) up / down);
+        half_width = (int) Math.ceil(ZERO_CROSSINGS / cutoff);
+        phases = new double[up][2 * half_width];
+        for (int p = 0; p < up; p++) {
+            double sum = 0;
+            for (int i = 0; i < 2 * half_width; i++) {
+                double distance = (double) p / up + half_width - 1 - i;
+                double value = cutoff * sinc(cutoff * distance) * kaiser(distance / half_width);
+                phases[p][i] = value;
+                sum += value;
+            }
+
+            // Unit gain at DC for every phase
+            for (int i = 0; i < 2 * half_width; i++)
+                phases[p][i] /= sum;
+        }
+
+        reset();
+    }
+
+    /**
+     *  Resample a whole signal
+     *
+     *  @param x the signal
+     *  @param input_rate the sample rate of the signal
+     *  @param output_rate the target sample rate
+     *  @return the resampled signal (x itself if the rates are the same)
+     */
+    public static double[] resample(double[] x, int input_rate, int output_rate) {
+        if (input_rate == output_rate)
+            return x;
+
+        Resampler resampler = new Resampler(input_rate, output_rate);
+        double[] head = resampler.process(x, 0, x.length);
+        double[] tail = resampler.flush();
+        double[] y = Arrays.copyOf(head, head.length + tail.length);
+        System.arraycopy(tail, 0, y, head.length, tail.length);
+        return y;
+    }
+
+    /*****************************************************************************************************
+     ** Accessors
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to get the input sample rate
+     *
+     *  @return the input sample rate
+     */
+    public int getInputRate() {
+        return input_rate;
+    }
+
+    /**
+     *  Accessor to get the output sample rate
+     *
+     *  @return the output sample rate
+     */
+    public int getOutputRate() {
+        return output_rate;
+    }
+
+    /**
+     *  Get the number of output samples of a signal
+     *
+     *  @param nb_samples the number of input samples
+     *  @return the number of output samples
+     */
+    public long getOutputLength(long nb_samples) {
+        return (nb_samples * up + down - 1) / down;
+    }
+
+    /*****************************************************************************************************
+     ** Streaming
+     *****************************************************************************************************/
+
+    /**
+     *  Give the next input samples
+     *
+     *  @param x the array containing the samples
+     *  @param offset the position of the first sample in x
+     *  @param length the number of samples
+     *  @return the output samples which can be computed so far (possibly none)
+     *  @throws IllegalStateException if the stream has been flushed
+     */
+    public double[] process(double[] x, int offset, int length) {
+        if (flushed)
+            throw new IllegalStateException("The stream has been flushed, the resampler should be reset");
+
+        append(x, offset, length);
+        nb_inputs += length;
+        return produce(getAvailableOutputs());
+    }
+
+    /**
+     *  Signal the end of the input and get the last output samples
+     *
+     *  @return the last output samples
+     *  @throws IllegalStateException if the stream has already been flushed
+     */
+    public double[] flush() {
+        if (flushed)
+            throw new IllegalStateException("The stream has already been flushed");
+
+        // The samples after the end are zeros
+        append(new double[half_width], 0, half_width);
+        flushed = true;
+        return produce(getOutputLength(nb_inputs));
+    }
+
+    /**
+     *  Reset the state to start a new stream
+     *
+     */
+    public void reset() {
+        buffer = new double[Math.max(1024, 4 * half_width)];
+        buffer_start = -half_width;
+        buffer_length = half_width;
+        nb_inputs = 0;
+        nb_outputs = 0;
+        flushed = false;
+    }
+
+    /*****************************************************************************************************
+     ** Internal part
+     *****************************************************************************************************/
+
+    /**
+     *  Get the number of outputs whose filter only covers the received inputs
+     *
+     *  @return the total number of outputs available
+     */
+    private long getAvailableOutputs() {
+        // Output j needs the inputs up to floor(j * down / up) + half_width
+        long last_input = nb_inputs - 1 - half_width;
+        if (last_input < 0)
+            return 0;
+        return Math.min(getOutputLength(nb_inputs), last_input * up / down + 1);
+    }
+
+    /**
+     *  Compute the outputs up to a given index and discard the inputs which are not needed anymore
+     *
+     *  @param end the index following the last output to compute
+     *  @return the computed outputs
+     */
+    private double[] produce(long end) {
+        long start = Metrics.start();
+        double[] y = new double[(int) Math.max(0, end - nb_outputs)];
+        for (int j = 0; j < y.length; j++, nb_outputs++) {
+            long position = nb_outputs * down;
+            double[] filter = phases[(int) (position % up)];
+            int first = (int) (position / up - half_width + 1 - buffer_start);
+            double value = 0;
+            for (int i = 0; i < filter.length; i++)
+                value += filter[i] * buffer[first + i];
+            y[j] = value;
+        }
+
+        // Keep the inputs needed by the next output
+        long next_first = nb_outputs * down / up - half_width + 1;
+        int discarded = (int) Math.min(buffer_length, Math.max(0, next_first - buffer_start));
+        System.arraycopy(buffer, discarded, buffer, 0, buffer_length - discarded);
+        buffer_length -= discarded;
+        buffer_start += discarded;
+
+        Metrics.stop(Metrics.Stage.RESAMPLE, start, 0, 0);
+        return y;
+    }
+
+    /**
+     *  Append samples to the buffer
+     *
+     *  @param x the array containing the samples
+     *  @param offset the position of the first sample in x
+     *  @param length the number of samples
+     */
+    private void append(double[] x, int offset, int length) {
+        if (buffer_length + length > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, buffer_length + length));
+        System.arraycopy(x, offset, buffer, buffer_length, length);
+        buffer_length += length;
+    }
+
+    private static double sinc(double x) {
+        return (x == 0) ? 1.0 : Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+
+    /**
+     *  The Kaiser window
+     *
+     *  @param x the position relative to the half width of the window, between -1 and 1
+     *  @return the value of the window
+     */
+    private static double kaiser(double x) {
+        if (Math.abs(x) >= 1)
+            return 0;
+        return bessel0(KAISER_BETA * Math.sqrt(1 - x * x)) / bessel0(KAISER_BETA);
+    }
+
+    /**
+     *  The modified Bessel function of the first kind and order 0
+     *
+     *  @param x the value
+     *  @return the value of the function
+     */
+    private static double bessel0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; term > 1e-12 * sum; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        return (b == 0) ? a : gcd(b, a % b);
+    }
+}
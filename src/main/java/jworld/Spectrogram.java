@@ -0,0 +1,198 @@
+package jworld;
+
+import java.nio.DoubleBuffer;
+
+/**
+ *  A frame by bin matrix of World features (spectrum or aperiodicity) stored in one flat
+ *  row-major double array.
+ *
+ *  Frame t starts at index t * nb_bins of the backing array, so a whole matrix can be moved
+ *  across JNI in one copy and frames can be viewed without any copy.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Spectrogram
+{
+    private final double[] data; /*< The values in row-major order */
+    private final int nb_frames; /*< The number of frames */
+    private final int nb_bins; /*< The number of bins per frame (fft_size/2+1) */
+
+    /**
+     *  Constructor to allocate an empty (zero-filled) matrix
+     *
+     *  @param nb_frames the number of frames
+     *  @param nb_bins the number of bins per frame
+     */
+    public Spectrogram(int nb_frames, int nb_bins) {
+        this(new double[checkSize(nb_frames, nb_bins)], nb_frames, nb_bins);
+    }
+
+    /**
+     *  Constructor to wrap an existing row-major array. The array is not copied.
+     *
+     *  @param data the values in row-major order
+     *  @param nb_frames the number of frames
+     *  @param nb_bins the number of bins per frame
+     *  @throws IllegalArgumentException if the size of data is not nb_frames * nb_bins
+     */
+    public Spectrogram(double[] data, int nb_frames, int nb_bins) {
+        if (data.length != checkSize(nb_frames, nb_bins))
+            throw new IllegalArgumentException("The data contains " + data.length + " values, " +
+                                               nb_frames + "x" + nb_bins + " were expected");
+        this.data = data;
+        this.nb_frames = nb_frames;
+        this.nb_bins = nb_bins;
+    }
+
+    /**
+     *  Build a matrix by copying a two dimensional array
+     *
+     *  @param values the values with the shape (nb_frames, nb_bins)
+     *  @return the matrix containing a copy of the values
+     *  @throws IllegalArgumentException if the rows do not have the same length
+     */
+    public static Spectrogram fromArray(double[][] values) {
+        int nb_bins = (values.length == 0) ? 0 : values[0].length;
+        Spectrogram sp = new Spectrogram(values.length, nb_bins);
+        for (int t=0; t<values.length; t++) {
+            if (values[t].length != nb_bins)
+                throw new IllegalArgumentException("Frame " + t + " contains " + values[t].length + " bins, " + nb_bins + " were expected");
+            System.arraycopy(values[t], 0, sp.data, t * nb_bins, nb_bins);
+        }
+        return sp;
+    }
+
+    /*****************************************************************************************************
+     ** Accessors
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to get the number of frames
+     *
+     *  @return the number of frames
+     */
+    public int getNbFrames() {
+        return nb_frames;
+    }
+
+    /**
+     *  Accessor to get the number of bins per frame
+     *
+     *  @return the number of bins
+     */
+    public int getNbBins() {
+        return nb_bins;
+    }
+
+    /**
+     *  Accessor to get the FFT size corresponding to the number of bins
+     *
+     *  @return the FFT size
+     */
+    public int getFFTSize() {
+        return (nb_bins - 1) * 2;
+    }
+
+    /**
+     *  Accessor to get the backing array (row-major order). The array is not copied.
+     *
+     *  @return the backing array
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    /**
+     *  Accessor to get one value
+     *
+     *  @param frame the frame index
+     *  @param bin the bin index
+     *  @return the value
+     */
+    public double get(int frame, int bin) {
+        return data[index(frame, bin)];
+    }
+
+    /**
+     *  Accessor to set one value
+     *
+     *  @param frame the frame index
+     *  @param bin the bin index
+     *  @param value the new value
+     */
+    public void set(int frame, int bin, double value) {
+        data[index(frame, bin)] = value;
+    }
+
+    /*****************************************************************************************************
+     ** Views and copies
+     *****************************************************************************************************/
+
+    /**
+     *  Get a view on a frame. The view shares the backing array, so writes are visible in the matrix.
+     *
+     *  @param frame the frame index
+     *  @return the view, whose position 0 is the first bin of the frame
+     */
+    public DoubleBuffer getFrame(int frame) {
+        return DoubleBuffer.wrap(data, index(frame, 0), nb_bins).slice();
+    }
+
+    /**
+     *  Copy the values of a bin across all the frames
+     *
+     *  @param bin the bin index
+     *  @param dst the array receiving the nb_frames values
+     */
+    public void getBin(int bin, double[] dst) {
+        if ((bin < 0) || (bin >= nb_bins))
+            throw new IndexOutOfBoundsException("Bin " + bin + " is not in [0, " + nb_bins + "[");
+        for (int t=0, i=bin; t<nb_frames; t++, i+=nb_bins)
+            dst[t] = data[i];
+    }
+
+    /**
+     *  Copy the values of a bin across all the frames
+     *
+     *  @param bin the bin index
+     *  @return the nb_frames values of the bin
+     */
+    public double[] getBin(int bin) {
+        double[] values = new double[nb_frames];
+        getBin(bin, values);
+        return values;
+    }
+
+    /**
+     *  Copy the matrix into a two dimensional array
+     *
+     *  @return the values with the shape (nb_frames, nb_bins)
+     */
+    public double[][] toArray() {
+        double[][] values = new double[nb_frames][nb_bins];
+        for (int t=0; t<nb_frames; t++)
+            System.arraycopy(data, t * nb_bins, values[t], 0, nb_bins);
+        return values;
+    }
+
+    /*****************************************************************************************************
+     ** Helpers
+     *****************************************************************************************************/
+
+    private int index(int frame, int bin) {
+        if ((frame < 0) || (frame >= nb_frames))
+            throw new IndexOutOfBoundsException("Frame " + frame + " is not in [0, " + nb_frames + "[");
+        if ((bin < 0) || (bin >= nb_bins))
+            throw new IndexOutOfBoundsException("Bin " + bin + " is not in [0, " + nb_bins + "[");
+        return frame * nb_bins + bin;
+    }
+
+    private static int checkSize(int nb_frames, int nb_bins) {
+        if ((nb_frames < 0) || (nb_bins < 0))
+            throw new IllegalArgumentException("The dimensions should be positive");
+        long size = (long) nb_frames * nb_bins;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(nb_frames + "x" + nb_bins + " values do not fit in one array");
+        return (int) size;
+    }
+}
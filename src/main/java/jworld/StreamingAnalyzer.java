@@ -0,0 +1,298 @@
+package jworld;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Audio
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ *  Block-wise analysis of long recordings with a bounded memory footprint.
+ *
+ *  The audio stream is read by blocks and analysed on overlapping windows: each window covers
+ *  the frames of one block plus a context on each side, and only the frames of the block are
+ *  emitted to the listener. Windows start on frame positions, so the time axis of a window is
+ *  the one of the whole file shifted by a whole number of frames. The first and the last windows
+ *  are bounded by the ends of the file, exactly like a whole-file analysis.
+ *
+ *  The emitted frames are close to the ones of a whole-file analysis, but not identical. DIO
+ *  low-pass filters and decimates the whole window before estimating its F0 candidates, and fixes
+ *  the F0 contour globally (the voiced sections are checked and extended over the whole window),
+ *  so the F0 of a frame also depends on samples outside its context: with a context of a few
+ *  hundred milliseconds, it differs by less than 1 Hz (the deviation checked by the tests with
+ *  0.3s of context). Harvest also works on the whole window. The spectrum and the aperiodicity
+ *  are computed frame by frame on windows of a few F0 periods: they follow the deviations of the
+ *  F0 and otherwise only differ by the rounding of the time axis. A longer context reduces these
+ *  deviations without removing them.
+ *
+ *  The memory used only depends on the block and context durations, not on the length of the
+ *  recording.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class StreamingAnalyzer
+{
+    /** The default duration of the blocks of emitted frames in seconds */
+    public static final double DEFAULT_BLOCK_DURATION = 10.0;
+
+    /** The default duration of the context added on each side of a block in seconds */
+    public static final double DEFAULT_CONTEXT_DURATION = 1.0;
+
+    /** The number of frames read from the stream at once */
+    private static final int READ_SIZE = 4096;
+
+    /**
+     *  The receiver of the analysed frames
+     */
+    public interface Listener {
+        /**
+         *  Receive the next consecutive frames
+         *
+         *  @param first_frame the index of the first frame in the whole recording
+         *  @param f0 the F0 of the frames
+         *  @param sp the spectrum of the frames
+         *  @param ap the aperiodicity of the frames
+         */
+        void frames(int first_frame, double[] f0, Spectrogram sp, Spectrogram ap);
+    }
+
+    private final Analyzer analyzer; /*< The analyzer applied on each window */
+    private final double block_duration; /*< The duration of the blocks of emitted frames in seconds */
+    private final double context_duration; /*< The duration of the context on each side of a block in seconds */
+
+    /**
+     *  Constructor using the default block and context durations
+     *
+     *  @param analyzer the analyzer applied on each window
+     */
+    public StreamingAnalyzer(Analyzer analyzer) {
+        this(analyzer, DEFAULT_BLOCK_DURATION, DEFAULT_CONTEXT_DURATION);
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param analyzer the analyzer applied on each window
+     *  @param block_duration the duration of the blocks of emitted frames in seconds
+     *  @param context_duration the duration of the context on each side of a block in seconds
+     */
+    public StreamingAnalyzer(Analyzer analyzer, double block_duration, double context_duration) {
+        if (block_duration <= 0)
+            throw new IllegalArgumentException("The block duration should be positive");
+        if (context_duration < 0)
+            throw new IllegalArgumentException("The context duration should not be negative");
+
+        this.analyzer = analyzer;
+        this.block_duration = block_duration;
+        this.context_duration = context_duration;
+    }
+
+    /**
+     *  Accessor to get the analyzer applied on each window
+     *
+     *  @return the analyzer
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /*****************************************************************************************************
+     ** Analysis entry part
+     *****************************************************************************************************/
+
+    /**
+     *  Analyse an audio stream block by block, the channels being averaged (see {@link PCM} for
+     *  the supported formats). The listener is called in the current thread, in the frame order,
+     *  as soon as a block is analysed.
+     *
+     *  @param ais the audio input stream, read until its end
+     *  @param listener the receiver of the frames
+     *  @return the total number of frames
+     *  @throws IOException if a problem with the stream occurs!
+     */
+    public int analyze(AudioInputStream ais, Listener listener) throws IOException {
+        return analyze(ais, PCM.DOWNMIX, listener);
+    }
+
+    /**
+     *  Analyse one channel of an audio stream block by block (see {@link PCM} for the supported
+     *  formats). The listener is called in the current thread, in the frame order, as soon as a
+     *  block is analysed.
+     *
+     *  @param ais the audio input stream, read until its end
+     *  @param channel the index of the channel or {@link PCM#DOWNMIX} to average the channels
+     *  @param listener the receiver of the frames
+     *  @return the total number of frames
+     *  @throws IOException if a problem with the stream occurs!
+     */
+    public int analyze(AudioInputStream ais, int channel, Listener listener) throws IOException {
+        return analyze(ais, channel, (int) ais.getFormat().getSampleRate(), listener);
+    }
+
+    /**
+     *  Analyse one channel of an audio stream block by block at a given sample rate, the
+     *  samples being resampled as they are read if needed (see {@link Resampler}). The listener
+     *  is called in the current thread, in the frame order, as soon as a block is analysed.
+     *
+     *  @param ais the audio input stream, read until its end
+     *  @param channel the index of the channel or {@link PCM#DOWNMIX} to average the channels
+     *  @param sample_rate the sample rate of the analysis
+     *  @param listener the receiver of the frames
+     *  @return the total number of frames
+     *  @throws IOException if a problem with the stream occurs!
+     */
+    public int analyze(AudioInputStream ais, int channel, int sample_rate, Listener listener) throws IOException {
+        AudioFormat format = ais.getFormat();
+        PCM.check(format, channel);
+        Resampler resampler = null;
+        if ((int) format.getSampleRate() != sample_rate)
+            resampler = new Resampler((int) format.getSampleRate(), sample_rate);
+
+        double frame_period = analyzer.getConfig().getFramePeriod();
+        double hop = frame_period / 1000.0 * sample_rate;
+
+        // Block and context sizes in frames, multiples of a number of frames spanning whole samples
+        int alignment = FrameChunks.getAlignment(hop);
+        int block_frames = FrameChunks.align((int) Math.ceil(block_duration * 1000.0 / frame_period), alignment);
+        int context_frames = FrameChunks.align((int) Math.ceil(context_duration * 1000.0 / frame_period), alignment);
+
+        SampleBuffer buffer = new SampleBuffer(ais, channel, resampler, (int) Math.ceil((block_frames + 2 * context_frames) * hop) + 2);
+        int next_frame = 0;
+        while (true) {
+            int first_frame = Math.max(0, next_frame - context_frames);
+            long start = Math.round(first_frame * hop);
+            long end = (long) Math.ceil((next_frame + block_frames - 1 + context_frames) * hop) + 1;
+            boolean last = !buffer.fill(end);
+
+            // Analyse the window
+            double[] window = buffer.get(start, last ? buffer.getEnd() : end);
+            WorldAnalysis analysis = analyzer.analyze(window, sample_rate).computeAll();
+            int from = next_frame - first_frame;
+            int to = last ? analysis.getNbFrames() : from + block_frames;
+            if (to > from)
+                emit(listener, analysis, next_frame, from, to);
+            next_frame += Math.max(0, to - from);
+
+            if (last)
+                return next_frame;
+
+            // Only keep the context of the next window
+            buffer.discard(Math.round(Math.max(0, next_frame - context_frames) * hop));
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Helpers
+     *****************************************************************************************************/
+
+    /**
+     *  Helper to send the frames [from, to[ of a window analysis to the listener
+     *
+     *  @param listener the listener
+     *  @param analysis the window analysis
+     *  @param first_frame the index of the first sent frame in the whole recording
+     *  @param from the index of the first sent frame in the window
+     *  @param to the index following the last sent frame in the window
+     */
+    private static void emit(Listener listener, WorldAnalysis analysis, int first_frame, int from, int to) {
+        int nb_bins = analysis.getFFTSize() / 2 + 1;
+        double[] f0 = Arrays.copyOfRange(analysis.getF0(), from, to);
+        Spectrogram sp = new Spectrogram(Arrays.copyOfRange(analysis.getSpectrogram().getData(), from * nb_bins, to * nb_bins),
+                                         to - from, nb_bins);
+        Spectrogram ap = new Spectrogram(Arrays.copyOfRange(analysis.getAperiodicity().getData(), from * nb_bins, to * nb_bins),
+                                         to - from, nb_bins);
+        listener.frames(first_frame, f0, sp, ap);
+    }
+
+    /**
+     *  The sliding buffer of decoded samples
+     */
+    private static class SampleBuffer {
+        private final AudioInputStream ais;
+        private final int channel; /*< The index of the extracted channel or PCM.DOWNMIX */
+        private final Resampler resampler; /*< The resampler to the analysis rate (null if not needed) */
+        private final int frame_size; /*< The size of a PCM frame in bytes */
+        private final byte[] bytes;
+        private final double[] decoded; /*< The samples of one read before the resampling */
+        private int nb_bytes = 0; /*< The number of bytes of an incomplete frame kept from the last read */
+        private double[] samples;
+        private long offset = 0; /*< The index of samples[0] in the recording */
+        private int length = 0; /*< The number of available samples */
+        private boolean eof = false;
+
+        SampleBuffer(AudioInputStream ais, int channel, Resampler resampler, int capacity) {
+            this.ais = ais;
+            this.channel = channel;
+            this.resampler = resampler;
+            this.frame_size = PCM.getFrameSize(ais.getFormat());
+            this.bytes = new byte[frame_size * READ_SIZE];
+            this.decoded = (resampler == null) ? null : new double[READ_SIZE];
+            this.samples = new double[capacity + READ_SIZE];
+        }
+
+        /**
+         *  Read the stream until the sample end - 1 is available
+         *
+         *  @param end the index following the last needed sample
+         *  @return true if the samples are available, false if the stream ended before
+         *  @throws IOException if a problem with the stream occurs!
+         */
+        boolean fill(long end) throws IOException {
+            while (!eof && (offset + length < end)) {
+                int n = ais.read(bytes, nb_bytes, bytes.length - nb_bytes);
+                if (n < 0) {
+                    eof = true;
+                    if (resampler != null)
+                        append(resampler.flush());
+                    break;
+                }
+
+                nb_bytes += n;
+                int nb_frames = nb_bytes / frame_size;
+                if (resampler == null) {
+                    ensureCapacity(nb_frames);
+                    PCM.decode(ByteBuffer.wrap(bytes), ais.getFormat(), channel, samples, length, nb_frames);
+                    length += nb_frames;
+                } else {
+                    PCM.decode(ByteBuffer.wrap(bytes), ais.getFormat(), channel, decoded, 0, nb_frames);
+                    append(resampler.process(decoded, 0, nb_frames));
+                }
+
+                // Keep the incomplete frame for the next read
+                nb_bytes -= frame_size * nb_frames;
+                if (nb_bytes > 0)
+                    System.arraycopy(bytes, frame_size * nb_frames, bytes, 0, nb_bytes);
+            }
+
+            return offset + length >= end;
+        }
+
+        long getEnd() {
+            return offset + length;
+        }
+
+        private void ensureCapacity(int nb_samples) {
+            if (length + nb_samples > samples.length)
+                samples = Arrays.copyOf(samples, Math.max(2 * samples.length, length + nb_samples));
+        }
+
+        private void append(double[] values) {
+            ensureCapacity(values.length);
+            System.arraycopy(values, 0, samples, length, values.length);
+            length += values.length;
+        }
+
+        double[] get(long start, long end) {
+            return Arrays.copyOfRange(samples, (int) (start - offset), (int) (end - offset));
+        }
+
+        void discard(long start) {
+            int n = (int) (start - offset);
+            System.arraycopy(samples, n, samples, 0, length - n);
+            length -= n;
+            offset = start;
+        }
+    }
+}
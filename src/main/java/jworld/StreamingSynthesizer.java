@@ -0,0 +1,535 @@
+package jworld;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// Audio
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ *  Streaming synthesis based on the real-time synthesizer of World (synthesisrealtime.h).
+ *
+ *  The parameters are pushed chunk by chunk (down to one frame) as they are produced and the
+ *  signal is pulled by blocks of a fixed size as soon as enough parameters are available, so the
+ *  latency does not depend on the length of the utterance. Pushing and pulling can happen in
+ *  different threads: {@link #put} waits for free room in the parameter queue and {@link #take}
+ *  waits for parameters. Once {@link #finish()} has been called, the end of the signal is flushed
+ *  and the stream contains as many samples as an offline synthesis of the same frames.
+ *
+ *  World keeps pointers to the pushed parameters in a queue of number_of_pointers slots. A chunk
+ *  is copied in native memory when pushed and released once its slot has been reused; its copy
+ *  is reserved in the {@link NativeMemory} budget and held there until it is released. The
+ *  native memory is released by {@link #close()}, or by the native cleaner if the synthesizer is
+ *  collected without being closed.
+ *
+ *  The noise excitation is drawn from a generator state owned by the stream, starting from the
+ *  seed of World: it is loaded in the thread-local generator of the calling thread for each
+ *  native step and saved afterwards, so a stream is reproducible whatever the other analyses and
+ *  syntheses running concurrently, and whichever threads pull its blocks.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class StreamingSynthesizer implements AutoCloseable
+{
+    /** The default number of samples per block */
+    public static final int DEFAULT_BUFFER_SIZE = 64;
+
+    /** The default number of chunks which can be queued */
+    public static final int DEFAULT_NUMBER_OF_POINTERS = 100;
+
+    private final WorldSynthesizer synth; /*< The native real-time synthesizer */
+    private final SWIGTYPE_p_uint32_t noise; /*< The state of the noise generator of the stream */
+    private final NativeCleaner.Cleanable cleanable; /*< The registration destroying the native synthesizer */
+    private final int sample_rate; /*< The sample rate of the produced signal */
+    private final double frame_period; /*< The frame period in ms */
+    private final int fft_size; /*< The FFT size of the spectrum and the aperiodicity */
+    private final int buffer_size; /*< The number of samples per block */
+    private final int number_of_pointers; /*< The number of chunks which can be queued */
+
+    private final ArrayDeque<Chunk> chunks; /*< The chunks possibly still referenced by World, oldest first */
+    private final Chunk padding; /*< The silent frame used to flush the end of the signal */
+    private long nb_frames; /*< The number of frames pushed since the last refresh */
+    private long nb_samples; /*< The number of samples pulled since the last refresh */
+    private boolean finished; /*< Has the end of the parameters been signaled? */
+    private boolean closed; /*< Has the native memory been released? */
+
+    /**
+     *  Constructor using the default block size and queue length
+     *
+     *  @param sample_rate the sample rate of the produced signal
+     *  @param frame_period the frame period used during the extraction stage
+     *  @param fft_size the FFT size of the spectrum and the aperiodicity
+     */
+    public StreamingSynthesizer(int sample_rate, double frame_period, int fft_size) {
+        this(sample_rate, frame_period, fft_size, DEFAULT_BUFFER_SIZE, DEFAULT_NUMBER_OF_POINTERS);
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param sample_rate the sample rate of the produced signal
+     *  @param frame_period the frame period used during the extraction stage
+     *  @param fft_size the FFT size of the spectrum and the aperiodicity
+     *  @param buffer_size the number of samples per block
+     *  @param number_of_pointers the number of chunks which can be queued
+     */
+    public StreamingSynthesizer(int sample_rate, double frame_period, int fft_size,
+                                int buffer_size, int number_of_pointers) {
+        this.sample_rate = sample_rate;
+        this.frame_period = frame_period;
+        this.fft_size = fft_size;
+        this.buffer_size = buffer_size;
+        this.number_of_pointers = number_of_pointers;
+        this.chunks = new ArrayDeque<Chunk>();
+
+        // Silent unvoiced frame
+        double[] silence_sp = new double[fft_size/2+1];
+        double[] silence_ap = new double[fft_size/2+1];
+        Arrays.fill(silence_sp, 1e-12);
+        Arrays.fill(silence_ap, 1.0 - 1e-12);
+        this.padding = new Chunk(new double[] {0.0},
+                                 new Spectrogram(silence_sp, 1, fft_size/2+1),
+                                 new Spectrogram(silence_ap, 1, fft_size/2+1));
+
+        this.synth = new WorldSynthesizer();
+        this.noise = World.new_randn_state();
+        World.randn_state_load(noise);
+        try {
+            World.InitializeSynthesizer(sample_rate, frame_period, fft_size,
+                                        buffer_size, number_of_pointers, synth);
+        } finally {
+            World.randn_state_store(noise);
+        }
+        this.cleanable = NativeCleaner.register(this, new Release(synth, noise));
+    }
+
+    /*****************************************************************************************************
+     ** Accessors
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to get the sample rate
+     *
+     *  @return the sample rate in Hz
+     */
+    public int getSampleRate() {
+        return sample_rate;
+    }
+
+    /**
+     *  Accessor to get the frame period
+     *
+     *  @return the frame period in ms
+     */
+    public double getFramePeriod() {
+        return frame_period;
+    }
+
+    /**
+     *  Accessor to get the number of samples per block
+     *
+     *  @return the number of samples per block
+     */
+    public int getBufferSize() {
+        return buffer_size;
+    }
+
+    /*****************************************************************************************************
+     ** Parameter side
+     *****************************************************************************************************/
+
+    /**
+     *  Push a chunk of parameters if there is room in the queue
+     *
+     *  @param f0 the F0 of the chunk frames
+     *  @param sp the spectrum of the chunk frames
+     *  @param ap the aperiodicity of the chunk frames
+     *  @return true if the chunk has been queued, false if the queue is full and blocks should be pulled first
+     *  @throws IllegalStateException if the synthesizer is locked (a block needs more chunks than the queue can hold)
+     */
+    public synchronized boolean offer(double[] f0, Spectrogram sp, Spectrogram ap) {
+        Chunk chunk = newChunk(f0, sp, ap);
+        if (offer(chunk))
+            return true;
+
+        chunk.delete();
+        return false;
+    }
+
+    /**
+     *  Push a chunk of parameters, waiting for room in the queue if needed. Blocks have to be
+     *  pulled by another thread for the room to be released.
+     *
+     *  @param f0 the F0 of the chunk frames
+     *  @param sp the spectrum of the chunk frames
+     *  @param ap the aperiodicity of the chunk frames
+     *  @throws InterruptedException if the thread is interrupted while waiting
+     *  @throws IllegalStateException if the synthesizer is locked (a block needs more chunks than the queue can hold)
+     */
+    public synchronized void put(double[] f0, Spectrogram sp, Spectrogram ap) throws InterruptedException {
+        Chunk chunk = newChunk(f0, sp, ap);
+        try {
+            while (!offer(chunk))
+                wait();
+        } catch (InterruptedException | RuntimeException ex) {
+            chunk.delete();
+            throw ex;
+        }
+    }
+
+    /**
+     *  Signal that all the parameters have been pushed. The remaining samples are then flushed by
+     *  the next pulls.
+     *
+     */
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /*****************************************************************************************************
+     ** Signal side
+     *****************************************************************************************************/
+
+    /**
+     *  Pull the next block of samples if enough parameters are available
+     *
+     *  @param block the array receiving the samples (at least getBufferSize() values)
+     *  @return the number of samples written (getBufferSize() except for the last block), 0 if
+     *  more parameters are needed, -1 if the end of the signal has been reached
+     *  @throws IllegalStateException if the synthesizer is locked (a block needs more chunks than the queue can hold)
+     */
+    public synchronized int read(double[] block) {
+        checkOpen();
+        if (block.length < buffer_size)
+            throw new IllegalArgumentException("The block should contain at least " + buffer_size + " values");
+
+        while (true) {
+            long expected = (long) (nb_frames * frame_period / 1000.0 * sample_rate);
+            if (finished && (nb_samples >= expected))
+                return -1;
+
+            long start = Metrics.start();
+            if (synthesize()) {
+                Metrics.stop(Metrics.Stage.SYNTHESIS, start, 0, 0);
+                int n = finished ? (int) Math.min(buffer_size, expected - nb_samples) : buffer_size;
+                start = Metrics.start();
+                World.double_array_getrange(synth.getBuffer(), 0, block, 0, n);
+                Metrics.stop(Metrics.Stage.COPY_OUT, start, 0, NativeBuffer.bytes(n));
+                nb_samples += n;
+                notifyAll();
+                return n;
+            }
+
+            if (!finished) {
+                checkLock();
+                return 0;
+            }
+
+            // Flush the end of the signal with silent frames
+            if (!add(padding))
+                throw new IllegalStateException("The synthesizer is locked, the queue cannot hold enough frames for one block");
+        }
+    }
+
+    /**
+     *  Pull the next block of samples, waiting for parameters if needed. The parameters have to
+     *  be pushed by another thread.
+     *
+     *  @param block the array receiving the samples (at least getBufferSize() values)
+     *  @return the number of samples written (getBufferSize() except for the last block), -1 if
+     *  the end of the signal has been reached
+     *  @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized int take(double[] block) throws InterruptedException {
+        int n;
+        while ((n = read(block)) == 0)
+            wait();
+        return n;
+    }
+
+    /**
+     *  Get an audio stream (16-bit little endian mono PCM) producing the samples as it is read.
+     *  Reading waits for the parameters, so it should happen in another thread than the pushes.
+     *
+     *  @return the audio input stream
+     */
+    public AudioInputStream getAudioInputStream() {
+        return getAudioInputStream(PCM.getDefaultFormat(sample_rate));
+    }
+
+    /**
+     *  Get an audio stream in a given PCM format producing the samples as it is read. Reading
+     *  waits for the parameters, so it should happen in another thread than the pushes.
+     *
+     *  @param format the format of the stream (see {@link PCM}), resampled block by block if its sample rate is not the one of the synthesizer
+     *  @return the audio input stream
+     */
+    public AudioInputStream getAudioInputStream(AudioFormat format) {
+        PCM.check(format, PCM.DOWNMIX);
+        Resampler resampler = null;
+        if ((format.getSampleRate() != AudioSystem.NOT_SPECIFIED) && ((int) format.getSampleRate() != sample_rate))
+            resampler = new Resampler(sample_rate, (int) format.getSampleRate());
+        return new AudioInputStream(new PCMInputStream(format, resampler), format, AudioSystem.NOT_SPECIFIED);
+    }
+
+    /*****************************************************************************************************
+     ** Life cycle
+     *****************************************************************************************************/
+
+    /**
+     *  Reset the synthesizer to start a new utterance
+     *
+     */
+    public synchronized void refresh() {
+        checkOpen();
+        World.randn_state_load(noise);
+        try {
+            World.RefreshSynthesizer(synth);
+        } finally {
+            World.randn_state_store(noise);
+        }
+        deleteChunks();
+        nb_frames = 0;
+        nb_samples = 0;
+        finished = false;
+        notifyAll();
+    }
+
+    /**
+     *  Release the native memory. The synthesizer cannot be used afterwards.
+     *
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+
+        cleanable.clean();
+        deleteChunks();
+        padding.delete();
+        closed = true;
+        notifyAll();
+    }
+
+    /*****************************************************************************************************
+     ** Helpers
+     *****************************************************************************************************/
+
+    /**
+     *  Helper to queue a chunk pushed by the caller
+     *
+     *  @param chunk the chunk
+     *  @return true if the chunk has been queued, false if the queue is full
+     */
+    private boolean offer(Chunk chunk) {
+        if (finished)
+            throw new IllegalStateException("No parameters can be pushed once finish() has been called");
+        if (!add(chunk)) {
+            checkLock();
+            return false;
+        }
+
+        nb_frames += chunk.nb_frames;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     *  Helper to render the next block, drawing the noise from the generator state of the stream
+     *
+     *  @return true if a block has been rendered in the buffer of the synthesizer
+     */
+    private boolean synthesize() {
+        World.randn_state_load(noise);
+        try {
+            return World.Synthesis2(synth) != 0;
+        } finally {
+            World.randn_state_store(noise);
+        }
+    }
+
+    /**
+     *  Helper to give a chunk to World
+     *
+     *  @param chunk the chunk
+     *  @return true if the chunk has been added, false if the queue is full
+     */
+    private boolean add(Chunk chunk) {
+        if (World.AddParameters(chunk.f0_s.get(), chunk.nb_frames, chunk.sp_s.rows(), chunk.ap_s.rows(), synth) == 0)
+            return false;
+
+        // The slot of the chunk added number_of_pointers calls ago has just been reused
+        chunks.addLast(chunk);
+        if (chunks.size() > number_of_pointers) {
+            Chunk released = chunks.removeFirst();
+            if (released != padding)
+                released.delete();
+        }
+        return true;
+    }
+
+    private Chunk newChunk(double[] f0, Spectrogram sp, Spectrogram ap) {
+        checkOpen();
+        if ((sp.getNbFrames() != f0.length) || (ap.getNbFrames() != f0.length))
+            throw new IllegalArgumentException("The spectrum and the aperiodicity should both contain " + f0.length + " frames");
+        if ((sp.getNbBins() != fft_size/2+1) || (ap.getNbBins() != fft_size/2+1))
+            throw new IllegalArgumentException("The frames should contain " + (fft_size/2+1) + " bins");
+
+        return new Chunk(f0, sp, ap);
+    }
+
+    private void checkLock() {
+        if (World.IsLocked(synth) == 1)
+            throw new IllegalStateException("The synthesizer is locked, the queue cannot hold enough frames for one block");
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("The synthesizer has been closed");
+    }
+
+    private void deleteChunks() {
+        for (Chunk chunk: chunks)
+            if (chunk != padding)
+                chunk.delete();
+        chunks.clear();
+    }
+
+    /**
+     *  The native copy of a chunk of parameters
+     */
+    private static class Chunk {
+        final int nb_frames;
+        final NativeBuffer f0_s;
+        final NativeMatrix sp_s;
+        final NativeMatrix ap_s;
+        final NativeCleaner.Cleanable held; /*< The registration of the copy held in the budget */
+
+        Chunk(double[] f0, Spectrogram sp, Spectrogram ap) {
+            this.nb_frames = f0.length;
+            long bytes = NativeBuffer.bytes(f0.length) + NativeMatrix.bytes(sp.getNbFrames(), sp.getNbBins())
+                + NativeMatrix.bytes(ap.getNbFrames(), ap.getNbBins());
+            try (NativeMemory.Reservation reservation = NativeMemory.reserve(bytes)) {
+                NativeBuffer f0_s = NativeBuffer.of(f0);
+                NativeMatrix sp_s = null;
+                try {
+                    sp_s = NativeMatrix.of(sp);
+                    this.ap_s = NativeMatrix.of(ap);
+                } catch (RuntimeException ex) {
+                    if (sp_s != null)
+                        sp_s.close();
+                    f0_s.close();
+                    throw ex;
+                }
+                this.f0_s = f0_s;
+                this.sp_s = sp_s;
+
+                // The copy outlives the push, until the slot of the chunk is reused
+                this.held = reservation.keep(this, bytes);
+            }
+        }
+
+        void delete() {
+            ap_s.close();
+            sp_s.close();
+            f0_s.close();
+            held.clean();
+        }
+    }
+
+    /**
+     *  The release action of the native synthesizer and its noise state, independent from the
+     *  streaming synthesizer. The chunks of a forgotten synthesizer are released by their own handles.
+     */
+    private static final class Release implements Runnable {
+        private final WorldSynthesizer synth;
+        private final SWIGTYPE_p_uint32_t noise;
+
+        Release(WorldSynthesizer synth, SWIGTYPE_p_uint32_t noise) {
+            this.synth = synth;
+            this.noise = noise;
+        }
+
+        @Override
+        public void run() {
+            World.DestroySynthesizer(synth);
+            synth.delete();
+            World.delete_randn_state(noise);
+        }
+    }
+
+    /**
+     *  The PCM byte stream pulling the blocks on demand
+     */
+    private class PCMInputStream extends InputStream {
+        private final AudioFormat format;
+        private final Resampler resampler; /*< The resampler to the rate of the format (null if not needed) */
+        private final double[] block = new double[buffer_size];
+        private byte[] data;
+        private int position = 0;
+        private int length = 0;
+        private boolean eof = false;
+
+        PCMInputStream(AudioFormat format, Resampler resampler) {
+            this.format = format;
+            this.resampler = resampler;
+            this.data = new byte[PCM.getFrameSize(format) * buffer_size];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            while (position == length) {
+                if (eof)
+                    return -1;
+
+                int n;
+                try {
+                    n = take(block);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for parameters");
+                }
+
+                // Resample the block, the resampler keeping the end of the filter support
+                double[] y = block;
+                if (n < 0) {
+                    eof = true;
+                    if (resampler == null)
+                        return -1;
+                    y = resampler.flush();
+                    n = y.length;
+                } else if (resampler != null) {
+                    y = resampler.process(block, 0, n);
+                    n = y.length;
+                }
+
+                if (PCM.getFrameSize(format) * n > data.length)
+                    data = new byte[PCM.getFrameSize(format) * n];
+                PCM.encode(y, 0, n, false, format, ByteBuffer.wrap(data));
+                position = 0;
+                length = PCM.getFrameSize(format) * n;
+            }
+
+            int m = Math.min(len, length - position);
+            System.arraycopy(data, position, b, off, m);
+            position += m;
+            return m;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package jworld;
+
+/**
+ *  The implementations of the World synthesis selectable by a {@link Synthesizer}.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public enum SynthesisEngine
+{
+    /** The native World library (the reference, the default) */
+    NATIVE,
+
+    /** The pure java port of the algorithm (no JNI call, no native library needed), scalar code only */
+    JAVA
+}
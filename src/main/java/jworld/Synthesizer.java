@@ -0,0 +1,381 @@
+package jworld;
+
+import java.nio.DoubleBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+// Audio
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ *  The stateless synthesis service of the World vocoder.
+ *
+ *  A synthesizer only holds the sample rate and the frame period. Every native buffer is
+ *  allocated and released within the call using it, so a single synthesizer can be shared and
+ *  called concurrently from any number of threads. The native memory of each call is reserved in
+ *  the {@link NativeMemory} budget before being allocated, the arrays are taken from the
+ *  {@link NativeBufferPool} of the synthesizer if there is one.
+ *
+ *  World draws the noise excitation from a generator which is reseeded at the beginning of each
+ *  synthesis. jworld builds it with a thread-local state (see src/main/cpp/randn.cpp), so the
+ *  concurrent calls do not wait for each other and each one renders exactly the signal of a
+ *  sequential call.
+ *
+ *  The synthesis of the F0, spectrum and aperiodicity arrays can be run by the pure java port of
+ *  World instead of the native library (see {@link SynthesisEngine}), which avoids the JNI calls
+ *  and the native buffers of short utterances. The java engine has its own generator per call.
+ *  Its FFT tables and work arrays are built once per thread and per FFT size, and kept as long as
+ *  the synthesizer.
+ *  The coded parameters and the direct buffers are always synthesised natively.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Synthesizer
+{
+    private final int sample_rate; /*< The sample rate of the produced signal */
+    private final double frame_period; /*< The frame period in ms */
+    private final NativeBufferPool pool; /*< The pool of the native arrays, null to allocate them at each call */
+    private final SynthesisEngine engine; /*< The implementation of the synthesis */
+    private final ThreadLocal<Map<Integer, JavaSynthesis>> java_syntheses; /*< The java engines of each thread by FFT size */
+
+    /**
+     *  Constructor
+     *
+     *  @param sample_rate the sample rate of the produced wave
+     *  @param frame_period the frame period used during the extraction stage
+     */
+    public Synthesizer(int sample_rate, double frame_period) {
+        this(sample_rate, frame_period, null, SynthesisEngine.NATIVE);
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param sample_rate the sample rate of the produced wave
+     *  @param frame_period the frame period used during the extraction stage
+     *  @param pool the pool of the native arrays (null to allocate them at each call)
+     */
+    public Synthesizer(int sample_rate, double frame_period, NativeBufferPool pool) {
+        this(sample_rate, frame_period, pool, SynthesisEngine.NATIVE);
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param sample_rate the sample rate of the produced wave
+     *  @param frame_period the frame period used during the extraction stage
+     *  @param engine the implementation of the synthesis
+     */
+    public Synthesizer(int sample_rate, double frame_period, SynthesisEngine engine) {
+        this(sample_rate, frame_period, null, engine);
+    }
+
+    /**
+     *  Constructor
+     *
+     *  @param sample_rate the sample rate of the produced wave
+     *  @param frame_period the frame period used during the extraction stage
+     *  @param pool the pool of the native arrays (null to allocate them at each call)
+     *  @param engine the implementation of the synthesis
+     */
+    public Synthesizer(int sample_rate, double frame_period, NativeBufferPool pool, SynthesisEngine engine) {
+        this.sample_rate = sample_rate;
+        this.frame_period = frame_period;
+        this.pool = pool;
+        this.engine = engine;
+        this.java_syntheses = ThreadLocal.withInitial(HashMap::new);
+    }
+
+    /**
+     *  Accessor to get the sample rate
+     *
+     *  @return the sample rate in Hz
+     */
+    public int getSampleRate() {
+        return sample_rate;
+    }
+
+    /**
+     *  Accessor to get the frame period
+     *
+     *  @return the frame period in ms
+     */
+    public double getFramePeriod() {
+        return frame_period;
+    }
+
+    /**
+     *  Accessor to get the implementation of the synthesis
+     *
+     *  @return the synthesis engine
+     */
+    public SynthesisEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     *  Accessor to get the number of samples generated for a given number of frames
+     *
+     *  @param nb_frames the number of frames
+     *  @return the number of samples
+     */
+    public int getSynthesisLength(int nb_frames) {
+        return (int)(nb_frames * frame_period / 1000.0 * sample_rate);
+    }
+
+    /*****************************************************************************************************
+     ** Synthesis entry part
+     *****************************************************************************************************/
+
+    /**
+     *  Method to generate an audio based on given vocoder parameters.
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param as_short consider that the analysis as achieved on "short" coded data (true) or on "float" coded data (false)
+     *  @return the filled audioinputstream containing the rendered results
+     */
+    public AudioInputStream synthesis(double[] f0, Spectrogram sp, Spectrogram ap, boolean as_short) {
+        return PCM.toAudioInputStream(renderSignal(f0, sp, ap), PCM.getDefaultFormat(sample_rate), as_short);
+    }
+
+    /**
+     *  Method to generate an audio in a given PCM format based on given vocoder parameters.
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param format the format of the audio (see {@link PCM}), resampled if its sample rate is not the one of the synthesizer
+     *  @return the filled audioinputstream containing the rendered results
+     */
+    public AudioInputStream synthesis(double[] f0, Spectrogram sp, Spectrogram ap, AudioFormat format) {
+        double[] y = renderSignal(f0, sp, ap);
+        if (format.getSampleRate() != AudioSystem.NOT_SPECIFIED)
+            y = Resampler.resample(y, sample_rate, (int) format.getSampleRate());
+        return PCM.toAudioInputStream(y, format, false);
+    }
+
+    /**
+     *  Method to generate a signal based on given vocoder parameters.
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @return the rendered samples
+     */
+    public double[] renderSignal(double[] f0, Spectrogram sp, Spectrogram ap) {
+        if ((sp.getNbFrames() != f0.length) || (ap.getNbFrames() != f0.length) || (ap.getNbBins() != sp.getNbBins()))
+            throw new IllegalArgumentException("The spectrum and the aperiodicity should both contain " + f0.length + " frames of the same size");
+
+        int y_length = getSynthesisLength(f0.length);
+        if (engine == SynthesisEngine.JAVA) {
+            double[] y = new double[y_length];
+            getJavaSynthesis(sp.getFFTSize()).render(f0, sp, ap, frame_period, sample_rate, y);
+            return y;
+        }
+
+        long bytes = NativeBuffer.bytes(pool, f0.length) + NativeBuffer.bytes(pool, y_length)
+            + 2 * NativeMatrix.bytes(pool, sp.getNbFrames(), sp.getNbBins());
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(bytes);
+             NativeBuffer f0_s = NativeBuffer.of(pool, f0);
+             NativeMatrix sp_s = NativeMatrix.of(pool, sp);
+             NativeMatrix ap_s = NativeMatrix.of(pool, ap);
+             NativeBuffer y_s = NativeBuffer.allocate(pool, y_length)) {
+            synthesize(f0_s.get(), f0.length, sp_s.rows(), ap_s.rows(), sp.getFFTSize(), y_length, y_s.get());
+
+            return y_s.toArray();
+        }
+    }
+
+    /**
+     *  Method to generate an audio in a given PCM format based on given float32 vocoder
+     *  parameters (see {@link FloatSpectrogram}).
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param format the format of the audio (see {@link PCM}), resampled if its sample rate is not the one of the synthesizer
+     *  @return the filled audioinputstream containing the rendered results
+     */
+    public AudioInputStream synthesis(float[] f0, FloatSpectrogram sp, FloatSpectrogram ap, AudioFormat format) {
+        double[] y = (engine == SynthesisEngine.JAVA) ? renderSignal(toDoubles(f0), sp.toSpectrogram(), ap.toSpectrogram())
+            : render(f0, sp, ap, NativeBuffer::toArray);
+        if (format.getSampleRate() != AudioSystem.NOT_SPECIFIED)
+            y = Resampler.resample(y, sample_rate, (int) format.getSampleRate());
+        return PCM.toAudioInputStream(y, format, false);
+    }
+
+    /**
+     *  Method to generate a float32 signal based on given float32 vocoder parameters (see
+     *  {@link FloatSpectrogram}). The parameters and the samples are converted natively from and
+     *  to the double precision used by World (in java for the java engine).
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @return the rendered samples
+     */
+    public float[] renderSignal(float[] f0, FloatSpectrogram sp, FloatSpectrogram ap) {
+        if (engine == SynthesisEngine.JAVA) {
+            double[] y = renderSignal(toDoubles(f0), sp.toSpectrogram(), ap.toSpectrogram());
+            float[] y32 = new float[y.length];
+            for (int i = 0; i < y.length; i++)
+                y32[i] = (float) y[i];
+            return y32;
+        }
+        return render(f0, sp, ap, NativeBuffer::toFloatArray);
+    }
+
+    /**
+     *  Method to generate an audio based on coded vocoder parameters (see {@link Codec}).
+     *
+     *  @param f0 the F0
+     *  @param coded_sp the coded spectral envelope
+     *  @param coded_ap the coded aperiodicity
+     *  @param fft_size the FFT size used to decode the spectral envelope and the aperiodicity
+     *  @param as_short consider that the analysis as achieved on "short" coded data (true) or on "float" coded data (false)
+     *  @return the filled audioinputstream containing the rendered results
+     */
+    public AudioInputStream codedSynthesis(double[] f0, Spectrogram coded_sp, Spectrogram coded_ap, int fft_size, boolean as_short) {
+        return PCM.toAudioInputStream(renderCodedSignal(f0, coded_sp, coded_ap, fft_size), PCM.getDefaultFormat(sample_rate), as_short);
+    }
+
+    /**
+     *  Method to generate a signal based on coded vocoder parameters (see {@link Codec}). The
+     *  parameters are decoded natively, the full resolution spectrum and aperiodicity never reach
+     *  the java heap.
+     *
+     *  @param f0 the F0
+     *  @param coded_sp the coded spectral envelope
+     *  @param coded_ap the coded aperiodicity
+     *  @param fft_size the FFT size used to decode the spectral envelope and the aperiodicity
+     *  @return the rendered samples
+     */
+    public double[] renderCodedSignal(double[] f0, Spectrogram coded_sp, Spectrogram coded_ap, int fft_size) {
+        if ((coded_sp.getNbFrames() != f0.length) || (coded_ap.getNbFrames() != f0.length))
+            throw new IllegalArgumentException("The coded spectrum and the coded aperiodicity should both contain " + f0.length + " frames");
+        Codec.checkAperiodicity(coded_ap, sample_rate);
+
+        int nb_bins = fft_size / 2 + 1;
+        int y_length = getSynthesisLength(f0.length);
+        long bytes = NativeBuffer.bytes(pool, f0.length) + NativeBuffer.bytes(pool, y_length)
+            + NativeMatrix.bytes(pool, f0.length, coded_sp.getNbBins()) + NativeMatrix.bytes(pool, f0.length, coded_ap.getNbBins())
+            + 2 * NativeMatrix.bytes(pool, f0.length, nb_bins);
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(bytes);
+             NativeBuffer f0_s = NativeBuffer.of(pool, f0);
+             NativeMatrix coded_sp_s = NativeMatrix.of(pool, coded_sp);
+             NativeMatrix coded_ap_s = NativeMatrix.of(pool, coded_ap);
+             NativeMatrix sp_s = NativeMatrix.allocate(pool, f0.length, nb_bins);
+             NativeMatrix ap_s = NativeMatrix.allocate(pool, f0.length, nb_bins);
+             NativeBuffer y_s = NativeBuffer.allocate(pool, y_length)) {
+            World.DecodeSpectralEnvelope(coded_sp_s.rows(), f0.length, sample_rate, fft_size,
+                                         coded_sp.getNbBins(), sp_s.rows());
+            World.DecodeAperiodicity(coded_ap_s.rows(), f0.length, sample_rate, fft_size, ap_s.rows());
+
+            synthesize(f0_s.get(), f0.length, sp_s.rows(), ap_s.rows(), fft_size, y_length, y_s.get());
+
+            return y_s.toArray();
+        }
+    }
+
+    /**
+     *  Method to generate a signal based on given vocoder parameters stored off-heap. World reads
+     *  the parameters and writes the samples in place, nothing is copied.
+     *
+     *  @param f0 the direct buffer containing the F0, one value per frame from its position to its limit
+     *  @param sp the direct buffer containing the spectrum in row-major order (nb_frames, fft_size/2+1)
+     *  @param ap the direct buffer containing the aperiodicity in row-major order (nb_frames, fft_size/2+1)
+     *  @param y the direct buffer receiving the samples from its position, see {@link #getSynthesisLength(int)}
+     *  @return the number of samples written in y
+     *  @throws IllegalArgumentException if the shapes do not match, or if y is read-only
+     */
+    public int renderSignal(DoubleBuffer f0, DoubleBuffer sp, DoubleBuffer ap, DoubleBuffer y) {
+        int nb_frames = f0.remaining();
+        if ((nb_frames == 0) || (sp.remaining() % nb_frames != 0))
+            throw new IllegalArgumentException("The spectrum size (" + sp.remaining() + ") is not a multiple of the number of frames (" + nb_frames + ")");
+        if (ap.remaining() != sp.remaining())
+            throw new IllegalArgumentException("The aperiodicity size (" + ap.remaining() + ") is different from the spectrum size (" + sp.remaining() + ")");
+        int nb_bins = sp.remaining() / nb_frames;
+        int y_length = getSynthesisLength(nb_frames);
+
+        // Only the row tables are allocated, the buffers belong to the caller
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(2 * NativeBuffer.bytes(pool, nb_frames));
+             NativeMatrix sp_s = NativeMatrix.wrap(pool, NativeArrays.address(sp, nb_frames * nb_bins), nb_frames, nb_bins);
+             NativeMatrix ap_s = NativeMatrix.wrap(pool, NativeArrays.address(ap, nb_frames * nb_bins), nb_frames, nb_bins)) {
+            synthesize(NativeArrays.address(f0, nb_frames), nb_frames, sp_s.rows(), ap_s.rows(),
+                       (nb_bins - 1) * 2, y_length, NativeArrays.outputAddress(y, y_length));
+        }
+
+        return y_length;
+    }
+
+    /*****************************************************************************************************
+     ** Helpers
+     *****************************************************************************************************/
+
+    /**
+     *  Helper to render float32 vocoder parameters
+     *
+     *  @param f0 the F0
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param output the conversion of the native samples
+     *  @return the converted samples
+     */
+    private <T> T render(float[] f0, FloatSpectrogram sp, FloatSpectrogram ap, Function<NativeBuffer, T> output) {
+        if ((sp.getNbFrames() != f0.length) || (ap.getNbFrames() != f0.length) || (ap.getNbBins() != sp.getNbBins()))
+            throw new IllegalArgumentException("The spectrum and the aperiodicity should both contain " + f0.length + " frames of the same size");
+
+        int y_length = getSynthesisLength(f0.length);
+        long bytes = NativeBuffer.bytes(pool, f0.length) + NativeBuffer.bytes(pool, y_length)
+            + 2 * NativeMatrix.bytes(pool, sp.getNbFrames(), sp.getNbBins());
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(bytes);
+             NativeBuffer f0_s = NativeBuffer.of(pool, f0);
+             NativeMatrix sp_s = NativeMatrix.of(pool, sp);
+             NativeMatrix ap_s = NativeMatrix.of(pool, ap);
+             NativeBuffer y_s = NativeBuffer.allocate(pool, y_length)) {
+            synthesize(f0_s.get(), f0.length, sp_s.rows(), ap_s.rows(), sp.getFFTSize(), y_length, y_s.get());
+
+            return output.apply(y_s);
+        }
+    }
+
+    /**
+     *  Helper to run the native synthesis and record its duration
+     *
+     *  @param f0_s the F0
+     *  @param nb_frames the number of frames
+     *  @param sp_rows the rows of the spectrum
+     *  @param ap_rows the rows of the aperiodicity
+     *  @param fft_size the FFT size
+     *  @param y_length the number of samples to render
+     *  @param y_s the array receiving the samples
+     */
+    private void synthesize(SWIGTYPE_p_double f0_s, int nb_frames, SWIGTYPE_p_p_double sp_rows, SWIGTYPE_p_p_double ap_rows,
+                            int fft_size, int y_length, SWIGTYPE_p_double y_s) {
+        long start = Metrics.start();
+        World.Synthesis(f0_s, nb_frames, sp_rows, ap_rows, fft_size, frame_period, sample_rate, y_length, y_s);
+        Metrics.stop(Metrics.Stage.SYNTHESIS, start, nb_frames, 0);
+    }
+
+    /**
+     *  Helper to get the java engine of the calling thread for an FFT size, built on its first use
+     *
+     *  @param fft_size the FFT size
+     *  @return the java engine, only used by the calling thread
+     */
+    private JavaSynthesis getJavaSynthesis(int fft_size) {
+        return java_syntheses.get().computeIfAbsent(fft_size, JavaSynthesis::new);
+    }
+
+    private static double[] toDoubles(float[] values) {
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++)
+            result[i] = values[i];
+        return result;
+    }
+}
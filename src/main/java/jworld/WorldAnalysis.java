@@ -0,0 +1,466 @@
+package jworld;
+
+import java.util.concurrent.Executor;
+
+/**
+ *  The result of a World analysis.
+ *
+ *  The F0 and the time axis are computed when the analysis is produced. The spectrum
+ *  (CheapTrick) and the aperiodicity (D4C) are only computed the first time they are requested
+ *  and then kept, so a caller which never asks for the aperiodicity never pays for D4C. The
+ *  computation reuses the options and the FFT size determined during the analysis. If a chunk
+ *  size is given, the frames are computed by chunks in parallel on the executor of the analyzer.
+ *
+ *  The F0 and the time axis are returned as copies, but the spectrum and the aperiodicity are
+ *  returned as the matrices kept by the analysis and shared by all its callers: they are not
+ *  copied (a matrix is several megabytes for a few seconds of speech) and should not be modified.
+ *
+ *  An analysis holds no native memory between two calls, so it can be kept or cached without
+ *  being closed. The price is that each native computation (a lazy stage, or a coded or float32
+ *  matrix computed natively) copies the signal, the time axis and the F0 into native memory
+ *  again, which is a linear copy much cheaper than CheapTrick or D4C themselves.
+ *  {@link #computeAll()} shares one copy between both stages.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class WorldAnalysis
+{
+    // Inputs of the lazy stages
+    private final double[] signal; /*< The analysed samples */
+    private final CheapTrickOption cheaptrick_option; /*< The CheapTrick option (containing the FFT size) */
+    private final D4COption d4c_option; /*< The D4C option */
+    private final Executor executor; /*< The executor running the parallel chunks */
+    private final NativeBufferPool pool; /*< The pool of the native arrays (can be null) */
+    private final int chunk_size; /*< The number of frames per chunk (0 for a single native call) */
+
+    // Eagerly computed parts
+    private final int sample_rate; /*< The sample rate of the signal */
+    private final double frame_period; /*< The frame period in ms */
+    private final int fft_size; /*< The FFT size used by CheapTrick and D4C */
+    private final double[] f0; /*< The F0 values */
+    private final double[] time_axis; /*< The time position of each frame in seconds */
+
+    // Lazily computed parts
+    private final Object sp_lock = new Object();
+    private final Object ap_lock = new Object();
+    private volatile Spectrogram sp; /*< The spectrum, null until requested */
+    private volatile Spectrogram ap; /*< The aperiodicity, null until requested */
+
+    /**
+     *  Constructor used by the analysis entry points.
+     *
+     *  @param signal the analysed samples (not copied)
+     *  @param sample_rate the sample rate of the signal
+     *  @param frame_period the frame period in ms
+     *  @param f0 the F0 values (not copied)
+     *  @param time_axis the time position of each frame (not copied)
+     *  @param cheaptrick_option the CheapTrick option whose FFT size is already set
+     *  @param d4c_option the D4C option
+     *  @param executor the executor running the parallel chunks
+     *  @param pool the pool of the native arrays (null to allocate them)
+     *  @param chunk_size the number of frames per chunk (0 for a single native call)
+     */
+    WorldAnalysis(double[] signal, int sample_rate, double frame_period,
+                  double[] f0, double[] time_axis,
+                  CheapTrickOption cheaptrick_option, D4COption d4c_option,
+                  Executor executor, NativeBufferPool pool, int chunk_size) {
+        this(signal, sample_rate, frame_period, f0, time_axis, cheaptrick_option, d4c_option,
+             executor, pool, chunk_size, null, null);
+    }
+
+    /**
+     *  Constructor of an analysis whose spectrum and aperiodicity are already available (see
+     *  {@link AnalysisCache}).
+     *
+     *  @param signal the analysed samples (not copied)
+     *  @param sample_rate the sample rate of the signal
+     *  @param frame_period the frame period in ms
+     *  @param f0 the F0 values (not copied)
+     *  @param time_axis the time position of each frame (not copied)
+     *  @param cheaptrick_option the CheapTrick option whose FFT size is already set
+     *  @param d4c_option the D4C option
+     *  @param executor the executor running the parallel chunks
+     *  @param pool the pool of the native arrays (null to allocate them)
+     *  @param chunk_size the number of frames per chunk (0 for a single native call)
+     *  @param sp the spectrum (shared, null to compute it on demand)
+     *  @param ap the aperiodicity (shared, null to compute it on demand)
+     */
+    WorldAnalysis(double[] signal, int sample_rate, double frame_period,
+                  double[] f0, double[] time_axis,
+                  CheapTrickOption cheaptrick_option, D4COption d4c_option,
+                  Executor executor, NativeBufferPool pool, int chunk_size,
+                  Spectrogram sp, Spectrogram ap) {
+        this.signal = signal;
+        this.sample_rate = sample_rate;
+        this.frame_period = frame_period;
+        this.f0 = f0;
+        this.time_axis = time_axis;
+        this.cheaptrick_option = cheaptrick_option;
+        this.d4c_option = d4c_option;
+        this.executor = executor;
+        this.pool = pool;
+        this.chunk_size = chunk_size;
+        this.fft_size = cheaptrick_option.getFft_size();
+        this.sp = sp;
+        this.ap = ap;
+    }
+
+    /*****************************************************************************************************
+     ** Accessors
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to get the sample rate of the analysed signal
+     *
+     *  @return the sample rate in Hz
+     */
+    public int getSampleRate() {
+        return sample_rate;
+    }
+
+    /**
+     *  Accessor to get the frame period
+     *
+     *  @return the frame period in ms
+     */
+    public double getFramePeriod() {
+        return frame_period;
+    }
+
+    /**
+     *  Accessor to get the FFT size. Each spectrum and aperiodicity frame contains fft_size/2+1 values.
+     *
+     *  @return the FFT size
+     */
+    public int getFFTSize() {
+        return fft_size;
+    }
+
+    /**
+     *  Accessor to get the number of frames
+     *
+     *  @return the number of frames
+     */
+    public int getNbFrames() {
+        return f0.length;
+    }
+
+    /**
+     *  Accessor to get the F0
+     *
+     *  @return a copy of the F0 values
+     */
+    public double[] getF0() {
+        return f0.clone();
+    }
+
+    /**
+     *  Accessor to get the time axis
+     *
+     *  @return a copy of the time position (in seconds) of each frame
+     */
+    public double[] getTimeAxis() {
+        return time_axis.clone();
+    }
+
+    /**
+     *  Accessor to get the spectrum. It is computed on the first call. The returned matrix is
+     *  shared by all the callers and should not be modified.
+     *
+     *  @return the spectrum with (nb_frames, fft_size/2+1) values
+     */
+    public Spectrogram getSpectrogram() {
+        Spectrogram result = sp;
+        if (result == null) {
+            synchronized (sp_lock) {
+                result = sp;
+                if (result == null) {
+                    try (NativeMemory.Reservation reservation = NativeMemory.reserve(getStageBytes(1));
+                         NativeInputs inputs = new NativeInputs()) {
+                        sp = result = computeSpectrogram(inputs);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     *  Accessor to get the aperiodicity. It is computed on the first call. The returned matrix is
+     *  shared by all the callers and should not be modified.
+     *
+     *  @return the aperiodicity with (nb_frames, fft_size/2+1) values
+     */
+    public Spectrogram getAperiodicity() {
+        Spectrogram result = ap;
+        if (result == null) {
+            synchronized (ap_lock) {
+                result = ap;
+                if (result == null) {
+                    try (NativeMemory.Reservation reservation = NativeMemory.reserve(getStageBytes(1));
+                         NativeInputs inputs = new NativeInputs()) {
+                        ap = result = computeAperiodicity(inputs);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     *  Compute the spectrum and the aperiodicity if they are not available yet. When both are
+     *  missing, CheapTrick and D4C run concurrently, on the executor and in the calling thread,
+     *  both reading the same native copy of the signal, the F0 and the time axis. The calling
+     *  thread never waits for a task queued in the executor, so this can be called from a thread
+     *  of the executor whatever its size.
+     *
+     *  Both stages reseed the safeguard noise of World (in the order of 1e-12 on the samples) at
+     *  each frame, from a generator which is thread-local in jworld (see {@link FrameChunks}), so
+     *  the results are exactly the ones obtained through {@link #getSpectrogram()} and
+     *  {@link #getAperiodicity()}, whatever the chunk size and whatever runs concurrently.
+     *
+     *  @return the current analysis with both matrices available
+     */
+    public WorldAnalysis computeAll() {
+        synchronized (sp_lock) {
+            synchronized (ap_lock) {
+                if ((sp != null) || (ap != null)) {
+                    // Only one stage is left, there is nothing to run concurrently
+                    getSpectrogram();
+                    getAperiodicity();
+                    return this;
+                }
+
+                try (NativeMemory.Reservation reservation = NativeMemory.reserve(getStageBytes(2));
+                     NativeInputs inputs = new NativeInputs()) {
+                    // The native inputs are shared, both stages are always awaited before they are deleted
+                    final Spectrogram[] results = new Spectrogram[2];
+                    FrameChunks.invokeAll(executor, new Runnable[] {
+                            () -> results[0] = computeSpectrogram(inputs),
+                            () -> results[1] = computeAperiodicity(inputs)
+                        });
+                    sp = results[0];
+                    ap = results[1];
+                }
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     *  Compute the coded spectral envelope (see {@link Codec}). If the spectrum has not been
+     *  requested yet, it is computed and coded natively without being copied on the java side (nor
+     *  kept). Otherwise, the available spectrum is coded.
+     *
+     *  @param nb_dimensions the number of coefficients per frame
+     *  @return the coded spectral envelope with (nb_frames, nb_dimensions) values
+     */
+    public Spectrogram computeCodedSpectralEnvelope(int nb_dimensions) {
+        Spectrogram result = sp;
+        if (result != null)
+            return Codec.codeSpectralEnvelope(result, sample_rate, nb_dimensions);
+
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(getStageBytes(1) + NativeMatrix.bytes(pool, f0.length, nb_dimensions));
+             NativeInputs inputs = new NativeInputs();
+             NativeMatrix sp_s = computeNative(inputs, cheapTrick())) {
+            return Codec.codeSpectralEnvelope(pool, sp_s, f0.length, sample_rate, fft_size, nb_dimensions);
+        }
+    }
+
+    /**
+     *  Compute the coded aperiodicity (see {@link Codec}). If the aperiodicity has not been
+     *  requested yet, it is computed and coded natively without being copied on the java side (nor
+     *  kept). Otherwise, the available aperiodicity is coded.
+     *
+     *  @return the coded aperiodicity with (nb_frames, Codec.getNumberOfAperiodicities(sample_rate)) values
+     */
+    public Spectrogram computeCodedAperiodicity() {
+        Spectrogram result = ap;
+        if (result != null)
+            return Codec.codeAperiodicity(result, sample_rate);
+
+        int nb_bands = Codec.getNumberOfAperiodicities(sample_rate);
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(getStageBytes(1) + NativeMatrix.bytes(pool, f0.length, nb_bands));
+             NativeInputs inputs = new NativeInputs();
+             NativeMatrix ap_s = computeNative(inputs, d4c())) {
+            return Codec.codeAperiodicity(pool, ap_s, f0.length, sample_rate, fft_size);
+        }
+    }
+
+    /**
+     *  Compute the spectrum in float32 (see {@link FloatSpectrogram}). If the spectrum has not
+     *  been requested yet, it is computed and converted natively without the double matrix being
+     *  copied on the java side (nor kept). Otherwise, the available spectrum is rounded.
+     *
+     *  @return the spectrum with (nb_frames, fft_size/2+1) values
+     */
+    public FloatSpectrogram computeFloatSpectrogram() {
+        Spectrogram result = sp;
+        if (result != null)
+            return FloatSpectrogram.fromSpectrogram(result);
+
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(getStageBytes(1));
+             NativeInputs inputs = new NativeInputs();
+             NativeMatrix sp_s = computeNative(inputs, cheapTrick())) {
+            return sp_s.toFloatSpectrogram();
+        }
+    }
+
+    /**
+     *  Compute the aperiodicity in float32 (see {@link FloatSpectrogram}). If the aperiodicity
+     *  has not been requested yet, it is computed and converted natively without the double
+     *  matrix being copied on the java side (nor kept). Otherwise, the available aperiodicity is
+     *  rounded.
+     *
+     *  @return the aperiodicity with (nb_frames, fft_size/2+1) values
+     */
+    public FloatSpectrogram computeFloatAperiodicity() {
+        Spectrogram result = ap;
+        if (result != null)
+            return FloatSpectrogram.fromSpectrogram(result);
+
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(getStageBytes(1));
+             NativeInputs inputs = new NativeInputs();
+             NativeMatrix ap_s = computeNative(inputs, d4c())) {
+            return ap_s.toFloatSpectrogram();
+        }
+    }
+
+    /*****************************************************************************************************
+     ** Lazy stages
+     *****************************************************************************************************/
+
+    /**
+     *  The frame-wise native stage producing a matrix
+     */
+    private interface Stage {
+        /**
+         *  Run the stage on a range of frames
+         *
+         *  @param x_s the signal
+         *  @param time_s the time axis from the first frame of the range
+         *  @param f0_s the F0 from the first frame of the range
+         *  @param nb_frames the number of frames of the range
+         *  @param rows the output rows from the first frame of the range
+         */
+        void run(SWIGTYPE_p_double x_s, SWIGTYPE_p_double time_s, SWIGTYPE_p_double f0_s,
+                 int nb_frames, SWIGTYPE_p_p_double rows);
+    }
+
+    /**
+     *  The native copies of the inputs of the frame-wise stages, only read by the stages so they
+     *  can be shared by concurrent stages. They only live for one computation (see the class
+     *  description).
+     */
+    private class NativeInputs implements AutoCloseable {
+        final NativeBuffer x_s = NativeBuffer.of(pool, signal);
+        final NativeBuffer time_s = NativeBuffer.of(pool, time_axis);
+        final NativeBuffer f0_s = NativeBuffer.of(pool, f0);
+
+        @Override
+        public void close() {
+            f0_s.close();
+            time_s.close();
+            x_s.close();
+        }
+    }
+
+    /**
+     *  Estimate the native memory needed to run frame-wise stages
+     *
+     *  @param nb_stages the number of stages run at the same time
+     *  @return the number of bytes
+     */
+    private long getStageBytes(int nb_stages) {
+        return NativeBuffer.bytes(pool, signal.length) + 2 * NativeBuffer.bytes(pool, f0.length)
+            + nb_stages * NativeMatrix.bytes(pool, f0.length, fft_size/2+1);
+    }
+
+    /**
+     *  Get the CheapTrick stage
+     *
+     *  @return the stage computing the spectrum
+     */
+    private Stage cheapTrick() {
+        return (x_s, time_s, f0_s, nb_frames, rows) -> {
+            long start = Metrics.start();
+            World.CheapTrickFrames(x_s, signal.length, sample_rate,
+                                   time_s, f0_s, nb_frames,
+                                   cheaptrick_option, rows);
+            Metrics.stop(Metrics.Stage.CHEAPTRICK, start, nb_frames, 0);
+        };
+    }
+
+    /**
+     *  Get the D4C stage
+     *
+     *  @return the stage computing the aperiodicity
+     */
+    private Stage d4c() {
+        return (x_s, time_s, f0_s, nb_frames, rows) -> {
+            long start = Metrics.start();
+            World.D4CFrames(x_s, signal.length, sample_rate,
+                            time_s, f0_s, nb_frames,
+                            fft_size, d4c_option, rows);
+            Metrics.stop(Metrics.Stage.D4C, start, nb_frames, 0);
+        };
+    }
+
+    /**
+     *  Run CheapTrick on the analysed signal
+     *
+     *  @param inputs the native inputs
+     *  @return the spectrum
+     */
+    private Spectrogram computeSpectrogram(NativeInputs inputs) {
+        return compute(inputs, cheapTrick());
+    }
+
+    /**
+     *  Run D4C on the analysed signal
+     *
+     *  @param inputs the native inputs
+     *  @return the aperiodicity
+     */
+    private Spectrogram computeAperiodicity(NativeInputs inputs) {
+        return compute(inputs, d4c());
+    }
+
+    /**
+     *  Run a frame-wise stage on the analysed signal and copy the result on the java side
+     *
+     *  @param inputs the native inputs
+     *  @param stage the stage
+     *  @return the produced matrix
+     */
+    private Spectrogram compute(NativeInputs inputs, Stage stage) {
+        try (NativeMatrix out = computeNative(inputs, stage)) {
+            return out.toSpectrogram();
+        }
+    }
+
+    /**
+     *  Run a frame-wise stage on the analysed signal, by chunks if a chunk size is defined. The
+     *  native inputs are shared (read-only) by all the chunks, each chunk writes its own rows.
+     *
+     *  @param inputs the native inputs
+     *  @param stage the stage
+     *  @return the produced native matrix, to be closed by the caller
+     */
+    private NativeMatrix computeNative(final NativeInputs inputs, final Stage stage) {
+        final NativeMatrix out = NativeMatrix.allocate(pool, f0.length, fft_size/2+1);
+        try {
+            FrameChunks.run(executor, chunk_size, f0.length, (start, nb_frames) ->
+                            stage.run(inputs.x_s.get(),
+                                      inputs.time_s.offset(start),
+                                      inputs.f0_s.offset(start),
+                                      nb_frames,
+                                      out.rows(start)));
+            return out;
+        } catch (RuntimeException | Error ex) {
+            out.close();
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package jworld;
+
+/**
+ *  The immutable set of analysis options of the World vocoder.
+ *
+ *  The default values are the ones used by {@link JWorldWrapper}. A modified configuration is
+ *  obtained through the "with" methods which return a new object, so a configuration can be
+ *  shared freely between threads.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class WorldConfig
+{
+    private final double frame_period; /*< The frame period in ms (default value: 5.0ms) */
+    private final int speed; /*< The speed of the speech (default value: 1) */
+    private final double f0_floor; /*< The lower F0 value in Hz (default value: 71Hz) */
+    private final double f0_ceil; /*< The upper F0 value in Hz (default value: 800Hz) */
+    private final double f0_allowed_range; /*< The threshold to fix f0 contour (default value: 0.1) */
+    private final double q1; /*< The compensation lifter parameter used by cheaptrick (default value: -0.15) */
+    private final int chunk_size; /*< The number of frames per parallel CheapTrick/D4C call, 0 for a single call (default value: 0) */
+    private final F0Estimator f0_estimator; /*< The F0 estimator (default value: DIO) */
+    private final int f0_segment_size; /*< The number of frames per parallel Harvest segment, 0 for a single call (default value: 0) */
+
+    /**
+     *  Constructor of the default configuration
+     *
+     */
+    public WorldConfig() {
+        this(5.0, 1, 71.0, 800.0, 0.1, -0.15, 0, F0Estimator.DIO, 0);
+    }
+
+    private WorldConfig(double frame_period, int speed, double f0_floor, double f0_ceil,
+                        double f0_allowed_range, double q1, int chunk_size,
+                        F0Estimator f0_estimator, int f0_segment_size) {
+        this.frame_period = frame_period;
+        this.speed = speed;
+        this.f0_floor = f0_floor;
+        this.f0_ceil = f0_ceil;
+        this.f0_allowed_range = f0_allowed_range;
+        this.q1 = q1;
+        this.chunk_size = chunk_size;
+        this.f0_estimator = f0_estimator;
+        this.f0_segment_size = f0_segment_size;
+    }
+
+    /*****************************************************************************************************
+     ** Accessors
+     *****************************************************************************************************/
+
+    /**
+     *  Accessor to get the frame period
+     *
+     *  @return the frame period in ms
+     */
+    public double getFramePeriod() {
+        return frame_period;
+    }
+
+    /**
+     *  Get a copy of the configuration with a new frame period
+     *
+     *  @param frame_period the new frame period in ms
+     *  @return the new configuration
+     */
+    public WorldConfig withFramePeriod(double frame_period) {
+        return new WorldConfig(frame_period, speed, f0_floor, f0_ceil, f0_allowed_range, q1, chunk_size, f0_estimator, f0_segment_size);
+    }
+
+    /**
+     *  Accessor to get the speed of the speech.
+     *
+     *  @return the speed of the speech
+     */
+    public int getSpeed() {
+        return speed;
+    }
+
+    /**
+     *  Get a copy of the configuration with a new speed of the speech
+     *
+     *  @param speed the new speed of the speech
+     *  @return the new configuration
+     */
+    public WorldConfig withSpeed(int speed) {
+        return new WorldConfig(frame_period, speed, f0_floor, f0_ceil, f0_allowed_range, q1, chunk_size, f0_estimator, f0_segment_size);
+    }
+
+    /**
+     *  Accessor to get the F0 floor value
+     *
+     *  @return the F0 floor value in Hz
+     */
+    public double getF0Floor() {
+        return f0_floor;
+    }
+
+    /**
+     *  Get a copy of the configuration with a new F0 floor value
+     *
+     *  @param f0_floor the new F0 floor value in Hz
+     *  @return the new configuration
+     */
+    public WorldConfig withF0Floor(double f0_floor) {
+        return new WorldConfig(frame_period, speed, f0_floor, f0_ceil, f0_allowed_range, q1, chunk_size, f0_estimator, f0_segment_size);
+    }
+
+    /**
+     *  Accessor to get the F0 ceil value
+     *
+     *  @return the F0 ceil value in Hz
+     */
+    public double getF0Ceil() {
+        return f0_ceil;
+    }
+
+    /**
+     *  Get a copy of the configuration with a new F0 ceil value
+     *
+     *  @param f0_ceil the new F0 ceil value in Hz
+     *  @return the new configuration
+     */
+    public WorldConfig withF0Ceil(double f0_ceil) {
+        return new WorldConfig(frame_period, speed, f0_floor, f0_ceil, f0_allowed_range, q1, chunk_size, f0_estimator, f0_segment_size);
+    }
+
+    /**
+     *  Accessor to get the threshold used for fixing the F0 contour
+     *
+     *  @return the threshold value
+     */
+    public double getF0AllowedRange() {
+        return f0_allowed_range;
+    }
+
+    /**
+     *  Get a copy of the configuration with a new threshold used for fixing the F0 contour
+     *
+     *  @param f0_allowed_range the new threshold value
+     *  @return the new configuration
+     */
+    public WorldConfig withF0AllowedRange(double f0_allowed_range) {
+        return new WorldConfig(frame_period, speed, f0_floor, f0_ceil, f0_allowed_range, q1, chunk_size, f0_estimator, f0_segment_size);
+    }
+
+    /**
+     *  Accessor to get the compensation lifter parameter used by CheapTrick
+     *
+     *  @return the compensation lifter parameter
+     */
+    public double getQ1() {
+        return q1;
+    }
+
+    /**
+     *  Get a copy of the configuration with a new compensation lifter parameter
+     *
+     *  @param q1 the new compensation lifter parameter value
+     *  @return the new configuration
+     */
+    public WorldConfig withQ1(double q1) {
+        return new WorldConfig(frame_period, speed, f0_floor, f0_ceil, f0_allowed_range, q1, chunk_size, f0_estimator, f0_segment_size);
+    }
+
+    /**
+     *  Accessor to get the number of frames processed by each parallel CheapTrick/D4C call
+     *
+     *  @return the number of frames per chunk, 0 if all the frames are processed by a single call
+     */
+    public int getChunkSize() {
+        return chunk_size;
+    }
+
+    /**
+     *  Get a copy of the configuration with a new number of frames processed by each parallel
+     *  CheapTrick/D4C call. The frames of the spectrum and the aperiodicity are independent, so
+     *  splitting them into chunks run concurrently reduces the latency on multi-core machines.
+     *
+     *  @param chunk_size the new number of frames per chunk, 0 to process all the frames in a single call
+     *  @return the new configuration
+     */
+    public WorldConfig withChunkSize(int chunk_size) {
+        return new WorldConfig(frame_period, speed, f0_floor, f0_ceil, f0_allowed_range, q1, chunk_size, f0_estimator, f0_segment_size);
+    }
+
+    /**
+     *  Accessor to get the F0 estimator
+     *
+     *  @return the F0 estimator
+     */
+    public F0Estimator getF0Estimator() {
+        return f0_estimator;
+    }
+
+    /**
+     *  Get a copy of the configuration with a new F0 estimator
+     *
+     *  @param f0_estimator the new F0 estimator
+     *  @return the new configuration
+     */
+    public WorldConfig withF0Estimator(F0Estimator f0_estimator) {
+        if (f0_estimator == null)
+            throw new IllegalArgumentException("The F0 estimator should be defined");
+        return new WorldConfig(frame_period, speed, f0_floor, f0_ceil, f0_allowed_range, q1, chunk_size, f0_estimator, f0_segment_size);
+    }
+
+    /**
+     *  Accessor to get the number of frames of each parallel Harvest segment
+     *
+     *  @return the number of frames per segment, 0 if Harvest is run by a single call
+     */
+    public int getF0SegmentSize() {
+        return f0_segment_size;
+    }
+
+    /**
+     *  Get a copy of the configuration with a new number of frames of each parallel Harvest
+     *  segment. Each segment is estimated with one second of signal on each side, so segments
+     *  of several seconds keep the overhead low. It is ignored by DIO.
+     *
+     *  @param f0_segment_size the new number of frames per segment, 0 to run Harvest by a single call
+     *  @return the new configuration
+     */
+    public WorldConfig withF0SegmentSize(int f0_segment_size) {
+        return new WorldConfig(frame_period, speed, f0_floor, f0_ceil, f0_allowed_range, q1, chunk_size, f0_estimator, f0_segment_size);
+    }
+
+    /*****************************************************************************************************
+     ** Native options
+     *****************************************************************************************************/
+
+    /**
+     *  Generate the DIO option corresponding to the configuration
+     *
+     *  @return the DIO option
+     */
+    DioOption newDioOption() {
+        DioOption opt = new DioOption();
+        World.InitializeDioOption(opt);
+        opt.setSpeed(speed);
+        opt.setFrame_period(frame_period);
+        opt.setF0_floor(f0_floor);
+        opt.setAllowed_range(f0_allowed_range);
+        return opt;
+    }
+
+    /**
+     *  Generate the Harvest option corresponding to the configuration
+     *
+     *  @return the Harvest option
+     */
+    HarvestOption newHarvestOption() {
+        HarvestOption opt = new HarvestOption();
+        World.InitializeHarvestOption(opt);
+        opt.setFrame_period(frame_period);
+        opt.setF0_floor(f0_floor);
+        opt.setF0_ceil(f0_ceil);
+        return opt;
+    }
+
+    /**
+     *  Generate the CheapTrick option corresponding to the configuration. The FFT size of the
+     *  option is computed from the F0 floor so it is consistent with the frame size.
+     *
+     *  @param sample_rate the sample rate of the analysed signal
+     *  @return the CheapTrick option
+     */
+    CheapTrickOption newCheapTrickOption(int sample_rate) {
+        CheapTrickOption opt = new CheapTrickOption();
+        World.InitializeCheapTrickOption(sample_rate, opt);
+        opt.setQ1(q1);
+        opt.setF0_floor(f0_floor);
+        opt.setFft_size(World.GetFFTSizeForCheapTrick(sample_rate, opt));
+        return opt;
+    }
+
+    /**
+     *  Generate the D4C option corresponding to the configuration
+     *
+     *  @return the D4C option
+     */
+    D4COption newD4COption() {
+        D4COption opt = new D4COption();
+        World.InitializeD4COption(opt);
+        return opt;
+    }
+}
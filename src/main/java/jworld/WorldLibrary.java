@@ -0,0 +1,264 @@
+package jworld;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ *  Loader of the native World library. It is called by the static initializer of the swig JNI
+ *  class, so the library is loaded whichever class of the package is used first.
+ *
+ *  The library installed in java.library.path is loaded first (unless jworld.library.system is
+ *  false). Otherwise the jar contains several variants of the library, compiled for more and
+ *  more recent instruction sets (see {@link Variant}): the most optimised one supported by the
+ *  CPU is used, unless a variant is forced by jworld.library.variant. The chosen library is
+ *  extracted once into a cache directory (jworld.library.cache, by default jworld-&lt;user&gt;
+ *  in java.io.tmpdir), in a sub-directory named after the SHA-256 of its content. The next JVMs
+ *  load the cached copy after checking that its content still matches the jar, so the same
+ *  library is never extracted twice and a different version of jworld gets its own copy. A
+ *  loading failure is an UnsatisfiedLinkError.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+final class WorldLibrary
+{
+    /** The property giving the directory where the library of the jar is extracted */
+    static final String CACHE_PROPERTY = "jworld.library.cache";
+
+    /** The property enabling the loading from java.library.path (true by default) */
+    static final String SYSTEM_PROPERTY = "jworld.library.system";
+
+    /** The property forcing the variant of the library of the jar (baseline, avx2 or avx512) */
+    static final String VARIANT_PROPERTY = "jworld.library.variant";
+
+    /** The name of the library, without the platform prefix and suffix */
+    private static final String LIBRARY_NAME = "world";
+
+    private static boolean loaded = false; /*< Has the library already been loaded? */
+
+    /**
+     *  The variants of the library in the jar, from the most optimised to the most portable. A
+     *  variant is stored in native/&lt;name&gt;/ and is supported when the CPU has all its features
+     *  (as named by linux in /proc/cpuinfo).
+     */
+    enum Variant
+    {
+        AVX512("avx512f", "avx512dq", "avx512bw", "avx512vl", "avx2", "fma"),
+        AVX2("avx2", "fma"),
+        BASELINE();
+
+        private final String[] features; /*< The CPU features needed by the variant */
+
+        Variant(String... features) {
+            this.features = features;
+        }
+
+        /**
+         *  Accessor to get the name of the variant, as given to jworld.library.variant
+         *
+         *  @return the name of the variant
+         */
+        String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         *  Accessor to get the path of the library in the jar
+         *
+         *  @return the path of the library
+         */
+        String getResource() {
+            return "/native/" + getName() + "/" + System.mapLibraryName(LIBRARY_NAME);
+        }
+
+        /**
+         *  Check if the variant can run on a CPU
+         *
+         *  @param cpu_features the features of the CPU
+         *  @return true if the CPU has all the features needed by the variant
+         */
+        boolean isSupportedBy(Set<String> cpu_features) {
+            return cpu_features.containsAll(Arrays.asList(features));
+        }
+    }
+
+    private WorldLibrary() {
+    }
+
+    /**
+     *  Load the library if it is not loaded yet
+     *
+     *  @throws UnsatisfiedLinkError if the library can neither be loaded from java.library.path nor from the jar
+     */
+    static synchronized void load() {
+        if (loaded)
+            return;
+
+        if (Boolean.parseBoolean(System.getProperty(SYSTEM_PROPERTY, "true"))) {
+            try {
+                System.loadLibrary(LIBRARY_NAME);
+                loaded = true;
+                return;
+            } catch (UnsatisfiedLinkError ex) {
+                // Not installed, the library of the jar is used
+            }
+        }
+
+        String resource = selectVariant().getResource();
+        try {
+            System.load(extract(resource).toAbsolutePath().toString());
+        } catch (IOException ex) {
+            throw linkError("Cannot extract " + resource + " from the jar", ex);
+        }
+        loaded = true;
+    }
+
+    /*****************************************************************************************************
+     ** Internal part
+     *****************************************************************************************************/
+
+    /**
+     *  Select the variant of the library to load
+     *
+     *  @return the variant forced by jworld.library.variant, otherwise the most optimised variant supported by the CPU and contained in the jar
+     *  @throws UnsatisfiedLinkError if the forced variant is unknown
+     */
+    static Variant selectVariant() {
+        String forced = System.getProperty(VARIANT_PROPERTY);
+        if (forced != null) {
+            for (Variant variant: Variant.values())
+                if (variant.getName().equals(forced.trim().toLowerCase(Locale.ROOT)))
+                    return variant;
+            throw new UnsatisfiedLinkError("Unknown variant " + forced + " given by " + VARIANT_PROPERTY +
+                                           ", it should be one of " + Arrays.toString(Variant.values()).toLowerCase(Locale.ROOT));
+        }
+
+        Set<String> cpu_features = getCPUFeatures();
+        for (Variant variant: Variant.values())
+            if (variant.isSupportedBy(cpu_features) && (WorldLibrary.class.getResource(variant.getResource()) != null))
+                return variant;
+        return Variant.BASELINE;
+    }
+
+    /**
+     *  Get the features of the CPU. They are read from /proc/cpuinfo on linux and from sysctl on
+     *  macOS. The features listed there are also enabled by the operating system.
+     *
+     *  @return the lower case names of the features, empty if they are unknown (so only the baseline is supported)
+     */
+    static Set<String> getCPUFeatures() {
+        Set<String> cpu_features = new HashSet<>();
+        String arch = System.getProperty("os.arch");
+        if (!arch.equals("amd64") && !arch.equals("x86_64"))
+            return cpu_features;
+
+        try {
+            String os = System.getProperty("os.name");
+            if (os.equals("Linux")) {
+                // All the cores have the same features, the first one is enough
+                for (String line: Files.readAllLines(Paths.get("/proc/cpuinfo"), StandardCharsets.US_ASCII)) {
+                    if (line.startsWith("flags")) {
+                        cpu_features.addAll(Arrays.asList(line.substring(line.indexOf(':') + 1).trim().split("\\s+")));
+                        break;
+                    }
+                }
+            } else if (os.equals("Mac OS X")) {
+                Process process = new ProcessBuilder("sysctl", "-n", "machdep.cpu.features", "machdep.cpu.leaf7_features").start();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))) {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                        for (String feature: line.trim().split("\\s+"))
+                            cpu_features.add(feature.toLowerCase(Locale.ROOT));
+                }
+            }
+        } catch (IOException ex) {
+            // Unknown features, the baseline is always supported
+            cpu_features.clear();
+        }
+        return cpu_features;
+    }
+
+    /**
+     *  Get the cached copy of a library of the jar, extracting it if it is missing or altered
+     *
+     *  @param resource the path of the library in the jar
+     *  @return the path of the cached copy
+     *  @throws IOException if the copy fails
+     */
+    private static Path extract(String resource) throws IOException {
+        byte[] content;
+        try (InputStream is = WorldLibrary.class.getResourceAsStream(resource)) {
+            if (is == null)
+                throw new UnsatisfiedLinkError("The jar does not contain " + resource + " for " +
+                                               System.getProperty("os.name") + "/" + System.getProperty("os.arch"));
+            content = readAll(is);
+        }
+
+        String hash = sha256(content);
+        Path library = getCacheDirectory().resolve(hash).resolve(resource.substring(1));
+        if (Files.isRegularFile(library) && hash.equals(sha256(Files.readAllBytes(library))))
+            return library;
+
+        // Written aside then renamed, so a concurrent JVM never loads a partial copy
+        Files.createDirectories(library.getParent());
+        Path temp = Files.createTempFile(library.getParent(), LIBRARY_NAME, ".tmp");
+        try {
+            Files.write(temp, content);
+            Files.move(temp, library, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return library;
+    }
+
+    /**
+     *  Accessor to get the cache directory
+     *
+     *  @return the directory given by jworld.library.cache, jworld-&lt;user&gt; in java.io.tmpdir otherwise
+     */
+    private static Path getCacheDirectory() {
+        String directory = System.getProperty(CACHE_PROPERTY);
+        if (directory != null)
+            return Paths.get(directory);
+        return Paths.get(System.getProperty("java.io.tmpdir"), "jworld-" + System.getProperty("user.name"));
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(1 << 20);
+        byte[] buffer = new byte[1 << 16];
+        int length;
+        while ((length = is.read(buffer)) > 0)
+            os.write(buffer, 0, length);
+        return os.toByteArray();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            StringBuilder hash = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content))
+                hash.append(String.format("%02x", b));
+            return hash.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static UnsatisfiedLinkError linkError(String message, Throwable cause) {
+        UnsatisfiedLinkError error = new UnsatisfiedLinkError(message + ": " + cause.getMessage());
+        error.initCause(cause);
+        return error;
+    }
+}
@@ -0,0 +1,547 @@
+package jworld;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+/**
+ *  The analysis and synthesis of World called through the foreign function and memory API
+ *  (java.lang.foreign) instead of the swig JNI binding.
+ *
+ *  This is the Java 22 version of the multi-release jar. The C functions of World are called
+ *  directly from the library loaded by {@link WorldLibrary}, on memory segments: the option
+ *  structures are laid out as in the World headers and the matrices are row-major blocks given to
+ *  World through a row table. The calls on java arrays copy them into a confined arena closed at
+ *  the end of the call, and their size is reserved in the {@link NativeMemory} budget.
+ *
+ *  The overloads on memory segments (only in this version) work on native segments of doubles
+ *  owned by the caller, without any copy: the results are allocated in the arena given by the
+ *  caller, which decides of their lifetime, and only the intermediate segments of the call are
+ *  reserved in the budget. The noise generator of World is thread-local in the library of jworld
+ *  (see src/main/cpp/randn.cpp), so the calls are reproducible whatever runs concurrently.
+ *
+ *  The calls are restricted methods, so the JVM should be started with
+ *  --enable-native-access=ALL-UNNAMED (or the module containing jworld) to avoid the warning.
+ *
+ *  @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public final class ForeignWorld
+{
+    /** The layout of DioOption */
+    private static final StructLayout DIO_OPTION =
+        MemoryLayout.structLayout(JAVA_DOUBLE.withName("f0_floor"),
+                                  JAVA_DOUBLE.withName("f0_ceil"),
+                                  JAVA_DOUBLE.withName("channels_in_octave"),
+                                  JAVA_DOUBLE.withName("frame_period"),
+                                  JAVA_INT.withName("speed"),
+                                  MemoryLayout.paddingLayout(4),
+                                  JAVA_DOUBLE.withName("allowed_range"));
+
+    /** The layout of HarvestOption */
+    private static final StructLayout HARVEST_OPTION =
+        MemoryLayout.structLayout(JAVA_DOUBLE.withName("f0_floor"),
+                                  JAVA_DOUBLE.withName("f0_ceil"),
+                                  JAVA_DOUBLE.withName("frame_period"));
+
+    /** The layout of CheapTrickOption */
+    private static final StructLayout CHEAPTRICK_OPTION =
+        MemoryLayout.structLayout(JAVA_DOUBLE.withName("q1"),
+                                  JAVA_DOUBLE.withName("f0_floor"),
+                                  JAVA_INT.withName("fft_size"),
+                                  MemoryLayout.paddingLayout(4));
+
+    /** The layout of D4COption */
+    private static final StructLayout D4C_OPTION =
+        MemoryLayout.structLayout(JAVA_DOUBLE.withName("threshold"));
+
+    private static final MethodHandle INITIALIZE_DIO_OPTION;
+    private static final MethodHandle GET_SAMPLES_FOR_DIO;
+    private static final MethodHandle DIO;
+    private static final MethodHandle STONEMASK;
+    private static final MethodHandle INITIALIZE_HARVEST_OPTION;
+    private static final MethodHandle GET_SAMPLES_FOR_HARVEST;
+    private static final MethodHandle HARVEST;
+    private static final MethodHandle INITIALIZE_CHEAPTRICK_OPTION;
+    private static final MethodHandle GET_FFT_SIZE_FOR_CHEAPTRICK;
+    private static final MethodHandle CHEAPTRICK;
+    private static final MethodHandle INITIALIZE_D4C_OPTION;
+    private static final MethodHandle D4C;
+    private static final MethodHandle SYNTHESIS;
+    private static final MethodHandle RANDN_RESEED;
+
+    static {
+        WorldLibrary.load();
+        SymbolLookup lookup = SymbolLookup.loaderLookup();
+
+        INITIALIZE_DIO_OPTION = downcall(lookup, "InitializeDioOption", FunctionDescriptor.ofVoid(ADDRESS));
+        GET_SAMPLES_FOR_DIO = downcall(lookup, "GetSamplesForDIO", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_DOUBLE));
+        DIO = downcall(lookup, "Dio", FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS, ADDRESS));
+        STONEMASK = downcall(lookup, "StoneMask", FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS));
+        INITIALIZE_HARVEST_OPTION = downcall(lookup, "InitializeHarvestOption", FunctionDescriptor.ofVoid(ADDRESS));
+        GET_SAMPLES_FOR_HARVEST = downcall(lookup, "GetSamplesForHarvest", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_DOUBLE));
+        HARVEST = downcall(lookup, "Harvest", FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS, ADDRESS));
+        INITIALIZE_CHEAPTRICK_OPTION = downcall(lookup, "InitializeCheapTrickOption", FunctionDescriptor.ofVoid(JAVA_INT, ADDRESS));
+        GET_FFT_SIZE_FOR_CHEAPTRICK = downcall(lookup, "GetFFTSizeForCheapTrick", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS));
+        CHEAPTRICK = downcall(lookup, "CheapTrick",
+                              FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS, ADDRESS));
+        INITIALIZE_D4C_OPTION = downcall(lookup, "InitializeD4COption", FunctionDescriptor.ofVoid(ADDRESS));
+        D4C = downcall(lookup, "D4C",
+                       FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS));
+        SYNTHESIS = downcall(lookup, "Synthesis",
+                             FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, JAVA_DOUBLE, JAVA_INT, JAVA_INT, ADDRESS));
+        RANDN_RESEED = downcall(lookup, "randn_reseed", FunctionDescriptor.ofVoid());
+    }
+
+    private final WorldConfig config; /*< The analysis configuration */
+
+    /**
+     *  Constructor
+     *
+     *  @param config the analysis configuration (the frame period is also used by the synthesis)
+     */
+    public ForeignWorld(WorldConfig config) {
+        this.config = config;
+    }
+
+    /**
+     *  Accessor to know if the foreign function backend can be used by the running JVM
+     *
+     *  @return true on Java 22 and later
+     */
+    public static boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     *  Accessor to get the analysis configuration
+     *
+     *  @return the analysis configuration
+     */
+    public WorldConfig getConfig() {
+        return config;
+    }
+
+    /*****************************************************************************************************
+     ** Analysis
+     *****************************************************************************************************/
+
+    /**
+     *  Estimate the F0 with the estimator of the configuration (Harvest is run on the whole signal)
+     *
+     *  @param signal the samples
+     *  @param sample_rate the sample rate of the signal
+     *  @return the F0 of each frame
+     */
+    public double[] computeF0(double[] signal, int sample_rate) {
+        int nb_frames = getNbFrames(signal.length, sample_rate);
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeBuffer.bytes(signal.length + 3L * nb_frames));
+             Arena arena = Arena.ofConfined()) {
+            MemorySegment f0 = arena.allocate(JAVA_DOUBLE, nb_frames);
+            estimateF0(arena, arena.allocateFrom(JAVA_DOUBLE, signal), signal.length, sample_rate, f0);
+            return f0.toArray(JAVA_DOUBLE);
+        }
+    }
+
+    /**
+     *  Estimate the F0 of samples already in native memory, without copying them
+     *
+     *  @param signal the samples (a native segment of doubles)
+     *  @param sample_rate the sample rate of the signal
+     *  @param arena the arena of the caller, in which the F0 is allocated
+     *  @return the F0 of each frame, owned by the arena of the caller
+     *  @throws IllegalArgumentException if the signal is not a native segment of doubles
+     */
+    public MemorySegment computeF0(MemorySegment signal, int sample_rate, Arena arena) {
+        int x_length = getLength(signal, "signal");
+        int nb_frames = getNbFrames(x_length, sample_rate);
+        MemorySegment f0 = arena.allocate(JAVA_DOUBLE, nb_frames);
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeBuffer.bytes(2L * nb_frames));
+             Arena temporary = Arena.ofConfined()) {
+            estimateF0(temporary, signal, x_length, sample_rate, f0);
+        }
+        return f0;
+    }
+
+    /**
+     *  Compute the spectrum (CheapTrick)
+     *
+     *  @param signal the samples
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the F0 of each frame
+     *  @return the spectrum
+     */
+    public Spectrogram computeSpectrogram(double[] signal, int sample_rate, double[] f0) {
+        return analyzeFrames(signal, sample_rate, f0, true);
+    }
+
+    /**
+     *  Compute the spectrum (CheapTrick) of samples and F0 already in native memory, without
+     *  copying them
+     *
+     *  @param signal the samples (a native segment of doubles)
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the F0 of each frame (a native segment of doubles)
+     *  @param arena the arena of the caller, in which the spectrum is allocated
+     *  @return the spectrum in row-major order (nb_frames x fft_size/2+1), owned by the arena of the caller
+     *  @throws IllegalArgumentException if the signal or the F0 is not a native segment of doubles
+     */
+    public MemorySegment computeSpectrogram(MemorySegment signal, int sample_rate, MemorySegment f0, Arena arena) {
+        return analyzeFrames(signal, sample_rate, f0, arena, true);
+    }
+
+    /**
+     *  Compute the aperiodicity (D4C)
+     *
+     *  @param signal the samples
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the F0 of each frame
+     *  @return the aperiodicity
+     */
+    public Spectrogram computeAperiodicity(double[] signal, int sample_rate, double[] f0) {
+        return analyzeFrames(signal, sample_rate, f0, false);
+    }
+
+    /**
+     *  Compute the aperiodicity (D4C) of samples and F0 already in native memory, without
+     *  copying them
+     *
+     *  @param signal the samples (a native segment of doubles)
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the F0 of each frame (a native segment of doubles)
+     *  @param arena the arena of the caller, in which the aperiodicity is allocated
+     *  @return the aperiodicity in row-major order (nb_frames x fft_size/2+1), owned by the arena of the caller
+     *  @throws IllegalArgumentException if the signal or the F0 is not a native segment of doubles
+     */
+    public MemorySegment computeAperiodicity(MemorySegment signal, int sample_rate, MemorySegment f0, Arena arena) {
+        return analyzeFrames(signal, sample_rate, f0, arena, false);
+    }
+
+    /*****************************************************************************************************
+     ** Synthesis
+     *****************************************************************************************************/
+
+    /**
+     *  Render the signal of the given parameters
+     *
+     *  @param f0 the F0 of each frame
+     *  @param sp the spectrum
+     *  @param ap the aperiodicity
+     *  @param sample_rate the sample rate of the signal
+     *  @return the samples
+     */
+    public double[] synthesis(double[] f0, Spectrogram sp, Spectrogram ap, int sample_rate) {
+        if ((sp.getNbFrames() != f0.length) || (ap.getNbFrames() != f0.length) || (ap.getNbBins() != sp.getNbBins()))
+            throw new IllegalArgumentException("The spectrum and the aperiodicity should both contain " + f0.length + " frames of the same size");
+
+        int y_length = getSynthesisLength(f0.length, sample_rate);
+        long bytes = NativeBuffer.bytes(f0.length + y_length) + 2 * NativeMatrix.bytes(f0.length, sp.getNbBins());
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(bytes);
+             Arena arena = Arena.ofConfined()) {
+            MemorySegment y = arena.allocate(JAVA_DOUBLE, y_length);
+            synthesize(arena, arena.allocateFrom(JAVA_DOUBLE, f0), f0.length,
+                       arena.allocateFrom(JAVA_DOUBLE, sp.getData()), arena.allocateFrom(JAVA_DOUBLE, ap.getData()),
+                       sp.getNbBins(), sample_rate, y);
+            return y.toArray(JAVA_DOUBLE);
+        }
+    }
+
+    /**
+     *  Render the signal of parameters already in native memory, without copying them
+     *
+     *  @param f0 the F0 of each frame (a native segment of doubles)
+     *  @param sp the spectrum in row-major order (nb_frames x fft_size/2+1, a native segment of doubles)
+     *  @param ap the aperiodicity, of the same size as the spectrum
+     *  @param sample_rate the sample rate of the signal
+     *  @param arena the arena of the caller, in which the samples are allocated
+     *  @return the samples, owned by the arena of the caller
+     *  @throws IllegalArgumentException if the segments are not native segments of doubles of consistent sizes
+     */
+    public MemorySegment synthesis(MemorySegment f0, MemorySegment sp, MemorySegment ap, int sample_rate, Arena arena) {
+        int nb_frames = getLength(f0, "F0");
+        int sp_length = getLength(sp, "spectrum");
+        if ((nb_frames == 0) || (sp_length % nb_frames != 0) || (getLength(ap, "aperiodicity") != sp_length))
+            throw new IllegalArgumentException("The spectrum and the aperiodicity should both contain " + nb_frames + " frames of the same size");
+
+        int y_length = getSynthesisLength(nb_frames, sample_rate);
+        MemorySegment y = arena.allocate(JAVA_DOUBLE, y_length);
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeBuffer.bytes(2L * nb_frames));
+             Arena temporary = Arena.ofConfined()) {
+            synthesize(temporary, f0, nb_frames, sp, ap, sp_length / nb_frames, sample_rate, y);
+        }
+        return y;
+    }
+
+    /*****************************************************************************************************
+     ** Internal part
+     *****************************************************************************************************/
+
+    /**
+     *  Run Harvest, or Dio and StoneMask, the memory being already reserved
+     *
+     *  @param arena the arena of the intermediate segments
+     *  @param x the samples
+     *  @param x_length the number of samples
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the segment receiving the F0 of each frame
+     */
+    private void estimateF0(Arena arena, MemorySegment x, int x_length, int sample_rate, MemorySegment f0) {
+        int nb_frames = (int) (f0.byteSize() / JAVA_DOUBLE.byteSize());
+        try {
+            MemorySegment time = arena.allocate(JAVA_DOUBLE, nb_frames);
+            if (config.getF0Estimator() == F0Estimator.HARVEST) {
+                MemorySegment opt = arena.allocate(HARVEST_OPTION);
+                INITIALIZE_HARVEST_OPTION.invokeExact(opt);
+                setDouble(opt, HARVEST_OPTION, "frame_period", config.getFramePeriod());
+                setDouble(opt, HARVEST_OPTION, "f0_floor", config.getF0Floor());
+                setDouble(opt, HARVEST_OPTION, "f0_ceil", config.getF0Ceil());
+
+                // Harvest can draw from the thread-local noise generator without reseeding it
+                RANDN_RESEED.invokeExact();
+                long start = Metrics.start();
+                HARVEST.invokeExact(x, x_length, sample_rate, opt, time, f0);
+                Metrics.stop(Metrics.Stage.HARVEST, start, nb_frames, 0);
+                return;
+            }
+
+            MemorySegment opt = arena.allocate(DIO_OPTION);
+            INITIALIZE_DIO_OPTION.invokeExact(opt);
+            opt.set(JAVA_INT, DIO_OPTION.byteOffset(PathElement.groupElement("speed")), config.getSpeed());
+            setDouble(opt, DIO_OPTION, "frame_period", config.getFramePeriod());
+            setDouble(opt, DIO_OPTION, "f0_floor", config.getF0Floor());
+            setDouble(opt, DIO_OPTION, "allowed_range", config.getF0AllowedRange());
+
+            MemorySegment raw_f0 = arena.allocate(JAVA_DOUBLE, nb_frames);
+            long start = Metrics.start();
+            DIO.invokeExact(x, x_length, sample_rate, opt, time, raw_f0);
+            Metrics.stop(Metrics.Stage.DIO, start, nb_frames, 0);
+
+            start = Metrics.start();
+            STONEMASK.invokeExact(x, x_length, sample_rate, time, raw_f0, nb_frames, f0);
+            Metrics.stop(Metrics.Stage.STONEMASK, start, nb_frames, 0);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("The F0 estimation failed", ex);
+        }
+    }
+
+    /**
+     *  Run CheapTrick or D4C on java arrays
+     *
+     *  @param signal the samples
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the F0 of each frame
+     *  @param spectrogram true to run CheapTrick, false to run D4C
+     *  @return the computed matrix
+     */
+    private Spectrogram analyzeFrames(double[] signal, int sample_rate, double[] f0, boolean spectrogram) {
+        int nb_frames = f0.length;
+        int nb_bins = getFFTSize(sample_rate) / 2 + 1;
+        long bytes = NativeBuffer.bytes(signal.length + 2L * nb_frames) + NativeMatrix.bytes(nb_frames, nb_bins);
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(bytes);
+             Arena arena = Arena.ofConfined()) {
+            MemorySegment data = arena.allocate(JAVA_DOUBLE, (long) nb_frames * nb_bins);
+            runFrames(arena, arena.allocateFrom(JAVA_DOUBLE, signal), signal.length, sample_rate,
+                      arena.allocateFrom(JAVA_DOUBLE, f0), nb_frames, data, spectrogram);
+
+            Spectrogram result = new Spectrogram(nb_frames, nb_bins);
+            MemorySegment.copy(data, JAVA_DOUBLE, 0, result.getData(), 0, result.getData().length);
+            return result;
+        }
+    }
+
+    /**
+     *  Run CheapTrick or D4C on segments of the caller
+     *
+     *  @param signal the samples
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the F0 of each frame
+     *  @param arena the arena of the caller, in which the matrix is allocated
+     *  @param spectrogram true to run CheapTrick, false to run D4C
+     *  @return the computed matrix in row-major order
+     */
+    private MemorySegment analyzeFrames(MemorySegment signal, int sample_rate, MemorySegment f0, Arena arena, boolean spectrogram) {
+        int x_length = getLength(signal, "signal");
+        int nb_frames = getLength(f0, "F0");
+        int nb_bins = getFFTSize(sample_rate) / 2 + 1;
+        MemorySegment data = arena.allocate(JAVA_DOUBLE, (long) nb_frames * nb_bins);
+        try (NativeMemory.Reservation reservation = NativeMemory.reserve(NativeBuffer.bytes(2L * nb_frames));
+             Arena temporary = Arena.ofConfined()) {
+            runFrames(temporary, signal, x_length, sample_rate, f0, nb_frames, data, spectrogram);
+        }
+        return data;
+    }
+
+    /**
+     *  Run CheapTrick or D4C, the memory being already reserved
+     *
+     *  @param arena the arena of the intermediate segments
+     *  @param x the samples
+     *  @param x_length the number of samples
+     *  @param sample_rate the sample rate of the signal
+     *  @param f0 the F0 of each frame
+     *  @param nb_frames the number of frames
+     *  @param data the segment receiving the matrix in row-major order
+     *  @param spectrogram true to run CheapTrick, false to run D4C
+     */
+    private void runFrames(Arena arena, MemorySegment x, int x_length, int sample_rate,
+                           MemorySegment f0, int nb_frames, MemorySegment data, boolean spectrogram) {
+        try {
+            // The FFT size of both stages is the one of CheapTrick
+            MemorySegment cheaptrick_opt = newCheapTrickOption(arena, sample_rate);
+            int fft_size = cheaptrick_opt.get(JAVA_INT, CHEAPTRICK_OPTION.byteOffset(PathElement.groupElement("fft_size")));
+            MemorySegment d4c_opt = arena.allocate(D4C_OPTION);
+            INITIALIZE_D4C_OPTION.invokeExact(d4c_opt);
+
+            MemorySegment time = arena.allocate(JAVA_DOUBLE, nb_frames);
+            for (int i = 0; i < nb_frames; i++)
+                time.setAtIndex(JAVA_DOUBLE, i, i * config.getFramePeriod() / 1000.0);
+            MemorySegment rows = getRows(arena, data, nb_frames, fft_size / 2 + 1);
+
+            // One frame per call, as the swig based classes do (CheapTrickFrames and D4CFrames),
+            // so each frame reseeds the safeguard noise and the results match theirs exactly
+            long start = Metrics.start();
+            for (int i = 0; i < nb_frames; i++) {
+                MemorySegment frame_time = time.asSlice(i * JAVA_DOUBLE.byteSize());
+                MemorySegment frame_f0 = f0.asSlice(i * JAVA_DOUBLE.byteSize());
+                MemorySegment frame_row = rows.asSlice(i * ADDRESS.byteSize());
+                if (spectrogram)
+                    CHEAPTRICK.invokeExact(x, x_length, sample_rate, frame_time, frame_f0, 1, cheaptrick_opt, frame_row);
+                else
+                    D4C.invokeExact(x, x_length, sample_rate, frame_time, frame_f0, 1, fft_size, d4c_opt, frame_row);
+            }
+            Metrics.stop(spectrogram ? Metrics.Stage.CHEAPTRICK : Metrics.Stage.D4C, start, nb_frames, 0);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException((spectrogram ? "CheapTrick" : "D4C") + " failed", ex);
+        }
+    }
+
+    /**
+     *  Run the synthesis, the memory being already reserved
+     *
+     *  @param arena the arena of the row tables
+     *  @param f0 the F0 of each frame
+     *  @param nb_frames the number of frames
+     *  @param sp the spectrum in row-major order
+     *  @param ap the aperiodicity in row-major order
+     *  @param nb_bins the number of bins per frame
+     *  @param sample_rate the sample rate of the signal
+     *  @param y the segment receiving the samples
+     */
+    private void synthesize(Arena arena, MemorySegment f0, int nb_frames, MemorySegment sp, MemorySegment ap,
+                            int nb_bins, int sample_rate, MemorySegment y) {
+        MemorySegment sp_rows = getRows(arena, sp, nb_frames, nb_bins);
+        MemorySegment ap_rows = getRows(arena, ap, nb_frames, nb_bins);
+        int y_length = (int) (y.byteSize() / JAVA_DOUBLE.byteSize());
+
+        try {
+            long start = Metrics.start();
+            SYNTHESIS.invokeExact(f0, nb_frames, sp_rows, ap_rows,
+                                  (nb_bins - 1) * 2, config.getFramePeriod(), sample_rate, y_length, y);
+            Metrics.stop(Metrics.Stage.SYNTHESIS, start, nb_frames, 0);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("The synthesis failed", ex);
+        }
+    }
+
+    /**
+     *  Build the row table of a matrix stored in row-major order
+     *
+     *  @param arena the arena of the table
+     *  @param data the values of the matrix
+     *  @param nb_rows the number of rows
+     *  @param nb_cols the number of values per row
+     *  @return the row table
+     */
+    private static MemorySegment getRows(Arena arena, MemorySegment data, int nb_rows, int nb_cols) {
+        MemorySegment rows = arena.allocate(ADDRESS, nb_rows);
+        for (int t = 0; t < nb_rows; t++)
+            rows.setAtIndex(ADDRESS, t, data.asSlice(JAVA_DOUBLE.byteSize() * t * nb_cols));
+        return rows;
+    }
+
+    /**
+     *  Allocate the CheapTrick option of the configuration, with its FFT size
+     *
+     *  @param arena the arena of the option
+     *  @param sample_rate the sample rate of the signal
+     *  @return the option
+     */
+    private MemorySegment newCheapTrickOption(Arena arena, int sample_rate) throws Throwable {
+        MemorySegment opt = arena.allocate(CHEAPTRICK_OPTION);
+        INITIALIZE_CHEAPTRICK_OPTION.invokeExact(sample_rate, opt);
+        setDouble(opt, CHEAPTRICK_OPTION, "q1", config.getQ1());
+        setDouble(opt, CHEAPTRICK_OPTION, "f0_floor", config.getF0Floor());
+        int fft_size = (int) GET_FFT_SIZE_FOR_CHEAPTRICK.invokeExact(sample_rate, opt);
+        opt.set(JAVA_INT, CHEAPTRICK_OPTION.byteOffset(PathElement.groupElement("fft_size")), fft_size);
+        return opt;
+    }
+
+    private int getFFTSize(int sample_rate) {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment opt = newCheapTrickOption(arena, sample_rate);
+            return opt.get(JAVA_INT, CHEAPTRICK_OPTION.byteOffset(PathElement.groupElement("fft_size")));
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("The FFT size cannot be computed", ex);
+        }
+    }
+
+    private int getSynthesisLength(int nb_frames, int sample_rate) {
+        return (int) (nb_frames * config.getFramePeriod() / 1000.0 * sample_rate);
+    }
+
+    /**
+     *  Get the number of doubles of a segment given by the caller
+     *
+     *  @param segment the segment
+     *  @param name the name of the segment in the error messages
+     *  @return the number of doubles
+     *  @throws IllegalArgumentException if the segment is not a native segment of doubles
+     */
+    private static int getLength(MemorySegment segment, String name) {
+        if (!segment.isNative())
+            throw new IllegalArgumentException("The " + name + " should be a native segment");
+        long length = segment.byteSize() / JAVA_DOUBLE.byteSize();
+        if ((segment.byteSize() % JAVA_DOUBLE.byteSize() != 0) || (length > Integer.MAX_VALUE))
+            throw new IllegalArgumentException("The " + name + " should contain at most " + Integer.MAX_VALUE + " doubles");
+        return (int) length;
+    }
+
+    private int getNbFrames(int x_length, int sample_rate) {
+        try {
+            if (config.getF0Estimator() == F0Estimator.HARVEST)
+                return (int) GET_SAMPLES_FOR_HARVEST.invokeExact(sample_rate, x_length, config.getFramePeriod());
+            return (int) GET_SAMPLES_FOR_DIO.invokeExact(sample_rate, x_length, config.getFramePeriod());
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("The number of frames cannot be computed", ex);
+        }
+    }
+
+    private static void setDouble(MemorySegment option, StructLayout layout, String field, double value) {
+        option.set(JAVA_DOUBLE, layout.byteOffset(PathElement.groupElement(field)), value);
+    }
+
+    private static MethodHandle downcall(SymbolLookup lookup, String name, FunctionDescriptor descriptor) {
+        MemorySegment symbol = lookup.find(name)
+            .orElseThrow(() -> new UnsatisfiedLinkError("The World library does not export " + name));
+        return Linker.nativeLinker().downcallHandle(symbol, descriptor);
+    }
+}
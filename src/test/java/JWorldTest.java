@@ -1,11 +1,32 @@
 // Testing
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sound.sampled.AudioFileFormat;
 // Audio
 import javax.sound.sampled.AudioFormat;
@@ -18,7 +39,29 @@ import org.testng.Assert;
 import org.testng.annotations.*;
 
 // Example interface
+import jworld.AnalysisCache;
+import jworld.Analyzer;
+import jworld.Codec;
+import jworld.F0Estimator;
+import jworld.FeatureEncoding;
+import jworld.FeatureFile;
+import jworld.FeatureInputStream;
+import jworld.FeatureOutputStream;
+import jworld.FloatSpectrogram;
+import jworld.ForeignWorld;
 import jworld.JWorldWrapper;
+import jworld.Metrics;
+import jworld.NativeBufferPool;
+import jworld.NativeMemory;
+import jworld.PCM;
+import jworld.Resampler;
+import jworld.Spectrogram;
+import jworld.StreamingAnalyzer;
+import jworld.StreamingSynthesizer;
+import jworld.SynthesisEngine;
+import jworld.Synthesizer;
+import jworld.WorldAnalysis;
+import jworld.WorldConfig;
 
 public class JWorldTest {
 
@@ -147,6 +190,255 @@ public class JWorldTest {
         }
     }
 
+    @Test
+    public void extractSPDirectBuffer() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        AudioInputStream ais = AudioSystem.getAudioInputStream(url);
+
+        // Extract spectrum both on-heap and off-heap
+        JWorldWrapper jww = new JWorldWrapper(ais);
+        double[] f0 = jww.extractF0(true);
+        double[][] sp = jww.extractSP();
+
+        int nb_bins = jww.getFFTSize() / 2 + 1;
+        DoubleBuffer sp_direct = ByteBuffer.allocateDirect(f0.length * nb_bins * Double.BYTES)
+            .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        jww.extractSP(sp_direct);
+        jww.clean();
+
+        // Assert !
+        Assert.assertEquals(sp[0].length, nb_bins);
+        for (int t=0; t<f0.length; t++) {
+            for (int i=0; i<nb_bins; i++) {
+                Assert.assertEquals(sp_direct.get(t * nb_bins + i), sp[t][i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void readOnlyOutputBuffers() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        AudioInputStream ais = AudioSystem.getAudioInputStream(url);
+
+        // World writes through the address of the buffers, which ignores the read-only flag
+        JWorldWrapper jww = new JWorldWrapper(ais);
+        double[] f0 = jww.extractF0(true);
+        int nb_bins = jww.getFFTSize() / 2 + 1;
+        DoubleBuffer matrix = ByteBuffer.allocateDirect(f0.length * nb_bins * Double.BYTES)
+            .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        try {
+            jww.extractSP(matrix.asReadOnlyBuffer());
+            Assert.fail("A read-only spectrum buffer should be rejected");
+        } catch (IllegalArgumentException ex) {
+        }
+        try {
+            jww.extractAP(matrix.asReadOnlyBuffer());
+            Assert.fail("A read-only aperiodicity buffer should be rejected");
+        } catch (IllegalArgumentException ex) {
+        }
+        jww.extractSP(matrix);
+        jww.clean();
+
+        // The synthesis rejects a read-only output and an aperiodicity of another shape
+        Synthesizer synthesizer = new Synthesizer(jww.getSampleRate(), jww.getFramePeriod());
+        DoubleBuffer f0_direct = ByteBuffer.allocateDirect(f0.length * Double.BYTES)
+            .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        f0_direct.put(f0).flip();
+        DoubleBuffer y = ByteBuffer.allocateDirect(synthesizer.getSynthesisLength(f0.length) * Double.BYTES)
+            .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        try {
+            synthesizer.renderSignal(f0_direct, matrix, matrix.duplicate(), y.asReadOnlyBuffer());
+            Assert.fail("A read-only signal buffer should be rejected");
+        } catch (IllegalArgumentException ex) {
+        }
+        DoubleBuffer short_ap = matrix.duplicate();
+        short_ap.limit(short_ap.limit() - 1);
+        try {
+            synthesizer.renderSignal(f0_direct, matrix, short_ap, y);
+            Assert.fail("An aperiodicity smaller than the spectrum should be rejected");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void extractSpectrogram() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        AudioInputStream ais = AudioSystem.getAudioInputStream(url);
+
+        // Extract spectrum both as a matrix and as a two dimensional array
+        JWorldWrapper jww = new JWorldWrapper(ais);
+        double[] f0 = jww.extractF0(true);
+        Spectrogram sp = jww.extractSpectrogram();
+        double[][] sp_array = jww.extractSP();
+        jww.clean();
+
+        // Assert !
+        Assert.assertEquals(sp.getNbFrames(), f0.length);
+        Assert.assertEquals(sp.getNbBins(), sp_array[0].length);
+        for (int t=0; t<f0.length; t++) {
+            DoubleBuffer frame = sp.getFrame(t);
+            Assert.assertEquals(frame.remaining(), sp.getNbBins());
+            for (int i=0; i<sp.getNbBins(); i++) {
+                Assert.assertEquals(frame.get(i), sp_array[t][i], 0.0);
+            }
+        }
+
+        double[] bin = sp.getBin(10);
+        for (int t=0; t<f0.length; t++)
+            Assert.assertEquals(bin[t], sp_array[t][10], 0.0);
+    }
+
+    @Test
+    public void analyze() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        AudioInputStream ais = AudioSystem.getAudioInputStream(url);
+
+        // Combined analysis and step by step extraction
+        JWorldWrapper jww = new JWorldWrapper(ais);
+        WorldAnalysis analysis = jww.analyze();
+        double[] f0 = jww.extractF0(true);
+        double[][] sp = jww.extractSP();
+        double[][] ap = jww.extractAP();
+        jww.clean();
+
+        // Assert !
+        Assert.assertEquals(analysis.getNbFrames(), f0.length);
+        Assert.assertSame(analysis.getSpectrogram(), analysis.getSpectrogram());
+        for (int t=0; t<f0.length; t++) {
+            Assert.assertEquals(analysis.getF0()[t], f0[t], 0.0);
+            for (int i=0; i<sp[t].length; i++) {
+                Assert.assertEquals(analysis.getSpectrogram().get(t, i), sp[t][i], 0.0);
+                Assert.assertEquals(analysis.getAperiodicity().get(t, i), ap[t][i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void concurrentAnalysis() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        AudioInputStream ais = AudioSystem.getAudioInputStream(url);
+
+        // Reference extraction
+        JWorldWrapper jww = new JWorldWrapper(ais);
+        double[] f0 = jww.extractF0(true);
+        double[][] sp = jww.extractSP();
+        double[][] ap = jww.extractAP();
+        jww.clean();
+
+        // Share one analyzer between several threads, half of the analyses running both stages concurrently
+        final Analyzer analyzer = new Analyzer(jww.getConfig());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<WorldAnalysis>> results = new ArrayList<Future<WorldAnalysis>>();
+        for (int i=0; i<8; i++) {
+            final int index = i;
+            results.add(executor.submit(new Callable<WorldAnalysis>() {
+                    public WorldAnalysis call() throws Exception {
+                        AudioInputStream ais = AudioSystem.getAudioInputStream(JWorldTest.class.getResource("/vaiueo2d.wav"));
+                        WorldAnalysis analysis = analyzer.analyze(ais);
+                        if (index % 2 == 0)
+                            return analysis.computeAll();
+                        analysis.getSpectrogram();
+                        analysis.getAperiodicity();
+                        return analysis;
+                    }
+                }));
+        }
+        executor.shutdown();
+
+        // Assert !
+        for (Future<WorldAnalysis> result: results) {
+            WorldAnalysis analysis = result.get();
+            Assert.assertEquals(analysis.getNbFrames(), f0.length);
+            for (int t=0; t<f0.length; t++) {
+                Assert.assertEquals(analysis.getF0()[t], f0[t], 0.0);
+                for (int i=0; i<sp[t].length; i++) {
+                    Assert.assertEquals(analysis.getSpectrogram().get(t, i), sp[t][i], 0.0);
+                    Assert.assertEquals(analysis.getAperiodicity().get(t, i), ap[t][i], 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelAnalysis() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        AudioInputStream ais = AudioSystem.getAudioInputStream(url);
+
+        // Reference extraction in one native call
+        JWorldWrapper jww = new JWorldWrapper(ais);
+        double[] f0 = jww.extractF0(true);
+        double[][] sp = jww.extractSP();
+        double[][] ap = jww.extractAP();
+
+        // Chunked extraction, each frame reseeding the safeguard noise so the results are identical
+        jww.setChunkSize(17);
+        double[][] sp_par = jww.extractSP();
+        double[][] ap_par = jww.extractAP();
+        jww.clean();
+        WorldAnalysis analysis = new Analyzer(jww.getConfig()).analyze(AudioSystem.getAudioInputStream(url));
+
+        // Assert !
+        for (int t=0; t<f0.length; t++) {
+            for (int i=0; i<sp[t].length; i++) {
+                Assert.assertEquals(sp_par[t][i], sp[t][i], 0.0);
+                Assert.assertEquals(ap_par[t][i], ap[t][i], 0.0);
+                Assert.assertEquals(analysis.getSpectrogram().get(t, i), sp[t][i], 0.0);
+                Assert.assertEquals(analysis.getAperiodicity().get(t, i), ap[t][i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void computeAll() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+
+        // Sequential and concurrent extraction of the spectrum and aperiodicity, the safeguard noise
+        // of World being drawn from a thread-local generator reseeded at each frame
+        Analyzer analyzer = new Analyzer();
+        WorldAnalysis sequential = analyzer.analyze(AudioSystem.getAudioInputStream(url));
+        WorldAnalysis concurrent = analyzer.analyze(AudioSystem.getAudioInputStream(url)).computeAll();
+
+        // Assert !
+        Spectrogram sp = sequential.getSpectrogram();
+        Spectrogram ap = sequential.getAperiodicity();
+        for (int t=0; t<sp.getNbFrames(); t++) {
+            for (int i=0; i<sp.getNbBins(); i++) {
+                Assert.assertEquals(concurrent.getSpectrogram().get(t, i), sp.get(t, i), 0.0);
+                Assert.assertEquals(concurrent.getAperiodicity().get(t, i), ap.get(t, i), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void boundedExecutor() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        WorldAnalysis reference = new Analyzer().analyze(AudioSystem.getAudioInputStream(url)).computeAll();
+
+        // The analyses run in the executor running their stages and chunks, one and two threads
+        for (int nb_threads=1; nb_threads<=2; nb_threads++) {
+            ExecutorService executor = Executors.newFixedThreadPool(nb_threads);
+            try {
+                final Analyzer analyzer = new Analyzer(new WorldConfig().withChunkSize(16), executor);
+                List<Future<WorldAnalysis>> results = new ArrayList<Future<WorldAnalysis>>();
+                for (int i=0; i<nb_threads; i++) {
+                    results.add(executor.submit(new Callable<WorldAnalysis>() {
+                            public WorldAnalysis call() throws Exception {
+                                return analyzer.analyze(AudioSystem.getAudioInputStream(JWorldTest.class.getResource("/vaiueo2d.wav"))).computeAll();
+                            }
+                        }));
+                }
+
+                // Assert !
+                for (Future<WorldAnalysis> result: results) {
+                    WorldAnalysis analysis = result.get(120, TimeUnit.SECONDS);
+                    Assert.assertEquals(analysis.getNbFrames(), reference.getNbFrames());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
     @Test
     public void testSynthesis() throws Exception {
         //  - F0
@@ -225,4 +517,767 @@ public class JWorldTest {
             Assert.assertEquals(ref_short[s], rend_short[s], 0);
         }
     }
+
+    @Test
+    public void concurrentSynthesis() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        final WorldAnalysis analysis = new Analyzer().analyze(AudioSystem.getAudioInputStream(url)).computeAll();
+        final Synthesizer synthesizer = new Synthesizer(analysis.getSampleRate(), analysis.getFramePeriod());
+        double[] reference = synthesizer.renderSignal(analysis.getF0(), analysis.getSpectrogram(), analysis.getAperiodicity());
+
+        // Syntheses running along with other syntheses and analyses drawing from World's generator
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+        for (int i=0; i<8; i++) {
+            results.add(executor.submit(new Callable<double[]>() {
+                    public double[] call() throws Exception {
+                        new Analyzer().analyze(AudioSystem.getAudioInputStream(JWorldTest.class.getResource("/vaiueo2d.wav"))).computeAll();
+                        return synthesizer.renderSignal(analysis.getF0(), analysis.getSpectrogram(), analysis.getAperiodicity());
+                    }
+                }));
+        }
+        executor.shutdown();
+
+        // Assert ! (the noise excitation is the one of a sequential synthesis)
+        for (Future<double[]> result: results) {
+            double[] y = result.get();
+            Assert.assertEquals(y.length, reference.length);
+            for (int i=0; i<y.length; i++)
+                Assert.assertEquals(y[i], reference[i], 0.0);
+        }
+    }
+
+    @Test
+    public void streamingSynthesis() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        WorldAnalysis analysis = new Analyzer().analyze(AudioSystem.getAudioInputStream(url));
+        double[] f0 = analysis.getF0();
+        Spectrogram sp = analysis.getSpectrogram();
+        Spectrogram ap = analysis.getAperiodicity();
+
+        // Push the frames one by one and pull the available blocks
+        int nb_samples = 0;
+        try (StreamingSynthesizer synth = new StreamingSynthesizer(analysis.getSampleRate(),
+                                                                   analysis.getFramePeriod(),
+                                                                   analysis.getFFTSize())) {
+            double[] block = new double[synth.getBufferSize()];
+            int n;
+            for (int t=0; t<f0.length; t++) {
+                Spectrogram sp_t = new Spectrogram(1, sp.getNbBins());
+                Spectrogram ap_t = new Spectrogram(1, ap.getNbBins());
+                sp.getFrame(t).get(sp_t.getData());
+                ap.getFrame(t).get(ap_t.getData());
+                while (!synth.offer(new double[] {f0[t]}, sp_t, ap_t)) {
+                    while ((n = synth.read(block)) > 0)
+                        nb_samples += n;
+                }
+                while ((n = synth.read(block)) > 0) {
+                    for (int i=0; i<n; i++)
+                        Assert.assertFalse(Double.isNaN(block[i]) || Double.isInfinite(block[i]));
+                    nb_samples += n;
+                }
+            }
+
+            // Flush the end of the signal
+            synth.finish();
+            while ((n = synth.read(block)) > 0)
+                nb_samples += n;
+        }
+
+        // Same length as the offline synthesis
+        Synthesizer offline = new Synthesizer(analysis.getSampleRate(), analysis.getFramePeriod());
+        Assert.assertEquals(nb_samples, offline.getSynthesisLength(f0.length));
+    }
+
+    @Test
+    public void streamingAnalysis() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+
+        // Whole file analysis
+        Analyzer analyzer = new Analyzer();
+        final WorldAnalysis reference = analyzer.analyze(AudioSystem.getAudioInputStream(url));
+
+        // Block analysis (0.2s blocks with 0.3s context), DIO filtering and fixing the F0 contour on
+        // each window: the F0 deviates by less than 1 Hz and the other features follow it
+        final int[] nb_checked = new int[] {0};
+        StreamingAnalyzer streaming = new StreamingAnalyzer(analyzer, 0.2, 0.3);
+        int nb_frames = streaming.analyze(AudioSystem.getAudioInputStream(url), new StreamingAnalyzer.Listener() {
+                public void frames(int first_frame, double[] f0, Spectrogram sp, Spectrogram ap) {
+                    Assert.assertEquals(first_frame, nb_checked[0]);
+                    for (int t=0; t<f0.length; t++) {
+                        Assert.assertEquals(f0[t], reference.getF0()[first_frame+t], 1.0);
+                        for (int i=0; i<sp.getNbBins(); i++) {
+                            Assert.assertEquals(sp.get(t, i), reference.getSpectrogram().get(first_frame+t, i), 0.001);
+                            Assert.assertEquals(ap.get(t, i), reference.getAperiodicity().get(first_frame+t, i), 0.001);
+                        }
+                    }
+                    nb_checked[0] += f0.length;
+                }
+            });
+
+        // Assert !
+        Assert.assertEquals(nb_frames, reference.getNbFrames());
+        Assert.assertEquals(nb_checked[0], reference.getNbFrames());
+    }
+
+    @Test
+    public void harvest() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        WorldConfig config = new WorldConfig().withF0Estimator(F0Estimator.HARVEST);
+
+        // Single call and parallel segments of 0.1s
+        WorldAnalysis single = new Analyzer(config).analyze(AudioSystem.getAudioInputStream(url));
+        WorldAnalysis segmented = new Analyzer(config.withF0SegmentSize(20)).analyze(AudioSystem.getAudioInputStream(url));
+        WorldAnalysis dio = new Analyzer().analyze(AudioSystem.getAudioInputStream(url));
+
+        // Assert !
+        double[] f0 = single.getF0();
+        double[] segmented_f0 = segmented.getF0();
+        Assert.assertEquals(f0.length, dio.getNbFrames());
+        Assert.assertEquals(segmented_f0.length, f0.length);
+        for (int t=0; t<f0.length; t++) {
+            Assert.assertEquals(segmented_f0[t], f0[t], 1.0);
+            Assert.assertEquals(segmented.getTimeAxis()[t], single.getTimeAxis()[t], 0.0);
+        }
+    }
+
+    @Test
+    public void nativeMemory() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        long allocated = NativeMemory.getAllocated();
+        long held = NativeMemory.getHeld();
+
+        // Extracting the F0 twice releases the first cached F0, closing releases everything
+        try (JWorldWrapper jww = new JWorldWrapper(AudioSystem.getAudioInputStream(url))) {
+            long signal_bytes = NativeMemory.getHeld() - held;
+            Assert.assertTrue(signal_bytes > 0);
+            double[] f0 = jww.extractF0(true);
+            f0 = jww.extractF0(true);
+            Assert.assertEquals(NativeMemory.getHeld() - held, signal_bytes + 16L * f0.length);
+            jww.extractSpectrogram();
+            jww.extractF0(false);
+            Assert.assertEquals(NativeMemory.getHeld() - held, signal_bytes);
+        }
+        Assert.assertEquals(NativeMemory.getAllocated(), allocated);
+        Assert.assertEquals(NativeMemory.getHeld(), held);
+
+        // The chunks queued in a streaming synthesizer are held until they are released
+        WorldAnalysis analysis = new Analyzer().analyze(AudioSystem.getAudioInputStream(url));
+        int nb_bins = analysis.getFFTSize() / 2 + 1;
+        try (StreamingSynthesizer streaming = new StreamingSynthesizer(analysis.getSampleRate(), analysis.getFramePeriod(),
+                                                                       analysis.getFFTSize())) {
+            long queued = NativeMemory.getHeld();
+            Spectrogram sp = new Spectrogram(Arrays.copyOf(analysis.getSpectrogram().getData(), 10 * nb_bins), 10, nb_bins);
+            Spectrogram ap = new Spectrogram(Arrays.copyOf(analysis.getAperiodicity().getData(), 10 * nb_bins), 10, nb_bins);
+            Assert.assertTrue(streaming.offer(Arrays.copyOf(analysis.getF0(), 10), sp, ap));
+            Assert.assertEquals(NativeMemory.getHeld() - queued, 8L * (10 + 2 * (10 * nb_bins + 10)));
+        }
+        Assert.assertEquals(NativeMemory.getHeld(), held);
+
+        // With a budget smaller than one request, the requests are admitted one at a time
+        final Analyzer analyzer = new Analyzer();
+        long budget = NativeMemory.getBudget();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            NativeMemory.setBudget(1024);
+            List<Future<WorldAnalysis>> results = new ArrayList<Future<WorldAnalysis>>();
+            for (int i=0; i<4; i++) {
+                results.add(executor.submit(new Callable<WorldAnalysis>() {
+                        public WorldAnalysis call() throws Exception {
+                            return analyzer.analyze(AudioSystem.getAudioInputStream(JWorldTest.class.getResource("/vaiueo2d.wav"))).computeAll();
+                        }
+                    }));
+            }
+            for (Future<WorldAnalysis> result: results)
+                Assert.assertTrue(result.get().getNbFrames() > 0);
+        } finally {
+            NativeMemory.setBudget(budget);
+            executor.shutdown();
+        }
+
+        // Assert !
+        Assert.assertEquals(NativeMemory.getReserved(), 0);
+        Assert.assertEquals(NativeMemory.getAllocated(), allocated);
+    }
+
+    @Test
+    public void pooledSynthesis() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        WorldAnalysis analysis = new Analyzer().analyze(AudioSystem.getAudioInputStream(url));
+        long held = NativeMemory.getHeld();
+
+        try (NativeBufferPool pool = new NativeBufferPool()) {
+            Synthesizer synthesizer = new Synthesizer(analysis.getSampleRate(), analysis.getFramePeriod(), pool);
+            double[] first = synthesizer.renderSignal(analysis.getF0(), analysis.getSpectrogram(), analysis.getAperiodicity());
+            long misses = pool.getMisses();
+
+            // The idle arrays stay in the native memory budget
+            Assert.assertTrue(pool.getIdleBytes() > 0);
+            Assert.assertEquals(NativeMemory.getHeld() - held, pool.getIdleBytes());
+
+            // The second call reuses the arrays of the first one
+            double[] second = synthesizer.renderSignal(analysis.getF0(), analysis.getSpectrogram(), analysis.getAperiodicity());
+            Assert.assertEquals(pool.getMisses(), misses);
+            Assert.assertEquals(pool.getHits(), misses);
+            Assert.assertEquals(second.length, first.length);
+            for (int i=0; i<first.length; i++)
+                Assert.assertEquals(second[i], first[i], 0.0);
+        }
+        Assert.assertEquals(NativeMemory.getHeld(), held);
+        Assert.assertEquals(NativeMemory.getReserved(), 0);
+    }
+
+    @Test
+    public void codec() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        WorldAnalysis analysis = new Analyzer().analyze(AudioSystem.getAudioInputStream(url));
+        int nb_frames = analysis.getF0().length;
+
+        // Coded natively, without the full resolution matrices
+        Spectrogram coded_sp = analysis.computeCodedSpectralEnvelope(40);
+        Spectrogram coded_ap = analysis.computeCodedAperiodicity();
+        Assert.assertEquals(coded_sp.getNbFrames(), nb_frames);
+        Assert.assertEquals(coded_sp.getNbBins(), 40);
+        Assert.assertEquals(coded_ap.getNbFrames(), nb_frames);
+        Assert.assertEquals(coded_ap.getNbBins(), Codec.getNumberOfAperiodicities(analysis.getSampleRate()));
+
+        // Coding the java matrices gives the same result
+        Spectrogram expected = Codec.codeSpectralEnvelope(analysis.getSpectrogram(), analysis.getSampleRate(), 40);
+        for (int i=0; i<expected.getData().length; i++)
+            Assert.assertEquals(coded_sp.getData()[i], expected.getData()[i], 1e-9);
+
+        int fft_size = analysis.getSpectrogram().getFFTSize();
+        Synthesizer synthesizer = new Synthesizer(analysis.getSampleRate(), analysis.getFramePeriod());
+        double[] y = synthesizer.renderCodedSignal(analysis.getF0(), coded_sp, coded_ap, fft_size);
+        Assert.assertEquals(y.length, synthesizer.getSynthesisLength(nb_frames));
+        for (int i=0; i<y.length; i++)
+            Assert.assertFalse(Double.isNaN(y[i]) || Double.isInfinite(y[i]));
+    }
+
+    @Test
+    public void featureFile() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        WorldAnalysis analysis = new Analyzer().analyze(AudioSystem.getAudioInputStream(url));
+        int nb_frames = analysis.getNbFrames();
+
+        File file = File.createTempFile("jworld", ".feat");
+        file.deleteOnExit();
+        FeatureFile.write(file.toPath(), analysis);
+
+        // Header
+        FeatureFile features = FeatureFile.open(file.toPath());
+        Assert.assertEquals(features.getVersion(), FeatureFile.VERSION);
+        Assert.assertEquals(features.getSampleRate(), analysis.getSampleRate());
+        Assert.assertEquals(features.getFramePeriod(), analysis.getFramePeriod(), 0.0);
+        Assert.assertEquals(features.getFFTSize(), analysis.getFFTSize());
+        Assert.assertEquals(features.getNbFrames(), nb_frames);
+        Assert.assertTrue(features.isFullResolution());
+
+        // Random access to a frame range
+        int first = nb_frames / 3, length = nb_frames / 4;
+        double[] f0 = features.readF0(first, length);
+        Spectrogram sp = features.readSpectrogram(first, length);
+        Spectrogram ap = features.readAperiodicity(first, length);
+        for (int t=0; t<length; t++) {
+            Assert.assertEquals(f0[t], analysis.getF0()[first + t], 0.0);
+            for (int i=0; i<sp.getNbBins(); i++) {
+                Assert.assertEquals(sp.get(t, i), analysis.getSpectrogram().get(first + t, i), 0.0);
+                Assert.assertEquals(ap.get(t, i), analysis.getAperiodicity().get(first + t, i), 0.0);
+            }
+        }
+
+        // Synthesis from the mapped memory
+        Synthesizer synthesizer = new Synthesizer(analysis.getSampleRate(), analysis.getFramePeriod());
+        double[] expected = synthesizer.renderSignal(f0, sp, ap);
+        DoubleBuffer y = ByteBuffer.allocateDirect(8 * expected.length).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        Assert.assertEquals(features.render(synthesizer, first, length, y), expected.length);
+        for (int i=0; i<expected.length; i++)
+            Assert.assertEquals(y.get(i), expected[i], 0.0);
+    }
+
+    @Test
+    public void rewriteMappedFeatures() throws Exception {
+        int nb_frames = 100, nb_bins = 513;
+        double[] f0 = new double[nb_frames];
+        double[] values = new double[nb_frames * nb_bins];
+        for (int t=0; t<nb_frames; t++)
+            f0[t] = 100.0 + t;
+        for (int i=0; i<values.length; i++)
+            values[i] = i + 1.0;
+        Spectrogram sp = new Spectrogram(values, nb_frames, nb_bins);
+
+        final File file = File.createTempFile("jworld", ".feat");
+        file.deleteOnExit();
+        FeatureFile.write(file.toPath(), 16000, 5.0, 1024, f0, sp, sp);
+        FeatureFile features = FeatureFile.open(file.toPath());
+        DoubleBuffer mapped = features.getSpectrogram(0, nb_frames);
+
+        // Replacing the file by a shorter one does not touch the file mapped by the open instance
+        Spectrogram frame = new Spectrogram(Arrays.copyOf(values, nb_bins), 1, nb_bins);
+        FeatureFile.write(file.toPath(), 16000, 5.0, 1024, Arrays.copyOf(f0, 1), frame, frame);
+        for (int i=0; i<values.length; i++)
+            Assert.assertEquals(mapped.get(i), values[i], 0.0);
+        Assert.assertEquals(features.readF0(nb_frames - 1, 1)[0], f0[nb_frames - 1], 0.0);
+        Assert.assertEquals(FeatureFile.open(file.toPath()).getNbFrames(), 1);
+
+        // No temporary file is left behind
+        String[] temporaries = file.getParentFile().list((directory, name) -> name.startsWith(file.getName()) && name.endsWith(".tmp"));
+        Assert.assertEquals(temporaries.length, 0);
+    }
+
+    @Test
+    public void quantizedFeatures() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        WorldAnalysis analysis = new Analyzer().analyze(AudioSystem.getAudioInputStream(url));
+        Spectrogram sp = analysis.getSpectrogram();
+        int nb_frames = analysis.getNbFrames();
+
+        File file = File.createTempFile("jworld", ".feat");
+        file.deleteOnExit();
+        long previous_size = Long.MAX_VALUE;
+        for (FeatureEncoding encoding: FeatureEncoding.values()) {
+            FeatureFile.write(file.toPath(), analysis, encoding);
+            Assert.assertTrue(file.length() < previous_size, encoding + " should be smaller than the previous encoding");
+            previous_size = file.length();
+
+            // Frame range decoded from the file
+            FeatureFile features = FeatureFile.open(file.toPath());
+            Assert.assertEquals(features.getEncoding(), encoding);
+            int first = nb_frames / 3, length = nb_frames / 2;
+            checkEncodingError(encoding, sp, first, features.readSpectrogram(first, length));
+
+            // Streaming round trip
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (FeatureOutputStream out = new FeatureOutputStream(bytes, encoding, sp.getNbBins())) {
+                out.write(sp);
+            }
+            try (FeatureInputStream in = new FeatureInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                Spectrogram decoded = in.readAll();
+                Assert.assertEquals(decoded.getNbFrames(), nb_frames);
+                checkEncodingError(encoding, sp, 0, decoded);
+            }
+        }
+    }
+
+    /**
+     *  Check that the decoded values respect the documented error of an encoding
+     */
+    private static void checkEncodingError(FeatureEncoding encoding, Spectrogram expected, int first, Spectrogram decoded) {
+        for (int t=0; t<decoded.getNbFrames(); t++) {
+            for (int i=0; i<decoded.getNbBins(); i++) {
+                double log = Math.log(Math.max(expected.get(first + t, i), FeatureEncoding.LOG_FLOOR));
+                double error = Math.abs(Math.log(decoded.get(t, i)) - log);
+                switch (encoding) {
+                case FLOAT64:
+                    Assert.assertEquals(error, 0.0, 0.0);
+                    break;
+                case FLOAT32:
+                    Assert.assertTrue(error <= 0x1p-24 + 1e-12, "FLOAT32 error " + error);
+                    break;
+                case FLOAT16:
+                    Assert.assertTrue(error <= Math.abs(log) * 0x1p-11 + 1e-9, "FLOAT16 error " + error);
+                    break;
+                default:
+                    Assert.assertTrue(error <= FeatureEncoding.LOG_STEP / 2 + 1e-9, "LOG_DELTA error " + error);
+                    break;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void analysisCache() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        File directory = File.createTempFile("jworld", ".cache");
+        directory.delete();
+        WorldAnalysis reference = new Analyzer().analyze(AudioSystem.getAudioInputStream(url)).computeAll();
+
+        // A miss then a memory hit
+        AnalysisCache cache = new AnalysisCache(64L << 20, directory.toPath(), 64L << 20);
+        Analyzer analyzer = new Analyzer(new WorldConfig(), ForkJoinPool.commonPool(), null, cache);
+        WorldAnalysis missed = analyzer.analyze(AudioSystem.getAudioInputStream(url));
+        WorldAnalysis cached = analyzer.analyze(AudioSystem.getAudioInputStream(url));
+        Assert.assertEquals(cache.getMisses(), 1);
+        Assert.assertEquals(cache.getMemoryHits(), 1);
+        checkSameAnalysis(cached, reference);
+
+        // Modifying the returned analyses does not change the cached one
+        missed.getSpectrogram().getData()[0] += 1.0;
+        cached.getSpectrogram().getData()[0] += 1.0;
+        cached.getAperiodicity().getData()[0] += 1.0;
+
+        // A disk hit from another cache on the same directory
+        AnalysisCache other = new AnalysisCache(64L << 20, directory.toPath(), 64L << 20);
+        cached = new Analyzer(new WorldConfig(), ForkJoinPool.commonPool(), null, other).analyze(AudioSystem.getAudioInputStream(url));
+        Assert.assertEquals(other.getDiskHits(), 1);
+        checkSameAnalysis(cached, reference);
+
+        // Another configuration is another analysis, but not another chunk size
+        analyzer = new Analyzer(new WorldConfig().withQ1(-0.1), ForkJoinPool.commonPool(), null, cache);
+        analyzer.analyze(AudioSystem.getAudioInputStream(url));
+        Assert.assertEquals(cache.getMisses(), 2);
+        analyzer = new Analyzer(new WorldConfig().withChunkSize(16), ForkJoinPool.commonPool(), null, cache);
+        cached = analyzer.analyze(AudioSystem.getAudioInputStream(url));
+        Assert.assertEquals(cache.getMemoryHits(), 2);
+        checkSameAnalysis(cached, reference);
+
+        // The memory tier is bounded
+        AnalysisCache small = new AnalysisCache(1024);
+        new Analyzer(new WorldConfig(), ForkJoinPool.commonPool(), null, small).analyze(AudioSystem.getAudioInputStream(url));
+        Assert.assertEquals(small.getMemorySize(), 0);
+
+        for (File file: directory.listFiles())
+            file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        final AtomicLongArray events = new AtomicLongArray(Metrics.Stage.values().length);
+        Metrics.Listener listener = (stage, nanos, nb_frames, nb_bytes) -> events.incrementAndGet(stage.ordinal());
+
+        // A whole analysis/synthesis, recorded
+        double[] f0;
+        Metrics.reset();
+        Metrics.addListener(listener);
+        Metrics.setEnabled(true);
+        try {
+            JWorldWrapper jww = new JWorldWrapper(AudioSystem.getAudioInputStream(url));
+            f0 = jww.extractF0(true);
+            Spectrogram sp = jww.extractSpectrogram();
+            Spectrogram ap = jww.extractAperiodicity();
+            new Synthesizer(jww.getSampleRate(), jww.getFramePeriod()).synthesis(f0, sp, ap, false);
+            jww.close();
+        } finally {
+            Metrics.setEnabled(false);
+            Metrics.removeListener(listener);
+        }
+
+        for (Metrics.Stage stage: Metrics.Stage.values()) {
+            if ((stage == Metrics.Stage.HARVEST) || (stage == Metrics.Stage.RESAMPLE))
+                continue;
+            Assert.assertTrue(Metrics.getCount(stage) > 0, stage + " is not recorded");
+            Assert.assertEquals(events.get(stage.ordinal()), Metrics.getCount(stage));
+        }
+        Assert.assertEquals(Metrics.getFrames(Metrics.Stage.DIO), f0.length);
+        Assert.assertEquals(Metrics.getFrames(Metrics.Stage.CHEAPTRICK), f0.length);
+        Assert.assertEquals(Metrics.getFrames(Metrics.Stage.SYNTHESIS), f0.length);
+        Assert.assertTrue(Metrics.getBytes(Metrics.Stage.COPY_OUT) >= 8L * f0.length);
+
+        // Nothing is recorded once disabled
+        long nb_runs = Metrics.getCount(Metrics.Stage.DIO);
+        JWorldWrapper jww = new JWorldWrapper(AudioSystem.getAudioInputStream(url));
+        jww.extractF0(false);
+        jww.close();
+        Assert.assertEquals(Metrics.getCount(Metrics.Stage.DIO), nb_runs);
+
+        // The MBean
+        Metrics.registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.MBEAN_NAME);
+        Assert.assertEquals(server.getAttribute(name, "Enabled"), Boolean.FALSE);
+        Assert.assertTrue(server.getAttribute(name, "NativeAllocated") instanceof Long);
+        server.invoke(name, "reset", null, null);
+        Assert.assertEquals(Metrics.getCount(Metrics.Stage.DIO), 0);
+        Metrics.unregisterMBean();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void pcmFormats() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        double[] x = PCM.read(AudioSystem.getAudioInputStream(url), PCM.DOWNMIX);
+        int sample_rate = (int) AudioSystem.getAudioInputStream(url).getFormat().getSampleRate();
+
+        // Round trips, the error being bounded by the resolution of each format
+        AudioFormat[] formats = {new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, sample_rate, 8, 1, 1, sample_rate, false),
+                                 new AudioFormat(sample_rate, 16, 2, true, true),
+                                 new AudioFormat(sample_rate, 24, 2, true, false),
+                                 new AudioFormat(sample_rate, 32, 1, true, true),
+                                 new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sample_rate, 32, 2, 8, sample_rate, false)};
+        double[] tolerances = {1.0 / 127, 1.0 / 32767, 1.0 / 8388607, 1e-9, 1e-7};
+        for (int f=0; f<formats.length; f++) {
+            for (int channel = PCM.DOWNMIX; channel < formats[f].getChannels(); channel++) {
+                double[] y = PCM.read(PCM.toAudioInputStream(x, formats[f], false), channel);
+                Assert.assertEquals(y.length, x.length);
+                for (int i=0; i<x.length; i++)
+                    Assert.assertEquals(y[i], x[i], tolerances[f], formats[f] + ", channel " + channel);
+            }
+        }
+
+        // The 16-bit little endian mono path is unchanged
+        byte[] bytes = ByteStreams.toByteArray(PCM.toAudioInputStream(x, PCM.getDefaultFormat(sample_rate), false));
+        double[] y = new double[x.length];
+        PCM.decode(ByteBuffer.wrap(bytes), PCM.getDefaultFormat(sample_rate), PCM.DOWNMIX, y, 0, x.length);
+        for (int i=0; i<x.length; i++)
+            Assert.assertEquals(y[i], x[i], 0.0);
+
+        // A stereo analysis of a channel matches the mono one
+        AudioFormat stereo = new AudioFormat(sample_rate, 16, 2, true, true);
+        WorldAnalysis reference = new Analyzer().analyze(x, sample_rate);
+        WorldAnalysis analysis = new Analyzer().analyze(PCM.toAudioInputStream(x, stereo, false), 1);
+        Assert.assertEquals(analysis.getNbFrames(), reference.getNbFrames());
+        for (int t=0; t<reference.getNbFrames(); t++)
+            Assert.assertEquals(analysis.getF0()[t], reference.getF0()[t], 0.0);
+
+        // Float output of the synthesis
+        AudioFormat float_format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sample_rate, 32, 1, 4, sample_rate, false);
+        Synthesizer synthesizer = new Synthesizer(sample_rate, reference.getFramePeriod());
+        AudioInputStream ais = synthesizer.synthesis(reference.getF0(), reference.getSpectrogram(), reference.getAperiodicity(), float_format);
+        double[] rendered = synthesizer.renderSignal(reference.getF0(), reference.getSpectrogram(), reference.getAperiodicity());
+        Assert.assertEquals(ais.getFrameLength(), rendered.length);
+        y = PCM.read(ais, 0);
+        for (int i=0; i<rendered.length; i++)
+            Assert.assertEquals(y[i], rendered[i], 1e-6);
+
+        try {
+            PCM.read(PCM.toAudioInputStream(x, stereo, false), 2);
+            Assert.fail("The channel 2 of a stereo stream should be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void resampling() throws Exception {
+        // A tone below the Nyquist frequencies, resampled at once and by chunks
+        double[] x = new double[48000];
+        for (int i=0; i<x.length; i++)
+            x[i] = Math.sin(2 * Math.PI * 1000 * i / 48000.0);
+        double[] y = Resampler.resample(x, 48000, 16000);
+        Assert.assertEquals(y.length, 16000);
+        for (int i=100; i<y.length-100; i++)
+            Assert.assertEquals(y[i], Math.sin(2 * Math.PI * 1000 * i / 16000.0), 1e-4);
+
+        Resampler resampler = new Resampler(48000, 16000);
+        double[] chunked = new double[0];
+        for (int start=0; start<=x.length; start+=1000) {
+            double[] chunk = (start < x.length) ? resampler.process(x, start, Math.min(1000, x.length - start)) : resampler.flush();
+            int length = chunked.length;
+            chunked = Arrays.copyOf(chunked, length + chunk.length);
+            System.arraycopy(chunk, 0, chunked, length, chunk.length);
+        }
+        Assert.assertEquals(chunked.length, y.length);
+        for (int i=0; i<y.length; i++)
+            Assert.assertEquals(chunked[i], y[i], 0.0);
+
+        // The analysis of an upsampled recording at the original rate
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        int sample_rate = (int) AudioSystem.getAudioInputStream(url).getFormat().getSampleRate();
+        double[] signal = PCM.read(AudioSystem.getAudioInputStream(url), PCM.DOWNMIX);
+        AudioFormat high = new AudioFormat(48000, 24, 1, true, false);
+        AudioInputStream ais = PCM.toAudioInputStream(Resampler.resample(signal, sample_rate, 48000), high, false);
+        WorldAnalysis reference = new Analyzer().analyze(signal, sample_rate);
+        WorldAnalysis analysis = new Analyzer().analyze(ais, PCM.DOWNMIX, sample_rate);
+        Assert.assertEquals(analysis.getNbFrames(), reference.getNbFrames());
+        int nb_voiced = 0;
+        int nb_close = 0;
+        for (int t=0; t<reference.getNbFrames(); t++) {
+            if ((reference.getF0()[t] > 0) && (analysis.getF0()[t] > 0)) {
+                nb_voiced++;
+                if (Math.abs(analysis.getF0()[t] - reference.getF0()[t]) < 0.01 * reference.getF0()[t])
+                    nb_close++;
+            }
+        }
+        Assert.assertTrue(nb_close >= 0.9 * nb_voiced, nb_close + " close F0 values out of " + nb_voiced);
+
+        // The synthesis at a higher rate
+        Synthesizer synthesizer = new Synthesizer(sample_rate, reference.getFramePeriod());
+        int nb_samples = synthesizer.getSynthesisLength(reference.getNbFrames());
+        ais = synthesizer.synthesis(reference.getF0(), reference.getSpectrogram(), reference.getAperiodicity(), high);
+        Assert.assertEquals(ais.getFrameLength(), new Resampler(sample_rate, 48000).getOutputLength(nb_samples));
+    }
+
+    @Test
+    public void float32Mode() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        JWorldWrapper jww = new JWorldWrapper(AudioSystem.getAudioInputStream(url));
+        double[] f0 = jww.extractF0(true);
+        Spectrogram sp = jww.extractSpectrogram();
+        Spectrogram ap = jww.extractAperiodicity();
+
+        // The native conversion rounds to the nearest float
+        FloatSpectrogram sp32 = jww.extractFloatSpectrogram();
+        FloatSpectrogram ap32 = jww.extractFloatAperiodicity();
+        Assert.assertEquals(sp32.getNbFrames(), sp.getNbFrames());
+        Assert.assertEquals(sp32.getNbBins(), sp.getNbBins());
+        for (int i=0; i<sp.getData().length; i++) {
+            Assert.assertEquals(sp32.getData()[i], (float) sp.getData()[i], 0.0);
+            Assert.assertEquals(ap32.getData()[i], (float) ap.getData()[i], 0.0);
+        }
+
+        // The reference spectrum is matched as closely as in double precision
+        byte[] bytes = ByteStreams.toByteArray(JWorldTest.class.getResourceAsStream("/test.sp"));
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        byteBuffer.getInt(); byteBuffer.getDouble();
+        DoubleBuffer sp_ref = byteBuffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        Assert.assertEquals(sp_ref.remaining(), sp32.getData().length);
+        for (int i=0; i<sp32.getData().length; i++)
+            Assert.assertEquals(sp32.getData()[i], sp_ref.get(i), 0.001);
+
+        // The same through the stateless analysis
+        WorldAnalysis analysis = new Analyzer().analyze(AudioSystem.getAudioInputStream(url));
+        FloatSpectrogram analysis_sp32 = analysis.computeFloatSpectrogram();
+        for (int i=0; i<sp.getData().length; i++)
+            Assert.assertEquals(analysis_sp32.getData()[i], sp32.getData()[i], 0.0);
+
+        // The synthesis from the float32 parameters is within 60dB of the double one
+        float[] f0_32 = new float[f0.length];
+        for (int t=0; t<f0.length; t++)
+            f0_32[t] = (float) f0[t];
+        Synthesizer synthesizer = new Synthesizer(jww.getSampleRate(), jww.getFramePeriod());
+        double[] y = synthesizer.renderSignal(f0, sp, ap);
+        float[] y32 = synthesizer.renderSignal(f0_32, sp32, ap32);
+        Assert.assertEquals(y32.length, y.length);
+        double signal = 0;
+        double noise = 0;
+        for (int i=0; i<y.length; i++) {
+            signal += y[i] * y[i];
+            noise += (y32[i] - y[i]) * (y32[i] - y[i]);
+        }
+        Assert.assertTrue(10 * Math.log10(signal / noise) > 60, "SNR of " + 10 * Math.log10(signal / noise) + "dB");
+        jww.close();
+    }
+
+    @Test
+    public void foreignBackend() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        double[] x = PCM.read(AudioSystem.getAudioInputStream(url), 0);
+        int sample_rate = (int) AudioSystem.getAudioInputStream(url).getFormat().getSampleRate();
+        WorldConfig config = new WorldConfig();
+        ForeignWorld foreign = new ForeignWorld(config);
+        if (!ForeignWorld.isAvailable()) {
+            try {
+                foreign.computeF0(x, sample_rate);
+                Assert.fail("The foreign function backend should not be available before Java 22");
+            } catch (UnsupportedOperationException ex) {
+                // expected
+            }
+            return;
+        }
+
+        // Same native code, same results as the swig binding
+        WorldAnalysis reference = new Analyzer(config).analyze(x, sample_rate);
+        double[] f0 = foreign.computeF0(x, sample_rate);
+        Assert.assertEquals(f0.length, reference.getF0().length);
+        for (int t=0; t<f0.length; t++)
+            Assert.assertEquals(f0[t], reference.getF0()[t], 0.0);
+
+        Spectrogram sp = foreign.computeSpectrogram(x, sample_rate, f0);
+        Spectrogram ap = foreign.computeAperiodicity(x, sample_rate, f0);
+        Spectrogram sp_ref = reference.getSpectrogram();
+        Spectrogram ap_ref = reference.getAperiodicity();
+        Assert.assertEquals(sp.getNbBins(), sp_ref.getNbBins());
+        for (int i=0; i<sp.getData().length; i++) {
+            Assert.assertEquals(sp.getData()[i], sp_ref.getData()[i], 1e-9 * Math.abs(sp_ref.getData()[i]));
+            Assert.assertEquals(ap.getData()[i], ap_ref.getData()[i], 1e-9);
+        }
+
+        double[] y = foreign.synthesis(f0, sp_ref, ap_ref, sample_rate);
+        double[] y_ref = new Synthesizer(sample_rate, config.getFramePeriod()).renderSignal(f0, sp_ref, ap_ref);
+        Assert.assertEquals(y.length, y_ref.length);
+        for (int i=0; i<y.length; i++)
+            Assert.assertEquals(y[i], y_ref[i], 0.0);
+    }
+
+    @Test
+    public void javaSynthesisEngine() throws Exception {
+        URL url = JWorldTest.class.getResource("/vaiueo2d.wav");
+        WorldAnalysis analysis = new Analyzer().analyze(AudioSystem.getAudioInputStream(url));
+        double[] f0 = analysis.getF0();
+        Spectrogram sp = analysis.getSpectrogram();
+        Spectrogram ap = analysis.getAperiodicity();
+
+        Synthesizer native_synthesizer = new Synthesizer(analysis.getSampleRate(), analysis.getFramePeriod());
+        Synthesizer java_synthesizer = new Synthesizer(analysis.getSampleRate(), analysis.getFramePeriod(), SynthesisEngine.JAVA);
+        Assert.assertEquals(java_synthesizer.getEngine(), SynthesisEngine.JAVA);
+        double[] y_ref = native_synthesizer.renderSignal(f0, sp, ap);
+        double[] y = java_synthesizer.renderSignal(f0, sp, ap);
+
+        // Same algorithm, only the rounding errors of the FFT differ
+        Assert.assertEquals(y.length, y_ref.length);
+        double signal = 0;
+        double noise = 0;
+        for (int i=0; i<y.length; i++) {
+            signal += y_ref[i] * y_ref[i];
+            noise += (y[i] - y_ref[i]) * (y[i] - y_ref[i]);
+        }
+        Assert.assertTrue(10 * Math.log10(signal / noise) > 40, "SNR of " + 10 * Math.log10(signal / noise) + "dB");
+
+        // The java engine is deterministic, also when it reuses the work arrays of the previous call
+        double[] y_again = java_synthesizer.renderSignal(f0, sp, ap);
+        for (int i=0; i<y.length; i++)
+            Assert.assertEquals(y_again[i], y[i], 0.0);
+    }
+
+    @Test
+    public void libraryExtraction() throws Exception {
+        File cache = File.createTempFile("jworld", ".lib");
+        cache.delete();
+
+        // A first JVM extracts the library of the jar into <cache>/<sha>/native/<variant>/
+        Assert.assertEquals(loadLibraryInChildJVM(cache), 0);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(cache.toPath())) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        Assert.assertEquals(files.size(), 1, "Files in the cache: " + files);
+        Path library = files.get(0);
+        Assert.assertEquals(library.getFileName().toString(), System.mapLibraryName("world"));
+        Assert.assertEquals(library.getParent().getParent().getFileName().toString(), "native");
+        Assert.assertEquals(library.getParent().getParent().getParent().getParent(), cache.toPath());
+
+        // A second JVM loads the same copy without extracting it again
+        FileTime modified = FileTime.fromMillis(1000000000000L);
+        Files.setLastModifiedTime(library, modified);
+        Assert.assertEquals(loadLibraryInChildJVM(cache), 0);
+        try (Stream<Path> walk = Files.walk(cache.toPath())) {
+            Assert.assertEquals(walk.filter(Files::isRegularFile).collect(Collectors.toList()), files);
+        }
+        Assert.assertEquals(Files.getLastModifiedTime(library), modified);
+
+        try (Stream<Path> walk = Files.walk(cache.toPath())) {
+            for (Path path: walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(path);
+        }
+    }
+
+    /**
+     *  Load the World library of the jar in another JVM (see {@link LibraryLoading})
+     *
+     *  @param cache the directory where the library is extracted
+     *  @return the exit code of the JVM
+     */
+    private static int loadLibraryInChildJVM(File cache) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                             "-Djworld.library.system=false",
+                                             "-Djworld.library.cache=" + cache.getAbsolutePath(),
+                                             LibraryLoading.class.getName())
+            .inheritIO()
+            .start();
+        return process.waitFor();
+    }
+
+    /**
+     *  The main class of the JVM loading the library in {@link #libraryExtraction()}
+     */
+    public static class LibraryLoading {
+        public static void main(String[] args) {
+            System.exit((Codec.getNumberOfAperiodicities(16000) > 0) ? 0 : 1);
+        }
+    }
+
+    private static void checkSameAnalysis(WorldAnalysis analysis, WorldAnalysis reference) {
+        Assert.assertEquals(analysis.getNbFrames(), reference.getNbFrames());
+        for (int t=0; t<reference.getNbFrames(); t++) {
+            Assert.assertEquals(analysis.getF0()[t], reference.getF0()[t], 0.0);
+            Assert.assertEquals(analysis.getTimeAxis()[t], reference.getTimeAxis()[t], 1e-12);
+        }
+        for (int i=0; i<reference.getSpectrogram().getData().length; i++) {
+            Assert.assertEquals(analysis.getSpectrogram().getData()[i], reference.getSpectrogram().getData()[i], 0.0);
+            Assert.assertEquals(analysis.getAperiodicity().getData()[i], reference.getAperiodicity().getData()[i], 0.0);
+        }
+    }
 }
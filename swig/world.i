@@ -1,13 +1,152 @@
+// Load the native library as soon as the JNI class is used
+%pragma(java) jniclasscode=%{
+  static {
+    WorldLibrary.load();
+  }
+%}
+
 %include carrays.i
 %array_functions( double, double_array );
 %array_functions( double*, double_p_array );
 
+//-----------------------------------------------------------------------------
+// Bulk copy helpers: move a whole range between a java double[] and a native
+// array in one JNI call instead of one getitem/setitem call per value
+//-----------------------------------------------------------------------------
+%typemap(in, numinputs=0) JNIEnv *jenv "$1 = jenv;"
+%typemap(jni) jdoubleArray "jdoubleArray"
+%typemap(jtype) jdoubleArray "double[]"
+%typemap(jstype) jdoubleArray "double[]"
+%typemap(javain) jdoubleArray "$javainput"
+%typemap(in) jdoubleArray "$1 = $input;"
+
+%inline %{
+void double_array_getrange(JNIEnv *jenv, const double *src, int src_offset,
+                           jdoubleArray dst, int dst_offset, int length) {
+  jenv->SetDoubleArrayRegion(dst, dst_offset, length, src + src_offset);
+}
+
+void double_array_setrange(JNIEnv *jenv, double *dst, int dst_offset,
+                           jdoubleArray src, int src_offset, int length) {
+  jenv->GetDoubleArrayRegion(src, src_offset, length, dst + dst_offset);
+}
+%}
+
+//-----------------------------------------------------------------------------
+// Float32 helpers: convert a range between a java float[] and a native double
+// array in place, the java array being pinned during the conversion (the java
+// side converts by blocks to keep the pinning short)
+//-----------------------------------------------------------------------------
+%typemap(jni) jfloatArray "jfloatArray"
+%typemap(jtype) jfloatArray "float[]"
+%typemap(jstype) jfloatArray "float[]"
+%typemap(javain) jfloatArray "$javainput"
+%typemap(in) jfloatArray "$1 = $input;"
+
+%inline %{
+void double_array_getfloats(JNIEnv *jenv, const double *src, int src_offset,
+                            jfloatArray dst, int dst_offset, int length) {
+  float *values = (float *) jenv->GetPrimitiveArrayCritical(dst, NULL);
+  if (values == NULL)
+    return;
+  for (int i = 0; i < length; i++)
+    values[dst_offset + i] = (float) src[src_offset + i];
+  jenv->ReleasePrimitiveArrayCritical(dst, values, 0);
+}
+
+void double_array_setfloats(JNIEnv *jenv, double *dst, int dst_offset,
+                            jfloatArray src, int src_offset, int length) {
+  float *values = (float *) jenv->GetPrimitiveArrayCritical(src, NULL);
+  if (values == NULL)
+    return;
+  for (int i = 0; i < length; i++)
+    dst[dst_offset + i] = values[src_offset + i];
+  jenv->ReleasePrimitiveArrayCritical(src, values, JNI_ABORT);
+}
+%}
+
+//-----------------------------------------------------------------------------
+// Direct buffer helpers: expose the memory of a direct java.nio.DoubleBuffer
+// (or a row-major matrix stored in it) to World without any copy. The returned
+// pointers are not owned and must not be deleted with delete_double_array.
+//-----------------------------------------------------------------------------
+%typemap(jni) jobject buffer "jobject"
+%typemap(jtype) jobject buffer "java.nio.DoubleBuffer"
+%typemap(jstype) jobject buffer "java.nio.DoubleBuffer"
+%typemap(javain) jobject buffer "$javainput"
+%typemap(in) jobject buffer "$1 = $input;"
+
+%inline %{
+double *double_buffer_address(JNIEnv *jenv, jobject buffer) {
+  return (double *) jenv->GetDirectBufferAddress(buffer);
+}
+
+double *double_array_offset(double *array, int offset) {
+  return array + offset;
+}
+
+double **double_p_array_offset(double **array, int offset) {
+  return array + offset;
+}
+
+// Point the first nb_rows entries of an existing row table to the rows of data
+void double_matrix_fill_rows(double **rows, double *data, int nb_rows, int nb_cols) {
+  for (int t = 0; t < nb_rows; t++)
+    rows[t] = data + (size_t) t * nb_cols;
+}
+%}
+
 %{
+#include "world/codec.h"
 #include "world/d4c.h"
 #include "world/dio.h"
+#include "world/harvest.h"
 #include "world/cheaptrick.h"
 #include "world/synthesis.h"
 #include "world/stonemask.h"
+#include "world/synthesisrealtime.h"
+#include "world/matlabfunctions.h"
+%}
+
+//-----------------------------------------------------------------------------
+// Noise generator: randn() draws from a thread-local state (see
+// src/main/cpp/randn.cpp), which can be saved and restored around the native
+// calls of an object spanning several of them (the real-time synthesizer)
+//-----------------------------------------------------------------------------
+%{
+#include <stdint.h>
+
+extern "C" void jworld_randn_save(uint32_t *state);
+extern "C" void jworld_randn_restore(const uint32_t *state);
+%}
+
+void randn_reseed();
+
+%inline %{
+// Allocate a saved state holding the seed of World
+uint32_t *new_randn_state() {
+  uint32_t current[4];
+  uint32_t *state = new uint32_t[4];
+  jworld_randn_save(current);
+  randn_reseed();
+  jworld_randn_save(state);
+  jworld_randn_restore(current);
+  return state;
+}
+
+void delete_randn_state(uint32_t *state) {
+  delete[] state;
+}
+
+// Make a saved state the one of the calling thread
+void randn_state_load(const uint32_t *state) {
+  jworld_randn_restore(state);
+}
+
+// Save the state of the calling thread
+void randn_state_store(uint32_t *state) {
+  jworld_randn_save(state);
+}
 %}
 
 
@@ -40,6 +179,19 @@ void Dio(const double *x, int x_length, int fs, const DioOption *option,
          double *temporal_positions, double *f0);
 int GetSamplesForDIO(int fs, int x_length, double frame_period);
 
+//-----------------------------------------------------------------------------
+// Harvest
+//-----------------------------------------------------------------------------
+typedef struct {
+  double f0_floor;
+  double f0_ceil;
+  double frame_period;  // msec
+} HarvestOption;
+
+void InitializeHarvestOption(HarvestOption *option);
+void Harvest(const double *x, int x_length, int fs, const HarvestOption *option,
+             double *temporal_positions, double *f0);
+int GetSamplesForHarvest(int fs, int x_length, double frame_period);
 
 //-----------------------------------------------------------------------------
 // StoneMask
@@ -63,9 +215,70 @@ void CheapTrick(const double *x, int x_length, int fs,
 void InitializeCheapTrickOption(int fs, CheapTrickOption *option);
 int GetFFTSizeForCheapTrick(int fs, const CheapTrickOption *option);
 
+//-----------------------------------------------------------------------------
+// Frame by frame CheapTrick and D4C: both stages reseed the safeguard noise at
+// each call, so running them on one frame at a time makes each frame
+// independent from the frames computed before it, and the chunked, single and
+// concurrent computations give exactly the same results
+//-----------------------------------------------------------------------------
+%inline %{
+void CheapTrickFrames(const double *x, int x_length, int fs,
+    const double *temporal_positions, const double *f0, int f0_length,
+    const CheapTrickOption *option, double **spectrogram) {
+  for (int i = 0; i < f0_length; i++)
+    CheapTrick(x, x_length, fs, temporal_positions + i, f0 + i, 1, option, spectrogram + i);
+}
+
+void D4CFrames(const double *x, int x_length, int fs,
+    const double *temporal_positions, const double *f0, int f0_length,
+    int fft_size, const D4COption *option, double **aperiodicity) {
+  for (int i = 0; i < f0_length; i++)
+    D4C(x, x_length, fs, temporal_positions + i, f0 + i, 1, fft_size, option, aperiodicity + i);
+}
+%}
+
 //-----------------------------------------------------------------------------
 // Synthesis
 //-----------------------------------------------------------------------------
 void Synthesis(const double *f0, int f0_length,
                const double * const *spectrogram, const double * const *aperiodicity,
                int fft_size, double frame_period, int fs, int y_length, double *y);
+
+//-----------------------------------------------------------------------------
+// Codec
+//-----------------------------------------------------------------------------
+int GetNumberOfAperiodicities(int fs);
+void CodeAperiodicity(const double * const *aperiodicity, int f0_length,
+    int fs, int fft_size, double **coded_aperiodicity);
+void DecodeAperiodicity(const double * const *coded_aperiodicity,
+    int f0_length, int fs, int fft_size, double **aperiodicity);
+void CodeSpectralEnvelope(const double * const *spectrogram, int f0_length,
+    int fs, int fft_size, int number_of_dimensions,
+    double **coded_spectral_envelope);
+void DecodeSpectralEnvelope(const double * const *coded_spectral_envelope,
+    int f0_length, int fs, int fft_size, int number_of_dimensions,
+    double **spectrogram);
+
+//-----------------------------------------------------------------------------
+// Real-time synthesis (only the fields needed by the java side are exposed,
+// the structure is allocated with its complete definition)
+//-----------------------------------------------------------------------------
+%immutable;
+typedef struct {
+  int fs;
+  double frame_period;
+  int buffer_size;
+  int number_of_pointers;
+  int fft_size;
+  double *buffer;
+} WorldSynthesizer;
+%mutable;
+
+void InitializeSynthesizer(int fs, double frame_period, int fft_size,
+    int buffer_size, int number_of_pointers, WorldSynthesizer *synth);
+int AddParameters(double *f0, int f0_length, double **spectrogram,
+    double **aperiodicity, WorldSynthesizer *synth);
+void RefreshSynthesizer(WorldSynthesizer *synth);
+void DestroySynthesizer(WorldSynthesizer *synth);
+int IsLocked(WorldSynthesizer *synth);
+int Synthesis2(WorldSynthesizer *synth);